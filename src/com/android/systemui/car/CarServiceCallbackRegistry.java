@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.car;
+
+import android.car.Car;
+import android.car.hardware.property.CarPropertyManager;
+import android.car.media.CarAudioManager;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the property and volume callbacks of a component registered across car service restarts.
+ *
+ * Callbacks are registered once per car service connection, no matter how many times they are
+ * added: the registry remembers the callbacks it was asked to register and registers those that
+ * are missing with the managers of the current connection. The owner forwards the connection
+ * events of the {@link CarServiceProvider} to {@link #onConnected()} and
+ * {@link #onDisconnected()}.
+ *
+ * Not thread safe; only accessed on the thread the owner is notified of the connection on.
+ */
+public class CarServiceCallbackRegistry {
+    private static final String TAG = "CarServiceCallbackReg";
+
+    private final CarServiceProvider mCarServiceProvider;
+    private final List<PropertyRegistration> mPropertyRegistrations = new ArrayList<>();
+    private final List<VolumeRegistration> mVolumeRegistrations = new ArrayList<>();
+
+    private boolean mConnected;
+    private CarPropertyManager mCarPropertyManager;
+    private CarAudioManager mCarAudioManager;
+
+    /** A property callback and whether it is registered with the current connection. */
+    private static final class PropertyRegistration {
+        final CarPropertyManager.CarPropertyEventCallback mCallback;
+        final int mPropertyId;
+        final float mRate;
+        boolean mRegistered;
+
+        PropertyRegistration(CarPropertyManager.CarPropertyEventCallback callback,
+                int propertyId, float rate) {
+            mCallback = callback;
+            mPropertyId = propertyId;
+            mRate = rate;
+        }
+    }
+
+    /** A volume callback and whether it is registered with the current connection. */
+    private static final class VolumeRegistration {
+        final CarAudioManager.CarVolumeCallback mCallback;
+        boolean mRegistered;
+
+        VolumeRegistration(CarAudioManager.CarVolumeCallback callback) {
+            mCallback = callback;
+        }
+    }
+
+    public CarServiceCallbackRegistry(CarServiceProvider carServiceProvider) {
+        mCarServiceProvider = carServiceProvider;
+    }
+
+    /**
+     * Registers the given callback for the changes of the given property, now if connected and
+     * again after each reconnection. Registering the same (callback, property) pair twice has no
+     * effect.
+     */
+    public void registerPropertyCallback(CarPropertyManager.CarPropertyEventCallback callback,
+            int propertyId, float rate) {
+        for (int i = 0; i < mPropertyRegistrations.size(); i++) {
+            PropertyRegistration registration = mPropertyRegistrations.get(i);
+            if (registration.mCallback == callback && registration.mPropertyId == propertyId) {
+                return;
+            }
+        }
+        PropertyRegistration registration = new PropertyRegistration(callback, propertyId, rate);
+        mPropertyRegistrations.add(registration);
+        if (mConnected) {
+            register(registration);
+        }
+    }
+
+    /**
+     * Registers the given volume callback, now if connected and again after each reconnection.
+     * Registering the same callback twice has no effect.
+     */
+    public void registerVolumeCallback(CarAudioManager.CarVolumeCallback callback) {
+        for (int i = 0; i < mVolumeRegistrations.size(); i++) {
+            if (mVolumeRegistrations.get(i).mCallback == callback) {
+                return;
+            }
+        }
+        VolumeRegistration registration = new VolumeRegistration(callback);
+        mVolumeRegistrations.add(registration);
+        if (mConnected) {
+            register(registration);
+        }
+    }
+
+    /** Unregisters the given volume callback, which is no longer registered on reconnection. */
+    public void unregisterVolumeCallback(CarAudioManager.CarVolumeCallback callback) {
+        for (int i = mVolumeRegistrations.size() - 1; i >= 0; i--) {
+            VolumeRegistration registration = mVolumeRegistrations.get(i);
+            if (registration.mCallback != callback) {
+                continue;
+            }
+            mVolumeRegistrations.remove(i);
+            if (registration.mRegistered && mCarAudioManager != null) {
+                try {
+                    mCarAudioManager.unregisterCarVolumeCallback(callback);
+                } catch (Exception e) {
+                    Log.e(TAG, "Failed to unregister volume callback", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Registers the callbacks which are not registered with the current connection yet. Calling
+     * it again for the same connection has no effect.
+     */
+    public void onConnected() {
+        mConnected = true;
+        for (int i = 0; i < mPropertyRegistrations.size(); i++) {
+            register(mPropertyRegistrations.get(i));
+        }
+        for (int i = 0; i < mVolumeRegistrations.size(); i++) {
+            register(mVolumeRegistrations.get(i));
+        }
+    }
+
+    /**
+     * Forgets the managers of the lost connection. Their callbacks died with the car service, and
+     * are registered again with the managers of the next connection.
+     */
+    public void onDisconnected() {
+        mConnected = false;
+        mCarPropertyManager = null;
+        mCarAudioManager = null;
+        for (int i = 0; i < mPropertyRegistrations.size(); i++) {
+            mPropertyRegistrations.get(i).mRegistered = false;
+        }
+        for (int i = 0; i < mVolumeRegistrations.size(); i++) {
+            mVolumeRegistrations.get(i).mRegistered = false;
+        }
+    }
+
+    /** Returns the number of property and volume callbacks kept registered. */
+    public int getRegistrationCount() {
+        return mPropertyRegistrations.size() + mVolumeRegistrations.size();
+    }
+
+    /** Returns the number of callbacks registered with the current connection. */
+    public int getActiveRegistrationCount() {
+        int count = 0;
+        for (int i = 0; i < mPropertyRegistrations.size(); i++) {
+            if (mPropertyRegistrations.get(i).mRegistered) {
+                count++;
+            }
+        }
+        for (int i = 0; i < mVolumeRegistrations.size(); i++) {
+            if (mVolumeRegistrations.get(i).mRegistered) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void register(PropertyRegistration registration) {
+        if (registration.mRegistered) {
+            return;
+        }
+        if (mCarPropertyManager == null) {
+            mCarPropertyManager = (CarPropertyManager) mCarServiceProvider.getCarManager(
+                    Car.PROPERTY_SERVICE);
+            if (mCarPropertyManager == null) {
+                return;
+            }
+        }
+        try {
+            mCarPropertyManager.registerCallback(registration.mCallback,
+                    registration.mPropertyId, registration.mRate);
+            registration.mRegistered = true;
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to register callback of property " + registration.mPropertyId,
+                    e);
+        }
+    }
+
+    private void register(VolumeRegistration registration) {
+        if (registration.mRegistered) {
+            return;
+        }
+        if (mCarAudioManager == null) {
+            mCarAudioManager = (CarAudioManager) mCarServiceProvider.getCarManager(
+                    Car.AUDIO_SERVICE);
+            if (mCarAudioManager == null) {
+                return;
+            }
+        }
+        try {
+            mCarAudioManager.registerCarVolumeCallback(registration.mCallback);
+            registration.mRegistered = true;
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to register volume callback", e);
+        }
+    }
+}
@@ -16,47 +16,108 @@
 
 package com.android.systemui.car;
 
+import android.annotation.IntDef;
+import android.annotation.NonNull;
 import android.car.Car;
 import android.content.Context;
+import android.os.SystemClock;
+import android.util.ArrayMap;
+import android.util.Log;
 
 import androidx.annotation.VisibleForTesting;
 
+import com.android.systemui.Dumpable;
 import com.android.systemui.dagger.SysUISingleton;
+import com.android.systemui.dagger.qualifiers.UiBackground;
+import com.android.systemui.dump.DumpManager;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import javax.inject.Inject;
 
-/** Provides a common connection to the car service that can be shared. */
+/**
+ * Provides a common connection to the car service that can be shared.
+ *
+ * Car managers are cached, so that components share a single instance of each manager. Listeners
+ * are notified of the connection in order of their priority; background listeners are notified on
+ * the ui background executor so that they do not delay the others. The time each listener takes
+ * to handle the connection is reported in dumpsys.
+ *
+ * If the car service dies, the cached managers are dropped and the listeners are notified of the
+ * disconnection; they are notified of the connection again, with fresh managers, once the car
+ * service is back.
+ */
 @SysUISingleton
-public class CarServiceProvider {
+public class CarServiceProvider implements Dumpable {
+    private static final String TAG = "CarServiceProvider";
+
+    /** Notified first, e.g. listeners that need the car service to show their UI. */
+    public static final int PRIORITY_UI_CRITICAL = 0;
+    /** Notified after the UI critical listeners. */
+    public static final int PRIORITY_DEFAULT = 1;
+    /** Notified on the ui background executor, after the other listeners. */
+    public static final int PRIORITY_BACKGROUND = 2;
+
+    @IntDef({PRIORITY_UI_CRITICAL, PRIORITY_DEFAULT, PRIORITY_BACKGROUND})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Priority {}
 
     private final Context mContext;
-    private final List<CarServiceOnConnectedListener> mListeners = new ArrayList<>();
+    private final Executor mBackgroundExecutor;
+    // Sorted by priority, then by order of registration.
+    private final List<ListenerRecord> mListeners = new ArrayList<>();
+    // Guarded by itself.
+    private final ArrayMap<String, Object> mCarManagers = new ArrayMap<>();
+    private final long mCreatedUptimeMs = SystemClock.uptimeMillis();
+    private volatile long mConnectedUptimeMs;
+    private volatile int mDisconnectCount;
     private Car mCar;
 
+    /** A registered listener and the time it took to handle the last connection. */
+    private static final class ListenerRecord {
+        final CarServiceOnConnectedListener mListener;
+        @Priority
+        final int mPriority;
+        final String mName;
+        volatile long mLatencyMs = -1;
+        volatile long mFinishedUptimeMs;
+
+        ListenerRecord(CarServiceOnConnectedListener listener, @Priority int priority) {
+            mListener = listener;
+            mPriority = priority;
+            // Lambdas are reported under the class that declares them.
+            String name = listener.getClass().getName();
+            int lambdaIndex = name.indexOf("$$");
+            mName = lambdaIndex > 0 ? name.substring(0, lambdaIndex) : name;
+        }
+    }
+
     @Inject
-    public CarServiceProvider(Context context) {
+    public CarServiceProvider(Context context, @UiBackground Executor backgroundExecutor,
+            DumpManager dumpManager) {
         mContext = context;
+        mBackgroundExecutor = backgroundExecutor;
         mCar = Car.createCar(mContext, /* handler= */ null, Car.CAR_WAIT_TIMEOUT_DO_NOT_WAIT,
-                (car, ready) -> {
-                    mCar = car;
-
-                    synchronized (mListeners) {
-                        for (CarServiceOnConnectedListener listener : mListeners) {
-                            if (ready) {
-                                listener.onConnected(mCar);
-                            }
-                        }
-                    }
-                });
+                this::onCarServiceLifecycleChanged);
+        dumpManager.registerDumpable(TAG, this);
     }
 
     @VisibleForTesting
     public CarServiceProvider(Context context, Car car) {
+        this(context, car, Runnable::run);
+    }
+
+    @VisibleForTesting
+    public CarServiceProvider(Context context, Car car, Executor backgroundExecutor) {
         mContext = context;
         mCar = car;
+        mBackgroundExecutor = backgroundExecutor;
     }
 
     /**
@@ -64,17 +125,163 @@ public class CarServiceProvider {
      * connected to the car service, the callback is immediately triggered.
      */
     public void addListener(CarServiceOnConnectedListener listener) {
+        addListener(listener, PRIORITY_DEFAULT);
+    }
+
+    /**
+     * Same as {@link #addListener(CarServiceOnConnectedListener)}, with the given priority. A
+     * {@link #PRIORITY_BACKGROUND} listener is called on the ui background executor.
+     */
+    public void addListener(CarServiceOnConnectedListener listener, @Priority int priority) {
+        ListenerRecord record = new ListenerRecord(listener, priority);
         if (mCar.isConnected()) {
-            listener.onConnected(mCar);
+            if (mConnectedUptimeMs == 0) {
+                mConnectedUptimeMs = SystemClock.uptimeMillis();
+            }
+            dispatchConnected(record);
+        }
+        synchronized (mListeners) {
+            int index = mListeners.size();
+            while (index > 0 && mListeners.get(index - 1).mPriority > priority) {
+                index--;
+            }
+            mListeners.add(index, record);
         }
-        mListeners.add(listener);
     }
 
     /**
-     * Listener which is triggered when Car Service is connected.
+     * Returns the car manager of the given service, e.g. {@link Car#AUDIO_SERVICE}, or
+     * {@code null} if it is not available. Managers are created once per connection and shared.
+     */
+    public Object getCarManager(@NonNull String serviceName) {
+        synchronized (mCarManagers) {
+            int index = mCarManagers.indexOfKey(serviceName);
+            if (index >= 0) {
+                return mCarManagers.valueAt(index);
+            }
+            Object manager = mCar.getCarManager(serviceName);
+            if (manager != null) {
+                mCarManagers.put(serviceName, manager);
+            }
+            return manager;
+        }
+    }
+
+    @VisibleForTesting
+    public void onCarServiceLifecycleChanged(Car car, boolean ready) {
+        mCar = car;
+        if (!ready) {
+            onCarServiceDisconnected();
+            return;
+        }
+        mConnectedUptimeMs = SystemClock.uptimeMillis();
+        // Listeners added while this runs are notified by addListener, not by this loop.
+        List<ListenerRecord> listeners = getListenersSnapshot();
+        for (int i = 0; i < listeners.size(); i++) {
+            dispatchConnected(listeners.get(i));
+        }
+    }
+
+    private List<ListenerRecord> getListenersSnapshot() {
+        synchronized (mListeners) {
+            return new ArrayList<>(mListeners);
+        }
+    }
+
+    private void onCarServiceDisconnected() {
+        // Managers of the dead car service can't be used anymore.
+        synchronized (mCarManagers) {
+            mCarManagers.clear();
+        }
+        if (mConnectedUptimeMs == 0) {
+            // Never connected, e.g. the first connection attempt failed.
+            return;
+        }
+        mConnectedUptimeMs = 0;
+        mDisconnectCount++;
+        List<ListenerRecord> listeners = getListenersSnapshot();
+        for (int i = 0; i < listeners.size(); i++) {
+            ListenerRecord record = listeners.get(i);
+            if (record.mPriority == PRIORITY_BACKGROUND) {
+                mBackgroundExecutor.execute(() -> notifyDisconnected(record));
+            } else {
+                notifyDisconnected(record);
+            }
+        }
+    }
+
+    private void dispatchConnected(ListenerRecord record) {
+        if (record.mPriority == PRIORITY_BACKGROUND) {
+            mBackgroundExecutor.execute(() -> notifyConnected(record));
+        } else {
+            notifyConnected(record);
+        }
+    }
+
+    private void notifyConnected(ListenerRecord record) {
+        long start = SystemClock.uptimeMillis();
+        try {
+            record.mListener.onConnected(mCar);
+        } catch (Exception e) {
+            Log.e(TAG, "Failed handling car service connection in " + record.mName, e);
+        } finally {
+            record.mFinishedUptimeMs = SystemClock.uptimeMillis();
+            record.mLatencyMs = record.mFinishedUptimeMs - start;
+        }
+    }
+
+    private void notifyDisconnected(ListenerRecord record) {
+        try {
+            record.mListener.onDisconnected();
+        } catch (Exception e) {
+            Log.e(TAG, "Failed handling car service disconnection in " + record.mName, e);
+        }
+    }
+
+    @Override
+    public void dump(@NonNull FileDescriptor fd, @NonNull PrintWriter pw,
+            @NonNull String[] args) {
+        pw.println(TAG + ":");
+        long connectedUptimeMs = mConnectedUptimeMs;
+        if (connectedUptimeMs == 0) {
+            pw.println("  not connected");
+        } else {
+            pw.println("  connected " + (connectedUptimeMs - mCreatedUptimeMs)
+                    + "ms after creation");
+        }
+        pw.println("  disconnections=" + mDisconnectCount);
+        synchronized (mCarManagers) {
+            pw.println("  cached managers=" + mCarManagers.keySet());
+        }
+        pw.println("  listeners (priority, onConnected latency, finished after connection):");
+        synchronized (mListeners) {
+            for (int i = 0; i < mListeners.size(); i++) {
+                ListenerRecord record = mListeners.get(i);
+                pw.print("    " + record.mName + " priority=" + record.mPriority);
+                if (record.mLatencyMs < 0) {
+                    pw.println(" not notified");
+                } else {
+                    pw.println(" latency=" + record.mLatencyMs + "ms finishedAfter="
+                            + (record.mFinishedUptimeMs - connectedUptimeMs) + "ms");
+                }
+            }
+        }
+    }
+
+    /**
+     * Listener which is triggered when Car Service is connected, and when it is disconnected.
      */
     public interface CarServiceOnConnectedListener {
-        /** This will be called when the car service has successfully been connected. */
+        /**
+         * This will be called when the car service has successfully been connected, including
+         * after it restarted.
+         */
         void onConnected(Car car);
+
+        /**
+         * This will be called when the car service died. Managers and callbacks obtained from
+         * the previous connection must not be used anymore.
+         */
+        default void onDisconnected() {}
     }
 }
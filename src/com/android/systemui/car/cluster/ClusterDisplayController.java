@@ -81,7 +81,8 @@ public class ClusterDisplayController extends SystemUI {
             new CarServiceProvider.CarServiceOnConnectedListener() {
         @Override
         public void onConnected(Car car) {
-            mClusterHomeManager = (ClusterHomeManager) car.getCarManager(Car.CLUSTER_HOME_SERVICE);
+            mClusterHomeManager = (ClusterHomeManager) mCarServiceProvider.getCarManager(
+                    Car.CLUSTER_HOME_SERVICE);
             if (mClusterHomeManager == null) {
                 Slog.w(TAG, "ClusterHomeManager is disabled");
                 return;
@@ -18,7 +18,7 @@ package com.android.systemui.car.hvac;
 
 import static com.android.systemui.car.hvac.HvacController.convertToFahrenheit;
 
-import android.animation.ObjectAnimator;
+import android.animation.ValueAnimator;
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.res.TypedArray;
@@ -26,7 +26,6 @@ import android.graphics.Color;
 import android.graphics.Rect;
 import android.graphics.drawable.ColorDrawable;
 import android.util.AttributeSet;
-import android.util.Property;
 import android.view.Gravity;
 import android.view.View;
 import android.view.ViewGroup;
@@ -36,6 +35,8 @@ import android.widget.ImageView;
 import android.widget.TextSwitcher;
 import android.widget.TextView;
 
+import androidx.annotation.VisibleForTesting;
+
 import com.android.systemui.R;
 
 /**
@@ -48,19 +49,7 @@ import com.android.systemui.R;
 public class AnimatedTemperatureView extends FrameLayout implements TemperatureView {
 
     private static final float TEMPERATURE_EQUIVALENT_DELTA = .01f;
-    private static final Property<ColorDrawable, Integer> COLOR_PROPERTY =
-            new Property<ColorDrawable, Integer>(Integer.class, "color") {
-
-                @Override
-                public Integer get(ColorDrawable object) {
-                    return object.getColor();
-                }
-
-                @Override
-                public void set(ColorDrawable object, Integer value) {
-                    object.setColor(value);
-                }
-            };
+    private static final int COLOR_DURATION_MILLIS = 300;
 
     static boolean isHorizontal(int gravity) {
         return Gravity.isHorizontal(gravity)
@@ -93,13 +82,20 @@ public class AnimatedTemperatureView extends FrameLayout implements TemperatureV
     private final float mMaxValue;
 
     private final ColorDrawable mBackgroundColor;
+    private final ValueAnimator mColorAnimator = ValueAnimator.ofFloat(0f, 1f);
+    private int mColorFrom;
+    private int mColorTo;
 
-    private final TemperatureColorStore mColorStore = new TemperatureColorStore();
+    // Set once the view is registered with the HvacController.
+    private TemperatureColorStore mColorStore;
     private final TemperatureBackgroundAnimator mBackgroundAnimator;
     private final TemperatureTextAnimator mTextAnimator;
     boolean mDisplayInFahrenheit = false;
 
     private HvacController mHvacController;
+    private TemperatureAnimationScheduler mAnimationScheduler =
+            TemperatureAnimationScheduler.getInstance();
+    private float mPendingTemp = Float.NaN;
 
     public AnimatedTemperatureView(Context context, AttributeSet attrs) {
         super(context, attrs);
@@ -132,6 +128,9 @@ public class AnimatedTemperatureView extends FrameLayout implements TemperatureV
         mBackgroundColor = new ColorDrawable(Color.TRANSPARENT);
         background.setImageDrawable(mBackgroundColor);
         background.setVisibility(View.GONE);
+        mColorAnimator.setDuration(COLOR_DURATION_MILLIS);
+        mColorAnimator.addUpdateListener(animation -> mBackgroundColor.setColor(
+                mColorStore.lerpColor(animation.getAnimatedFraction(), mColorFrom, mColorTo)));
 
         mBackgroundAnimator = new TemperatureBackgroundAnimator(this, background);
 
@@ -181,20 +180,34 @@ public class AnimatedTemperatureView extends FrameLayout implements TemperatureV
     @Override
     public void setHvacController(HvacController controller) {
         mHvacController = controller;
+        mColorStore = controller.getColorStore();
     }
 
     /**
-     * Formats the float for display
+     * Formats the float for display. If the view is still animating the previous temperature, the
+     * new one is shown once the animation is done.
      *
      * @param temp - The current temp or NaN
      */
     @Override
     public void setTemp(float temp) {
+        mPendingTemp = temp;
+        mAnimationScheduler.schedule(this);
+    }
+
+    /** Returns whether a temperature change is being animated. */
+    boolean isAnimating() {
+        return mTextAnimator.isAnimating() || mColorAnimator.isRunning();
+    }
+
+    /** Shows the latest temperature passed to {@link #setTemp(float)}. */
+    void applyPendingTemp() {
+        float temp = mPendingTemp;
         if (mDisplayInFahrenheit) {
             temp = convertToFahrenheit(temp);
         }
         mTextAnimator.setTemp(temp);
-        if (Float.isNaN(temp)) {
+        if (Float.isNaN(temp) || mColorStore == null) {
             mBackgroundAnimator.hideCircle();
             return;
         }
@@ -207,12 +220,11 @@ public class AnimatedTemperatureView extends FrameLayout implements TemperatureV
             color = mColorStore.getColorForTemperature(temp);
         }
         if (mBackgroundAnimator.isOpen()) {
-            ObjectAnimator colorAnimator =
-                    ObjectAnimator.ofInt(mBackgroundColor, COLOR_PROPERTY, color);
-            colorAnimator.setEvaluator((fraction, startValue, endValue) -> mColorStore
-                    .lerpColor(fraction, (int) startValue, (int) endValue));
-            colorAnimator.start();
+            mColorFrom = mBackgroundColor.getColor();
+            mColorTo = color;
+            mColorAnimator.start();
         } else {
+            mColorAnimator.cancel();
             mBackgroundColor.setColor(color);
         }
 
@@ -256,9 +268,18 @@ public class AnimatedTemperatureView extends FrameLayout implements TemperatureV
         return mAreaId;
     }
 
+    @VisibleForTesting
+    void setAnimationScheduler(TemperatureAnimationScheduler animationScheduler) {
+        mAnimationScheduler = animationScheduler;
+    }
+
     @Override
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
+        if (mAnimationScheduler.cancel(this)) {
+            applyPendingTemp();
+        }
+        mColorAnimator.end();
         mBackgroundAnimator.stopAnimations();
     }
 }
@@ -20,24 +20,26 @@ import static android.car.VehicleAreaType.VEHICLE_AREA_TYPE_GLOBAL;
 import static android.car.VehiclePropertyIds.HVAC_TEMPERATURE_DISPLAY_UNITS;
 import static android.car.VehiclePropertyIds.HVAC_TEMPERATURE_SET;
 
-import android.car.Car;
 import android.car.VehicleUnit;
-import android.car.hardware.CarPropertyValue;
 import android.car.hardware.property.CarPropertyManager;
 import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+import android.view.Choreographer;
 import android.view.View;
 import android.view.ViewGroup;
 
-import com.android.systemui.car.CarServiceProvider;
+import androidx.annotation.VisibleForTesting;
+
 import com.android.systemui.dagger.SysUISingleton;
+import com.android.systemui.dagger.qualifiers.Main;
 import com.android.systemui.dagger.qualifiers.UiBackground;
 import com.android.systemui.statusbar.policy.ConfigurationController;
+import com.android.systemui.util.concurrency.DelayableExecutor;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Executor;
 
@@ -46,94 +48,94 @@ import javax.inject.Inject;
 /**
  * Manages the connection to the Car service and delegates value changes to the registered
  * {@link TemperatureView}s
+ *
+ * The temperature properties are bound, read and written through the shared
+ * {@link VehiclePropertyBinder}.
  */
 @SysUISingleton
 public class HvacController implements ConfigurationController.ConfigurationListener {
     public static final String TAG = "HvacController";
-    private static final boolean DEBUG = true;
+    private static final boolean DEBUG = false;
+
+    /** Delay after the last temperature change requested for a zone before it is written. */
+    @VisibleForTesting
+    static final long WRITE_DEBOUNCE_MS = 300;
+    /** Time given to the car service to report a written temperature before it is overridden. */
+    @VisibleForTesting
+    static final long TARGET_CONFIRMATION_TIMEOUT_MS = 2000;
 
     private final Executor mBackgroundExecutor;
-    private final CarServiceProvider mCarServiceProvider;
+    private final DelayableExecutor mMainExecutor;
+    private final VehiclePropertyBinder mPropertyBinder;
+    private final TemperatureColorStore mColorStore;
     private final Set<TemperatureView> mRegisteredViews = new HashSet<>();
+    private final TemperatureEventDispatcher mTemperatureDispatcher =
+            new TemperatureEventDispatcher(this::postFrameCallback);
+
+    // Cancels the pending write of the requested temperature of each zone, or once written, the
+    // timeout for the car service to confirm it.
+    private final SparseArray<Runnable> mPendingTargetCallbacks = new SparseArray<>();
+
+    // Views registered since the last initial state load was started.
+    private final List<TemperatureView> mViewsPendingInit = new ArrayList<>();
 
     private CarPropertyManager mCarPropertyManager;
-    private HashMap<Integer, List<TemperatureView>> mTempComponents = new HashMap<>();
-
-    private final CarPropertyManager.CarPropertyEventCallback mHvacTemperatureSetCallback =
-            new CarPropertyManager.CarPropertyEventCallback() {
-                @Override
-                public void onChangeEvent(CarPropertyValue value) {
-                    try {
-                        int areaId = value.getAreaId();
-                        List<TemperatureView> temperatureViews = mTempComponents.get(areaId);
-                        if (temperatureViews != null && !temperatureViews.isEmpty()) {
-                            float newTemp = (float) value.getValue();
-                            if (DEBUG) {
-                                Log.d(TAG, "onChangeEvent: " + areaId + ":" + value);
-                            }
-                            for (TemperatureView view : temperatureViews) {
-                                view.setTemp(newTemp);
-                            }
-                        }
-                    } catch (Exception e) {
-                        Log.e(TAG, "Failed handling hvac change event", e);
-                    }
-                }
+    private HvacInitialStateLoader mInitialStateLoader;
+    private boolean mInitialStateLoadScheduled;
+    private int mTemperatureWriteCount;
 
-                @Override
-                public void onErrorEvent(int propId, int zone) {
-                    Log.d(TAG, "HVAC error event, propertyId: " + propId + " zone: " + zone);
-                }
-            };
+    private final VehiclePropertyBinder.PropertyListener mHvacTemperatureSetListener =
+            value -> mTemperatureDispatcher.onTemperatureChanged(value.getAreaId(),
+                    (float) value.getValue());
 
-    private final CarPropertyManager.CarPropertyEventCallback mTemperatureUnitChangeCallback =
-            new CarPropertyManager.CarPropertyEventCallback() {
-                @Override
-                public void onChangeEvent(CarPropertyValue value) {
-                    if (!mRegisteredViews.isEmpty()) {
-                        for (TemperatureView view : mRegisteredViews) {
-                            view.setDisplayInFahrenheit(
-                                    value.getValue().equals(VehicleUnit.FAHRENHEIT));
-                        }
-                    }
+    private final VehiclePropertyBinder.PropertyListener mTemperatureUnitChangeListener =
+            value -> {
+                if (mInitialStateLoader != null) {
+                    mInitialStateLoader.setDisplayUnits((int) value.getValue());
                 }
-
-                @Override
-                public void onErrorEvent(int propId, int zone) {
-                    Log.d(TAG, "HVAC error event, propertyId: " + propId + " zone: " + zone);
+                if (!mRegisteredViews.isEmpty()) {
+                    for (TemperatureView view : mRegisteredViews) {
+                        view.setDisplayInFahrenheit(
+                                value.getValue().equals(VehicleUnit.FAHRENHEIT));
+                    }
                 }
             };
 
-    private final CarServiceProvider.CarServiceOnConnectedListener mCarServiceLifecycleListener =
-            car -> {
-                try {
-                    mCarPropertyManager = (CarPropertyManager) car.getCarManager(
-                            Car.PROPERTY_SERVICE);
-                    mCarPropertyManager.registerCallback(mHvacTemperatureSetCallback,
-                            HVAC_TEMPERATURE_SET, CarPropertyManager.SENSOR_RATE_ONCHANGE);
-                    mCarPropertyManager.registerCallback(mTemperatureUnitChangeCallback,
-                            HVAC_TEMPERATURE_DISPLAY_UNITS,
-                            CarPropertyManager.SENSOR_RATE_ONCHANGE);
-                    initComponents();
-                } catch (Exception e) {
-                    Log.e(TAG, "Failed to correctly connect to HVAC", e);
-                }
+    private final VehiclePropertyBinder.ConnectionListener mConnectionListener =
+            carPropertyManager -> {
+                mCarPropertyManager = carPropertyManager;
+                mInitialStateLoader = new HvacInitialStateLoader(carPropertyManager);
+                initComponents();
             };
 
     @Inject
-    public HvacController(CarServiceProvider carServiceProvider,
+    public HvacController(VehiclePropertyBinder propertyBinder,
             @UiBackground Executor backgroundExecutor,
-            ConfigurationController configurationController) {
-        mCarServiceProvider = carServiceProvider;
+            @Main DelayableExecutor mainExecutor,
+            ConfigurationController configurationController,
+            TemperatureColorStore colorStore) {
+        mPropertyBinder = propertyBinder;
         mBackgroundExecutor = backgroundExecutor;
+        mMainExecutor = mainExecutor;
+        mColorStore = colorStore;
         configurationController.addCallback(this);
     }
 
+    /** Returns the store mapping temperatures to colors, shared by the registered views. */
+    TemperatureColorStore getColorStore() {
+        return mColorStore;
+    }
+
     /**
      * Create connection to the Car service.
      */
     public void connectToCarService() {
-        mCarServiceProvider.addListener(mCarServiceLifecycleListener);
+        mPropertyBinder.bind(HVAC_TEMPERATURE_SET, VehiclePropertyBinder.ALL_AREAS,
+                mHvacTemperatureSetListener);
+        mPropertyBinder.bind(HVAC_TEMPERATURE_DISPLAY_UNITS, VEHICLE_AREA_TYPE_GLOBAL,
+                mTemperatureUnitChangeListener);
+        mPropertyBinder.addConnectionListener(mConnectionListener);
+        mPropertyBinder.connect();
     }
 
     /**
@@ -144,50 +146,77 @@ public class HvacController implements ConfigurationController.ConfigurationList
             return;
         }
 
-        int areaId = temperatureView.getAreaId();
-        if (!mTempComponents.containsKey(areaId)) {
-            mTempComponents.put(areaId, new ArrayList<>());
-        }
-        mTempComponents.get(areaId).add(temperatureView);
-        initComponent(temperatureView);
-
+        mTemperatureDispatcher.addView(temperatureView);
         mRegisteredViews.add(temperatureView);
+        if (mInitialStateLoader == null) {
+            mTemperatureDispatcher.initView(temperatureView, Float.NaN);
+            return;
+        }
+        mViewsPendingInit.add(temperatureView);
+        scheduleInitialStateLoad();
     }
 
     private void initComponents() {
-        for (Map.Entry<Integer, List<TemperatureView>> next : mTempComponents.entrySet()) {
-            List<TemperatureView> temperatureViews = next.getValue();
-            for (TemperatureView view : temperatureViews) {
-                initComponent(view);
-            }
+        mViewsPendingInit.clear();
+        mViewsPendingInit.addAll(mRegisteredViews);
+        scheduleInitialStateLoad();
+    }
+
+    /**
+     * Schedules the initial state of the views registered since the last load to be read. Views
+     * registered within the same main thread message, e.g. while a bar is being built, share a
+     * single load.
+     */
+    private void scheduleInitialStateLoad() {
+        if (!mInitialStateLoadScheduled) {
+            mInitialStateLoadScheduled = true;
+            mMainExecutor.execute(this::startInitialStateLoad);
         }
     }
 
-    private void initComponent(TemperatureView view) {
-        int zone = view.getAreaId();
+    private void startInitialStateLoad() {
+        mInitialStateLoadScheduled = false;
+        if (mViewsPendingInit.isEmpty() || mInitialStateLoader == null) {
+            return;
+        }
+        List<TemperatureView> views = new ArrayList<>(mViewsPendingInit);
+        mViewsPendingInit.clear();
+        SparseBooleanArray distinctAreaIds = new SparseBooleanArray();
+        for (int i = 0; i < views.size(); i++) {
+            distinctAreaIds.put(views.get(i).getAreaId(), true);
+        }
+        int[] areaIds = new int[distinctAreaIds.size()];
+        for (int i = 0; i < areaIds.length; i++) {
+            areaIds[i] = distinctAreaIds.keyAt(i);
+        }
         if (DEBUG) {
-            Log.d(TAG, "initComponent: " + zone);
+            Log.d(TAG, "Loading initial state of " + views.size() + " views in "
+                    + areaIds.length + " areas");
         }
 
-        try {
-            if (mCarPropertyManager != null && mCarPropertyManager.isPropertyAvailable(
-                    HVAC_TEMPERATURE_DISPLAY_UNITS, VEHICLE_AREA_TYPE_GLOBAL)) {
-                if (mCarPropertyManager.getIntProperty(HVAC_TEMPERATURE_DISPLAY_UNITS,
-                        VEHICLE_AREA_TYPE_GLOBAL) == VehicleUnit.FAHRENHEIT) {
-                    view.setDisplayInFahrenheit(true);
-                }
+        HvacInitialStateLoader loader = mInitialStateLoader;
+        mBackgroundExecutor.execute(() -> {
+            HvacInitialStateLoader.InitialState state = loader.load(areaIds);
+            mMainExecutor.execute(() -> publishInitialState(views, state));
+        });
+    }
+
+    private void publishInitialState(List<TemperatureView> views,
+            HvacInitialStateLoader.InitialState state) {
+        for (int i = 0; i < views.size(); i++) {
+            TemperatureView view = views.get(i);
+            // The view may have been removed while its state was loading.
+            if (!mRegisteredViews.contains(view)) {
+                continue;
             }
-            if (mCarPropertyManager == null || !mCarPropertyManager.isPropertyAvailable(
-                    HVAC_TEMPERATURE_SET, zone)) {
-                view.setTemp(Float.NaN);
-                return;
+            if (state.mDisplayInFahrenheit) {
+                view.setDisplayInFahrenheit(true);
+            }
+            int index = state.indexOf(view.getAreaId());
+            mTemperatureDispatcher.initView(view, state.mTemps[index]);
+            if (state.mAvailable[index]) {
+                view.setHvacController(this);
             }
-            view.setTemp(
-                    mCarPropertyManager.getFloatProperty(HVAC_TEMPERATURE_SET, zone));
-            view.setHvacController(this);
-        } catch (Exception e) {
-            view.setTemp(Float.NaN);
-            Log.e(TAG, "Failed to get value from hvac service", e);
         }
     }
 
@@ -196,7 +225,8 @@ public class HvacController implements ConfigurationController.ConfigurationList
      * components self register.
      */
     public void removeAllComponents() {
-        mTempComponents.clear();
+        mTemperatureDispatcher.clear();
+        mViewsPendingInit.clear();
         mRegisteredViews.clear();
     }
 
@@ -216,14 +246,71 @@ public class HvacController implements ConfigurationController.ConfigurationList
     }
 
     /**
-     * Set the temperature in Celsius of the specified zone
+     * Add the given {@link TemperatureView} instances to the controller. Used when the views have
+     * already been collected from a view tree.
+     */
+    public void addTemperatureViewsToController(List<TemperatureView> temperatureViews) {
+        for (int i = 0; i < temperatureViews.size(); i++) {
+            addHvacTextView(temperatureViews.get(i));
+        }
+    }
+
+    /**
+     * Set the temperature in Celsius of the specified zone.
+     *
+     * The requested temperature is shown right away. It is written to the car service once no
+     * further change has been requested for the zone within {@link #WRITE_DEBOUNCE_MS}, so that
+     * rapid adjustments result in a single write of the final value.
      */
     public void setTemperature(float tempC, int zone) {
-        if (mCarPropertyManager != null) {
-            // Internally, all temperatures are represented in floating point Celsius
-            mBackgroundExecutor.execute(
-                    () -> mCarPropertyManager.setFloatProperty(HVAC_TEMPERATURE_SET, zone, tempC));
+        if (mCarPropertyManager == null) {
+            return;
         }
+        cancelPendingTargetCallback(zone);
+        mTemperatureDispatcher.showTargetTemp(zone, tempC);
+        mPendingTargetCallbacks.put(zone, mMainExecutor.executeDelayed(
+                () -> writeTemperature(tempC, zone), WRITE_DEBOUNCE_MS));
+    }
+
+    private void writeTemperature(float tempC, int zone) {
+        mTemperatureWriteCount++;
+        // Internally, all temperatures are represented in floating point Celsius
+        mPropertyBinder.setFloatProperty(HVAC_TEMPERATURE_SET, zone, tempC);
+        mPendingTargetCallbacks.put(zone, mMainExecutor.executeDelayed(
+                () -> mTemperatureDispatcher.clearTargetTemp(zone),
+                TARGET_CONFIRMATION_TIMEOUT_MS));
+    }
+
+    private void cancelPendingTargetCallback(int zone) {
+        Runnable cancel = mPendingTargetCallbacks.get(zone);
+        if (cancel != null) {
+            cancel.run();
+            mPendingTargetCallbacks.remove(zone);
+        }
+    }
+
+    /** Returns the number of temperature change events received from the car service. */
+    public int getTemperatureEventCount() {
+        return mTemperatureDispatcher.getEventCount();
+    }
+
+    /**
+     * Returns the number of times the views of an area were updated following temperature change
+     * events. Events received within a frame, or that do not change the displayed temperature, do
+     * not cause an update of their own.
+     */
+    public int getTemperatureUiUpdateCount() {
+        return mTemperatureDispatcher.getUiUpdateCount();
+    }
+
+    /** Returns the number of temperature writes sent to the car service. */
+    public int getTemperatureWriteCount() {
+        return mTemperatureWriteCount;
+    }
+
+    @VisibleForTesting
+    void postFrameCallback(Choreographer.FrameCallback callback) {
+        Choreographer.getInstance().postFrameCallback(callback);
     }
 
     @Override
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.car.hvac;
+
+import static android.car.VehicleAreaType.VEHICLE_AREA_TYPE_GLOBAL;
+import static android.car.VehiclePropertyIds.HVAC_TEMPERATURE_DISPLAY_UNITS;
+import static android.car.VehiclePropertyIds.HVAC_TEMPERATURE_SET;
+
+import android.car.VehicleUnit;
+import android.car.hardware.property.CarPropertyManager;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+
+/**
+ * Reads the initial HVAC temperature state of a set of areas from the car service.
+ *
+ * One loader is created per car service connection. The availability of each (property, area)
+ * pair and the temperature display units are only queried once for the lifetime of the loader.
+ * Loads make blocking calls into the car service and must run on a background thread, one at a
+ * time.
+ */
+class HvacInitialStateLoader {
+    private static final String TAG = HvacController.TAG;
+
+    private static final int UNITS_UNKNOWN = 0;
+
+    private final CarPropertyManager mCarPropertyManager;
+    // Availability of each area, keyed by property.
+    private final SparseArray<SparseBooleanArray> mAvailability = new SparseArray<>();
+    private volatile int mDisplayUnits = UNITS_UNKNOWN;
+
+    /** The temperature state of a set of areas. */
+    static final class InitialState {
+        final boolean mDisplayInFahrenheit;
+        final int[] mAreaIds;
+        final float[] mTemps;
+        final boolean[] mAvailable;
+
+        InitialState(boolean displayInFahrenheit, int[] areaIds) {
+            mDisplayInFahrenheit = displayInFahrenheit;
+            mAreaIds = areaIds;
+            mTemps = new float[areaIds.length];
+            mAvailable = new boolean[areaIds.length];
+        }
+
+        /**
+         * Returns the index of the given area, or {@code -1} if it was not part of the load.
+         */
+        int indexOf(int areaId) {
+            for (int i = 0; i < mAreaIds.length; i++) {
+                if (mAreaIds[i] == areaId) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    HvacInitialStateLoader(CarPropertyManager carPropertyManager) {
+        mCarPropertyManager = carPropertyManager;
+    }
+
+    /**
+     * Loads the display units and the temperature of each of the given distinct areas. The
+     * temperature of an area that is unavailable or fails to load is {@link Float#NaN}.
+     */
+    InitialState load(int[] areaIds) {
+        InitialState state = new InitialState(isDisplayInFahrenheit(), areaIds);
+        for (int i = 0; i < areaIds.length; i++) {
+            state.mTemps[i] = Float.NaN;
+            try {
+                if (isPropertyAvailable(HVAC_TEMPERATURE_SET, areaIds[i])) {
+                    state.mTemps[i] = mCarPropertyManager.getFloatProperty(HVAC_TEMPERATURE_SET,
+                            areaIds[i]);
+                    state.mAvailable[i] = true;
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to get value from hvac service", e);
+            }
+        }
+        return state;
+    }
+
+    /** Updates the cached display units, e.g. after a change event. */
+    void setDisplayUnits(int displayUnits) {
+        mDisplayUnits = displayUnits;
+    }
+
+    private boolean isDisplayInFahrenheit() {
+        if (mDisplayUnits == UNITS_UNKNOWN) {
+            try {
+                if (isPropertyAvailable(HVAC_TEMPERATURE_DISPLAY_UNITS,
+                        VEHICLE_AREA_TYPE_GLOBAL)) {
+                    mDisplayUnits = mCarPropertyManager.getIntProperty(
+                            HVAC_TEMPERATURE_DISPLAY_UNITS, VEHICLE_AREA_TYPE_GLOBAL);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to get temperature display units from hvac service", e);
+            }
+        }
+        return mDisplayUnits == VehicleUnit.FAHRENHEIT;
+    }
+
+    private boolean isPropertyAvailable(int propertyId, int areaId) {
+        SparseBooleanArray availability = mAvailability.get(propertyId);
+        if (availability == null) {
+            availability = new SparseBooleanArray();
+            mAvailability.put(propertyId, availability);
+        }
+        int index = availability.indexOfKey(areaId);
+        if (index >= 0) {
+            return availability.valueAt(index);
+        }
+        boolean available = mCarPropertyManager.isPropertyAvailable(propertyId, areaId);
+        availability.put(areaId, available);
+        return available;
+    }
+}
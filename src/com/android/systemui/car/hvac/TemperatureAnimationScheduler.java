@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.car.hvac;
+
+import android.view.Choreographer;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Schedules the temperature animations of all {@link AnimatedTemperatureView}s.
+ *
+ * A view runs at most one temperature animation at a time. A temperature received while the
+ * view is animating is held back and applied once the running animation is done; only the latest
+ * of the values received in the meantime is applied, the intermediate ones are skipped. Views
+ * waiting for their animation to end are checked once per frame. Only accessed on the main
+ * thread.
+ */
+class TemperatureAnimationScheduler {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private static TemperatureAnimationScheduler sInstance;
+
+    private final Consumer<Choreographer.FrameCallback> mFrameScheduler;
+    private final Choreographer.FrameCallback mFrameCallback = frameTimeNanos ->
+            applyPendingTemps();
+    private final ArrayList<AnimatedTemperatureView> mWaitingViews =
+            new ArrayList<>(INITIAL_CAPACITY);
+
+    private boolean mFramePending;
+    private int mSkippedCount;
+
+    /** Returns the scheduler shared by all views. */
+    static TemperatureAnimationScheduler getInstance() {
+        if (sInstance == null) {
+            sInstance = new TemperatureAnimationScheduler(
+                    callback -> Choreographer.getInstance().postFrameCallback(callback));
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param frameScheduler posts the given callback to run on the next frame.
+     */
+    @VisibleForTesting
+    TemperatureAnimationScheduler(Consumer<Choreographer.FrameCallback> frameScheduler) {
+        mFrameScheduler = frameScheduler;
+    }
+
+    /**
+     * Called after the pending temperature of the given view changed. The temperature is applied
+     * right away unless the view is animating.
+     */
+    void schedule(AnimatedTemperatureView view) {
+        if (!view.isAnimating()) {
+            view.applyPendingTemp();
+            return;
+        }
+        if (mWaitingViews.contains(view)) {
+            mSkippedCount++;
+            return;
+        }
+        mWaitingViews.add(view);
+        scheduleFrame();
+    }
+
+    /**
+     * Stops waiting to apply the pending temperature of the given view, e.g. on detach. Returns
+     * whether the view was waiting.
+     */
+    boolean cancel(AnimatedTemperatureView view) {
+        return mWaitingViews.remove(view);
+    }
+
+    /** Returns the number of temperatures skipped because a newer one arrived during animation. */
+    int getSkippedCount() {
+        return mSkippedCount;
+    }
+
+    @VisibleForTesting
+    boolean isWaiting(AnimatedTemperatureView view) {
+        return mWaitingViews.contains(view);
+    }
+
+    private void scheduleFrame() {
+        if (!mFramePending) {
+            mFramePending = true;
+            mFrameScheduler.accept(mFrameCallback);
+        }
+    }
+
+    private void applyPendingTemps() {
+        mFramePending = false;
+        for (int i = mWaitingViews.size() - 1; i >= 0; i--) {
+            AnimatedTemperatureView view = mWaitingViews.get(i);
+            if (!view.isAnimating()) {
+                mWaitingViews.remove(i);
+                view.applyPendingTemp();
+            }
+        }
+        if (!mWaitingViews.isEmpty()) {
+            scheduleFrame();
+        }
+    }
+}
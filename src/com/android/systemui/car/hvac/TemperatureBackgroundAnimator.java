@@ -21,30 +21,48 @@ import static com.android.systemui.car.hvac.AnimatedTemperatureView.isLeft;
 import static com.android.systemui.car.hvac.AnimatedTemperatureView.isTop;
 import static com.android.systemui.car.hvac.AnimatedTemperatureView.isVertical;
 
-import android.animation.Animator;
-import android.animation.AnimatorListenerAdapter;
-import android.animation.AnimatorSet;
-import android.animation.ObjectAnimator;
+import android.animation.TimeInterpolator;
+import android.animation.ValueAnimator;
 import android.annotation.IntDef;
+import android.graphics.Outline;
 import android.graphics.Rect;
 import android.view.View;
-import android.view.ViewAnimationUtils;
+import android.view.ViewOutlineProvider;
+import android.view.animation.AccelerateDecelerateInterpolator;
 import android.view.animation.AnticipateInterpolator;
+import android.view.animation.LinearInterpolator;
 import android.widget.ImageView;
 
-import java.util.ArrayList;
-import java.util.List;
+import androidx.annotation.VisibleForTesting;
 
 /**
- * Controls circular reveal animation of temperature background
+ * Controls circular reveal animation of temperature background.
+ *
+ * The reveal is played as a timeline of segments, e.g. enter, hold, rest, hold and exit, that are
+ * written into preallocated slots and driven by a single {@link ValueAnimator}. The circle is
+ * drawn by clipping the background to a circular outline. Restarting the animation, e.g. to bump
+ * the circle on every temperature change, reuses the same animator and does not allocate.
  */
 class TemperatureBackgroundAnimator {
 
     private static final AnticipateInterpolator ANTICIPATE_INTERPOLATOR =
             new AnticipateInterpolator();
+    private static final AccelerateDecelerateInterpolator ACCELERATE_DECELERATE_INTERPOLATOR =
+            new AccelerateDecelerateInterpolator();
     private static final float MAX_OPACITY = .6f;
+    private static final int MAX_SEGMENTS = 5;
+    // Default duration of the animators the reveal used to be built from.
+    private static final int DEFAULT_DURATION_MILLIS = 300;
+    private static final int EXIT_FADE_DELAY_MILLIS = 50;
 
     private final View mAnimatedView;
+    private final ValueAnimator mTimeline = ValueAnimator.ofFloat(0f, 1f);
+    private final Segment[] mSegments = new Segment[MAX_SEGMENTS];
+    private int mSegmentCount;
+    private long mTimelineDuration;
+    private int mCurrentSegment;
+    private float mSegmentStartAlpha;
+    private float mRadius;
 
     private int mPivotX;
     private int mPivotY;
@@ -56,7 +74,6 @@ class TemperatureBackgroundAnimator {
     @CircleState
     private int mCircleState;
 
-    private Animator mCircularReveal;
     private boolean mAnimationsReady;
 
     @IntDef({CircleState.GONE, CircleState.ENTERING, CircleState.OVERSHOT, CircleState.RESTING,
@@ -72,11 +89,44 @@ class TemperatureBackgroundAnimator {
         int EXITING = 7;
     }
 
+    /** One step of the timeline, during which the circle is in the given state. */
+    private static final class Segment {
+        @CircleState
+        int mState;
+        int mFromRadius;
+        int mToRadius;
+        long mRadiusDuration;
+        TimeInterpolator mRadiusInterpolator;
+        // NaN if the opacity does not change during the segment.
+        float mToAlpha;
+        TimeInterpolator mAlphaInterpolator;
+        long mAlphaDelay;
+        long mAlphaDuration;
+        long mStartTime;
+        long mDuration;
+    }
+
     TemperatureBackgroundAnimator(
             AnimatedTemperatureView parent,
             ImageView animatedView) {
         mAnimatedView = animatedView;
         mAnimatedView.setAlpha(0);
+        mAnimatedView.setOutlineProvider(new ViewOutlineProvider() {
+            @Override
+            public void getOutline(View view, Outline outline) {
+                int radius = Math.round(mRadius);
+                outline.setOval(mPivotX - radius, mPivotY - radius, mPivotX + radius,
+                        mPivotY + radius);
+            }
+        });
+        mAnimatedView.setClipToOutline(true);
+
+        for (int i = 0; i < MAX_SEGMENTS; i++) {
+            mSegments[i] = new Segment();
+        }
+        mTimeline.setInterpolator(new LinearInterpolator());
+        mTimeline.addUpdateListener(animation -> onTimelineUpdate(
+                (long) (animation.getAnimatedFraction() * mTimelineDuration)));
 
         parent.addOnLayoutChangeListener(
                 (v, left, top, right, bottom, oldLeft, oldTop, oldRight, oldBottom) ->
@@ -132,131 +182,47 @@ class TemperatureBackgroundAnimator {
 
     void animateOpen() {
         if (!mAnimationsReady
-                || !mAnimatedView.isAttachedToWindow()
+                || !isViewAttached()
                 || mCircleState == CircleState.ENTERING) {
             return;
         }
 
-        AnimatorSet set = new AnimatorSet();
-        List<Animator> animators = new ArrayList<>();
+        mSegmentCount = 0;
         switch (mCircleState) {
             case CircleState.ENTERING:
                 throw new AssertionError("Should not be able to reach this statement");
-            case CircleState.GONE: {
-                Animator startCircle = createEnterAnimator();
-                markState(startCircle, CircleState.ENTERING);
-                animators.add(startCircle);
-                Animator holdOvershoot = ViewAnimationUtils
-                        .createCircularReveal(mAnimatedView, mPivotX, mPivotY, mOvershootRadius,
-                                mOvershootRadius);
-                holdOvershoot.setDuration(50);
-                markState(holdOvershoot, CircleState.OVERSHOT);
-                animators.add(holdOvershoot);
-                Animator rest = ViewAnimationUtils
-                        .createCircularReveal(mAnimatedView, mPivotX, mPivotY, mOvershootRadius,
-                                mRestingRadius);
-                markState(rest, CircleState.RESTING);
-                animators.add(rest);
-                Animator holdRest = ViewAnimationUtils
-                        .createCircularReveal(mAnimatedView, mPivotX, mPivotY, mRestingRadius,
-                                mRestingRadius);
-                markState(holdRest, CircleState.RESTED);
-                holdRest.setDuration(1000);
-                animators.add(holdRest);
-                Animator exit = createExitAnimator(mRestingRadius);
-                markState(exit, CircleState.EXITING);
-                animators.add(exit);
-            }
-            break;
+            case CircleState.GONE:
+                addSegment(CircleState.ENTERING, mGoneRadius, mOvershootRadius,
+                        DEFAULT_DURATION_MILLIS, ACCELERATE_DECELERATE_INTERPOLATOR,
+                        MAX_OPACITY, /* alphaDelay= */ 0);
+                addHold(CircleState.OVERSHOT, mOvershootRadius, /* duration= */ 50);
+                addSegment(CircleState.RESTING, mOvershootRadius, mRestingRadius,
+                        DEFAULT_DURATION_MILLIS, ACCELERATE_DECELERATE_INTERPOLATOR,
+                        Float.NaN, /* alphaDelay= */ 0);
+                addHold(CircleState.RESTED, mRestingRadius, /* duration= */ 1000);
+                addExit(mRestingRadius, /* alphaInterpolator= */ null);
+                break;
             case CircleState.RESTED:
             case CircleState.RESTING:
             case CircleState.EXITING:
             case CircleState.OVERSHOT:
                 int startRadius =
                         mCircleState == CircleState.OVERSHOT ? mOvershootRadius : mRestingRadius;
-                Animator bump = ViewAnimationUtils
-                        .createCircularReveal(mAnimatedView, mPivotX, mPivotY, startRadius,
-                                mBumpRadius);
-                bump.setDuration(50);
-                markState(bump, CircleState.BUMPING);
-                animators.add(bump);
+                addSegment(CircleState.BUMPING, startRadius, mBumpRadius, /* duration= */ 50,
+                        ACCELERATE_DECELERATE_INTERPOLATOR, Float.NaN, /* alphaDelay= */ 0);
                 // fallthrough intentional
             case CircleState.BUMPED:
             case CircleState.BUMPING:
-                Animator holdBump = ViewAnimationUtils
-                        .createCircularReveal(mAnimatedView, mPivotX, mPivotY, mBumpRadius,
-                                mBumpRadius);
-                holdBump.setDuration(100);
-                markState(holdBump, CircleState.BUMPED);
-                animators.add(holdBump);
-                Animator rest = ViewAnimationUtils
-                        .createCircularReveal(mAnimatedView, mPivotX, mPivotY, mBumpRadius,
-                                mRestingRadius);
-                markState(rest, CircleState.RESTING);
-                animators.add(rest);
-                Animator holdRest = ViewAnimationUtils
-                        .createCircularReveal(mAnimatedView, mPivotX, mPivotY, mRestingRadius,
-                                mRestingRadius);
-                holdRest.setDuration(1000);
-                markState(holdRest, CircleState.RESTED);
-                animators.add(holdRest);
-                Animator exit = createExitAnimator(mRestingRadius);
-                markState(exit, CircleState.EXITING);
-                animators.add(exit);
+                addHold(CircleState.BUMPED, mBumpRadius, /* duration= */ 100);
+                addSegment(CircleState.RESTING, mBumpRadius, mRestingRadius,
+                        DEFAULT_DURATION_MILLIS, ACCELERATE_DECELERATE_INTERPOLATOR,
+                        Float.NaN, /* alphaDelay= */ 0);
+                addHold(CircleState.RESTED, mRestingRadius, /* duration= */ 1000);
+                addExit(mRestingRadius, /* alphaInterpolator= */ null);
                 break;
         }
-        set.playSequentially(animators);
-        set.addListener(new AnimatorListenerAdapter() {
-            private boolean mCanceled = false;
-
-            @Override
-            public void onAnimationStart(Animator animation) {
-                if (mCircularReveal != null) {
-                    mCircularReveal.cancel();
-                }
-                mCircularReveal = animation;
-                mAnimatedView.setVisibility(View.VISIBLE);
-            }
-
-            @Override
-            public void onAnimationCancel(Animator animation) {
-                mCanceled = true;
-            }
-
-            @Override
-            public void onAnimationEnd(Animator animation) {
-                if (mCanceled) {
-                    return;
-                }
-                mCircularReveal = null;
-                mCircleState = CircleState.GONE;
-                mAnimatedView.setVisibility(View.GONE);
-            }
-        });
-
-        set.start();
-    }
-
-    private Animator createEnterAnimator() {
-        AnimatorSet animatorSet = new AnimatorSet();
-        Animator circularReveal = ViewAnimationUtils
-                .createCircularReveal(mAnimatedView, mPivotX, mPivotY, mGoneRadius,
-                        mOvershootRadius);
-        Animator fade = ObjectAnimator.ofFloat(mAnimatedView, View.ALPHA, MAX_OPACITY);
-        animatorSet.playTogether(circularReveal, fade);
-        return animatorSet;
-    }
-
-    private Animator createExitAnimator(int startRadius) {
-        AnimatorSet animatorSet = new AnimatorSet();
-        Animator circularHide = ViewAnimationUtils
-                .createCircularReveal(mAnimatedView, mPivotX, mPivotY, startRadius,
-                        (mGoneRadius + startRadius) / 2);
-        circularHide.setInterpolator(ANTICIPATE_INTERPOLATOR);
-        Animator fade = ObjectAnimator.ofFloat(mAnimatedView, View.ALPHA, 0);
-        fade.setStartDelay(50);
-        animatorSet.playTogether(circularHide, fade);
-        return animatorSet;
+        mAnimatedView.setVisibility(View.VISIBLE);
+        startTimeline();
     }
 
     void hideCircle() {
@@ -289,52 +255,116 @@ class TemperatureBackgroundAnimator {
                 throw new IllegalStateException("Unknown CircleState: " + mCircleState);
         }
 
-        Animator hideAnimation = createExitAnimator(startRadius);
-        if (startRadius == mRestingRadius) {
-            hideAnimation.setInterpolator(ANTICIPATE_INTERPOLATOR);
+        mSegmentCount = 0;
+        addExit(startRadius, startRadius == mRestingRadius ? ANTICIPATE_INTERPOLATOR : null);
+        startTimeline();
+    }
+
+    void stopAnimations() {
+        if (mTimeline.isStarted()) {
+            mTimeline.end();
         }
-        hideAnimation.addListener(new AnimatorListenerAdapter() {
-            private boolean mCanceled = false;
+    }
 
-            @Override
-            public void onAnimationStart(Animator animation) {
-                mCircleState = CircleState.EXITING;
-                if (mCircularReveal != null) {
-                    mCircularReveal.cancel();
-                }
-                mCircularReveal = animation;
-            }
+    @VisibleForTesting
+    boolean isViewAttached() {
+        return mAnimatedView.isAttachedToWindow();
+    }
 
-            @Override
-            public void onAnimationCancel(Animator animation) {
-                mCanceled = true;
-            }
+    /** Moves the running timeline to the given time, as if it had been played until then. */
+    @VisibleForTesting
+    void setCurrentPlayTime(long playTimeMillis) {
+        mTimeline.setCurrentFraction(Math.min(1f, (float) playTimeMillis / mTimelineDuration));
+    }
 
-            @Override
-            public void onAnimationEnd(Animator animation) {
-                if (mCanceled) {
-                    return;
-                }
-                mCircularReveal = null;
-                mCircleState = CircleState.GONE;
-                mAnimatedView.setVisibility(View.GONE);
-            }
-        });
-        hideAnimation.start();
+    @VisibleForTesting
+    long getTimelineDuration() {
+        return mTimelineDuration;
     }
 
-    void stopAnimations() {
-        if (mCircularReveal != null) {
-            mCircularReveal.end();
+    private void addHold(@CircleState int state, int radius, long duration) {
+        addSegment(state, radius, radius, duration, ACCELERATE_DECELERATE_INTERPOLATOR,
+                Float.NaN, /* alphaDelay= */ 0);
+    }
+
+    /**
+     * Adds the segment shrinking the circle from the given radius while fading it out. The fade
+     * uses the given {@code alphaInterpolator}, if any.
+     */
+    private void addExit(int startRadius, TimeInterpolator alphaInterpolator) {
+        addSegment(CircleState.EXITING, startRadius, (mGoneRadius + startRadius) / 2,
+                DEFAULT_DURATION_MILLIS, ANTICIPATE_INTERPOLATOR, /* toAlpha= */ 0,
+                EXIT_FADE_DELAY_MILLIS);
+        if (alphaInterpolator != null) {
+            mSegments[mSegmentCount - 1].mAlphaInterpolator = alphaInterpolator;
         }
     }
 
-    private void markState(Animator animator, @CircleState int startState) {
-        animator.addListener(new AnimatorListenerAdapter() {
-            @Override
-            public void onAnimationStart(Animator animation) {
-                mCircleState = startState;
-            }
-        });
+    private void addSegment(@CircleState int state, int fromRadius, int toRadius, long duration,
+            TimeInterpolator interpolator, float toAlpha, long alphaDelay) {
+        Segment segment = mSegments[mSegmentCount];
+        segment.mState = state;
+        segment.mFromRadius = fromRadius;
+        segment.mToRadius = toRadius;
+        segment.mRadiusDuration = duration;
+        segment.mRadiusInterpolator = interpolator;
+        segment.mToAlpha = toAlpha;
+        segment.mAlphaInterpolator = ACCELERATE_DECELERATE_INTERPOLATOR;
+        segment.mAlphaDelay = alphaDelay;
+        segment.mAlphaDuration = Float.isNaN(toAlpha) ? 0 : DEFAULT_DURATION_MILLIS;
+        segment.mStartTime = mSegmentCount == 0
+                ? 0 : mSegments[mSegmentCount - 1].mStartTime
+                + mSegments[mSegmentCount - 1].mDuration;
+        segment.mDuration = Math.max(duration, alphaDelay + segment.mAlphaDuration);
+        mSegmentCount++;
+    }
+
+    private void startTimeline() {
+        // Canceling does not notify any listener, so the state is left as is until the restarted
+        // timeline enters its first segment.
+        mTimeline.cancel();
+        Segment last = mSegments[mSegmentCount - 1];
+        mTimelineDuration = last.mStartTime + last.mDuration;
+        mCurrentSegment = -1;
+        mTimeline.setDuration(mTimelineDuration);
+        mTimeline.start();
+    }
+
+    private void onTimelineUpdate(long playTime) {
+        int index = mCurrentSegment < 0 || playTime < mSegments[mCurrentSegment].mStartTime
+                ? 0 : mCurrentSegment;
+        while (index < mSegmentCount - 1 && playTime >= mSegments[index + 1].mStartTime) {
+            index++;
+        }
+        if (index != mCurrentSegment) {
+            mCurrentSegment = index;
+            mCircleState = mSegments[index].mState;
+            mSegmentStartAlpha = mAnimatedView.getAlpha();
+        }
+
+        Segment segment = mSegments[index];
+        long segmentTime = playTime - segment.mStartTime;
+        float radiusFraction = segment.mRadiusInterpolator.getInterpolation(
+                fraction(segmentTime, segment.mRadiusDuration));
+        mRadius = segment.mFromRadius + (segment.mToRadius - segment.mFromRadius) * radiusFraction;
+        mAnimatedView.invalidateOutline();
+        if (!Float.isNaN(segment.mToAlpha)) {
+            float alphaFraction = segment.mAlphaInterpolator.getInterpolation(fraction(
+                    segmentTime - segment.mAlphaDelay, segment.mAlphaDuration));
+            mAnimatedView.setAlpha(mSegmentStartAlpha
+                    + (segment.mToAlpha - mSegmentStartAlpha) * alphaFraction);
+        }
+
+        if (playTime >= mTimelineDuration) {
+            mCircleState = CircleState.GONE;
+            mAnimatedView.setVisibility(View.GONE);
+        }
+    }
+
+    private static float fraction(long time, long duration) {
+        if (duration <= 0 || time >= duration) {
+            return 1f;
+        }
+        return time <= 0 ? 0f : (float) time / duration;
     }
 }
@@ -16,102 +16,148 @@
 
 package com.android.systemui.car.hvac;
 
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.content.res.TypedArray;
 import android.graphics.Color;
 
+import androidx.annotation.VisibleForTesting;
+
+import com.android.systemui.R;
+import com.android.systemui.dagger.SysUISingleton;
+import com.android.systemui.dagger.qualifiers.Main;
+import com.android.systemui.statusbar.policy.ConfigurationController;
+
+import javax.inject.Inject;
+
 /**
- * Contains the logic for mapping colors to temperatures
+ * Contains the logic for mapping colors to temperatures.
+ *
+ * The gradient is read from resources and sampled once into a table at a fixed resolution, so
+ * looking up the color of a temperature is a single array access. The table is shared by all the
+ * views of the process and is rebuilt when the configuration changes. The store is only accessed
+ * on the main thread.
  */
-class TemperatureColorStore {
+@SysUISingleton
+class TemperatureColorStore implements ConfigurationController.ConfigurationListener {
 
-    private static class TemperatureColorValue {
-        final float mTemperature;
-        final int mColor;
+    private static final int COLOR_UNSET = Color.BLACK;
 
-        private TemperatureColorValue(float temperature, int color) {
-            this.mTemperature = temperature;
-            this.mColor = color;
-        }
+    private final Resources mResources;
 
-        float getTemperature() {
-            return mTemperature;
-        }
+    // Sorted by temperature.
+    private float[] mStopTemperatures;
+    private int[] mStopColors;
+    private int mStepsPerDegree;
+    private int[] mColorTable;
 
-        int getColor() {
-            return mColor;
-        }
+    private final float[] mTempHsv1 = new float[3];
+    private final float[] mTempHsv2 = new float[3];
+    private final float[] mTempHsv3 = new float[3];
+
+    @Inject
+    TemperatureColorStore(@Main Resources resources,
+            ConfigurationController configurationController) {
+        mResources = resources;
+        loadStops();
+        configurationController.addCallback(this);
     }
 
-    private static TemperatureColorValue tempToColor(float temperature, int color) {
-        return new TemperatureColorValue(temperature, color);
+    @VisibleForTesting
+    TemperatureColorStore(float[] stopTemperatures, int[] stopColors, int stepsPerDegree) {
+        mResources = null;
+        setStops(stopTemperatures, stopColors, stepsPerDegree);
     }
 
-    private static final int COLOR_COLDEST = 0xFF406DFF;
-    private static final int COLOR_COLD = 0xFF4094FF;
-    private static final int COLOR_NEUTRAL = 0xFFF4F4F4;
-    private static final int COLOR_WARM = 0xFFFF550F;
-    private static final int COLOR_WARMEST = 0xFFFF0000;
-    // must be sorted by temperature
-    private static final TemperatureColorValue[] sTemperatureColorValues =
-            {
-                    // Celsius
-                    tempToColor(19, COLOR_COLDEST),
-                    tempToColor(21, COLOR_COLD),
-                    tempToColor(23, COLOR_NEUTRAL),
-                    tempToColor(25, COLOR_WARM),
-                    tempToColor(27, COLOR_WARMEST),
-
-                    // Switch over
-                    tempToColor(45, COLOR_WARMEST),
-                    tempToColor(45.00001f, COLOR_COLDEST),
-
-                    // Farenheight
-                    tempToColor(66, COLOR_COLDEST),
-                    tempToColor(70, COLOR_COLD),
-                    tempToColor(74, COLOR_NEUTRAL),
-                    tempToColor(76, COLOR_WARM),
-                    tempToColor(80, COLOR_WARMEST)
-            };
+    @Override
+    public void onConfigChanged(Configuration newConfig) {
+        if (mResources != null) {
+            loadStops();
+        }
+    }
 
-    private static final int COLOR_UNSET = Color.BLACK;
+    private void loadStops() {
+        setStops(readFloatArray(mResources, R.array.config_hvacTemperatureColorStopTemperatures),
+                readColorArray(mResources, R.array.config_hvacTemperatureColorStopColors),
+                mResources.getInteger(R.integer.config_hvacTemperatureColorStepsPerDegree));
+    }
 
-    private final float[] mTempHsv1 = new float[3];
-    private final float[] mTempHsv2 = new float[3];
-    private final float[] mTempHsv3 = new float[3];
+    private void setStops(float[] stopTemperatures, int[] stopColors, int stepsPerDegree) {
+        if (stopTemperatures.length < 2 || stopTemperatures.length != stopColors.length) {
+            throw new IllegalArgumentException("Expected at least two temperature stops, each "
+                    + "with a color, got " + stopTemperatures.length + " temperatures and "
+                    + stopColors.length + " colors");
+        }
+        for (int i = 1; i < stopTemperatures.length; i++) {
+            if (!(stopTemperatures[i - 1] < stopTemperatures[i])) {
+                throw new IllegalArgumentException(
+                        "Temperature stops must be sorted in increasing order");
+            }
+        }
+        if (stepsPerDegree <= 0) {
+            throw new IllegalArgumentException("Invalid steps per degree: " + stepsPerDegree);
+        }
+        mStopTemperatures = stopTemperatures;
+        mStopColors = stopColors;
+        mStepsPerDegree = stepsPerDegree;
+
+        float range = stopTemperatures[stopTemperatures.length - 1] - stopTemperatures[0];
+        mColorTable = new int[(int) Math.ceil(range * stepsPerDegree) + 1];
+        for (int i = 0; i < mColorTable.length; i++) {
+            mColorTable[i] = computeColorForTemperature(
+                    stopTemperatures[0] + (float) i / stepsPerDegree);
+        }
+    }
 
     int getMinColor() {
-        return COLOR_COLDEST;
+        return mStopColors[0];
     }
 
     int getMaxColor() {
-        return COLOR_WARMEST;
+        return mStopColors[mStopColors.length - 1];
     }
 
+    /**
+     * Returns the color of the given temperature, rounded to the resolution of the color table.
+     */
     int getColorForTemperature(float temperature) {
         if (Float.isNaN(temperature)) {
             return COLOR_UNSET;
         }
-        TemperatureColorValue bottomValue = sTemperatureColorValues[0];
-        if (temperature <= bottomValue.getTemperature()) {
-            return bottomValue.getColor();
+        int index = Math.round((temperature - mStopTemperatures[0]) * mStepsPerDegree);
+        if (index <= 0) {
+            return mColorTable[0];
+        }
+        if (index >= mColorTable.length) {
+            return mColorTable[mColorTable.length - 1];
+        }
+        return mColorTable[index];
+    }
+
+    /** Interpolates the color of the given temperature between the two closest stops. */
+    @VisibleForTesting
+    int computeColorForTemperature(float temperature) {
+        if (Float.isNaN(temperature)) {
+            return COLOR_UNSET;
+        }
+        if (temperature <= mStopTemperatures[0]) {
+            return mStopColors[0];
         }
-        TemperatureColorValue topValue =
-                sTemperatureColorValues[sTemperatureColorValues.length - 1];
-        if (temperature >= topValue.getTemperature()) {
-            return topValue.getColor();
+        int last = mStopTemperatures.length - 1;
+        if (temperature >= mStopTemperatures[last]) {
+            return mStopColors[last];
         }
 
         int index = binarySearch(temperature);
         if (index >= 0) {
-            return sTemperatureColorValues[index].getColor();
+            return mStopColors[index];
         }
 
         index = -index - 1; // move to the insertion point
 
-        TemperatureColorValue startValue = sTemperatureColorValues[index - 1];
-        TemperatureColorValue endValue = sTemperatureColorValues[index];
-        float fraction = (temperature - startValue.getTemperature()) / (endValue.getTemperature()
-                - startValue.getTemperature());
-        return lerpColor(fraction, startValue.getColor(), endValue.getColor());
+        float fraction = (temperature - mStopTemperatures[index - 1])
+                / (mStopTemperatures[index] - mStopTemperatures[index - 1]);
+        return lerpColor(fraction, mStopColors[index - 1], mStopColors[index]);
     }
 
     int lerpColor(float fraction, int startColor, int endColor) {
@@ -175,11 +221,11 @@ class TemperatureColorStore {
 
     private int binarySearch(float temperature) {
         int low = 0;
-        int high = sTemperatureColorValues.length;
+        int high = mStopTemperatures.length - 1;
 
         while (low <= high) {
             int mid = (low + high) >>> 1;
-            float midVal = sTemperatureColorValues[mid].getTemperature();
+            float midVal = mStopTemperatures[mid];
 
             if (midVal < temperature) {
                 low = mid + 1;  // Neither val is NaN, thisVal is smaller
@@ -199,4 +245,30 @@ class TemperatureColorStore {
         }
         return -(low + 1);  // key not found.
     }
+
+    private static float[] readFloatArray(Resources res, int arrayRes) {
+        TypedArray array = res.obtainTypedArray(arrayRes);
+        try {
+            float[] values = new float[array.length()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = array.getFloat(i, Float.NaN);
+            }
+            return values;
+        } finally {
+            array.recycle();
+        }
+    }
+
+    private static int[] readColorArray(Resources res, int arrayRes) {
+        TypedArray array = res.obtainTypedArray(arrayRes);
+        try {
+            int[] values = new int[array.length()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = array.getColor(i, COLOR_UNSET);
+            }
+            return values;
+        } finally {
+            array.recycle();
+        }
+    }
 }
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.car.hvac;
+
+import android.util.SparseArray;
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Dispatches temperature change events to the {@link TemperatureView}s registered for each area.
+ *
+ * Only the latest value received for an area is kept until the next frame, so a burst of events,
+ * e.g. while the temperature rocker is held, results in at most one update of that area's views
+ * per frame. Values equal to the one the views already display are dropped.
+ *
+ * A target temperature requested by the user is shown right away, ahead of the car service
+ * confirming it. Until the car service reports the target or the target is cleared, other values
+ * received for that area are considered stale and held back, so the views do not jump back to a
+ * previous setpoint. Only accessed on the main thread.
+ */
+class TemperatureEventDispatcher {
+
+    private final Consumer<Choreographer.FrameCallback> mFrameScheduler;
+    private final Choreographer.FrameCallback mFrameCallback = frameTimeNanos ->
+            dispatchPendingTemps();
+    private final SparseArray<Area> mAreas = new SparseArray<>();
+
+    private boolean mFramePending;
+    private int mEventCount;
+    private int mUiUpdateCount;
+    private int mStaleEventCount;
+
+    // Values closer than this are considered the same setpoint, as the car service may round the
+    // requested temperature.
+    private static final float TEMPERATURE_EQUIVALENT_DELTA = .01f;
+
+    private static final class Area {
+        final List<TemperatureView> mViews = new ArrayList<>();
+        boolean mHasDisplayedTemp;
+        float mDisplayedTemp;
+        boolean mHasPendingTemp;
+        float mPendingTemp;
+        boolean mHasTargetTemp;
+        float mTargetTemp;
+    }
+
+    /**
+     * @param frameScheduler posts the given callback to run on the next frame.
+     */
+    TemperatureEventDispatcher(Consumer<Choreographer.FrameCallback> frameScheduler) {
+        mFrameScheduler = frameScheduler;
+    }
+
+    /** Registers the given view to receive the temperature changes of its area. */
+    void addView(TemperatureView view) {
+        int areaId = view.getAreaId();
+        Area area = mAreas.get(areaId);
+        if (area == null) {
+            area = new Area();
+            mAreas.put(areaId, area);
+        }
+        area.mViews.add(view);
+    }
+
+    /**
+     * Sets the initial temperature of a newly registered view. A target temperature pending
+     * confirmation for the area takes precedence. If the temperature differs from the one shown by
+     * the other views of the area, they are all updated.
+     */
+    void initView(TemperatureView view, float tempC) {
+        Area area = mAreas.get(view.getAreaId());
+        if (area == null) {
+            view.setTemp(tempC);
+            return;
+        }
+        if (area.mHasTargetTemp) {
+            view.setTemp(area.mTargetTemp);
+            return;
+        }
+        if (area.mHasDisplayedTemp && Float.compare(area.mDisplayedTemp, tempC) != 0) {
+            displayTemp(area, tempC);
+            return;
+        }
+        area.mHasDisplayedTemp = true;
+        area.mDisplayedTemp = tempC;
+        view.setTemp(tempC);
+    }
+
+    /**
+     * Called when the temperature of the given area changed. The views of that area are updated on
+     * the next frame with the latest value received by then.
+     */
+    void onTemperatureChanged(int areaId, float tempC) {
+        mEventCount++;
+        Area area = mAreas.get(areaId);
+        if (area == null) {
+            return;
+        }
+        area.mHasPendingTemp = true;
+        area.mPendingTemp = tempC;
+        if (area.mHasTargetTemp) {
+            boolean confirmsTarget =
+                    Math.abs(tempC - area.mTargetTemp) <= TEMPERATURE_EQUIVALENT_DELTA;
+            if (!confirmsTarget) {
+                mStaleEventCount++;
+                return;
+            }
+            // The car service confirmed the target.
+            area.mHasTargetTemp = false;
+        }
+        scheduleFrame();
+    }
+
+    /**
+     * Shows the given target temperature on the views of the area right away. Values that do not
+     * match the target are held back until the car service reports the target or
+     * {@link #clearTargetTemp(int)} is called.
+     */
+    void showTargetTemp(int areaId, float tempC) {
+        Area area = mAreas.get(areaId);
+        if (area == null) {
+            return;
+        }
+        area.mHasTargetTemp = true;
+        area.mTargetTemp = tempC;
+        area.mHasPendingTemp = false;
+        displayTemp(area, tempC);
+    }
+
+    /**
+     * Stops waiting for the car service to confirm the target temperature of the given area, e.g.
+     * because it did not within the expected time. The latest value reported by the car service,
+     * if any, is then shown on the next frame.
+     */
+    void clearTargetTemp(int areaId) {
+        Area area = mAreas.get(areaId);
+        if (area == null || !area.mHasTargetTemp) {
+            return;
+        }
+        area.mHasTargetTemp = false;
+        if (area.mHasPendingTemp) {
+            scheduleFrame();
+        }
+    }
+
+    /** Forgets every registered view and any value not yet dispatched. */
+    void clear() {
+        mAreas.clear();
+    }
+
+    /** Returns the number of temperature change events received. */
+    int getEventCount() {
+        return mEventCount;
+    }
+
+    /** Returns the number of times the views of an area were updated with a new temperature. */
+    int getUiUpdateCount() {
+        return mUiUpdateCount;
+    }
+
+    /** Returns the number of events held back because they did not match a target temperature. */
+    int getStaleEventCount() {
+        return mStaleEventCount;
+    }
+
+    private void scheduleFrame() {
+        if (!mFramePending) {
+            mFramePending = true;
+            mFrameScheduler.accept(mFrameCallback);
+        }
+    }
+
+    private void dispatchPendingTemps() {
+        mFramePending = false;
+        for (int i = 0; i < mAreas.size(); i++) {
+            Area area = mAreas.valueAt(i);
+            if (!area.mHasPendingTemp || area.mHasTargetTemp) {
+                continue;
+            }
+            area.mHasPendingTemp = false;
+            float tempC = area.mPendingTemp;
+            // Float.compare treats NaN as equal to itself, so repeated "unavailable" values are
+            // dropped too.
+            if (area.mHasDisplayedTemp && Float.compare(area.mDisplayedTemp, tempC) == 0) {
+                continue;
+            }
+            displayTemp(area, tempC);
+        }
+    }
+
+    private void displayTemp(Area area, float tempC) {
+        area.mHasDisplayedTemp = true;
+        area.mDisplayedTemp = tempC;
+        mUiUpdateCount++;
+        for (int j = 0; j < area.mViews.size(); j++) {
+            area.mViews.get(j).setTemp(tempC);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TemperatureEventDispatcher{areas=" + mAreas.size() + ", events=" + mEventCount
+                + ", uiUpdates=" + mUiUpdateCount + ", staleEvents=" + mStaleEventCount + "}";
+    }
+}
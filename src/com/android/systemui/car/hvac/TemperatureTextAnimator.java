@@ -31,6 +31,9 @@ import android.widget.TextSwitcher;
 
 /**
  * Controls animating TemperatureView's text
+ *
+ * The animations are built once and restarted on every temperature change. They are only rebuilt
+ * when a layout pass changes the gravity, layout direction or width they depend on.
  */
 class TemperatureTextAnimator {
 
@@ -58,6 +61,11 @@ class TemperatureTextAnimator {
 
     private float mLastTemp = Float.NaN;
 
+    private boolean mAnimationsReady;
+    private int mAnimationsGravity;
+    private int mAnimationsLayoutDirection;
+    private int mAnimationsWidth;
+
     TemperatureTextAnimator(AnimatedTemperatureView parent, TextSwitcher textSwitcher,
             String tempFormat, int pivotOffset,
             CharSequence minText, CharSequence maxText) {
@@ -70,7 +78,20 @@ class TemperatureTextAnimator {
 
         mParent.addOnLayoutChangeListener(
                 (v, left, top, right, bottom, oldLeft, oldTop, oldRight, oldBottom) ->
-                        setupAnimations(mParent.getGravity()));
+                        setupAnimationsIfNeeded(mParent.getGravity()));
+    }
+
+    /**
+     * Returns whether the text is currently animating in. View animations only advance while the
+     * view is drawn, so an animation interrupted by hiding or detaching the view never ends; the
+     * text of a view that is not shown is never considered animating.
+     */
+    boolean isAnimating() {
+        if (!mTextSwitcher.isShown()) {
+            return false;
+        }
+        Animation inAnimation = mTextSwitcher.getInAnimation();
+        return inAnimation != null && inAnimation.hasStarted() && !inAnimation.hasEnded();
     }
 
     void setTemp(float temp) {
@@ -105,6 +126,20 @@ class TemperatureTextAnimator {
         mLastTemp = temp;
     }
 
+    private void setupAnimationsIfNeeded(int gravity) {
+        int layoutDirection = mTextSwitcher.getLayoutDirection();
+        int width = mParent.getWidth();
+        if (mAnimationsReady && mAnimationsGravity == gravity
+                && mAnimationsLayoutDirection == layoutDirection && mAnimationsWidth == width) {
+            return;
+        }
+        mAnimationsReady = true;
+        mAnimationsGravity = gravity;
+        mAnimationsLayoutDirection = layoutDirection;
+        mAnimationsWidth = width;
+        setupAnimations(gravity);
+    }
+
     private void setupAnimations(int gravity) {
         mTextFadeInAnimation = createFadeAnimation(true);
         mTextFadeOutAnimation = createFadeAnimation(false);
@@ -0,0 +1,427 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.car.hvac;
+
+import android.car.Car;
+import android.car.hardware.CarPropertyValue;
+import android.car.hardware.property.CarPropertyManager;
+import android.util.Log;
+import android.util.SparseArray;
+
+import androidx.annotation.VisibleForTesting;
+
+import com.android.systemui.car.CarServiceCallbackRegistry;
+import com.android.systemui.car.CarServiceProvider;
+import com.android.systemui.dagger.SysUISingleton;
+import com.android.systemui.dagger.qualifiers.Main;
+import com.android.systemui.dagger.qualifiers.UiBackground;
+import com.android.systemui.util.concurrency.DelayableExecutor;
+import com.android.systemui.util.time.SystemClock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import javax.inject.Inject;
+
+/**
+ * Binds system bar views to the vehicle properties they display and control.
+ *
+ * Views, or the controllers acting on their behalf, bind a {@link PropertyListener} to the
+ * (property, area) pairs they need. Each bound property is subscribed to once per car service
+ * connection, with a single callback shared by all properties, and subscribed to again when the
+ * car service restarts. Its change events are
+ * multiplexed to the listeners bound to the area of the event. The update rate of a property can
+ * be throttled with {@link #setMinUpdateInterval(int, long)}, in which case only the latest value
+ * of each area is delivered once the interval has elapsed.
+ *
+ * Writes are queued and sent to the car service in batches on the background executor; a write
+ * replaces any write to the same (property, area) pair that has not been sent yet.
+ *
+ * Only accessed on the main thread, except for the write queue.
+ */
+@SysUISingleton
+public class VehiclePropertyBinder {
+    private static final String TAG = "VehiclePropertyBinder";
+
+    /** Area id binding a listener to the events of every area of a property. */
+    public static final int ALL_AREAS = -1;
+
+    private static final int TYPE_FLOAT = 0;
+    private static final int TYPE_INT = 1;
+    private static final int TYPE_BOOLEAN = 2;
+
+    /** Receives the values of the (property, area) pairs it is bound to. */
+    public interface PropertyListener {
+        /** Called on the main thread when the value of a bound (property, area) pair changed. */
+        void onPropertyChanged(CarPropertyValue<?> value);
+    }
+
+    /** Notified when the car service connection makes the bound properties available. */
+    public interface ConnectionListener {
+        /**
+         * Called once the bound properties have been subscribed to, and again with a new manager
+         * each time the car service reconnects.
+         */
+        void onConnected(CarPropertyManager carPropertyManager);
+    }
+
+    private final CarServiceProvider mCarServiceProvider;
+    private final CarServiceCallbackRegistry mCallbackRegistry;
+    private final Executor mBackgroundExecutor;
+    private final DelayableExecutor mMainExecutor;
+    private final SystemClock mSystemClock;
+    private final SparseArray<BoundProperty> mProperties = new SparseArray<>();
+    private final List<ConnectionListener> mConnectionListeners = new ArrayList<>();
+
+    // Guarded by itself; filled on the main thread and drained on the background executor.
+    private final List<PendingWrite> mPendingWrites = new ArrayList<>();
+    private boolean mWriteFlushScheduled;
+
+    private volatile CarPropertyManager mCarPropertyManager;
+    private boolean mConnecting;
+    private int mEventCount;
+    private int mDispatchCount;
+    private volatile int mWriteBatchCount;
+    private volatile int mWriteCount;
+
+    private final CarPropertyManager.CarPropertyEventCallback mPropertyEventCallback =
+            new CarPropertyManager.CarPropertyEventCallback() {
+                @Override
+                public void onChangeEvent(CarPropertyValue value) {
+                    onPropertyEvent(value);
+                }
+
+                @Override
+                public void onErrorEvent(int propId, int zone) {
+                    Log.d(TAG, "Error event, propertyId: " + propId + " zone: " + zone);
+                }
+            };
+
+    private final CarServiceProvider.CarServiceOnConnectedListener mCarServiceLifecycleListener =
+            new CarServiceProvider.CarServiceOnConnectedListener() {
+                @Override
+                public void onConnected(Car car) {
+                    try {
+                        mCarPropertyManager = (CarPropertyManager)
+                                mCarServiceProvider.getCarManager(Car.PROPERTY_SERVICE);
+                        mCallbackRegistry.onConnected();
+                        for (int i = 0; i < mConnectionListeners.size(); i++) {
+                            mConnectionListeners.get(i).onConnected(mCarPropertyManager);
+                        }
+                    } catch (Exception e) {
+                        Log.e(TAG, "Failed to connect to the car property service", e);
+                    }
+                }
+
+                @Override
+                public void onDisconnected() {
+                    mCarPropertyManager = null;
+                    mCallbackRegistry.onDisconnected();
+                }
+            };
+
+    /** The listeners and the throttling state of a bound property. */
+    private final class BoundProperty {
+        final int mPropertyId;
+        // Listeners keyed by area id, including ALL_AREAS.
+        final SparseArray<List<PropertyListener>> mListeners = new SparseArray<>();
+        // Latest value of each area not yet delivered because of throttling.
+        final SparseArray<CarPropertyValue<?>> mPendingValues = new SparseArray<>();
+        final Runnable mDispatchPendingValues = this::dispatchPendingValues;
+        long mMinUpdateIntervalMs;
+        long mLastDispatchUptimeMs;
+        boolean mDispatchScheduled;
+
+        BoundProperty(int propertyId) {
+            mPropertyId = propertyId;
+        }
+
+        void dispatchPendingValues() {
+            mDispatchScheduled = false;
+            mLastDispatchUptimeMs = mSystemClock.uptimeMillis();
+            for (int i = 0; i < mPendingValues.size(); i++) {
+                dispatch(this, mPendingValues.valueAt(i));
+            }
+            mPendingValues.clear();
+        }
+    }
+
+    /** A write not yet sent to the car service. */
+    private static final class PendingWrite {
+        int mPropertyId;
+        int mAreaId;
+        int mType;
+        float mFloatValue;
+        int mIntValue;
+        boolean mBooleanValue;
+    }
+
+    @Inject
+    public VehiclePropertyBinder(CarServiceProvider carServiceProvider,
+            @UiBackground Executor backgroundExecutor,
+            @Main DelayableExecutor mainExecutor,
+            SystemClock systemClock) {
+        mCarServiceProvider = carServiceProvider;
+        mCallbackRegistry = new CarServiceCallbackRegistry(carServiceProvider);
+        mBackgroundExecutor = backgroundExecutor;
+        mMainExecutor = mainExecutor;
+        mSystemClock = systemClock;
+    }
+
+    /**
+     * Connects to the car service, if not already connected. The properties bound so far, and
+     * later on, are subscribed to once connected.
+     */
+    public void connect() {
+        if (!mConnecting) {
+            mConnecting = true;
+            mCarServiceProvider.addListener(mCarServiceLifecycleListener,
+                    CarServiceProvider.PRIORITY_UI_CRITICAL);
+        }
+    }
+
+    /**
+     * Adds a listener notified once connected. If already connected, it is notified right away.
+     */
+    public void addConnectionListener(ConnectionListener listener) {
+        mConnectionListeners.add(listener);
+        if (mCarPropertyManager != null) {
+            listener.onConnected(mCarPropertyManager);
+        }
+    }
+
+    /**
+     * Binds the given listener to the changes of the given property in the given area, or in
+     * every area if {@link #ALL_AREAS}. Binding the same listener twice has no effect.
+     */
+    public void bind(int propertyId, int areaId, PropertyListener listener) {
+        BoundProperty property = getOrCreateProperty(propertyId);
+        List<PropertyListener> listeners = property.mListeners.get(areaId);
+        if (listeners == null) {
+            listeners = new ArrayList<>();
+            property.mListeners.put(areaId, listeners);
+        }
+        if (!listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+        subscribe(property);
+    }
+
+    /**
+     * Unbinds the given listener from every (property, area) pair it is bound to. The properties
+     * stay subscribed to, so that binding them again does not require a new subscription.
+     */
+    public void unbind(PropertyListener listener) {
+        for (int i = 0; i < mProperties.size(); i++) {
+            SparseArray<List<PropertyListener>> listeners = mProperties.valueAt(i).mListeners;
+            for (int j = 0; j < listeners.size(); j++) {
+                listeners.valueAt(j).remove(listener);
+            }
+        }
+    }
+
+    /**
+     * Limits the rate at which the changes of the given property are delivered. Changes received
+     * within {@code intervalMs} of the last delivery are held back, and only the latest value of
+     * each area is delivered once the interval has elapsed. An interval of {@code 0}, the default,
+     * delivers every change right away.
+     */
+    public void setMinUpdateInterval(int propertyId, long intervalMs) {
+        getOrCreateProperty(propertyId).mMinUpdateIntervalMs = intervalMs;
+    }
+
+    /** Queues a write of the given float value. */
+    public void setFloatProperty(int propertyId, int areaId, float value) {
+        synchronized (mPendingWrites) {
+            PendingWrite write = obtainPendingWrite(propertyId, areaId, TYPE_FLOAT);
+            write.mFloatValue = value;
+            scheduleWriteFlush();
+        }
+    }
+
+    /** Queues a write of the given int value. */
+    public void setIntProperty(int propertyId, int areaId, int value) {
+        synchronized (mPendingWrites) {
+            PendingWrite write = obtainPendingWrite(propertyId, areaId, TYPE_INT);
+            write.mIntValue = value;
+            scheduleWriteFlush();
+        }
+    }
+
+    /** Queues a write of the given boolean value. */
+    public void setBooleanProperty(int propertyId, int areaId, boolean value) {
+        synchronized (mPendingWrites) {
+            PendingWrite write = obtainPendingWrite(propertyId, areaId, TYPE_BOOLEAN);
+            write.mBooleanValue = value;
+            scheduleWriteFlush();
+        }
+    }
+
+    /** Returns the number of change events received from the car service. */
+    public int getEventCount() {
+        return mEventCount;
+    }
+
+    /** Returns the number of values delivered to listeners. */
+    public int getDispatchCount() {
+        return mDispatchCount;
+    }
+
+    /** Returns the number of writes sent to the car service. */
+    public int getWriteCount() {
+        return mWriteCount;
+    }
+
+    /** Returns the number of batches the writes were sent in. */
+    public int getWriteBatchCount() {
+        return mWriteBatchCount;
+    }
+
+    @VisibleForTesting
+    CarServiceCallbackRegistry getCallbackRegistry() {
+        return mCallbackRegistry;
+    }
+
+    @VisibleForTesting
+    CarPropertyManager.CarPropertyEventCallback getPropertyEventCallback() {
+        return mPropertyEventCallback;
+    }
+
+    private BoundProperty getOrCreateProperty(int propertyId) {
+        BoundProperty property = mProperties.get(propertyId);
+        if (property == null) {
+            property = new BoundProperty(propertyId);
+            mProperties.put(propertyId, property);
+        }
+        return property;
+    }
+
+    private void subscribe(BoundProperty property) {
+        mCallbackRegistry.registerPropertyCallback(mPropertyEventCallback, property.mPropertyId,
+                CarPropertyManager.SENSOR_RATE_ONCHANGE);
+    }
+
+    private void onPropertyEvent(CarPropertyValue<?> value) {
+        mEventCount++;
+        BoundProperty property = mProperties.get(value.getPropertyId());
+        if (property == null) {
+            return;
+        }
+        if (property.mMinUpdateIntervalMs <= 0) {
+            dispatch(property, value);
+            return;
+        }
+        property.mPendingValues.put(value.getAreaId(), value);
+        if (property.mDispatchScheduled) {
+            return;
+        }
+        long delay = property.mLastDispatchUptimeMs + property.mMinUpdateIntervalMs
+                - mSystemClock.uptimeMillis();
+        if (delay <= 0) {
+            property.dispatchPendingValues();
+        } else {
+            property.mDispatchScheduled = true;
+            mMainExecutor.executeDelayed(property.mDispatchPendingValues, delay);
+        }
+    }
+
+    private void dispatch(BoundProperty property, CarPropertyValue<?> value) {
+        dispatch(property.mListeners.get(value.getAreaId()), value);
+        dispatch(property.mListeners.get(ALL_AREAS), value);
+    }
+
+    private void dispatch(List<PropertyListener> listeners, CarPropertyValue<?> value) {
+        if (listeners == null) {
+            return;
+        }
+        for (int i = 0; i < listeners.size(); i++) {
+            mDispatchCount++;
+            try {
+                listeners.get(i).onPropertyChanged(value);
+            } catch (Exception e) {
+                Log.e(TAG, "Failed handling change event of property " + value.getPropertyId(),
+                        e);
+            }
+        }
+    }
+
+    private PendingWrite obtainPendingWrite(int propertyId, int areaId, int type) {
+        for (int i = 0; i < mPendingWrites.size(); i++) {
+            PendingWrite write = mPendingWrites.get(i);
+            if (write.mPropertyId == propertyId && write.mAreaId == areaId) {
+                write.mType = type;
+                return write;
+            }
+        }
+        PendingWrite write = new PendingWrite();
+        write.mPropertyId = propertyId;
+        write.mAreaId = areaId;
+        write.mType = type;
+        mPendingWrites.add(write);
+        return write;
+    }
+
+    private void scheduleWriteFlush() {
+        if (!mWriteFlushScheduled) {
+            mWriteFlushScheduled = true;
+            mBackgroundExecutor.execute(this::flushWrites);
+        }
+    }
+
+    private void flushWrites() {
+        PendingWrite[] writes;
+        synchronized (mPendingWrites) {
+            mWriteFlushScheduled = false;
+            writes = mPendingWrites.toArray(new PendingWrite[0]);
+            mPendingWrites.clear();
+        }
+        CarPropertyManager carPropertyManager = mCarPropertyManager;
+        if (carPropertyManager == null || writes.length == 0) {
+            return;
+        }
+        mWriteBatchCount++;
+        for (PendingWrite write : writes) {
+            mWriteCount++;
+            try {
+                switch (write.mType) {
+                    case TYPE_FLOAT:
+                        carPropertyManager.setFloatProperty(write.mPropertyId, write.mAreaId,
+                                write.mFloatValue);
+                        break;
+                    case TYPE_INT:
+                        carPropertyManager.setIntProperty(write.mPropertyId, write.mAreaId,
+                                write.mIntValue);
+                        break;
+                    case TYPE_BOOLEAN:
+                        carPropertyManager.setBooleanProperty(write.mPropertyId, write.mAreaId,
+                                write.mBooleanValue);
+                        break;
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to write property " + write.mPropertyId, e);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return TAG + "{properties=" + mProperties.size() + ", events=" + mEventCount
+                + ", dispatches=" + mDispatchCount + ", writes=" + mWriteCount
+                + ", writeBatches=" + mWriteBatchCount + "}";
+    }
+}
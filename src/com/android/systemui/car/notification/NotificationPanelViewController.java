@@ -86,6 +86,7 @@ public class NotificationPanelViewController extends OverlayPanelViewController
     private final boolean mEnableHeadsUpNotificationWhenNotificationPanelOpen;
     private final NotificationVisibilityLogger mNotificationVisibilityLogger;
 
+    private final boolean mUseHardwareLayerAnimation;
     private final boolean mFitTopSystemBarInset;
     private final boolean mFitBottomSystemBarInset;
     private final boolean mFitLeftSystemBarInset;
@@ -95,6 +96,10 @@ public class NotificationPanelViewController extends OverlayPanelViewController
     private float mBackgroundAlphaDiff;
 
     private CarNotificationView mNotificationView;
+    // The notification view's background, mutated once so that its alpha can be changed in place
+    // while the panel is dragged.
+    private Drawable mNotificationBackground;
+    private int mNotificationBackgroundAlpha = -1;
     private View mHandleBar;
     private RecyclerView mNotificationList;
     private NotificationViewController mNotificationViewController;
@@ -172,6 +177,9 @@ public class NotificationPanelViewController extends OverlayPanelViewController
                 com.android.car.notification.R.bool
                         .config_enableHeadsUpNotificationWhenNotificationPanelOpen);
 
+        mUseHardwareLayerAnimation = mResources.getBoolean(
+                R.bool.config_notificationPanelHardwareLayerAnimation);
+
         mFitTopSystemBarInset = mResources.getBoolean(
                 R.bool.config_notif_panel_inset_by_top_systembar);
         mFitBottomSystemBarInset = mResources.getBoolean(
@@ -303,6 +311,9 @@ public class NotificationPanelViewController extends OverlayPanelViewController
     private void onNotificationViewInflated() {
         // Find views.
         mNotificationView = getLayout().findViewById(R.id.notification_view);
+        mNotificationBackground = mNotificationView.getBackground() == null
+                ? null : mNotificationView.getBackground().mutate();
+        mNotificationBackgroundAlpha = -1;
         setupHandleBar();
         setupNotificationPanel();
 
@@ -332,7 +343,7 @@ public class NotificationPanelViewController extends OverlayPanelViewController
         mCarServiceProvider.addListener(car -> {
             CarUxRestrictionsManager carUxRestrictionsManager =
                     (CarUxRestrictionsManager)
-                            car.getCarManager(Car.CAR_UX_RESTRICTION_SERVICE);
+                            mCarServiceProvider.getCarManager(Car.CAR_UX_RESTRICTION_SERVICE);
             mCarUxRestrictionManagerWrapper.setCarUxRestrictionsManager(
                     carUxRestrictionsManager);
 
@@ -343,7 +354,7 @@ public class NotificationPanelViewController extends OverlayPanelViewController
                     mCarUxRestrictionManagerWrapper,
                     mNotificationDataManager);
             mNotificationViewController.enable();
-        });
+        }, CarServiceProvider.PRIORITY_UI_CRITICAL);
     }
 
     private void setupHandleBar() {
@@ -559,13 +570,21 @@ public class NotificationPanelViewController extends OverlayPanelViewController
             }
         }
 
-        if (mNotificationView.getHeight() > 0) {
-            Drawable background = mNotificationView.getBackground().mutate();
-            background.setAlpha((int) (getBackgroundAlpha(y) * 255));
-            mNotificationView.setBackground(background);
+        if (mNotificationBackground != null && mNotificationView.getHeight() > 0) {
+            int alpha = (int) (getBackgroundAlpha(y) * 255);
+            // Changing the alpha invalidates the view, so it is skipped if unchanged.
+            if (alpha != mNotificationBackgroundAlpha) {
+                mNotificationBackgroundAlpha = alpha;
+                mNotificationBackground.setAlpha(alpha);
+            }
         }
     }
 
+    @Override
+    protected boolean shouldUseHardwareLayerAnimation() {
+        return mUseHardwareLayerAnimation;
+    }
+
     @Override
     protected boolean shouldAllowClosingScroll() {
         // Unless the notification list is at the end, the panel shouldn't be allowed to
@@ -619,7 +638,7 @@ public class NotificationPanelViewController extends OverlayPanelViewController
                     : diff;
             // Ensure the position is within the overlay panel.
             y = Math.max(0, Math.min(y, getLayout().getHeight()));
-            setViewClipBounds((int) y);
+            setViewClipBoundsOnNextFrame((int) y);
             return true;
         }
     }
@@ -20,14 +20,19 @@ import android.os.RemoteException;
 import android.util.ArraySet;
 import android.util.Log;
 
+import androidx.annotation.VisibleForTesting;
+
 import com.android.car.notification.AlertEntry;
 import com.android.car.notification.NotificationDataManager;
 import com.android.internal.statusbar.IStatusBarService;
 import com.android.internal.statusbar.NotificationVisibility;
 import com.android.systemui.dagger.SysUISingleton;
+import com.android.systemui.dagger.qualifiers.Main;
 import com.android.systemui.dagger.qualifiers.UiBackground;
+import com.android.systemui.util.concurrency.DelayableExecutor;
+import com.android.systemui.util.time.SystemClock;
 
-import java.util.Set;
+import java.util.List;
 import java.util.concurrent.Executor;
 
 import javax.inject.Inject;
@@ -35,116 +40,203 @@ import javax.inject.Inject;
 /**
  * Handles notification logging, in particular, logging which notifications are visible and which
  * are not.
+ *
+ * The keys of the notifications last reported as visible are kept between reports, so that only
+ * the notifications whose visibility changed are sent to StatusBarService. Reports are sent at most
+ * once every {@link #MIN_REPORT_INTERVAL_MS} while the panel is visible; visibility requests
+ * received in between are collapsed into the next report. Hiding the panel is reported right away.
  */
 @SysUISingleton
 public class NotificationVisibilityLogger {
 
     private static final String TAG = "NotificationVisibilityLogger";
 
-    private final ArraySet<NotificationVisibility> mCurrentlyVisible = new ArraySet<>();
-    private final ArraySet<NotificationVisibility> mNewlyVisible = new ArraySet<>();
-    private final ArraySet<NotificationVisibility> mPreviouslyVisible = new ArraySet<>();
-    private final ArraySet<NotificationVisibility> mTmpCurrentlyVisible = new ArraySet<>();
+    @VisibleForTesting
+    static final long MIN_REPORT_INTERVAL_MS = 250;
 
     private final IStatusBarService mBarService;
     private final Executor mUiBgExecutor;
+    private final DelayableExecutor mMainExecutor;
+    private final SystemClock mSystemClock;
     private final NotificationDataManager mNotificationDataManager;
 
-    private boolean mIsVisible;
+    // Keys of the notifications last reported as visible. Only accessed on the ui background
+    // executor.
+    private ArraySet<String> mVisibleKeys = new ArraySet<>();
+    private ArraySet<String> mTmpVisibleKeys = new ArraySet<>();
+
+    private volatile boolean mIsVisible;
+    private long mLastReportUptimeMs = -MIN_REPORT_INTERVAL_MS;
+    private Runnable mCancelPendingReport;
+
+    private int mLogRequestCount;
+    private volatile int mReportCount;
+    private volatile int mBinderCallCount;
 
     private final Runnable mVisibilityReporter = new Runnable() {
 
         @Override
         public void run() {
-            if (mIsVisible) {
-                int count = mNotificationDataManager.getVisibleNotifications().size();
-                for (AlertEntry alertEntry : mNotificationDataManager.getVisibleNotifications()) {
-                    NotificationVisibility visObj = NotificationVisibility.obtain(
-                            alertEntry.getKey(),
-                            /* rank= */ -1,
-                            count,
-                            mIsVisible,
-                            NotificationVisibility.NotificationLocation.LOCATION_MAIN_AREA);
-                    mTmpCurrentlyVisible.add(visObj);
-                    if (!mCurrentlyVisible.contains(visObj)) {
-                        mNewlyVisible.add(visObj);
+            mReportCount++;
+            List<AlertEntry> visibleNotifications = mIsVisible
+                    ? mNotificationDataManager.getVisibleNotifications() : null;
+            int count = visibleNotifications == null ? 0 : visibleNotifications.size();
+            for (int i = 0; i < count; i++) {
+                mTmpVisibleKeys.add(visibleNotifications.get(i).getKey());
+            }
+
+            int newlyVisibleCount = 0;
+            for (int i = 0; i < mTmpVisibleKeys.size(); i++) {
+                if (!mVisibleKeys.contains(mTmpVisibleKeys.valueAt(i))) {
+                    newlyVisibleCount++;
+                }
+            }
+            int noLongerVisibleCount = mVisibleKeys.size()
+                    - (mTmpVisibleKeys.size() - newlyVisibleCount);
+
+            if (newlyVisibleCount > 0 || noLongerVisibleCount > 0) {
+                // Visibility objects are only created for the notifications whose visibility
+                // changed.
+                NotificationVisibility[] newlyVisible =
+                        new NotificationVisibility[newlyVisibleCount];
+                NotificationVisibility[] noLongerVisible =
+                        new NotificationVisibility[noLongerVisibleCount];
+                int n = 0;
+                for (int i = 0; i < mTmpVisibleKeys.size(); i++) {
+                    String key = mTmpVisibleKeys.valueAt(i);
+                    if (!mVisibleKeys.contains(key)) {
+                        newlyVisible[n++] = obtainVisibility(key, count, /* visible= */ true);
                     }
                 }
+                n = 0;
+                for (int i = 0; i < mVisibleKeys.size(); i++) {
+                    String key = mVisibleKeys.valueAt(i);
+                    if (!mTmpVisibleKeys.contains(key)) {
+                        noLongerVisible[n++] = obtainVisibility(key, count, /* visible= */ false);
+                    }
+                }
+                onNotificationVisibilityChanged(newlyVisible, noLongerVisible);
             }
-            mPreviouslyVisible.addAll(mCurrentlyVisible);
-            mPreviouslyVisible.removeAll(mTmpCurrentlyVisible);
-            onNotificationVisibilityChanged(mNewlyVisible, mPreviouslyVisible);
-
-            recycleAllVisibilityObjects(mCurrentlyVisible);
-            mCurrentlyVisible.addAll(mTmpCurrentlyVisible);
 
-            recycleAllVisibilityObjects(mPreviouslyVisible);
-            recycleAllVisibilityObjects(mNewlyVisible);
-            recycleAllVisibilityObjects(mTmpCurrentlyVisible);
+            ArraySet<String> previouslyVisibleKeys = mVisibleKeys;
+            mVisibleKeys = mTmpVisibleKeys;
+            mTmpVisibleKeys = previouslyVisibleKeys;
+            mTmpVisibleKeys.clear();
         }
     };
 
     @Inject
     public NotificationVisibilityLogger(
             @UiBackground Executor uiBgExecutor,
+            @Main DelayableExecutor mainExecutor,
+            SystemClock systemClock,
             IStatusBarService barService,
             NotificationDataManager notificationDataManager) {
         mUiBgExecutor = uiBgExecutor;
+        mMainExecutor = mainExecutor;
+        mSystemClock = systemClock;
         mBarService = barService;
         mNotificationDataManager = notificationDataManager;
     }
 
-    /** Triggers a visibility report update to be sent to StatusBarService. */
+    /**
+     * Triggers a visibility report update to be sent to StatusBarService. Called on the main
+     * thread.
+     */
     public void log(boolean isVisible) {
+        mLogRequestCount++;
         mIsVisible = isVisible;
-        mUiBgExecutor.execute(mVisibilityReporter);
+        long timeSinceLastReport = mSystemClock.uptimeMillis() - mLastReportUptimeMs;
+        if (!isVisible || timeSinceLastReport >= MIN_REPORT_INTERVAL_MS) {
+            reportNow();
+            return;
+        }
+        if (mCancelPendingReport == null) {
+            mCancelPendingReport = mMainExecutor.executeDelayed(this::reportNow,
+                    MIN_REPORT_INTERVAL_MS - timeSinceLastReport);
+        }
     }
 
-    /** Stops logging, clearing all visibility objects. */
+    /** Stops logging, clearing all visibility state. */
     public void stop() {
-        recycleAllVisibilityObjects(mCurrentlyVisible);
+        cancelPendingReport();
+        mUiBgExecutor.execute(() -> mVisibleKeys.clear());
+    }
+
+    /** Returns the number of visibility reports requested through {@link #log(boolean)}. */
+    public int getLogRequestCount() {
+        return mLogRequestCount;
     }
 
     /**
-     * Notify StatusBarService of change in notifications' visibility.
+     * Returns the number of calls to StatusBarService that were saved, either because requests
+     * were collapsed into a single report or because nothing changed since the last report.
      */
-    private void onNotificationVisibilityChanged(
-            Set<NotificationVisibility> newlyVisible, Set<NotificationVisibility> noLongerVisible) {
-        if (newlyVisible.isEmpty() && noLongerVisible.isEmpty()) {
-            return;
+    public int getBinderCallsSaved() {
+        return mLogRequestCount - mBinderCallCount;
+    }
+
+    @VisibleForTesting
+    int getReportCount() {
+        return mReportCount;
+    }
+
+    @VisibleForTesting
+    int getBinderCallCount() {
+        return mBinderCallCount;
+    }
+
+    private void reportNow() {
+        cancelPendingReport();
+        mLastReportUptimeMs = mSystemClock.uptimeMillis();
+        mUiBgExecutor.execute(mVisibilityReporter);
+    }
+
+    private void cancelPendingReport() {
+        if (mCancelPendingReport != null) {
+            mCancelPendingReport.run();
+            mCancelPendingReport = null;
         }
+    }
 
+    /**
+     * Notify StatusBarService of change in notifications' visibility. The visibility objects are
+     * recycled once the call returns.
+     */
+    private void onNotificationVisibilityChanged(
+            NotificationVisibility[] newlyVisible, NotificationVisibility[] noLongerVisible) {
+        mBinderCallCount++;
         try {
-            mBarService.onNotificationVisibilityChanged(
-                    cloneVisibilitiesAsArr(newlyVisible), cloneVisibilitiesAsArr(noLongerVisible));
+            mBarService.onNotificationVisibilityChanged(newlyVisible, noLongerVisible);
         } catch (RemoteException e) {
             // Won't fail unless the world has ended.
             Log.e(TAG, "Failed to notify StatusBarService of notification visibility change");
+        } finally {
+            recycle(newlyVisible);
+            recycle(noLongerVisible);
         }
     }
 
-    /**
-     * Clears array and recycles NotificationVisibility objects for reuse.
-     */
-    private static void recycleAllVisibilityObjects(ArraySet<NotificationVisibility> array) {
-        for (int i = 0; i < array.size(); i++) {
-            array.valueAt(i).recycle();
+    private static void recycle(NotificationVisibility[] visibilities) {
+        for (NotificationVisibility visibility : visibilities) {
+            visibility.recycle();
         }
-        array.clear();
     }
 
-    /**
-     * Converts Set of NotificationVisibility objects to primitive array.
-     */
-    private static NotificationVisibility[] cloneVisibilitiesAsArr(Set<NotificationVisibility> c) {
-        NotificationVisibility[] array = new NotificationVisibility[c.size()];
-        int i = 0;
-        for (NotificationVisibility nv : c) {
-            if (nv != null) {
-                array[i] = nv.clone();
-            }
-            i++;
-        }
-        return array;
+    private static NotificationVisibility obtainVisibility(String key, int count,
+            boolean visible) {
+        return NotificationVisibility.obtain(
+                key,
+                /* rank= */ -1,
+                count,
+                visible,
+                NotificationVisibility.NotificationLocation.LOCATION_MAIN_AREA);
+    }
+
+    @Override
+    public String toString() {
+        return TAG + "{logRequests=" + mLogRequestCount + ", reports=" + mReportCount
+                + ", binderCalls=" + mBinderCallCount + ", binderCallsSaved="
+                + getBinderCallsSaved() + "}";
     }
 }
@@ -46,7 +46,8 @@ public class PowerManagerHelper {
         mCarServiceProvider = carServiceProvider;
         mCarServiceLifecycleListener = car -> {
             Log.d(TAG, "Car Service connected");
-            mCarPowerManager = (CarPowerManager) car.getCarManager(Car.POWER_SERVICE);
+            mCarPowerManager = (CarPowerManager) mCarServiceProvider.getCarManager(
+                    Car.POWER_SERVICE);
             if (mCarPowerManager != null) {
                 mCarPowerManager.setListener(mCarPowerStateListener);
             } else {
@@ -66,6 +67,8 @@ public class PowerManagerHelper {
      * Connect to Car service.
      */
     public void connectToCarService() {
-        mCarServiceProvider.addListener(mCarServiceLifecycleListener);
+        // Only the power state listener is set up here, which the UI does not wait for.
+        mCarServiceProvider.addListener(mCarServiceLifecycleListener,
+                CarServiceProvider.PRIORITY_BACKGROUND);
     }
 }
@@ -98,13 +98,25 @@ public class UserNameViewController {
         }
     }
 
+    /**
+     * Reapplies the current driver's user name to the attached {@link TextView}, if any.
+     */
+    public void refreshUser() {
+        if (mUserNameView == null) {
+            return;
+        }
+        updateUser(mCarDeviceProvisionedController.getCurrentUser());
+    }
+
     /**
      * Clean up the controller and unregister receiver.
      */
     public void removeAll() {
+        if (mUserNameView != null) {
+            mBroadcastDispatcher.unregisterReceiver(mUserUpdateReceiver);
+        }
         mUserNameView = null;
         if (mUserLifecycleListenerRegistered) {
-            mBroadcastDispatcher.unregisterReceiver(mUserUpdateReceiver);
             if (mCarUserManager != null) {
                 mCarUserManager.removeListener(mUserLifecycleListener);
             }
@@ -114,13 +126,24 @@ public class UserNameViewController {
 
     private void registerForUserChangeEvents() {
         // Register for user switching
-        mCarServiceProvider.addListener(car -> {
-            mCarUserManager = (CarUserManager) car.getCarManager(Car.CAR_USER_SERVICE);
-            if (mCarUserManager != null && !mUserLifecycleListenerRegistered) {
-                mCarUserManager.addListener(Runnable::run, mUserLifecycleListener);
-                mUserLifecycleListenerRegistered = true;
-            } else {
-                Log.e(TAG, "CarUserManager could not be obtained.");
+        mCarServiceProvider.addListener(new CarServiceProvider.CarServiceOnConnectedListener() {
+            @Override
+            public void onConnected(Car car) {
+                mCarUserManager = (CarUserManager) mCarServiceProvider.getCarManager(
+                        Car.CAR_USER_SERVICE);
+                if (mCarUserManager != null && !mUserLifecycleListenerRegistered) {
+                    mCarUserManager.addListener(Runnable::run, mUserLifecycleListener);
+                    mUserLifecycleListenerRegistered = true;
+                } else {
+                    Log.e(TAG, "CarUserManager could not be obtained.");
+                }
+            }
+
+            @Override
+            public void onDisconnected() {
+                // The listener went away with the car service; register it again on reconnect.
+                mCarUserManager = null;
+                mUserLifecycleListenerRegistered = false;
             }
         });
         // Also register for user info changing
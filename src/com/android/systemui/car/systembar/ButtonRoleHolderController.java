@@ -26,7 +26,6 @@ import android.graphics.drawable.Drawable;
 import android.os.UserHandle;
 import android.util.Log;
 import android.view.View;
-import android.view.ViewGroup;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.systemui.car.CarDeviceProvisionedController;
@@ -74,17 +73,23 @@ public class ButtonRoleHolderController {
      * @param v the View that may contain CarFacetButtons
      */
     void addAllButtonsWithRoleName(View v) {
-        if (v instanceof CarSystemBarButton) {
-            CarSystemBarButton button = (CarSystemBarButton) v;
+        addAllButtonsWithRoleName(CarSystemBarViewRegistry.build(v));
+    }
+
+    /**
+     * Add the CarSystemBarButtons of a bar that opted to be associated with a {@link RoleManager}
+     * role type.
+     *
+     * @param registry the views of the bar
+     */
+    void addAllButtonsWithRoleName(CarSystemBarViewRegistry registry) {
+        List<CarSystemBarButton> buttons = registry.getButtons();
+        for (int i = 0; i < buttons.size(); i++) {
+            CarSystemBarButton button = buttons.get(i);
             String roleName = button.getRoleName();
             if (roleName != null && button.isDefaultAppIconForRoleEnabled()) {
                 addButtonWithRoleName(button, roleName);
             }
-        } else if (v instanceof ViewGroup) {
-            ViewGroup viewGroup = (ViewGroup) v;
-            for (int i = 0; i < viewGroup.getChildCount(); i++) {
-                addAllButtonsWithRoleName(viewGroup.getChildAt(i));
-            }
         }
     }
 
@@ -106,6 +111,13 @@ public class ButtonRoleHolderController {
         }
     }
 
+    /** Updates the icons of all registered buttons for the current user's role holders. */
+    void updateAllIcons() {
+        for (String roleName : mButtonMap.keySet()) {
+            updateIcon(roleName);
+        }
+    }
+
     @VisibleForTesting
     void onRoleChanged(String roleName, UserHandle user) {
         if (RoleManager.ROLE_ASSISTANT.equals(roleName)
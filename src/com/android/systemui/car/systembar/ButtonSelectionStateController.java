@@ -24,14 +24,10 @@ import android.app.ActivityTaskManager;
 import android.app.ActivityTaskManager.RootTaskInfo;
 import android.content.ComponentName;
 import android.content.Context;
-import android.content.Intent;
-import android.content.pm.PackageManager;
-import android.content.pm.ResolveInfo;
 import android.os.RemoteException;
 import android.util.Log;
 import android.view.Display;
 import android.view.View;
-import android.view.ViewGroup;
 
 import com.android.systemui.dagger.SysUISingleton;
 
@@ -61,10 +57,13 @@ public class ButtonSelectionStateController {
     protected ButtonMap mButtonsByComponentName = new ButtonMap();
     protected HashSet<CarSystemBarButton> mSelectedButtons;
     protected Context mContext;
+    protected PackageCategoryIndex mPackageCategoryIndex;
 
     @Inject
-    public ButtonSelectionStateController(Context context) {
+    public ButtonSelectionStateController(Context context,
+            PackageCategoryIndex packageCategoryIndex) {
         mContext = context;
+        mPackageCategoryIndex = packageCategoryIndex;
         mSelectedButtons = new HashSet<>();
     }
 
@@ -75,14 +74,21 @@ public class ButtonSelectionStateController {
      * @param v the View that may contain CarFacetButtons
      */
     protected void addAllButtonsWithSelectionState(View v) {
-        if (v instanceof CarSystemBarButton) {
-            if (((CarSystemBarButton) v).hasSelectionState()) {
-                addButtonWithSelectionState((CarSystemBarButton) v);
-            }
-        } else if (v instanceof ViewGroup) {
-            ViewGroup viewGroup = (ViewGroup) v;
-            for (int i = 0; i < viewGroup.getChildCount(); i++) {
-                addAllButtonsWithSelectionState(viewGroup.getChildAt(i));
+        addAllButtonsWithSelectionState(CarSystemBarViewRegistry.build(v));
+    }
+
+    /**
+     * Add the CarSystemBarButtons of a bar that opted in to be highlighted when the active
+     * application is associated with them.
+     *
+     * @param registry the views of the bar
+     */
+    protected void addAllButtonsWithSelectionState(CarSystemBarViewRegistry registry) {
+        List<CarSystemBarButton> buttons = registry.getButtons();
+        for (int i = 0; i < buttons.size(); i++) {
+            CarSystemBarButton button = buttons.get(i);
+            if (button.hasSelectionState()) {
+                addButtonWithSelectionState(button);
             }
         }
     }
@@ -165,6 +171,7 @@ public class ButtonSelectionStateController {
         String[] categories = carSystemBarButton.getCategories();
         for (int i = 0; i < categories.length; i++) {
             mButtonsByCategory.add(categories[i], carSystemBarButton);
+            mPackageCategoryIndex.addCategory(categories[i]);
         }
 
         String[] packages = carSystemBarButton.getPackages();
@@ -210,7 +217,7 @@ public class ButtonSelectionStateController {
             selectedButtons = mButtonsByPackage.get(packageName);
         }
         if (selectedButtons == null) {
-            String category = getPackageCategory(packageName);
+            String category = mPackageCategoryIndex.getCategory(packageName);
             if (category != null) {
                 selectedButtons = mButtonsByCategory.get(category);
             }
@@ -227,25 +234,6 @@ public class ButtonSelectionStateController {
                 mButtonsByComponentName.get(componentName.flattenToString());
     }
 
-    private String getPackageCategory(String packageName) {
-        PackageManager pm = mContext.getPackageManager();
-        Set<String> supportedCategories = mButtonsByCategory.keySet();
-        for (String category : supportedCategories) {
-            Intent intent = new Intent();
-            intent.setPackage(packageName);
-            intent.setAction(Intent.ACTION_MAIN);
-            intent.addCategory(category);
-            List<ResolveInfo> list = pm.queryIntentActivities(intent, 0);
-            if (list.size() > 0) {
-                // Cache this package name into ButtonsByPackage map, so we won't have to query
-                // all categories next time this package name shows up.
-                mButtonsByPackage.put(packageName, mButtonsByCategory.get(category));
-                return category;
-            }
-        }
-        return null;
-    }
-
     // simple multi-map
     private static class ButtonMap extends HashMap<String, HashSet<CarSystemBarButton>> {
 
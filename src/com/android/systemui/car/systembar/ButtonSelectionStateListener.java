@@ -16,47 +16,196 @@
 
 package com.android.systemui.car.systembar;
 
+import android.app.ActivityManager.RunningTaskInfo;
 import android.app.ActivityTaskManager;
+import android.app.ActivityTaskManager.RootTaskInfo;
+import android.os.RemoteException;
 import android.util.Log;
+import android.view.Choreographer;
+
+import androidx.annotation.VisibleForTesting;
 
 import com.android.systemui.dagger.SysUISingleton;
 import com.android.systemui.shared.system.TaskStackChangeListener;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import javax.inject.Inject;
 
 /**
  * An implementation of TaskStackChangeListener, that listens for changes in the system
  * task stack and notifies the navigation bar.
+ *
+ * A snapshot of the root tasks is kept between callbacks. Callbacks that carry enough information
+ * (task removed, moved to front or moved to another display) are applied to the snapshot as
+ * deltas; the root tasks are only fetched again from the activity task manager when a callback
+ * cannot be expressed as a delta. All callbacks received within a frame are collapsed into a
+ * single selection update.
  */
 @SysUISingleton
 class ButtonSelectionStateListener extends TaskStackChangeListener {
     private static final String TAG = ButtonSelectionStateListener.class.getSimpleName();
 
     private final ButtonSelectionStateController mButtonSelectionStateController;
+    private final Choreographer.FrameCallback mFrameCallback = frameTimeNanos ->
+            flushPendingUpdate();
+
+    // Root tasks in order of recency, as last reported by the activity task manager and updated
+    // by the deltas received since then.
+    private final List<RootTaskInfo> mTaskSnapshot = new ArrayList<>();
+    private boolean mSnapshotValid;
+    private boolean mUpdatePending;
+    private int mSnapshotFetchCount;
+    private int mDeltaCount;
 
     @Inject
-    ButtonSelectionStateListener(ButtonSelectionStateController carSystemButtonController) {
+    ButtonSelectionStateListener(ButtonSelectionStateController carSystemButtonController,
+            PackageCategoryIndex packageCategoryIndex) {
         mButtonSelectionStateController = carSystemButtonController;
+        // Packages may resolve to a different category once the index is (re)built, so the
+        // selection state is reapplied from the current snapshot.
+        packageCategoryIndex.addListener(this::scheduleUpdate);
     }
 
     @Override
     public void onTaskStackChanged() {
-        try {
-            mButtonSelectionStateController.taskChanged(
-                    ActivityTaskManager.getService().getAllRootTaskInfos());
-        } catch (Exception e) {
-            Log.e(TAG, "Getting RootTaskInfo from activity task manager failed", e);
+        // This callback carries no information about what changed, so the snapshot has to be
+        // fetched again.
+        invalidateSnapshot();
+    }
+
+    @Override
+    public void onTaskRemoved(int taskId) {
+        int index = indexOfRootTask(taskId);
+        if (!mSnapshotValid || index < 0) {
+            // Either there is nothing to apply the delta to or a child task was removed, in which
+            // case the new top activity of its root task is unknown.
+            invalidateSnapshot();
+            return;
         }
+        mTaskSnapshot.remove(index);
+        onDeltaApplied();
+    }
+
+    @Override
+    public void onTaskMovedToFront(RunningTaskInfo taskInfo) {
+        int index = findRootTaskContaining(taskInfo.taskId);
+        if (!mSnapshotValid || index < 0 || taskInfo.topActivity == null) {
+            // A task that is not part of the snapshot yet (e.g. a newly created task) has no
+            // known root task, so it cannot be placed without fetching the root tasks again.
+            invalidateSnapshot();
+            return;
+        }
+        RootTaskInfo rootTaskInfo = mTaskSnapshot.remove(index);
+        rootTaskInfo.topActivity = taskInfo.topActivity;
+        mTaskSnapshot.add(0, rootTaskInfo);
+        onDeltaApplied();
     }
 
     @Override
     public void onTaskDisplayChanged(int taskId, int newDisplayId) {
-        try {
-            mButtonSelectionStateController.taskChanged(
-                    ActivityTaskManager.getService().getAllRootTaskInfos());
-        } catch (Exception e) {
-            Log.e(TAG, "Getting RootTaskInfo from activity task manager failed", e);
+        int index = indexOfRootTask(taskId);
+        if (!mSnapshotValid || index < 0) {
+            invalidateSnapshot();
+            return;
+        }
+        mTaskSnapshot.get(index).displayId = newDisplayId;
+        onDeltaApplied();
+    }
+
+    /**
+     * Applies any callbacks received since the last update to the button selection state. Called
+     * once per frame while an update is pending.
+     */
+    @VisibleForTesting
+    void flushPendingUpdate() {
+        if (!mUpdatePending) {
+            return;
+        }
+        mUpdatePending = false;
+        if (!mSnapshotValid) {
+            try {
+                List<RootTaskInfo> rootTaskInfos = fetchRootTaskInfos();
+                mTaskSnapshot.clear();
+                mTaskSnapshot.addAll(rootTaskInfos);
+                mSnapshotValid = true;
+                mSnapshotFetchCount++;
+            } catch (Exception e) {
+                Log.e(TAG, "Getting RootTaskInfo from activity task manager failed", e);
+                return;
+            }
+        }
+        mButtonSelectionStateController.taskChanged(mTaskSnapshot);
+    }
+
+    @VisibleForTesting
+    List<RootTaskInfo> fetchRootTaskInfos() throws RemoteException {
+        return ActivityTaskManager.getService().getAllRootTaskInfos();
+    }
+
+    @VisibleForTesting
+    int getSnapshotFetchCount() {
+        return mSnapshotFetchCount;
+    }
+
+    @VisibleForTesting
+    int getDeltaCount() {
+        return mDeltaCount;
+    }
+
+    @VisibleForTesting
+    void postFrameCallback(Choreographer.FrameCallback callback) {
+        Choreographer.getInstance().postFrameCallback(callback);
+    }
+
+    private void invalidateSnapshot() {
+        mSnapshotValid = false;
+        scheduleUpdate();
+    }
+
+    private void onDeltaApplied() {
+        mDeltaCount++;
+        scheduleUpdate();
+    }
+
+    private void scheduleUpdate() {
+        if (mUpdatePending) {
+            return;
         }
+        mUpdatePending = true;
+        postFrameCallback(mFrameCallback);
+    }
+
+    private int indexOfRootTask(int taskId) {
+        for (int i = 0; i < mTaskSnapshot.size(); i++) {
+            if (mTaskSnapshot.get(i).taskId == taskId) {
+                return i;
+            }
+        }
+        return -1;
+    }
 
+    private int findRootTaskContaining(int taskId) {
+        for (int i = 0; i < mTaskSnapshot.size(); i++) {
+            RootTaskInfo rootTaskInfo = mTaskSnapshot.get(i);
+            if (rootTaskInfo.taskId == taskId) {
+                return i;
+            }
+            // Moving one of several child tasks to the front can reorder them within the root
+            // task, so only root tasks with a single child are handled as a delta.
+            int[] childTaskIds = rootTaskInfo.childTaskIds;
+            if (childTaskIds != null && childTaskIds.length == 1 && childTaskIds[0] == taskId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return TAG + "{snapshotValid=" + mSnapshotValid + ", snapshotSize=" + mTaskSnapshot.size()
+                + ", snapshotFetches=" + mSnapshotFetchCount + ", deltasApplied=" + mDeltaCount
+                + "}";
     }
 }
@@ -28,6 +28,9 @@ import android.content.Context;
 import android.inputmethodservice.InputMethodService;
 import android.os.IBinder;
 import android.os.RemoteException;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.view.Choreographer;
 import android.view.Display;
 import android.view.View;
 import android.view.ViewGroup;
@@ -43,7 +46,6 @@ import com.android.systemui.SystemUI;
 import com.android.systemui.car.CarDeviceProvisionedController;
 import com.android.systemui.car.CarDeviceProvisionedListener;
 import com.android.systemui.dagger.qualifiers.Main;
-import com.android.systemui.dagger.qualifiers.UiBackground;
 import com.android.systemui.plugins.DarkIconDispatcher;
 import com.android.systemui.shared.system.ActivityManagerWrapper;
 import com.android.systemui.statusbar.AutoHideUiElement;
@@ -59,7 +61,6 @@ import com.android.systemui.util.concurrency.DelayableExecutor;
 
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
-import java.util.concurrent.Executor;
 
 import javax.inject.Inject;
 
@@ -75,7 +76,6 @@ public class CarSystemBar extends SystemUI implements CommandQueue.Callbacks {
     private final AutoHideController mAutoHideController;
     private final ButtonSelectionStateListener mButtonSelectionStateListener;
     private final DelayableExecutor mExecutor;
-    private final Executor mUiBgExecutor;
     private final IStatusBarService mBarService;
     private final Lazy<KeyguardStateController> mKeyguardStateControllerLazy;
     private final Lazy<PhoneStatusBarPolicy> mIconPolicyLazy;
@@ -102,11 +102,16 @@ public class CarSystemBar extends SystemUI implements CommandQueue.Callbacks {
     private CarSystemBarView mBottomSystemBarView;
     private CarSystemBarView mLeftSystemBarView;
     private CarSystemBarView mRightSystemBarView;
+    // Whether the bars currently attached to the windows are the provisioned variants.
+    private boolean mAttachedBarsSetUp;
 
     // To be attached to the navigation bars such that they can close the notification panel if
     // it's open.
     private boolean mDeviceIsSetUpForUser = true;
     private boolean mIsUserSetupInProgress = false;
+    // Time from the last user setup change to the first frame of the restarted bars.
+    private volatile long mLastSetupChangeLatencyMs = -1;
+    private volatile int mSetupChangeCount;
 
     private AppearanceRegion[] mAppearanceRegions = new AppearanceRegion[0];
     @BarTransitions.TransitionMode
@@ -128,7 +133,6 @@ public class CarSystemBar extends SystemUI implements CommandQueue.Callbacks {
             AutoHideController autoHideController,
             ButtonSelectionStateListener buttonSelectionStateListener,
             @Main DelayableExecutor mainExecutor,
-            @UiBackground Executor uiBgExecutor,
             IStatusBarService barService,
             Lazy<KeyguardStateController> keyguardStateControllerLazy,
             Lazy<PhoneStatusBarPolicy> iconPolicyLazy,
@@ -144,7 +148,6 @@ public class CarSystemBar extends SystemUI implements CommandQueue.Callbacks {
         mAutoHideController = autoHideController;
         mButtonSelectionStateListener = buttonSelectionStateListener;
         mExecutor = mainExecutor;
-        mUiBgExecutor = uiBgExecutor;
         mBarService = barService;
         mKeyguardStateControllerLazy = keyguardStateControllerLazy;
         mIconPolicyLazy = iconPolicyLazy;
@@ -233,7 +236,12 @@ public class CarSystemBar extends SystemUI implements CommandQueue.Callbacks {
 
                     @Override
                     public void onUserSetupChanged() {
-                        mExecutor.execute(() -> restartNavBarsIfNecessary());
+                        long changedUptimeMs = SystemClock.uptimeMillis();
+                        mExecutor.execute(() -> {
+                            if (restartNavBarsIfNecessary()) {
+                                recordSetupChangeLatency(changedUptimeMs);
+                            }
+                        });
                     }
 
                     @Override
@@ -243,11 +251,13 @@ public class CarSystemBar extends SystemUI implements CommandQueue.Callbacks {
                 });
 
         createSystemBar(result);
+        prewarmNextNavBars();
 
         mActivityManagerWrapper = ActivityManagerWrapper.getInstance();
         mActivityManagerWrapper.registerTaskStackListener(mButtonSelectionStateListener);
 
-        mUiBgExecutor.execute(mCarSystemBarController::connectToHvac);
+        // The vehicle property binder and the HVAC controller are only accessed on the main thread.
+        mExecutor.execute(mCarSystemBarController::connectToHvac);
 
         // Lastly, call to the icon policy to install/update all the icons.
         // Must be called on the main thread due to the use of observeForever() in
@@ -257,7 +267,8 @@ public class CarSystemBar extends SystemUI implements CommandQueue.Callbacks {
         });
     }
 
-    private void restartNavBarsIfNecessary() {
+    // Returns true if the nav bars were restarted.
+    private boolean restartNavBarsIfNecessary() {
         boolean currentUserSetup = mCarDeviceProvisionedController.isCurrentUserSetup();
         boolean currentUserSetupInProgress = mCarDeviceProvisionedController
                 .isCurrentUserSetupInProgress();
@@ -266,39 +277,37 @@ public class CarSystemBar extends SystemUI implements CommandQueue.Callbacks {
             mDeviceIsSetUpForUser = currentUserSetup;
             mIsUserSetupInProgress = currentUserSetupInProgress;
             restartNavBars();
+            return true;
         }
+        return false;
+    }
+
+    // Records the time from a user setup change to the first frame drawn with the restarted bars.
+    private void recordSetupChangeLatency(long changedUptimeMs) {
+        Choreographer.getInstance().postFrameCallback(frameTimeNanos -> {
+            mLastSetupChangeLatencyMs = SystemClock.uptimeMillis() - changedUptimeMs;
+            mSetupChangeCount++;
+        });
     }
 
     /**
-     * Remove all content from navbars and rebuild them. Used to allow for different nav bars
-     * before and after the device is provisioned. . Also for change of density and font size.
+     * Reconcile the content of the navbars with the current user's setup state. Used to allow for
+     * different nav bars before and after the device is provisioned.
+     *
+     * If the variant of the attached bars already matches, the views and their registrations with
+     * the sub-controllers are kept and only their state is reapplied. Otherwise the registrations
+     * are rebuilt and only the bars that changed are swapped in their windows.
      */
     private void restartNavBars() {
-        // remove and reattach all components such that we don't keep a reference to unused ui
-        // elements
-        mCarSystemBarController.removeAll();
-
-        if (mTopSystemBarWindow != null) {
-            mTopSystemBarWindow.removeAllViews();
-            mTopSystemBarView = null;
-        }
-
-        if (mBottomSystemBarWindow != null) {
-            mBottomSystemBarWindow.removeAllViews();
-            mBottomSystemBarView = null;
-        }
-
-        if (mLeftSystemBarWindow != null) {
-            mLeftSystemBarWindow.removeAllViews();
-            mLeftSystemBarView = null;
-        }
-
-        if (mRightSystemBarWindow != null) {
-            mRightSystemBarWindow.removeAllViews();
-            mRightSystemBarView = null;
+        Trace.beginSection("CarSystemBar#restartNavBars");
+        if (mAttachedBarsSetUp == isDeviceSetupForUser()) {
+            mCarSystemBarController.refreshAll();
+        } else {
+            // remove and reattach all components such that we don't keep a reference to unused ui
+            // elements
+            mCarSystemBarController.removeAll();
+            buildNavBarContent();
         }
-
-        buildNavBarContent();
         // If the UI was rebuilt (day/night change or user change) while the keyguard was up we need
         // to correctly respect that state.
         if (mKeyguardStateControllerLazy.get().isShowing()) {
@@ -310,6 +319,19 @@ public class CarSystemBar extends SystemUI implements CommandQueue.Callbacks {
         // Upon restarting the Navigation Bar, CarFacetButtonController should immediately apply the
         // selection state that reflects the current task stack.
         mButtonSelectionStateListener.onTaskStackChanged();
+        Trace.endSection();
+
+        prewarmNextNavBars();
+    }
+
+    /**
+     * Inflates in the background the bars for the opposite provisioned state, which are the ones
+     * the next restart is most likely to switch to.
+     */
+    private void prewarmNextNavBars() {
+        boolean nextIsSetUp = !isDeviceSetupForUser();
+        // Posted so that the inflation does not compete with the first frame of the current bars.
+        mExecutor.execute(() -> mCarSystemBarController.prewarmBars(nextIsSetUp));
     }
 
     private boolean isDeviceSetupForUser() {
@@ -337,29 +359,37 @@ public class CarSystemBar extends SystemUI implements CommandQueue.Callbacks {
     }
 
     private void buildNavBarContent() {
-        mTopSystemBarView = mCarSystemBarController.getTopBar(isDeviceSetupForUser());
-        if (mTopSystemBarView != null) {
-            mSystemBarConfigs.insetSystemBar(SystemBarConfigs.TOP, mTopSystemBarView);
-            mTopSystemBarWindow.addView(mTopSystemBarView);
-        }
+        boolean isSetUp = isDeviceSetupForUser();
+        mTopSystemBarView = swapBar(SystemBarConfigs.TOP, mTopSystemBarWindow,
+                mTopSystemBarView, mCarSystemBarController.getTopBar(isSetUp));
+        mBottomSystemBarView = swapBar(SystemBarConfigs.BOTTOM, mBottomSystemBarWindow,
+                mBottomSystemBarView, mCarSystemBarController.getBottomBar(isSetUp));
+        mLeftSystemBarView = swapBar(SystemBarConfigs.LEFT, mLeftSystemBarWindow,
+                mLeftSystemBarView, mCarSystemBarController.getLeftBar(isSetUp));
+        mRightSystemBarView = swapBar(SystemBarConfigs.RIGHT, mRightSystemBarWindow,
+                mRightSystemBarView, mCarSystemBarController.getRightBar(isSetUp));
+        mAttachedBarsSetUp = isSetUp;
+    }
 
-        mBottomSystemBarView = mCarSystemBarController.getBottomBar(isDeviceSetupForUser());
-        if (mBottomSystemBarView != null) {
-            mSystemBarConfigs.insetSystemBar(SystemBarConfigs.BOTTOM, mBottomSystemBarView);
-            mBottomSystemBarWindow.addView(mBottomSystemBarView);
+    /**
+     * Replaces the bar attached to the window of the given side with the target bar, leaving the
+     * window untouched if the target bar is already attached to it.
+     *
+     * @return the bar attached to the window
+     */
+    private CarSystemBarView swapBar(int side, ViewGroup window, CarSystemBarView attached,
+            CarSystemBarView target) {
+        if (target == attached && (target == null || target.getParent() == window)) {
+            return attached;
         }
-
-        mLeftSystemBarView = mCarSystemBarController.getLeftBar(isDeviceSetupForUser());
-        if (mLeftSystemBarView != null) {
-            mSystemBarConfigs.insetSystemBar(SystemBarConfigs.LEFT, mLeftSystemBarView);
-            mLeftSystemBarWindow.addView(mLeftSystemBarView);
+        if (attached != null && window != null) {
+            window.removeView(attached);
         }
-
-        mRightSystemBarView = mCarSystemBarController.getRightBar(isDeviceSetupForUser());
-        if (mRightSystemBarView != null) {
-            mSystemBarConfigs.insetSystemBar(SystemBarConfigs.RIGHT, mRightSystemBarView);
-            mRightSystemBarWindow.addView(mRightSystemBarView);
+        if (target != null) {
+            mSystemBarConfigs.insetSystemBar(side, target);
+            window.addView(target);
         }
+        return target;
     }
 
     private void attachNavBarWindows() {
@@ -551,6 +581,8 @@ public class CarSystemBar extends SystemUI implements CommandQueue.Callbacks {
 
     @Override
     public void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        pw.print("  user setup changes=" + mSetupChangeCount);
+        pw.println(" last latency to first frame=" + mLastSetupChangeLatencyMs + "ms");
         pw.print("  mTaskStackListener=");
         pw.println(mButtonSelectionStateListener);
         pw.print("  mBottomSystemBarView=");
@@ -17,6 +17,7 @@
 package com.android.systemui.car.systembar;
 
 import android.content.Context;
+import android.util.ArraySet;
 import android.view.View;
 import android.view.ViewGroup;
 
@@ -57,6 +58,8 @@ public class CarSystemBarController {
     private CarSystemBarView mBottomView;
     private CarSystemBarView mLeftView;
     private CarSystemBarView mRightView;
+    // Bars whose views are registered with the sub-controllers since the last removeAll().
+    private final ArraySet<CarSystemBarView> mRegisteredBars = new ArraySet<>();
 
     @Inject
     public CarSystemBarController(Context context,
@@ -109,6 +112,7 @@ public class CarSystemBarController {
 
     /** Clean up */
     public void removeAll() {
+        mRegisteredBars.clear();
         mHvacControllerLazy.get().removeAllComponents();
         mButtonSelectionStateController.removeAll();
         mButtonRoleHolderController.removeAll();
@@ -116,6 +120,16 @@ public class CarSystemBarController {
         mPrivacyChipViewControllerLazy.get().removeAll();
     }
 
+    /**
+     * Reapplies the per-user state of the current bars without re-registering their views with
+     * the sub-controllers. Used when the bars are kept across a restart.
+     */
+    public void refreshAll() {
+        mButtonRoleHolderController.updateAllIcons();
+        mUserNameViewControllerLazy.get().refreshUser();
+        mPrivacyChipViewControllerLazy.get().refreshUser();
+    }
+
     /** Gets the top window if configured to do so. */
     @Nullable
     public ViewGroup getTopWindow() {
@@ -173,6 +187,25 @@ public class CarSystemBarController {
         return true;
     }
 
+    /**
+     * Inflates the enabled bars for the given provisioned state in the background, so that
+     * switching to them later does not block the main thread on inflation.
+     */
+    public void prewarmBars(boolean isSetUp) {
+        if (mShowTop) {
+            mCarSystemBarViewFactory.prewarmBar(SystemBarConfigs.TOP, isSetUp);
+        }
+        if (mShowBottom) {
+            mCarSystemBarViewFactory.prewarmBar(SystemBarConfigs.BOTTOM, isSetUp);
+        }
+        if (mShowLeft) {
+            mCarSystemBarViewFactory.prewarmBar(SystemBarConfigs.LEFT, isSetUp);
+        }
+        if (mShowRight) {
+            mCarSystemBarViewFactory.prewarmBar(SystemBarConfigs.RIGHT, isSetUp);
+        }
+    }
+
     /** Gets the top navigation bar with the appropriate listeners set. */
     @Nullable
     public CarSystemBarView getTopBar(boolean isSetUp) {
@@ -225,11 +258,24 @@ public class CarSystemBarController {
             NotificationsShadeController notifShadeController) {
         view.setStatusBarWindowTouchListener(statusBarTouchListener);
         view.setNotificationsPanelController(notifShadeController);
-        mButtonSelectionStateController.addAllButtonsWithSelectionState(view);
-        mButtonRoleHolderController.addAllButtonsWithRoleName(view);
-        mHvacControllerLazy.get().addTemperatureViewToController(view);
-        mUserNameViewControllerLazy.get().addUserNameView(view);
-        mPrivacyChipViewControllerLazy.get().addPrivacyChipView(view);
+        if (!mRegisteredBars.add(view)) {
+            // Already registered with the sub-controllers since the last rebuild.
+            return;
+        }
+        CarSystemBarViewRegistry registry = view.getViewRegistry();
+        mButtonSelectionStateController.addAllButtonsWithSelectionState(registry);
+        mButtonRoleHolderController.addAllButtonsWithRoleName(registry);
+        mHvacControllerLazy.get().addTemperatureViewsToController(
+                registry.getTemperatureViews());
+        // The registry holds the views themselves, which the controllers find by id without
+        // walking the bar again.
+        if (registry.getUserNameView() != null) {
+            mUserNameViewControllerLazy.get().addUserNameView(registry.getUserNameView());
+        }
+        if (registry.getPrivacyChipView() != null) {
+            mPrivacyChipViewControllerLazy.get().addPrivacyChipView(
+                    registry.getPrivacyChipView());
+        }
     }
 
     /** Sets a touch listener for the top navigation bar. */
@@ -58,6 +58,7 @@ public class CarSystemBarView extends LinearLayout {
     private View mOcclusionButtons;
     // used to wire in open/close gestures for notifications
     private OnTouchListener mStatusBarWindowTouchListener;
+    private CarSystemBarViewRegistry mViewRegistry;
 
     public CarSystemBarView(Context context, AttributeSet attrs) {
         super(context, attrs);
@@ -115,6 +116,17 @@ public class CarSystemBarView extends LinearLayout {
         return super.onInterceptTouchEvent(ev);
     }
 
+    /**
+     * Returns the views of this bar that the system bar sub-controllers consume. The view tree is
+     * only walked the first time this is called.
+     */
+    CarSystemBarViewRegistry getViewRegistry() {
+        if (mViewRegistry == null) {
+            mViewRegistry = CarSystemBarViewRegistry.build(this);
+        }
+        return mViewRegistry;
+    }
+
     /** Sets the notifications panel controller. */
     public void setNotificationsPanelController(NotificationsShadeController controller) {
         mNotificationsShadeController = controller;
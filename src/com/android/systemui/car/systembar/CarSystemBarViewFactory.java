@@ -18,25 +18,45 @@ package com.android.systemui.car.systembar;
 
 import android.content.Context;
 import android.util.ArrayMap;
+import android.util.ArraySet;
 import android.util.Log;
+import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 
 import androidx.annotation.LayoutRes;
+import androidx.annotation.VisibleForTesting;
 
 import com.android.car.ui.FocusParkingView;
 import com.android.systemui.R;
 import com.android.systemui.dagger.SysUISingleton;
+import com.android.systemui.dagger.qualifiers.Main;
 import com.android.systemui.statusbar.FeatureFlags;
 import com.android.systemui.statusbar.phone.StatusBarIconController;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
 import javax.inject.Inject;
 
-/** A factory that creates and caches views for navigation bars. */
+/**
+ * A factory that creates and caches views for navigation bars.
+ *
+ * Bars are inflated lazily on the main thread when first requested. Bars that are likely to be
+ * requested later (e.g. the provisioned variants while the current user is being set up) can be
+ * pre-warmed with {@link #prewarmBar(int, boolean)}, which inflates the layout on a background
+ * thread and only attaches it to the cache on the main thread. As in AsyncLayoutInflater, the
+ * background thread has no Looper, so that views which need one fail to inflate there and are
+ * inflated on the main thread instead, and it uses its own LayoutInflater.
+ */
 @SysUISingleton
 public class CarSystemBarViewFactory {
 
     private static final String TAG = CarSystemBarViewFactory.class.getSimpleName();
+    private static final String INFLATION_THREAD = "CarSystemBarInflater";
+    private static final long INFLATION_THREAD_KEEP_ALIVE_SECONDS = 10;
     private static final ArrayMap<Type, Integer> sLayoutMap = setupLayoutMapping();
 
     private static ArrayMap<Type, Integer> setupLayoutMapping() {
@@ -56,8 +76,11 @@ public class CarSystemBarViewFactory {
     private final ArrayMap<Type, CarSystemBarView> mCachedViewMap = new ArrayMap<>(
             Type.values().length);
     private final ArrayMap<Type, ViewGroup> mCachedContainerMap = new ArrayMap<>();
+    private final ArraySet<Type> mPendingInflations = new ArraySet<>();
     private final FeatureFlags mFeatureFlags;
     private final StatusBarIconController mIconController;
+    private final Executor mInflationExecutor;
+    private final Executor mMainExecutor;
 
     /** Type of navigation bar to be created. */
     private enum Type {
@@ -75,11 +98,34 @@ public class CarSystemBarViewFactory {
     public CarSystemBarViewFactory(
             Context context,
             FeatureFlags featureFlags,
-            StatusBarIconController iconController
+            StatusBarIconController iconController,
+            @Main Executor mainExecutor
+    ) {
+        this(context, featureFlags, iconController, createInflationExecutor(), mainExecutor);
+    }
+
+    @VisibleForTesting
+    CarSystemBarViewFactory(
+            Context context,
+            FeatureFlags featureFlags,
+            StatusBarIconController iconController,
+            Executor inflationExecutor,
+            Executor mainExecutor
     ) {
         mContext = context;
         mFeatureFlags = featureFlags;
         mIconController = iconController;
+        mInflationExecutor = inflationExecutor;
+        mMainExecutor = mainExecutor;
+    }
+
+    // A single thread without a Looper, which stops when it has been idle for a while.
+    private static Executor createInflationExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(/* corePoolSize= */ 1,
+                /* maximumPoolSize= */ 1, INFLATION_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> new Thread(runnable, INFLATION_THREAD));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
 
     /** Gets the top window. */
@@ -122,6 +168,59 @@ public class CarSystemBarViewFactory {
         return getBar(isSetUp, Type.RIGHT, Type.RIGHT_UNPROVISIONED);
     }
 
+    /**
+     * Inflates the bar for the given side and provisioned state on a background thread so that a
+     * later call to get the bar does not pay for the inflation. Does nothing if the bar is already
+     * cached or being inflated.
+     */
+    public void prewarmBar(int side, boolean isSetUp) {
+        Type type;
+        switch (side) {
+            case SystemBarConfigs.TOP:
+                type = isSetUp ? Type.TOP : Type.TOP_UNPROVISIONED;
+                break;
+            case SystemBarConfigs.BOTTOM:
+                type = isSetUp ? Type.BOTTOM : Type.BOTTOM_UNPROVISIONED;
+                break;
+            case SystemBarConfigs.LEFT:
+                type = isSetUp ? Type.LEFT : Type.LEFT_UNPROVISIONED;
+                break;
+            case SystemBarConfigs.RIGHT:
+                type = isSetUp ? Type.RIGHT : Type.RIGHT_UNPROVISIONED;
+                break;
+            default:
+                return;
+        }
+        if (mCachedViewMap.containsKey(type) || !mPendingInflations.add(type)) {
+            return;
+        }
+
+        @LayoutRes int barLayout = sLayoutMap.get(type);
+        mInflationExecutor.execute(() -> {
+            CarSystemBarView view;
+            try {
+                // The inflater of the context is not thread safe and is used on the main thread.
+                LayoutInflater inflater = LayoutInflater.from(mContext).cloneInContext(mContext);
+                view = (CarSystemBarView) inflater.inflate(barLayout, /* root= */ null);
+            } catch (RuntimeException e) {
+                // Some views, e.g. those creating a Handler, need a Looper; those bars are
+                // inflated lazily on the main thread instead.
+                Log.w(TAG, "Failed to inflate " + type.name() + " in the background", e);
+                view = null;
+            }
+            CarSystemBarView inflatedView = view;
+            mMainExecutor.execute(() -> {
+                mPendingInflations.remove(type);
+                // The bar may have been requested, and inflated on the main thread, in the
+                // meantime.
+                if (inflatedView == null || mCachedViewMap.containsKey(type)) {
+                    return;
+                }
+                cacheBar(type, inflatedView);
+            });
+        });
+    }
+
     private ViewGroup getWindowCached(Type type) {
         if (mCachedContainerMap.containsKey(type)) {
             return mCachedContainerMap.get(type);
@@ -157,7 +256,11 @@ public class CarSystemBarViewFactory {
 
         CarSystemBarView view = (CarSystemBarView) View.inflate(mContext, barLayout,
                 /* root= */ null);
+        cacheBar(type, view);
+        return mCachedViewMap.get(type);
+    }
 
+    private void cacheBar(Type type, CarSystemBarView view) {
         view.setupIconController(mFeatureFlags, mIconController);
 
         // Include a FocusParkingView at the beginning. The rotary controller "parks" the focus here
@@ -165,6 +268,5 @@ public class CarSystemBarViewFactory {
         view.addView(new FocusParkingView(mContext), 0);
 
         mCachedViewMap.put(type, view);
-        return mCachedViewMap.get(type);
     }
 }
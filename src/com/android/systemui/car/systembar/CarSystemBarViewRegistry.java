@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.car.systembar;
+
+import android.view.View;
+import android.view.ViewGroup;
+
+import androidx.annotation.Nullable;
+
+import com.android.systemui.R;
+import com.android.systemui.car.hvac.TemperatureView;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The views of a system bar that the system bar sub-controllers are interested in, collected in a
+ * single traversal of the bar's view tree.
+ */
+public final class CarSystemBarViewRegistry {
+
+    private final List<CarSystemBarButton> mButtons = new ArrayList<>();
+    private final List<TemperatureView> mTemperatureViews = new ArrayList<>();
+    private View mUserNameView;
+    private View mPrivacyChipView;
+
+    private CarSystemBarViewRegistry() {
+    }
+
+    /** Walks the view tree of the given view once and collects the views of interest. */
+    public static CarSystemBarViewRegistry build(View root) {
+        CarSystemBarViewRegistry registry = new CarSystemBarViewRegistry();
+        registry.collect(root, /* insideButton= */ false, /* insideTemperatureView= */ false);
+        return registry;
+    }
+
+    /**
+     * Returns the {@link CarSystemBarButton}s of the bar, excluding buttons nested inside other
+     * buttons.
+     */
+    public List<CarSystemBarButton> getButtons() {
+        return Collections.unmodifiableList(mButtons);
+    }
+
+    /**
+     * Returns the {@link TemperatureView}s of the bar, excluding temperature views nested inside
+     * other temperature views.
+     */
+    public List<TemperatureView> getTemperatureViews() {
+        return Collections.unmodifiableList(mTemperatureViews);
+    }
+
+    /** Returns the first view with the {@code user_name_text} id, if any. */
+    @Nullable
+    public View getUserNameView() {
+        return mUserNameView;
+    }
+
+    /** Returns the first view with the {@code privacy_chip} id, if any. */
+    @Nullable
+    public View getPrivacyChipView() {
+        return mPrivacyChipView;
+    }
+
+    // Mirrors the traversals previously done by each sub-controller: buttons and temperature views
+    // are collected at the top-most level only, while ids are matched in pre-order like
+    // View#findViewById.
+    private void collect(View v, boolean insideButton, boolean insideTemperatureView) {
+        int id = v.getId();
+        if (mUserNameView == null && id == R.id.user_name_text) {
+            mUserNameView = v;
+        }
+        if (mPrivacyChipView == null && id == R.id.privacy_chip) {
+            mPrivacyChipView = v;
+        }
+        if (v instanceof CarSystemBarButton && !insideButton) {
+            mButtons.add((CarSystemBarButton) v);
+            insideButton = true;
+        }
+        if (v instanceof TemperatureView && !insideTemperatureView) {
+            mTemperatureViews.add((TemperatureView) v);
+            insideTemperatureView = true;
+        }
+        if (v instanceof ViewGroup) {
+            ViewGroup viewGroup = (ViewGroup) v;
+            for (int i = 0; i < viewGroup.getChildCount(); i++) {
+                collect(viewGroup.getChildAt(i), insideButton, insideTemperatureView);
+            }
+        }
+    }
+}
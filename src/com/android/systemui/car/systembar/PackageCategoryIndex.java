@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.car.systembar;
+
+import android.annotation.MainThread;
+import android.annotation.Nullable;
+import android.app.ActivityManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.os.UserHandle;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.SparseArray;
+
+import androidx.annotation.VisibleForTesting;
+
+import com.android.systemui.dagger.SysUISingleton;
+import com.android.systemui.dagger.qualifiers.Background;
+import com.android.systemui.dagger.qualifiers.Main;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import javax.inject.Inject;
+
+/**
+ * Index of the launcher category each installed package belongs to, for the categories used by
+ * CarSystemBarButtons with selection state.
+ *
+ * The index is built per user on a background thread with one PackageManager query per category
+ * and kept up to date through package added/removed/changed broadcasts. Lookups are done on the
+ * main thread and never query the PackageManager; packages that are not indexed yet resolve to no
+ * category until the index is published, at which point listeners are notified.
+ */
+@SysUISingleton
+public class PackageCategoryIndex {
+
+    /** Notified on the main thread whenever the index changes. */
+    interface OnIndexChangedListener {
+        /** Called after entries were added to or removed from the index. */
+        void onIndexChanged();
+    }
+
+    private final Context mContext;
+    private final PackageManager mPackageManager;
+    private final Executor mBackgroundExecutor;
+    private final Executor mMainExecutor;
+    // Categories in registration order; the first matching category wins for a package.
+    private final Set<String> mCategories = new LinkedHashSet<>();
+    // userId -> (packageName -> category). Only accessed on the main thread.
+    private final SparseArray<Map<String, String>> mCategoryByPackage = new SparseArray<>();
+    // Users for which a full index build has been scheduled but not published yet.
+    private final ArraySet<Integer> mPendingUsers = new ArraySet<>();
+    private final List<OnIndexChangedListener> mListeners = new ArrayList<>();
+
+    private final BroadcastReceiver mPackageChangeReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (intent.getData() == null) {
+                return;
+            }
+            String packageName = intent.getData().getSchemeSpecificPart();
+            int userId = getSendingUserId();
+            if (Intent.ACTION_PACKAGE_REMOVED.equals(intent.getAction())) {
+                if (!intent.getBooleanExtra(Intent.EXTRA_REPLACING, /* defaultValue= */ false)) {
+                    onPackageRemoved(userId, packageName);
+                }
+                return;
+            }
+            onPackageUpdated(userId, packageName);
+        }
+    };
+
+    private boolean mReceiverRegistered;
+    private boolean mRebuildScheduled;
+
+    @Inject
+    public PackageCategoryIndex(Context context, @Background Executor backgroundExecutor,
+            @Main Executor mainExecutor) {
+        mContext = context;
+        mPackageManager = context.getPackageManager();
+        mBackgroundExecutor = backgroundExecutor;
+        mMainExecutor = mainExecutor;
+    }
+
+    /** Adds a listener that is notified on the main thread when the index changes. */
+    @MainThread
+    void addListener(OnIndexChangedListener listener) {
+        mListeners.add(listener);
+    }
+
+    /** Removes a previously added {@link OnIndexChangedListener}. */
+    @MainThread
+    void removeListener(OnIndexChangedListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Starts indexing packages for the given category. The first registered category triggers the
+     * initial build for the current user and starts listening for package changes.
+     */
+    @MainThread
+    void addCategory(String category) {
+        if (!mCategories.add(category)) {
+            return;
+        }
+        registerPackageChangeReceiverIfNeeded();
+        // Categories are usually added in a burst while a bar is set up, so the rebuild is
+        // deferred until all of them are known.
+        if (!mRebuildScheduled) {
+            mRebuildScheduled = true;
+            mMainExecutor.execute(this::rebuildAll);
+        }
+    }
+
+    /**
+     * Returns the category the package belongs to for the current user, or {@code null} if it does
+     * not belong to any registered category or has not been indexed yet.
+     */
+    @MainThread
+    @Nullable
+    String getCategory(String packageName) {
+        int userId = getCurrentUser();
+        Map<String, String> index = mCategoryByPackage.get(userId);
+        if (index == null) {
+            // The current user changed since the last build; index it in the background.
+            scheduleBuild(userId);
+            return null;
+        }
+        return index.get(packageName);
+    }
+
+    @VisibleForTesting
+    int getCurrentUser() {
+        return ActivityManager.getCurrentUser();
+    }
+
+    private void registerPackageChangeReceiverIfNeeded() {
+        if (mReceiverRegistered) {
+            return;
+        }
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addDataScheme("package");
+        mContext.registerReceiverAsUser(
+                mPackageChangeReceiver,
+                UserHandle.ALL, // Necessary because CarSystemUi lives in User 0
+                filter,
+                /* broadcastPermission= */ null,
+                /* scheduler= */ null);
+        mReceiverRegistered = true;
+    }
+
+    private void rebuildAll() {
+        mRebuildScheduled = false;
+        // Builds already in flight were started with an outdated category list.
+        mPendingUsers.clear();
+        for (int i = 0; i < mCategoryByPackage.size(); i++) {
+            scheduleBuild(mCategoryByPackage.keyAt(i));
+        }
+        scheduleBuild(getCurrentUser());
+    }
+
+    private void scheduleBuild(int userId) {
+        if (mCategories.isEmpty() || !mPendingUsers.add(userId)) {
+            return;
+        }
+        List<String> categories = new ArrayList<>(mCategories);
+        mBackgroundExecutor.execute(() -> {
+            Map<String, String> index = buildIndex(userId, categories);
+            mMainExecutor.execute(() -> {
+                mPendingUsers.remove(userId);
+                mCategoryByPackage.put(userId, index);
+                notifyListeners();
+            });
+        });
+    }
+
+    private void onPackageUpdated(int userId, String packageName) {
+        if (mCategoryByPackage.get(userId) == null) {
+            // Not indexed yet; the package will be picked up by the full build.
+            return;
+        }
+        List<String> categories = new ArrayList<>(mCategories);
+        mBackgroundExecutor.execute(() -> {
+            String category = resolveCategory(userId, packageName, categories);
+            mMainExecutor.execute(() -> {
+                Map<String, String> index = mCategoryByPackage.get(userId);
+                if (index == null) {
+                    return;
+                }
+                if (category == null) {
+                    index.remove(packageName);
+                } else {
+                    index.put(packageName, category);
+                }
+                notifyListeners();
+            });
+        });
+    }
+
+    private void onPackageRemoved(int userId, String packageName) {
+        Map<String, String> index = mCategoryByPackage.get(userId);
+        if (index != null && index.remove(packageName) != null) {
+            notifyListeners();
+        }
+    }
+
+    private Map<String, String> buildIndex(int userId, List<String> categories) {
+        Map<String, String> index = new ArrayMap<>();
+        for (String category : categories) {
+            Intent intent = new Intent(Intent.ACTION_MAIN);
+            intent.addCategory(category);
+            List<ResolveInfo> list = mPackageManager.queryIntentActivitiesAsUser(intent,
+                    /* flags= */ 0, userId);
+            for (ResolveInfo info : list) {
+                if (info.activityInfo != null) {
+                    index.putIfAbsent(info.activityInfo.packageName, category);
+                }
+            }
+        }
+        return index;
+    }
+
+    @Nullable
+    private String resolveCategory(int userId, String packageName, List<String> categories) {
+        for (String category : categories) {
+            Intent intent = new Intent(Intent.ACTION_MAIN);
+            intent.setPackage(packageName);
+            intent.addCategory(category);
+            if (!mPackageManager.queryIntentActivitiesAsUser(intent, /* flags= */ 0,
+                    userId).isEmpty()) {
+                return category;
+            }
+        }
+        return null;
+    }
+
+    private void notifyListeners() {
+        for (int i = 0; i < mListeners.size(); i++) {
+            mListeners.get(i).onIndexChanged();
+        }
+    }
+}
@@ -210,6 +210,16 @@ public class PrivacyChipViewController implements View.OnClickListener {
         setUser(mCarDeviceProvisionedController.getCurrentUser());
     }
 
+    /**
+     * Reapplies the microphone state of the current user to the attached privacy chip, if any.
+     */
+    public void refreshUser() {
+        if (mPrivacyChip == null) {
+            return;
+        }
+        setUser(mCarDeviceProvisionedController.getCurrentUser());
+    }
+
     /**
      * Cleans up the controller and removes callbacks.
      */
@@ -253,13 +263,24 @@ public class PrivacyChipViewController implements View.OnClickListener {
 
     private void registerForUserChangeEvents() {
         // Register for user switching
-        mCarServiceProvider.addListener(car -> {
-            mCarUserManager = (CarUserManager) car.getCarManager(Car.CAR_USER_SERVICE);
-            if (mCarUserManager != null && !mUserLifecycleListenerRegistered) {
-                mCarUserManager.addListener(Runnable::run, mUserLifecycleListener);
-                mUserLifecycleListenerRegistered = true;
-            } else {
-                Log.e(TAG, "CarUserManager could not be obtained.");
+        mCarServiceProvider.addListener(new CarServiceProvider.CarServiceOnConnectedListener() {
+            @Override
+            public void onConnected(Car car) {
+                mCarUserManager = (CarUserManager) mCarServiceProvider.getCarManager(
+                        Car.CAR_USER_SERVICE);
+                if (mCarUserManager != null && !mUserLifecycleListenerRegistered) {
+                    mCarUserManager.addListener(Runnable::run, mUserLifecycleListener);
+                    mUserLifecycleListenerRegistered = true;
+                } else {
+                    Log.e(TAG, "CarUserManager could not be obtained.");
+                }
+            }
+
+            @Override
+            public void onDisconnected() {
+                // The listener went away with the car service; register it again on reconnect.
+                mCarUserManager = null;
+                mUserLifecycleListenerRegistered = false;
             }
         });
         // Also register for user info changing
@@ -32,8 +32,11 @@ import com.android.systemui.car.CarServiceProvider;
 import com.android.systemui.car.window.OverlayViewController;
 import com.android.systemui.car.window.OverlayViewGlobalStateController;
 import com.android.systemui.dagger.SysUISingleton;
+import com.android.systemui.dagger.qualifiers.Background;
 import com.android.systemui.dagger.qualifiers.Main;
 
+import java.util.concurrent.Executor;
+
 import javax.inject.Inject;
 
 /**
@@ -44,6 +47,10 @@ public class FullScreenUserSwitcherViewController extends OverlayViewController
     private final Context mContext;
     private final Resources mResources;
     private final CarServiceProvider mCarServiceProvider;
+    private final UserAvatarCache mUserAvatarCache;
+    private final UserOperationRunner mUserOperationRunner;
+    private final Executor mBackgroundExecutor;
+    private final Executor mMainExecutor;
     private final int mShortAnimationDuration;
     private CarUserManager mCarUserManager;
     private UserGridRecyclerView mUserGridView;
@@ -54,15 +61,24 @@ public class FullScreenUserSwitcherViewController extends OverlayViewController
             Context context,
             @Main Resources resources,
             CarServiceProvider carServiceProvider,
+            UserAvatarCache userAvatarCache,
+            UserOperationRunner userOperationRunner,
+            @Background Executor backgroundExecutor,
+            @Main Executor mainExecutor,
             OverlayViewGlobalStateController overlayViewGlobalStateController) {
         super(R.id.fullscreen_user_switcher_stub, overlayViewGlobalStateController);
         mContext = context;
         mResources = resources;
         mCarServiceProvider = carServiceProvider;
+        mUserAvatarCache = userAvatarCache;
+        mUserOperationRunner = userOperationRunner;
+        mBackgroundExecutor = backgroundExecutor;
+        mMainExecutor = mainExecutor;
         mCarServiceProvider.addListener(car -> {
-            mCarUserManager = (CarUserManager) car.getCarManager(Car.CAR_USER_SERVICE);
+            mCarUserManager = (CarUserManager) mCarServiceProvider.getCarManager(
+                    Car.CAR_USER_SERVICE);
             registerCarUserManagerIfPossible();
-        });
+        }, CarServiceProvider.PRIORITY_UI_CRITICAL);
         mShortAnimationDuration = mResources.getInteger(android.R.integer.config_shortAnimTime);
     }
 
@@ -86,6 +102,9 @@ public class FullScreenUserSwitcherViewController extends OverlayViewController
         GridLayoutManager layoutManager = new GridLayoutManager(mContext,
                 mResources.getInteger(R.integer.user_fullscreen_switcher_num_col));
         mUserGridView.setLayoutManager(layoutManager);
+        mUserGridView.setUserAvatarCache(mUserAvatarCache);
+        mUserGridView.setExecutors(mBackgroundExecutor, mMainExecutor);
+        mUserGridView.setUserOperationRunner(mUserOperationRunner);
         mUserGridView.buildAdapter();
         mUserGridView.setUserSelectionListener(mUserSelectionListener);
         registerCarUserManagerIfPossible();
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.car.userswitcher;
+
+import android.annotation.MainThread;
+import android.annotation.Nullable;
+import android.annotation.UserIdInt;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.UserInfo;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Shader;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.UserHandle;
+import android.os.UserManager;
+import android.util.ArrayMap;
+import android.util.LruCache;
+import android.util.SparseIntArray;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.systemui.broadcast.BroadcastDispatcher;
+import com.android.systemui.dagger.SysUISingleton;
+import com.android.systemui.dagger.qualifiers.Background;
+import com.android.systemui.dagger.qualifiers.Main;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+
+import javax.inject.Inject;
+
+/**
+ * Cache of the circular user avatars shown by the user switcher and the user switch transition
+ * view, keyed by user, icon version and size.
+ *
+ * Avatars are fetched from {@link UserManager}, scaled and rounded on the background executor
+ * and delivered on the main thread. The avatars of a user are invalidated when its info changes,
+ * which is the only place user info changes are tracked: the views showing the user notice them
+ * through {@link OnAvatarInvalidatedListener}. {@link UserHandle#USER_NULL} stands for the default
+ * guest avatar.
+ */
+@SysUISingleton
+public class UserAvatarCache {
+    private static final int MAX_SIZE_BYTES = 8 * 1024 * 1024;
+
+    private final Resources mResources;
+    private final UserManager mUserManager;
+    private final BroadcastDispatcher mBroadcastDispatcher;
+    private final Executor mBackgroundExecutor;
+    private final Executor mMainExecutor;
+    private final UserIconProvider mUserIconProvider = new UserIconProvider();
+    private final LruCache<Key, Bitmap> mAvatars = new LruCache<Key, Bitmap>(MAX_SIZE_BYTES) {
+        @Override
+        protected int sizeOf(Key key, Bitmap avatar) {
+            return avatar.getAllocationByteCount();
+        }
+    };
+    // Accessed on the main thread only.
+    private final SparseIntArray mIconVersions = new SparseIntArray();
+    private final Map<Key, List<OnAvatarLoadedListener>> mPendingLoads = new ArrayMap<>();
+    private final List<OnAvatarInvalidatedListener> mInvalidatedListeners = new ArrayList<>();
+    private boolean mReceiverRegistered;
+    private int mDecodeCount;
+
+    private final BroadcastReceiver mUserInfoReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            int userId = intent.getIntExtra(Intent.EXTRA_USER_HANDLE, UserHandle.USER_NULL);
+            if (userId != UserHandle.USER_NULL) {
+                invalidate(userId);
+            }
+        }
+    };
+
+    /** Listener of the avatars loaded by {@link #loadAvatar}. */
+    public interface OnAvatarLoadedListener {
+        /** Called on the main thread with a new drawable of the avatar of the given user. */
+        void onAvatarLoaded(@UserIdInt int userId, Drawable avatar);
+    }
+
+    /** Listener of the invalidation of the avatars of a user. */
+    public interface OnAvatarInvalidatedListener {
+        /** Called on the main thread once the cached avatars of the given user were dropped. */
+        void onAvatarInvalidated(@UserIdInt int userId);
+    }
+
+    @Inject
+    public UserAvatarCache(@Main Resources resources, UserManager userManager,
+            BroadcastDispatcher broadcastDispatcher, @Background Executor backgroundExecutor,
+            @Main Executor mainExecutor) {
+        mResources = resources;
+        mUserManager = userManager;
+        mBroadcastDispatcher = broadcastDispatcher;
+        mBackgroundExecutor = backgroundExecutor;
+        mMainExecutor = mainExecutor;
+    }
+
+    /**
+     * Loads the avatar of the given user at the given size. The listener is called right away if
+     * the avatar is cached, and once it is loaded otherwise. It is not called if the user does
+     * not exist.
+     */
+    @MainThread
+    public void loadAvatar(@UserIdInt int userId, int sizePx, OnAvatarLoadedListener listener) {
+        registerReceiverIfNeeded();
+        Key key = new Key(userId, getIconVersion(userId), sizePx);
+        Bitmap avatar = mAvatars.get(key);
+        if (avatar != null) {
+            listener.onAvatarLoaded(userId, new BitmapDrawable(mResources, avatar));
+            return;
+        }
+        List<OnAvatarLoadedListener> listeners = mPendingLoads.get(key);
+        if (listeners != null) {
+            listeners.add(listener);
+            return;
+        }
+        listeners = new ArrayList<>();
+        listeners.add(listener);
+        mPendingLoads.put(key, listeners);
+        mDecodeCount++;
+        mBackgroundExecutor.execute(() -> {
+            Bitmap loaded = decodeAvatar(userId, sizePx);
+            mMainExecutor.execute(() -> onAvatarDecoded(key, loaded));
+        });
+    }
+
+    /**
+     * Adds a listener notified when the info of a user changed, once its cached avatars were
+     * dropped.
+     */
+    @MainThread
+    public void addOnAvatarInvalidatedListener(OnAvatarInvalidatedListener listener) {
+        registerReceiverIfNeeded();
+        if (!mInvalidatedListeners.contains(listener)) {
+            mInvalidatedListeners.add(listener);
+        }
+    }
+
+    /** Removes a listener added with {@link #addOnAvatarInvalidatedListener}. */
+    @MainThread
+    public void removeOnAvatarInvalidatedListener(OnAvatarInvalidatedListener listener) {
+        mInvalidatedListeners.remove(listener);
+    }
+
+    /** Drops the cached avatars of the given user, whose icon may have changed. */
+    @MainThread
+    public void invalidate(@UserIdInt int userId) {
+        mIconVersions.put(userId, getIconVersion(userId) + 1);
+        for (Key key : mAvatars.snapshot().keySet()) {
+            if (key.mUserId == userId) {
+                mAvatars.remove(key);
+            }
+        }
+        for (int i = mInvalidatedListeners.size() - 1; i >= 0; i--) {
+            mInvalidatedListeners.get(i).onAvatarInvalidated(userId);
+        }
+    }
+
+    @VisibleForTesting
+    int getDecodeCount() {
+        return mDecodeCount;
+    }
+
+    private int getIconVersion(@UserIdInt int userId) {
+        return mIconVersions.get(userId, /* valueIfKeyNotFound= */ 0);
+    }
+
+    private void registerReceiverIfNeeded() {
+        if (mReceiverRegistered) {
+            return;
+        }
+        mReceiverRegistered = true;
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_USER_INFO_CHANGED);
+        filter.addAction(Intent.ACTION_USER_REMOVED);
+        mBroadcastDispatcher.registerReceiver(mUserInfoReceiver, filter, /* executor= */ null,
+                UserHandle.ALL);
+    }
+
+    private void onAvatarDecoded(Key key, @Nullable Bitmap avatar) {
+        List<OnAvatarLoadedListener> listeners = mPendingLoads.remove(key);
+        if (listeners == null) {
+            return;
+        }
+        if (key.mVersion != getIconVersion(key.mUserId)) {
+            // The icon changed while it was decoded, load the new one instead.
+            for (OnAvatarLoadedListener listener : listeners) {
+                loadAvatar(key.mUserId, key.mSizePx, listener);
+            }
+            return;
+        }
+        if (avatar == null) {
+            return;
+        }
+        mAvatars.put(key, avatar);
+        for (OnAvatarLoadedListener listener : listeners) {
+            listener.onAvatarLoaded(key.mUserId, new BitmapDrawable(mResources, avatar));
+        }
+    }
+
+    @Nullable
+    private Bitmap decodeAvatar(@UserIdInt int userId, int sizePx) {
+        Bitmap icon;
+        if (userId == UserHandle.USER_NULL) {
+            icon = mUserIconProvider.getGuestUserDefaultIcon(mResources);
+        } else {
+            UserInfo userInfo = mUserManager.getUserInfo(userId);
+            if (userInfo == null) {
+                return null;
+            }
+            icon = mUserIconProvider.getUserIcon(mUserManager, mResources, userInfo);
+        }
+        return createCircularBitmap(icon, sizePx);
+    }
+
+    private static Bitmap createCircularBitmap(Bitmap icon, int sizePx) {
+        Bitmap scaledIcon = Bitmap.createScaledBitmap(icon, sizePx, sizePx, /* filter= */ true);
+        Bitmap avatar = Bitmap.createBitmap(sizePx, sizePx, Bitmap.Config.ARGB_8888);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
+        paint.setShader(
+                new BitmapShader(scaledIcon, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP));
+        float radius = sizePx / 2f;
+        new Canvas(avatar).drawCircle(radius, radius, radius, paint);
+        return avatar;
+    }
+
+    private static final class Key {
+        final int mUserId;
+        final int mVersion;
+        final int mSizePx;
+
+        Key(int userId, int version, int sizePx) {
+            mUserId = userId;
+            mVersion = version;
+            mSizePx = sizePx;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return mUserId == key.mUserId && mVersion == key.mVersion && mSizePx == key.mSizePx;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mUserId, mVersion, mSizePx);
+        }
+    }
+}
@@ -41,12 +41,15 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.UserInfo;
 import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Color;
 import android.graphics.Rect;
+import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
-import android.os.AsyncTask;
 import android.os.UserHandle;
 import android.os.UserManager;
 import android.sysprop.CarProperties;
+import android.util.ArraySet;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -59,18 +62,25 @@ import android.widget.TextView;
 
 import androidx.core.graphics.drawable.RoundedBitmapDrawable;
 import androidx.core.graphics.drawable.RoundedBitmapDrawableFactory;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.android.car.admin.ui.UserAvatarView;
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.util.UserIcons;
 import com.android.systemui.R;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 /**
@@ -80,13 +90,28 @@ import java.util.stream.Collectors;
 public class UserGridRecyclerView extends RecyclerView {
     private static final String TAG = UserGridRecyclerView.class.getSimpleName();
     private static final int TIMEOUT_MS = CarProperties.user_hal_timeout().orElse(5_000) + 500;
+    // Stable ids of the records which are not users, which never collide with user ids.
+    private static final long START_GUEST_ITEM_ID = -2;
+    private static final long ADD_USER_ITEM_ID = -3;
+    private static final String OPERATION_ADD_USER = "addUser";
+    private static final String STAGE_CREATE_USER = "create";
+    private static final String STAGE_SWITCH_USER = "switch";
+    // Creating, then switching to the user, may each take up to TIMEOUT_MS.
+    private static final long ADD_USER_TIMEOUT_MS = 2L * TIMEOUT_MS;
 
     private UserSelectionListener mUserSelectionListener;
     private UserAdapter mAdapter;
     private CarUserManager mCarUserManager;
     private UserManager mUserManager;
     private Context mContext;
-    private UserIconProvider mUserIconProvider;
+    private UserAvatarCache mUserAvatarCache;
+    private UserOperationRunner mUserOperationRunner;
+    private Executor mBackgroundExecutor;
+    private Executor mMainExecutor;
+    // Users whose info changed since the user records were last queried.
+    private final ArraySet<Integer> mChangedUserIds = new ArraySet<>();
+    private boolean mUpdateInFlight;
+    private boolean mUpdateRequested;
 
     private final BroadcastReceiver mUserUpdateReceiver = new BroadcastReceiver() {
         @Override
@@ -95,11 +120,18 @@ public class UserGridRecyclerView extends RecyclerView {
         }
     };
 
+    // User info changes are tracked by the avatar cache, which invalidates the avatar of the user
+    // before the users are rebound.
+    private final UserAvatarCache.OnAvatarInvalidatedListener mAvatarInvalidatedListener =
+            userId -> {
+                mChangedUserIds.add(userId);
+                onUsersUpdate();
+            };
+
     public UserGridRecyclerView(Context context, AttributeSet attrs) {
         super(context, attrs);
         mContext = context;
         mUserManager = UserManager.get(mContext);
-        mUserIconProvider = new UserIconProvider();
 
         addItemDecoration(new ItemSpacingDecoration(mContext.getResources().getDimensionPixelSize(
                 R.dimen.car_user_switcher_vertical_spacing_between_users)));
@@ -115,16 +147,31 @@ public class UserGridRecyclerView extends RecyclerView {
     }
 
     /**
-     * Unregisters listener checking for any change to the users
+     * Listens to the avatar invalidations, which report the changes to the info of the users
+     */
+    @Override
+    public void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (mUserAvatarCache != null) {
+            mUserAvatarCache.addOnAvatarInvalidatedListener(mAvatarInvalidatedListener);
+        }
+    }
+
+    /**
+     * Unregisters listener checking for any change to the users, and cancels adding a user
      */
     @Override
     public void onDetachedFromWindow() {
         super.onDetachedFromWindow();
         unregisterForUserEvents();
+        if (mAdapter != null) {
+            mAdapter.cancelAddUser();
+        }
     }
 
     /**
-     * Initializes the adapter that populates the grid layout
+     * Initializes the adapter that populates the grid layout. The users are queried right away,
+     * so that the first frame of the grid shows them; later updates are queried in the background.
      */
     public void buildAdapter() {
         List<UserRecord> userRecords = createUserRecords(getUsersForUserGrid());
@@ -196,22 +243,72 @@ public class UserGridRecyclerView extends RecyclerView {
         mUserSelectionListener = userSelectionListener;
     }
 
+    /** Sets the {@link UserAvatarCache} to load avatars from, before the adapter is built. */
+    public void setUserAvatarCache(UserAvatarCache userAvatarCache) {
+        mUserAvatarCache = userAvatarCache;
+        if (isAttachedToWindow()) {
+            mUserAvatarCache.addOnAvatarInvalidatedListener(mAvatarInvalidatedListener);
+        }
+    }
+
+    /**
+     * Sets the executors the users are queried on and the grid is updated on, before the adapter
+     * is built.
+     */
+    public void setExecutors(Executor backgroundExecutor, Executor mainExecutor) {
+        mBackgroundExecutor = backgroundExecutor;
+        mMainExecutor = mainExecutor;
+    }
+
+    /** Sets the {@link UserOperationRunner} users are added with. */
+    public void setUserOperationRunner(UserOperationRunner userOperationRunner) {
+        mUserOperationRunner = userOperationRunner;
+    }
+
     /** Sets a {@link CarUserManager}. */
     public void setCarUserManager(CarUserManager carUserManager) {
         mCarUserManager = carUserManager;
     }
 
+    @VisibleForTesting
+    BroadcastReceiver getUserUpdateReceiver() {
+        return mUserUpdateReceiver;
+    }
+
+    /**
+     * Queries the user records and diffs them against the displayed ones in the background, then
+     * updates the pods which changed. Updates requested while one is in flight are coalesced into
+     * a single one, run once it completes.
+     */
     private void onUsersUpdate() {
-        mAdapter.clearUsers();
-        mAdapter.updateUsers(createUserRecords(getUsersForUserGrid()));
-        mAdapter.notifyDataSetChanged();
+        if (mUpdateInFlight) {
+            mUpdateRequested = true;
+            return;
+        }
+        mUpdateInFlight = true;
+        List<UserRecord> oldUserRecords = mAdapter.getUsers();
+        Set<Integer> changedUserIds = new ArraySet<>(mChangedUserIds);
+        mChangedUserIds.clear();
+        mBackgroundExecutor.execute(() -> {
+            List<UserRecord> newUserRecords = createUserRecords(getUsersForUserGrid());
+            DiffUtil.DiffResult diffResult = DiffUtil.calculateDiff(
+                    new UserRecordDiffCallback(oldUserRecords, newUserRecords, changedUserIds));
+            mMainExecutor.execute(() -> {
+                mUpdateInFlight = false;
+                mAdapter.updateUsers(newUserRecords);
+                diffResult.dispatchUpdatesTo(mAdapter);
+                if (mUpdateRequested) {
+                    mUpdateRequested = false;
+                    onUsersUpdate();
+                }
+            });
+        });
     }
 
     private void registerForUserEvents() {
         IntentFilter filter = new IntentFilter();
         filter.addAction(Intent.ACTION_USER_REMOVED);
         filter.addAction(Intent.ACTION_USER_ADDED);
-        filter.addAction(Intent.ACTION_USER_INFO_CHANGED);
         filter.addAction(Intent.ACTION_USER_SWITCHED);
         mContext.registerReceiverAsUser(
                 mUserUpdateReceiver,
@@ -223,6 +320,9 @@ public class UserGridRecyclerView extends RecyclerView {
 
     private void unregisterForUserEvents() {
         mContext.unregisterReceiver(mUserUpdateReceiver);
+        if (mUserAvatarCache != null) {
+            mUserAvatarCache.removeOnAvatarInvalidatedListener(mAvatarInvalidatedListener);
+        }
     }
 
     /**
@@ -236,6 +336,12 @@ public class UserGridRecyclerView extends RecyclerView {
         private final Resources mRes;
         private final String mGuestName;
         private final String mNewUserName;
+        private final int mAvatarSize;
+        // Shown while the avatar of a user is loading.
+        private final Drawable mAvatarPlaceholder = new ColorDrawable(Color.TRANSPARENT);
+        // Rendered once, the first time the add user record is bound.
+        private Bitmap mAddUserIcon;
+        private UserOperationRunner.Operation mAddUserOperation;
         // View that holds the add user button.  Used to enable/disable the view
         private View mAddUserView;
         // User record for the add user.  Need to call notifyUserSelected only if the user
@@ -246,24 +352,32 @@ public class UserGridRecyclerView extends RecyclerView {
             mRes = context.getResources();
             mContext = context;
             updateUsers(users);
+            setHasStableIds(true);
             mGuestName = mRes.getString(R.string.car_guest);
             mNewUserName = mRes.getString(R.string.car_new_user);
+            mAvatarSize = mRes.getDimensionPixelSize(R.dimen.car_user_switcher_image_avatar_size);
         }
 
         /**
-         * Clears list of user records.
+         * Returns the list of user records.
          */
-        public void clearUsers() {
-            mUsers.clear();
+        public List<UserRecord> getUsers() {
+            return mUsers;
         }
 
         /**
-         * Updates list of user records.
+         * Updates list of user records. The list is not modified afterwards, the caller notifies
+         * the changes.
          */
         public void updateUsers(List<UserRecord> users) {
             mUsers = users;
         }
 
+        @Override
+        public long getItemId(int position) {
+            return getUserRecordItemId(mUsers.get(position));
+        }
+
         @Override
         public UserAdapterViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
             View view = LayoutInflater.from(mContext)
@@ -277,15 +391,7 @@ public class UserGridRecyclerView extends RecyclerView {
         public void onBindViewHolder(UserAdapterViewHolder holder, int position) {
             UserRecord userRecord = mUsers.get(position);
 
-            Drawable circleIcon = getCircularUserRecordIcon(userRecord);
-
-            if (userRecord.mInfo != null) {
-                // User might have badges (like managed user)
-                holder.mUserAvatarImageView.setDrawableWithBadge(circleIcon, userRecord.mInfo.id);
-            } else {
-                // Guest or "Add User" don't have badges
-                holder.mUserAvatarImageView.setDrawable(circleIcon);
-            }
+            bindUserRecordIcon(holder, userRecord);
             holder.mUserNameTextView.setText(getUserRecordName(userRecord));
 
             holder.mView.setOnClickListener(v -> {
@@ -411,27 +517,44 @@ public class UserGridRecyclerView extends RecyclerView {
             }
         }
 
-        private Drawable getCircularUserRecordIcon(UserRecord userRecord) {
-            Drawable circleIcon;
-            switch (userRecord.mType) {
-                case UserRecord.START_GUEST:
-                    circleIcon = mUserIconProvider
-                            .getRoundedGuestDefaultIcon(mContext.getResources());
-                    break;
-                case UserRecord.ADD_USER:
-                    circleIcon = getCircularAddUserIcon();
-                    break;
-                default:
-                    circleIcon = mUserIconProvider.getRoundedUserIcon(userRecord.mInfo, mContext);
-                    break;
+        private void bindUserRecordIcon(UserAdapterViewHolder holder, UserRecord userRecord) {
+            holder.mAvatarRecord = userRecord;
+            if (userRecord.mType == UserRecord.ADD_USER) {
+                // "Add User" doesn't have badges
+                holder.mUserAvatarImageView.setDrawable(getCircularAddUserIcon());
+                return;
+            }
+            // The guest record shows the default guest avatar, cached as USER_NULL's.
+            int userId = userRecord.mType == UserRecord.START_GUEST
+                    ? UserHandle.USER_NULL : userRecord.mInfo.id;
+            holder.mAvatarBound = false;
+            mUserAvatarCache.loadAvatar(userId, mAvatarSize, (loadedUserId, avatar) -> {
+                if (holder.mAvatarRecord != userRecord) {
+                    // The holder was rebound to another user while the avatar was loading.
+                    return;
+                }
+                holder.mAvatarBound = true;
+                if (userRecord.mInfo != null) {
+                    // User might have badges (like managed user)
+                    holder.mUserAvatarImageView.setDrawableWithBadge(avatar, loadedUserId);
+                } else {
+                    // Guest doesn't have badges
+                    holder.mUserAvatarImageView.setDrawable(avatar);
+                }
+            });
+            if (!holder.mAvatarBound) {
+                // Don't show the avatar of the user the holder was previously bound to.
+                holder.mUserAvatarImageView.setDrawable(mAvatarPlaceholder);
             }
-            return circleIcon;
         }
 
         private RoundedBitmapDrawable getCircularAddUserIcon() {
+            if (mAddUserIcon == null) {
+                mAddUserIcon = UserIcons.convertToBitmap(
+                        mContext.getDrawable(R.drawable.car_add_circle_round));
+            }
             RoundedBitmapDrawable circleIcon =
-                    RoundedBitmapDrawableFactory.create(mRes, UserIcons.convertToBitmap(
-                    mContext.getDrawable(R.drawable.car_add_circle_round)));
+                    RoundedBitmapDrawableFactory.create(mRes, mAddUserIcon);
             circleIcon.setCircular(true);
             return circleIcon;
         }
@@ -474,7 +597,7 @@ public class UserGridRecyclerView extends RecyclerView {
         @Override
         public void onClick(DialogInterface dialog, int which) {
             if (which == BUTTON_POSITIVE) {
-                new AddNewUserTask().execute(mNewUserName);
+                addNewUser();
             } else if (which == BUTTON_NEGATIVE) {
                 // Enable the add button only if cancel
                 if (mAddUserView != null) {
@@ -505,6 +628,11 @@ public class UserGridRecyclerView extends RecyclerView {
                 Log.w(TAG, "Timed out while creating user: " + TIMEOUT_MS + "ms");
                 return null;
             }
+            return getCreatedUser(userCreationResult);
+        }
+
+        @Nullable
+        private UserInfo getCreatedUser(UserCreationResult userCreationResult) {
             if (!userCreationResult.isSuccess() || userCreationResult.getUser() == null) {
                 Log.w(TAG, "Could not create user: " + userCreationResult);
                 return null;
@@ -513,6 +641,32 @@ public class UserGridRecyclerView extends RecyclerView {
             return userCreationResult.getUser();
         }
 
+        // Creates a user and sets it up without waiting for the result on the calling thread. The
+        // wait is bounded by the timeout of the operation running the creation.
+        private void createUserAsync(AtomicReference<UserInfo> newUser,
+                UserOperationRunner.StageCallback callback) {
+            mCarUserManager.createUser(mNewUserName, /* flags= */ 0).whenCompleteAsync(
+                    (userCreationResult, error) -> {
+                        if (error != null) {
+                            Log.w(TAG, "Could not create user.", error);
+                            callback.onStageDone(false);
+                            return;
+                        }
+                        UserInfo user = getCreatedUser(userCreationResult);
+                        if (user == null) {
+                            callback.onStageDone(false);
+                            return;
+                        }
+                        // The new user is set up before the stage completes, so that a
+                        // cancellation or a timeout never leaves it without its restrictions.
+                        UserHelper.setDefaultNonAdminRestrictions(mContext, user,
+                                /* enable= */ true);
+                        UserHelper.assignDefaultIcon(mContext, user);
+                        newUser.set(user);
+                        callback.onStageDone(true);
+                    }, mBackgroundExecutor);
+        }
+
         private boolean switchUser(@UserIdInt int userId) {
             AsyncFuture<UserSwitchResult> userSwitchResultFuture =
                     mCarUserManager.switchUser(userId);
@@ -528,6 +682,24 @@ public class UserGridRecyclerView extends RecyclerView {
                 Log.w(TAG, "Timed out while switching user: " + TIMEOUT_MS + "ms");
                 return false;
             }
+            return isUserSwitchSuccessful(userSwitchResult);
+        }
+
+        // Switches to the given user without waiting for the result on the calling thread. The
+        // wait is bounded by the timeout of the operation running the switch.
+        private void switchUserAsync(@UserIdInt int userId,
+                UserOperationRunner.StageCallback callback) {
+            mCarUserManager.switchUser(userId).whenCompleteAsync((userSwitchResult, error) -> {
+                if (error != null) {
+                    Log.w(TAG, "Could not switch user.", error);
+                    callback.onStageDone(false);
+                    return;
+                }
+                callback.onStageDone(isUserSwitchSuccessful(userSwitchResult));
+            }, mBackgroundExecutor);
+        }
+
+        private boolean isUserSwitchSuccessful(UserSwitchResult userSwitchResult) {
             if (!userSwitchResult.isSuccess()) {
                 Log.w(TAG, "Could not switch user: " + userSwitchResult);
                 return false;
@@ -536,50 +708,51 @@ public class UserGridRecyclerView extends RecyclerView {
             return true;
         }
 
-        // TODO(b/161539497): Replace AsyncTask with standard {@link java.util.concurrent} code.
-        private class AddNewUserTask extends AsyncTask<String, Void, UserInfo> {
+        private void addNewUser() {
+            // Set by the create stage, then read by the switch stage on the background executor.
+            AtomicReference<UserInfo> newUser = new AtomicReference<>();
+            // Neither stage blocks the background executor while it waits on the car service.
+            List<UserOperationRunner.Stage> stages = Arrays.asList(
+                    new UserOperationRunner.Stage(STAGE_CREATE_USER,
+                            callback -> createUserAsync(newUser, callback)),
+                    new UserOperationRunner.Stage(STAGE_SWITCH_USER,
+                            callback -> switchUserAsync(newUser.get().id, callback)));
+            mAddUserOperation = mUserOperationRunner.start(OPERATION_ADD_USER, stages,
+                    ADD_USER_TIMEOUT_MS, new UserOperationRunner.Listener() {
+                        @Override
+                        public void onStageCompleted(String stageName, long latencyMs) {
+                            if (STAGE_CREATE_USER.equals(stageName)) {
+                                mAddUserRecord = new UserRecord(newUser.get(),
+                                        UserRecord.ADD_USER);
+                                notifyUserSelected(mAddUserRecord);
+                            }
+                        }
 
-            @Override
-            protected UserInfo doInBackground(String... userNames) {
-                AsyncFuture<UserCreationResult> future = mCarUserManager.createUser(userNames[0],
-                        /* flags= */ 0);
-                try {
-                    UserInfo user = getUserInfo(future);
-                    if (user != null) {
-                        UserHelper.setDefaultNonAdminRestrictions(mContext, user,
-                                /* enable= */ true);
-                        UserHelper.assignDefaultIcon(mContext, user);
-                        mAddUserRecord = new UserRecord(user, UserRecord.ADD_USER);
-                        return user;
-                    } else {
-                        Log.e(TAG, "Failed to create user in the background");
-                        return user;
-                    }
-                } catch (Exception e) {
-                    if (e instanceof InterruptedException) {
-                        Thread.currentThread().interrupt();
-                    }
-                    Log.e(TAG, "Error creating new user: ", e);
-                }
-                return null;
-            }
+                        @Override
+                        public void onCompleted() {
+                            onAddUserFinished();
+                        }
 
-            @Override
-            protected void onPreExecute() {
+                        @Override
+                        public void onFailed(String stageName, int reason) {
+                            Log.e(TAG, "Failed to add user in " + stageName + ": " + reason);
+                            onAddUserFinished();
+                        }
+                    });
+        }
+
+        private void onAddUserFinished() {
+            mAddUserOperation = null;
+            if (mAddUserView != null) {
+                mAddUserView.setEnabled(true);
             }
+        }
 
-            @Override
-            protected void onPostExecute(UserInfo user) {
-                if (user != null) {
-                    notifyUserSelected(mAddUserRecord);
-                    mAddUserView.setEnabled(true);
-                    if (!switchUser(user.id)) {
-                        Log.e(TAG, "Failed to switch to new user: " + user.id);
-                    }
-                }
-                if (mAddUserView != null) {
-                    mAddUserView.setEnabled(true);
-                }
+        /** Cancels adding a user, if one is being added. */
+        void cancelAddUser() {
+            if (mAddUserOperation != null) {
+                mAddUserOperation.cancel();
+                onAddUserFinished();
             }
         }
 
@@ -597,6 +770,9 @@ public class UserGridRecyclerView extends RecyclerView {
             public UserAvatarView mUserAvatarImageView;
             public TextView mUserNameTextView;
             public View mView;
+            // Record whose avatar is shown, or is loading, in this holder.
+            private UserRecord mAvatarRecord;
+            private boolean mAvatarBound;
 
             public UserAdapterViewHolder(View view) {
                 super(view);
@@ -607,6 +783,66 @@ public class UserGridRecyclerView extends RecyclerView {
         }
     }
 
+    private static long getUserRecordItemId(UserRecord userRecord) {
+        switch (userRecord.mType) {
+            case UserRecord.START_GUEST:
+                return START_GUEST_ITEM_ID;
+            case UserRecord.ADD_USER:
+                return ADD_USER_ITEM_ID;
+            default:
+                return userRecord.mInfo.id;
+        }
+    }
+
+    /**
+     * Diffs two lists of user records. A user record is the same item as another if it stands for
+     * the same user, or the same button, and has the same contents if its pod looks the same.
+     */
+    private static final class UserRecordDiffCallback extends DiffUtil.Callback {
+        private final List<UserRecord> mOldUserRecords;
+        private final List<UserRecord> mNewUserRecords;
+        private final Set<Integer> mChangedUserIds;
+
+        UserRecordDiffCallback(List<UserRecord> oldUserRecords, List<UserRecord> newUserRecords,
+                Set<Integer> changedUserIds) {
+            mOldUserRecords = oldUserRecords;
+            mNewUserRecords = newUserRecords;
+            mChangedUserIds = changedUserIds;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldUserRecords.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewUserRecords.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return getUserRecordItemId(mOldUserRecords.get(oldItemPosition))
+                    == getUserRecordItemId(mNewUserRecords.get(newItemPosition));
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            UserRecord oldUserRecord = mOldUserRecords.get(oldItemPosition);
+            UserRecord newUserRecord = mNewUserRecords.get(newItemPosition);
+            if (oldUserRecord.mType != newUserRecord.mType) {
+                return false;
+            }
+            if (oldUserRecord.mInfo == null || newUserRecord.mInfo == null) {
+                return oldUserRecord.mInfo == newUserRecord.mInfo;
+            }
+            // The avatar of a user whose info changed may have changed too.
+            return !mChangedUserIds.contains(newUserRecord.mInfo.id)
+                    && oldUserRecord.mInfo.flags == newUserRecord.mInfo.flags
+                    && Objects.equals(oldUserRecord.mInfo.name, newUserRecord.mInfo.name);
+        }
+    }
+
     /**
      * Object wrapper class for the userInfo.  Use it to distinguish if a profile is a
      * guest profile, add user profile, or the foreground user.
@@ -49,15 +49,22 @@ public class UserIconProvider {
      * @return {@link RoundedBitmapDrawable} representing the icon for the user.
      */
     public Drawable getRoundedUserIcon(UserInfo userInfo, Context context) {
-        UserManager userManager = UserManager.get(context);
         Resources res = context.getResources();
-        Bitmap icon = userManager.getUserIcon(userInfo.id);
-
-        if (icon == null) {
-            icon = assignDefaultIcon(userManager, res, userInfo);
-        }
+        return new BitmapDrawable(res, getUserIcon(UserManager.get(context), res, userInfo));
+    }
 
-        return new BitmapDrawable(res, icon);
+    /**
+     * Gets the icon of the given user. If a user does not have an icon saved, this method will
+     * default to a generic icon and update UserManager to use that icon.
+     *
+     * @param userManager {@link UserManager} to get and set user icon
+     * @param resources {@link Resources} to grab the default icon from
+     * @param userInfo User for which the icon is requested.
+     * @return Bitmap of the user icon.
+     */
+    public Bitmap getUserIcon(UserManager userManager, Resources resources, UserInfo userInfo) {
+        Bitmap icon = userManager.getUserIcon(userInfo.id);
+        return icon != null ? icon : assignDefaultIcon(userManager, resources, userInfo);
     }
 
     /** Returns a scaled, rounded, default icon for the Guest user */
@@ -107,7 +114,8 @@ public class UserIconProvider {
                 UserIcons.getDefaultUserIcon(resources, id, /* light= */ false));
     }
 
-    private Bitmap getGuestUserDefaultIcon(Resources resources) {
+    /** Gets a bitmap representing the Guest user's default avatar. */
+    Bitmap getGuestUserDefaultIcon(Resources resources) {
         return getUserDefaultIcon(resources, UserHandle.USER_NULL);
     }
 }
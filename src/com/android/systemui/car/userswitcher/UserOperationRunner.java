@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.car.userswitcher;
+
+import android.annotation.IntDef;
+import android.annotation.MainThread;
+import android.annotation.NonNull;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.systemui.Dumpable;
+import com.android.systemui.dagger.SysUISingleton;
+import com.android.systemui.dagger.qualifiers.Background;
+import com.android.systemui.dagger.qualifiers.Main;
+import com.android.systemui.dump.DumpManager;
+import com.android.systemui.util.concurrency.DelayableExecutor;
+import com.android.systemui.util.time.SystemClock;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.inject.Inject;
+
+/**
+ * Runs user lifecycle operations, e.g. creating a user then switching to it, as a chain of stages
+ * on the background executor.
+ *
+ * The listener of an operation is notified on the main thread as each stage completes, and once
+ * the operation completes or fails. An operation fails if a stage fails or if it does not
+ * complete within its timeout. A cancelled operation runs no further stage and notifies nothing.
+ * A stage waiting on another service, e.g. for a user switch to complete, can be a
+ * {@link DeferredTask} so that it does not block the background executor while it waits. The
+ * latency of the stages of the last operations is reported in dumpsys.
+ */
+@SysUISingleton
+public class UserOperationRunner implements Dumpable {
+    private static final String TAG = "UserOperationRunner";
+    private static final int MAX_HISTORY_SIZE = 10;
+
+    /** A stage failed, or threw. */
+    public static final int FAILURE_STAGE_FAILED = 0;
+    /** The operation did not complete within its timeout. */
+    public static final int FAILURE_TIMED_OUT = 1;
+
+    @IntDef({FAILURE_STAGE_FAILED, FAILURE_TIMED_OUT})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface FailureReason {}
+
+    private final Executor mBackgroundExecutor;
+    private final DelayableExecutor mMainExecutor;
+    private final SystemClock mSystemClock;
+    // Guarded by itself.
+    private final ArrayDeque<Operation> mHistory = new ArrayDeque<>();
+
+    /** Work of a stage, run on the background executor. */
+    public interface Task {
+        /** Runs the work and returns whether it succeeded. */
+        boolean run() throws Exception;
+    }
+
+    /**
+     * Work of a stage that completes later, e.g. once a car service call returns. Started on the
+     * background executor.
+     */
+    public interface DeferredTask {
+        /** Starts the work, which reports its result to the given callback on any thread. */
+        void start(StageCallback callback) throws Exception;
+    }
+
+    /** Receives the result of a {@link DeferredTask}. Only the first result is used. */
+    public interface StageCallback {
+        /** Called once the work of the stage is done, with whether it succeeded. */
+        void onStageDone(boolean success);
+    }
+
+    /** A named stage of an operation. */
+    public static final class Stage {
+        private final String mName;
+        private final DeferredTask mTask;
+
+        public Stage(String name, Task task) {
+            this(name, callback -> callback.onStageDone(task.run()));
+        }
+
+        public Stage(String name, DeferredTask task) {
+            mName = name;
+            mTask = task;
+        }
+    }
+
+    /** Listener of an operation, notified on the main thread. */
+    public interface Listener {
+        /** Called when a stage of the operation completed successfully. */
+        default void onStageCompleted(String stageName, long latencyMs) {}
+
+        /** Called when all the stages of the operation completed successfully. */
+        void onCompleted();
+
+        /** Called when the operation failed, in the given stage. */
+        void onFailed(String stageName, @FailureReason int reason);
+    }
+
+    /** A running operation. */
+    public final class Operation {
+        private final String mName;
+        private final List<Stage> mStages;
+        private final Listener mListener;
+        private final long[] mStageLatenciesMs;
+        private final long mStartUptimeMs;
+        private Runnable mCancelTimeout;
+        // The index of the stage running, or about to.
+        private volatile int mStageIndex;
+        // Set on the main thread, read on the background executor between stages.
+        private volatile boolean mFinished;
+        private String mOutcome = "running";
+        private long mDurationMs = -1;
+
+        private Operation(String name, List<Stage> stages, Listener listener) {
+            mName = name;
+            mStages = new ArrayList<>(stages);
+            mListener = listener;
+            mStageLatenciesMs = new long[stages.size()];
+            Arrays.fill(mStageLatenciesMs, -1);
+            mStartUptimeMs = mSystemClock.uptimeMillis();
+        }
+
+        /**
+         * Cancels the operation. The stage running, if any, runs to completion, but no other
+         * stage runs and the listener is not notified anymore.
+         */
+        @MainThread
+        public void cancel() {
+            finish("cancelled in " + getStageName());
+        }
+
+        /** Returns whether the operation completed, failed or was cancelled. */
+        @MainThread
+        public boolean isFinished() {
+            return mFinished;
+        }
+
+        private String getStageName() {
+            int index = mStageIndex;
+            return index < mStages.size() ? mStages.get(index).mName : "none";
+        }
+
+        private boolean finish(String outcome) {
+            if (mFinished) {
+                return false;
+            }
+            mFinished = true;
+            mOutcome = outcome;
+            mDurationMs = mSystemClock.uptimeMillis() - mStartUptimeMs;
+            if (mCancelTimeout != null) {
+                mCancelTimeout.run();
+            }
+            return true;
+        }
+    }
+
+    @Inject
+    public UserOperationRunner(@Background Executor backgroundExecutor,
+            @Main DelayableExecutor mainExecutor, SystemClock systemClock,
+            DumpManager dumpManager) {
+        this(backgroundExecutor, mainExecutor, systemClock);
+        dumpManager.registerDumpable(TAG, this);
+    }
+
+    @VisibleForTesting
+    UserOperationRunner(Executor backgroundExecutor, DelayableExecutor mainExecutor,
+            SystemClock systemClock) {
+        mBackgroundExecutor = backgroundExecutor;
+        mMainExecutor = mainExecutor;
+        mSystemClock = systemClock;
+    }
+
+    /** Starts an operation running the given stages in order. */
+    @MainThread
+    public Operation start(String name, List<Stage> stages, long timeoutMs, Listener listener) {
+        Operation operation = new Operation(name, stages, listener);
+        synchronized (mHistory) {
+            mHistory.addLast(operation);
+            if (mHistory.size() > MAX_HISTORY_SIZE) {
+                mHistory.removeFirst();
+            }
+        }
+        operation.mCancelTimeout = mMainExecutor.executeDelayed(() -> {
+            String stageName = operation.getStageName();
+            if (operation.finish("timed out in " + stageName)) {
+                Log.w(TAG, operation.mName + " timed out after " + timeoutMs + "ms in "
+                        + stageName);
+                listener.onFailed(stageName, FAILURE_TIMED_OUT);
+            }
+        }, timeoutMs);
+        mBackgroundExecutor.execute(() -> runStage(operation, /* index= */ 0));
+        return operation;
+    }
+
+    // Starts the given stage, then posts the next one once it is done, so that the background
+    // executor can run other work between stages and a finished operation runs no further stage.
+    private void runStage(Operation operation, int index) {
+        if (operation.mFinished) {
+            return;
+        }
+        operation.mStageIndex = index;
+        if (index == operation.mStages.size()) {
+            mMainExecutor.execute(() -> {
+                if (operation.finish("completed")) {
+                    operation.mListener.onCompleted();
+                }
+            });
+            return;
+        }
+        Stage stage = operation.mStages.get(index);
+        long startUptimeMs = mSystemClock.uptimeMillis();
+        AtomicBoolean done = new AtomicBoolean();
+        StageCallback callback = success -> {
+            if (done.compareAndSet(false, true)) {
+                onStageDone(operation, index, startUptimeMs, success);
+            }
+        };
+        try {
+            stage.mTask.start(callback);
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            Log.e(TAG, "Error in " + operation.mName + " " + stage.mName, e);
+            callback.onStageDone(false);
+        }
+    }
+
+    private void onStageDone(Operation operation, int index, long startUptimeMs,
+            boolean success) {
+        Stage stage = operation.mStages.get(index);
+        long latencyMs = mSystemClock.uptimeMillis() - startUptimeMs;
+        operation.mStageLatenciesMs[index] = latencyMs;
+        if (!success) {
+            mMainExecutor.execute(() -> {
+                if (operation.finish("failed in " + stage.mName)) {
+                    operation.mListener.onFailed(stage.mName, FAILURE_STAGE_FAILED);
+                }
+            });
+            return;
+        }
+        mMainExecutor.execute(() -> {
+            if (!operation.mFinished) {
+                operation.mListener.onStageCompleted(stage.mName, latencyMs);
+            }
+        });
+        mBackgroundExecutor.execute(() -> runStage(operation, index + 1));
+    }
+
+    @Override
+    public void dump(@NonNull FileDescriptor fd, @NonNull PrintWriter pw,
+            @NonNull String[] args) {
+        pw.println(TAG + ":");
+        pw.println("  last operations (outcome, duration, stage latencies):");
+        synchronized (mHistory) {
+            for (Operation operation : mHistory) {
+                pw.print("    " + operation.mName + " " + operation.mOutcome);
+                if (operation.mDurationMs >= 0) {
+                    pw.print(" in " + operation.mDurationMs + "ms");
+                }
+                for (int i = 0; i < operation.mStages.size(); i++) {
+                    long latencyMs = operation.mStageLatenciesMs[i];
+                    pw.print(" " + operation.mStages.get(i).mName + "="
+                            + (latencyMs < 0 ? "not run" : latencyMs + "ms"));
+                }
+                pw.println();
+            }
+        }
+    }
+}
@@ -18,10 +18,12 @@ package com.android.systemui.car.userswitcher;
 
 import static android.car.settings.CarSettings.Global.ENABLE_USER_SWITCH_DEVELOPER_MESSAGE;
 
+import android.annotation.NonNull;
 import android.annotation.UserIdInt;
+import android.app.ActivityManager;
 import android.content.Context;
+import android.content.pm.UserInfo;
 import android.content.res.Resources;
-import android.graphics.Bitmap;
 import android.os.Handler;
 import android.os.RemoteException;
 import android.os.UserHandle;
@@ -29,57 +31,149 @@ import android.os.UserManager;
 import android.provider.Settings;
 import android.util.Log;
 import android.view.IWindowManager;
+import android.view.ViewTreeObserver;
 import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
-import com.android.settingslib.drawable.CircleFramedDrawable;
+import com.android.systemui.Dumpable;
 import com.android.systemui.R;
 import com.android.systemui.car.window.OverlayViewController;
 import com.android.systemui.car.window.OverlayViewGlobalStateController;
 import com.android.systemui.dagger.SysUISingleton;
+import com.android.systemui.dagger.qualifiers.Background;
 import com.android.systemui.dagger.qualifiers.Main;
+import com.android.systemui.dump.DumpManager;
 import com.android.systemui.util.concurrency.DelayableExecutor;
+import com.android.systemui.util.time.SystemClock;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import javax.inject.Inject;
 
 /**
  * Handles showing and hiding UserSwitchTransitionView that is mounted to SystemUiOverlayWindow.
+ *
+ * The view is inflated ahead of the first switch and the avatars of the users most likely to be
+ * switched to are pre-rendered, so that the view is complete on its first frame. The window
+ * manager is notified of the switch on a thread of its own, so that the view is not delayed by the
+ * Binder calls and the notification is not queued behind other background work. The timeline of
+ * the last switches, from the request to show the view to the user being unlocked, is reported in
+ * dumpsys.
  */
 @SysUISingleton
-public class UserSwitchTransitionViewController extends OverlayViewController {
+public class UserSwitchTransitionViewController extends OverlayViewController implements
+        Dumpable {
     private static final String TAG = "UserSwitchTransition";
     private static final String ENABLE_DEVELOPER_MESSAGE_TRUE = "true";
     private static final boolean DEBUG = false;
+    private static final int MAX_PREPARED_USERS = 3;
+    private static final int MAX_TIMELINE_HISTORY_SIZE = 10;
+    private static final String WINDOW_MANAGER_THREAD = "UserSwitchWindowManager";
+    private static final long WINDOW_MANAGER_THREAD_KEEP_ALIVE_SECONDS = 10;
 
     private final Context mContext;
     private final Resources mResources;
     private final DelayableExecutor mMainExecutor;
+    private final Executor mBackgroundExecutor;
+    // Runs the window manager notifications in order, and nothing else.
+    private final Executor mWindowManagerExecutor;
+    private final SystemClock mSystemClock;
     private final UserManager mUserManager;
+    private final UserAvatarCache mUserAvatarCache;
     private final IWindowManager mWindowManagerService;
     private final int mWindowShownTimeoutMs;
+    private final int mAvatarSize;
+    // Guarded by itself.
+    private final ArrayDeque<SwitchTimeline> mTimelines = new ArrayDeque<>();
+    // The timeline of the last switch, accessed on the main thread.
+    private SwitchTimeline mTimeline;
     private final Runnable mWindowShownTimeoutCallback = () -> {
         if (DEBUG) {
             Log.w(TAG, "Window was not hidden within " + getWindowShownTimeoutMs() + " ms, so it"
                     + "was hidden by mWindowShownTimeoutCallback.");
         }
 
+        if (mTimeline != null) {
+            mTimeline.mHiddenByTimeout = true;
+        }
         handleHide();
     };
 
     @GuardedBy("this")
     private boolean mShowing;
     private int mPreviousUserId = UserHandle.USER_NULL;
+    private int mAvatarUserId = UserHandle.USER_NULL;
     private Runnable mCancelRunnable;
+    // Read in the background when the view is prepared, and again each time it is shown.
+    private boolean mShowDeveloperMessage;
+
+    /** Uptimes of the steps of a user switch, or -1 for the steps not reached. */
+    private static final class SwitchTimeline {
+        final int mUserId;
+        final long mRequestedUptimeMs;
+        long mVisibleUptimeMs = -1;
+        long mUnlockedUptimeMs = -1;
+        long mHiddenUptimeMs = -1;
+        boolean mHiddenByTimeout;
+
+        SwitchTimeline(@UserIdInt int userId, long requestedUptimeMs) {
+            mUserId = userId;
+            mRequestedUptimeMs = requestedUptimeMs;
+        }
+
+        private String sinceRequested(long uptimeMs) {
+            return uptimeMs < 0 ? "-" : "+" + (uptimeMs - mRequestedUptimeMs) + "ms";
+        }
+
+        @Override
+        public String toString() {
+            return "user=" + mUserId + " visible=" + sinceRequested(mVisibleUptimeMs)
+                    + " unlocked=" + sinceRequested(mUnlockedUptimeMs)
+                    + " hidden=" + sinceRequested(mHiddenUptimeMs)
+                    + (mHiddenByTimeout ? " (by timeout)" : "");
+        }
+    }
 
     @Inject
     public UserSwitchTransitionViewController(
             Context context,
             @Main Resources resources,
             @Main DelayableExecutor delayableExecutor,
+            @Background Executor backgroundExecutor,
+            SystemClock systemClock,
             UserManager userManager,
+            UserAvatarCache userAvatarCache,
             IWindowManager windowManagerService,
+            DumpManager dumpManager,
+            OverlayViewGlobalStateController overlayViewGlobalStateController) {
+        this(context, resources, delayableExecutor, backgroundExecutor,
+                createWindowManagerExecutor(), systemClock, userManager, userAvatarCache,
+                windowManagerService, dumpManager, overlayViewGlobalStateController);
+    }
+
+    @VisibleForTesting
+    UserSwitchTransitionViewController(
+            Context context,
+            Resources resources,
+            DelayableExecutor delayableExecutor,
+            Executor backgroundExecutor,
+            Executor windowManagerExecutor,
+            SystemClock systemClock,
+            UserManager userManager,
+            UserAvatarCache userAvatarCache,
+            IWindowManager windowManagerService,
+            DumpManager dumpManager,
             OverlayViewGlobalStateController overlayViewGlobalStateController) {
 
         super(R.id.user_switching_dialog_stub, overlayViewGlobalStateController);
@@ -87,10 +181,27 @@ public class UserSwitchTransitionViewController extends OverlayViewController {
         mContext = context;
         mResources = resources;
         mMainExecutor = delayableExecutor;
+        mBackgroundExecutor = backgroundExecutor;
+        mWindowManagerExecutor = windowManagerExecutor;
+        mSystemClock = systemClock;
         mUserManager = userManager;
+        mUserAvatarCache = userAvatarCache;
         mWindowManagerService = windowManagerService;
         mWindowShownTimeoutMs = mResources.getInteger(
                 R.integer.config_userSwitchTransitionViewShownTimeoutMs);
+        mAvatarSize = mResources.getDimensionPixelSize(
+                R.dimen.car_fullscreen_user_pod_image_avatar_height);
+        dumpManager.registerDumpable(TAG, this);
+    }
+
+    // The thread stops when idle, as switches are rare.
+    private static Executor createWindowManagerExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(/* corePoolSize= */ 1,
+                /* maximumPoolSize= */ 1, WINDOW_MANAGER_THREAD_KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                runnable -> new Thread(runnable, WINDOW_MANAGER_THREAD));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
 
     @Override
@@ -104,18 +215,18 @@ public class UserSwitchTransitionViewController extends OverlayViewController {
      * showing.
      */
     void handleShow(@UserIdInt int newUserId) {
+        long requestedUptimeMs = mSystemClock.uptimeMillis();
         mMainExecutor.execute(() -> {
             if (mPreviousUserId == newUserId || mShowing) return;
             mShowing = true;
-            try {
-                mWindowManagerService.setSwitchingUser(true);
-                mWindowManagerService.lockNow(null);
-            } catch (RemoteException e) {
-                Log.e(TAG, "unable to notify window manager service regarding user switch");
-            }
+            mWindowManagerExecutor.execute(this::notifyWindowManagerOfSwitch);
 
-            start();
+            // Populated before it is shown, so that the first frame of the view is complete.
+            getOverlayViewGlobalStateController().inflateView(this);
+            startTimeline(newUserId, requestedUptimeMs);
             populateDialog(mPreviousUserId, newUserId);
+            refreshDeveloperMessage(mPreviousUserId, newUserId);
+            start();
             // next time a new user is selected, this current new user will be the previous user.
             mPreviousUserId = newUserId;
             // In case the window is still showing after WINDOW_SHOWN_TIMEOUT_MS, then hide the
@@ -133,6 +244,33 @@ public class UserSwitchTransitionViewController extends OverlayViewController {
             if (mCancelRunnable != null) {
                 mCancelRunnable.run();
             }
+            if (mTimeline != null && mTimeline.mHiddenUptimeMs < 0) {
+                mTimeline.mHiddenUptimeMs = mSystemClock.uptimeMillis();
+            }
+            // The users likely to be switched to next may have changed.
+            prepareForLikelyUsers();
+        });
+    }
+
+    /** Records that the given user, which may be the one switched to, was unlocked. */
+    void handleUserUnlocked(@UserIdInt int userId) {
+        long unlockedUptimeMs = mSystemClock.uptimeMillis();
+        mMainExecutor.execute(() -> {
+            if (mTimeline != null && mTimeline.mUserId == userId
+                    && mTimeline.mUnlockedUptimeMs < 0) {
+                mTimeline.mUnlockedUptimeMs = unlockedUptimeMs;
+            }
+        });
+    }
+
+    /**
+     * Inflates the view ahead of the first switch, and pre-renders it for the users most likely
+     * to be switched to.
+     */
+    void prepare() {
+        mMainExecutor.execute(() -> {
+            getOverlayViewGlobalStateController().inflateView(this);
+            prepareForLikelyUsers();
         });
     }
 
@@ -141,28 +279,105 @@ public class UserSwitchTransitionViewController extends OverlayViewController {
         return mWindowShownTimeoutMs;
     }
 
+    // Reads the settings and finds the users most recently logged in, other than the current
+    // one, in the background, then pre-renders their avatars.
+    private void prepareForLikelyUsers() {
+        mBackgroundExecutor.execute(() -> {
+            boolean showDeveloperMessage = readShowDeveloperMessage();
+            int currentUserId = ActivityManager.getCurrentUser();
+            List<Integer> userIds = mUserManager.getAliveUsers().stream()
+                    .filter(user -> user.id != currentUserId && !user.isGuest()
+                            && user.supportsSwitchToByUser())
+                    .sorted(Comparator.comparingLong((UserInfo user) -> user.lastLoggedInTime)
+                            .reversed())
+                    .limit(MAX_PREPARED_USERS)
+                    .map(user -> user.id)
+                    .collect(Collectors.toList());
+            mMainExecutor.execute(() -> {
+                mShowDeveloperMessage = showDeveloperMessage;
+                for (int userId : userIds) {
+                    mUserAvatarCache.loadAvatar(userId, mAvatarSize, (id, avatar) -> {});
+                }
+            });
+        });
+    }
+
+    // Reads the setting again in the background, as it may have changed since the view was
+    // prepared, and updates the shown message if it did.
+    private void refreshDeveloperMessage(@UserIdInt int previousUserId,
+            @UserIdInt int newUserId) {
+        mBackgroundExecutor.execute(() -> {
+            boolean showDeveloperMessage = readShowDeveloperMessage();
+            mMainExecutor.execute(() -> {
+                if (mShowDeveloperMessage == showDeveloperMessage) {
+                    return;
+                }
+                mShowDeveloperMessage = showDeveloperMessage;
+                if (mShowing && mAvatarUserId == newUserId) {
+                    populateLoadingText(previousUserId, newUserId);
+                }
+            });
+        });
+    }
+
+    private boolean readShowDeveloperMessage() {
+        return ENABLE_DEVELOPER_MESSAGE_TRUE.equals(Settings.Global.getString(
+                mContext.getContentResolver(), ENABLE_USER_SWITCH_DEVELOPER_MESSAGE));
+    }
+
+    private void notifyWindowManagerOfSwitch() {
+        try {
+            mWindowManagerService.setSwitchingUser(true);
+            mWindowManagerService.lockNow(null);
+        } catch (RemoteException e) {
+            Log.e(TAG, "unable to notify window manager service regarding user switch");
+        }
+    }
+
+    private void startTimeline(@UserIdInt int userId, long requestedUptimeMs) {
+        SwitchTimeline timeline = new SwitchTimeline(userId, requestedUptimeMs);
+        mTimeline = timeline;
+        synchronized (mTimelines) {
+            mTimelines.addLast(timeline);
+            if (mTimelines.size() > MAX_TIMELINE_HISTORY_SIZE) {
+                mTimelines.removeFirst();
+            }
+        }
+        ViewTreeObserver observer = getLayout().getViewTreeObserver();
+        observer.addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                // Visible once the first frame of the populated view is about to be drawn.
+                getLayout().getViewTreeObserver().removeOnPreDrawListener(this);
+                if (timeline.mVisibleUptimeMs < 0) {
+                    timeline.mVisibleUptimeMs = mSystemClock.uptimeMillis();
+                }
+                return true;
+            }
+        });
+    }
+
     private void populateDialog(@UserIdInt int previousUserId, @UserIdInt int newUserId) {
         drawUserIcon(newUserId);
         populateLoadingText(previousUserId, newUserId);
     }
 
     private void drawUserIcon(int newUserId) {
-        Bitmap bitmap = mUserManager.getUserIcon(newUserId);
-        if (bitmap != null) {
-            CircleFramedDrawable drawable = CircleFramedDrawable.getInstance(mContext, bitmap);
-            ((ImageView) getLayout().findViewById(R.id.user_loading_avatar))
-                    .setImageDrawable(drawable);
-        }
+        ImageView avatarView = getLayout().findViewById(R.id.user_loading_avatar);
+        mAvatarUserId = newUserId;
+        // Cleared first, so that a cached avatar is drawn right away and another one never is.
+        avatarView.setImageDrawable(null);
+        mUserAvatarCache.loadAvatar(newUserId, mAvatarSize, (userId, avatar) -> {
+            if (mShowing && mAvatarUserId == userId) {
+                avatarView.setImageDrawable(avatar);
+            }
+        });
     }
 
     private void populateLoadingText(@UserIdInt int previousUserId, @UserIdInt int newUserId) {
         TextView msgView = getLayout().findViewById(R.id.user_loading);
 
-        boolean showInfo = ENABLE_DEVELOPER_MESSAGE_TRUE.equals(
-                Settings.Global.getString(mContext.getContentResolver(),
-                        ENABLE_USER_SWITCH_DEVELOPER_MESSAGE));
-
-        if (showInfo && mPreviousUserId != UserHandle.USER_NULL) {
+        if (mShowDeveloperMessage && previousUserId != UserHandle.USER_NULL) {
             msgView.setText(
                     mResources.getString(R.string.car_loading_profile_developer_message,
                             previousUserId, newUserId));
@@ -170,4 +385,17 @@ public class UserSwitchTransitionViewController extends OverlayViewController {
             msgView.setText(mResources.getString(R.string.car_loading_profile));
         }
     }
+
+    @Override
+    public void dump(@NonNull FileDescriptor fd, @NonNull PrintWriter pw,
+            @NonNull String[] args) {
+        pw.println(TAG + ":");
+        pw.println("  shown timeout=" + mWindowShownTimeoutMs + "ms");
+        pw.println("  last switches (time since the view was requested):");
+        synchronized (mTimelines) {
+            for (SwitchTimeline timeline : mTimelines) {
+                pw.println("    " + timeline);
+            }
+        }
+    }
 }
@@ -53,7 +53,7 @@ public class UserSwitchTransitionViewMediator implements OverlayViewMediator,
     public void registerListeners() {
         mCarServiceProvider.addListener(car -> {
             CarUserManager carUserManager =
-                    (CarUserManager) car.getCarManager(Car.CAR_USER_SERVICE);
+                    (CarUserManager) mCarServiceProvider.getCarManager(Car.CAR_USER_SERVICE);
 
             if (carUserManager != null) {
                 carUserManager.setUserSwitchUiCallback(this);
@@ -66,7 +66,7 @@ public class UserSwitchTransitionViewMediator implements OverlayViewMediator,
 
     @Override
     public void setupOverlayContentViewControllers() {
-        // no-op.
+        mUserSwitchTransitionViewController.prepare();
     }
 
     @Override
@@ -84,5 +84,9 @@ public class UserSwitchTransitionViewMediator implements OverlayViewMediator,
         if (event.getEventType() == CarUserManager.USER_LIFECYCLE_EVENT_TYPE_SWITCHING) {
             mUserSwitchTransitionViewController.handleHide();
         }
+
+        if (event.getEventType() == CarUserManager.USER_LIFECYCLE_EVENT_TYPE_UNLOCKED) {
+            mUserSwitchTransitionViewController.handleUserUnlocked(event.getUserId());
+        }
     }
 }
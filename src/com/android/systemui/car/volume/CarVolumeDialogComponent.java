@@ -40,8 +40,12 @@ public class CarVolumeDialogComponent extends VolumeDialogComponent {
     public CarVolumeDialogComponent(Context context, KeyguardViewMediator keyguardViewMediator,
             VolumeDialogControllerImpl volumeDialogController,
             DemoModeController demoModeController,
-            CarServiceProvider carServiceProvider) {
+            CarServiceProvider carServiceProvider,
+            CarVolumeStateCache volumeStateCache,
+            CarVolumeItemConfig volumeItemConfig) {
         super(context, keyguardViewMediator, volumeDialogController, demoModeController);
+        mCarVolumeDialog.setVolumeItemConfig(volumeItemConfig);
+        mCarVolumeDialog.setVolumeStateCache(volumeStateCache);
         mCarVolumeDialog.setCarServiceProvider(carServiceProvider);
     }
 
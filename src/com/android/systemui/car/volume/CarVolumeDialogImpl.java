@@ -20,18 +20,17 @@ import android.animation.Animator;
 import android.animation.AnimatorInflater;
 import android.animation.AnimatorSet;
 import android.annotation.DrawableRes;
-import android.annotation.Nullable;
 import android.app.Dialog;
 import android.app.KeyguardManager;
 import android.car.Car;
+import android.car.CarOccupantZoneManager;
+import android.car.CarOccupantZoneManager.OccupantZoneInfo;
 import android.car.media.CarAudioManager;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.content.res.TypedArray;
-import android.content.res.XmlResourceParser;
 import android.graphics.Color;
 import android.graphics.PixelFormat;
 import android.graphics.drawable.ColorDrawable;
@@ -42,10 +41,8 @@ import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
 import android.os.UserHandle;
-import android.util.AttributeSet;
 import android.util.Log;
-import android.util.SparseArray;
-import android.util.Xml;
+import android.view.Display;
 import android.view.Gravity;
 import android.view.MotionEvent;
 import android.view.View;
@@ -55,6 +52,7 @@ import android.view.WindowManager;
 import android.widget.SeekBar;
 import android.widget.SeekBar.OnSeekBarChangeListener;
 
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
@@ -65,9 +63,6 @@ import com.android.systemui.volume.Events;
 import com.android.systemui.volume.SystemUIInterpolators;
 import com.android.systemui.volume.VolumeDialogImpl;
 
-import org.xmlpull.v1.XmlPullParserException;
-
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -81,20 +76,19 @@ public class CarVolumeDialogImpl implements VolumeDialog {
     private static final String TAG = "CarVolumeDialog";
     private static final boolean DEBUG = false;
 
-    private static final String XML_TAG_VOLUME_ITEMS = "carVolumeItems";
-    private static final String XML_TAG_VOLUME_ITEM = "item";
     private static final int LISTVIEW_ANIMATION_DURATION_IN_MILLIS = 250;
     private static final int DISMISS_DELAY_IN_MILLIS = 50;
     private static final int ARROW_FADE_IN_START_DELAY_IN_MILLIS = 100;
 
     private final Context mContext;
     private final H mHandler = new H();
-    // All the volume items.
-    private final SparseArray<VolumeItem> mVolumeItems = new SparseArray<>();
     // Available volume items in car audio manager.
     private final List<VolumeItem> mAvailableVolumeItems = new ArrayList<>();
     // Volume items in the RecyclerView.
     private final List<CarVolumeItem> mCarVolumeLineItems = new ArrayList<>();
+    // Volume items in the RecyclerView before the last update, to dispatch the changes.
+    private final List<CarVolumeItem> mPreviousCarVolumeLineItems = new ArrayList<>();
+    private final View.OnClickListener mExpandIconListener = new ExpandIconListener();
     private final KeyguardManager mKeyguard;
     private final int mNormalTimeout;
     private final int mHoveringTimeout;
@@ -105,7 +99,12 @@ public class CarVolumeDialogImpl implements VolumeDialog {
     private CustomDialog mDialog;
     private RecyclerView mListView;
     private CarVolumeItemAdapter mVolumeItemsAdapter;
+    private CarServiceProvider mCarServiceProvider;
+    private CarVolumeStateCache mVolumeStateCache;
+    private CarVolumeItemConfig mVolumeItemConfig;
     private CarAudioManager mCarAudioManager;
+    private int mAudioZoneId = CarAudioManager.PRIMARY_AUDIO_ZONE;
+    private Drawable mExpandIconDrawable;
     private boolean mHovering;
     private int mCurrentlyDisplayingGroupId;
     private int mPreviouslyDisplayingGroupId;
@@ -114,69 +113,55 @@ public class CarVolumeDialogImpl implements VolumeDialog {
     private boolean mExpanded;
     private View mExpandIcon;
 
-    private final CarAudioManager.CarVolumeCallback mVolumeChangeCallback =
-            new CarAudioManager.CarVolumeCallback() {
-                @Override
-                public void onGroupVolumeChanged(int zoneId, int groupId, int flags) {
-                    // TODO: Include zoneId into consideration.
-                    // For instance
-                    // - single display + single-zone, ignore zoneId
-                    // - multi-display + single-zone, zoneId is fixed, may show volume bar on all
-                    // displays
-                    // - single-display + multi-zone, may show volume bar on primary display only
-                    // - multi-display + multi-zone, may show volume bar on display specified by
-                    // zoneId
-                    VolumeItem volumeItem = mAvailableVolumeItems.get(groupId);
-                    int value = getSeekbarValue(mCarAudioManager, groupId);
-                    // find if the group id for which the volume changed is currently being
-                    // displayed.
-                    boolean isShowing = mCarVolumeLineItems.stream().anyMatch(
-                            item -> item.getGroupId() == groupId);
-                    // Do not update the progress if it is the same as before. When car audio
-                    // manager sets
-                    // its group volume caused by the seekbar progress changed, it also triggers
-                    // this
-                    // callback. Updating the seekbar at the same time could block the continuous
-                    // seeking.
-                    if (value != volumeItem.mProgress && isShowing) {
-                        volumeItem.mCarVolumeItem.setProgress(value);
-                        volumeItem.mProgress = value;
-                    }
-                    if ((flags & AudioManager.FLAG_SHOW_UI) != 0) {
-                        mPreviouslyDisplayingGroupId = mCurrentlyDisplayingGroupId;
-                        mCurrentlyDisplayingGroupId = groupId;
-                        mHandler.obtainMessage(H.SHOW,
-                                Events.SHOW_REASON_VOLUME_CHANGED).sendToTarget();
-                    }
-                }
-
-                @Override
-                public void onMasterMuteChanged(int zoneId, int flags) {
-                    // ignored
-                }
-            };
+    // Receives the volume changes of the audio zone of the display of the dialog, at most once
+    // per frame for each volume group.
+    private final CarVolumeStateCache.Listener mVolumeStateListener = (groupId, volume, flags) -> {
+        if (groupId >= mAvailableVolumeItems.size()) {
+            return;
+        }
+        VolumeItem volumeItem = mAvailableVolumeItems.get(groupId);
+        // Do not update the progress if it is the same as before. When car audio manager sets
+        // its group volume caused by the seekbar progress changed, it also triggers this
+        // callback. Updating the seekbar at the same time could block the continuous seeking.
+        if (volume != volumeItem.mProgress) {
+            volumeItem.mCarVolumeItem.setProgress(volume);
+            volumeItem.mProgress = volume;
+            updateProgressH(groupId);
+        }
+        if ((flags & AudioManager.FLAG_SHOW_UI) != 0) {
+            mPreviouslyDisplayingGroupId = mCurrentlyDisplayingGroupId;
+            mCurrentlyDisplayingGroupId = groupId;
+            mHandler.obtainMessage(H.SHOW, Events.SHOW_REASON_VOLUME_CHANGED).sendToTarget();
+        }
+    };
 
+    // Called on the ui background executor, so that the car audio service queries of each volume
+    // group do not block the main thread. Only the result is posted to the main thread.
     private final CarServiceProvider.CarServiceOnConnectedListener mCarServiceOnConnectedListener =
-            car -> {
-                mExpanded = false;
-                mCarAudioManager = (CarAudioManager) car.getCarManager(Car.AUDIO_SERVICE);
-                int volumeGroupCount = mCarAudioManager.getVolumeGroupCount();
-                // Populates volume slider items from volume groups to UI.
-                for (int groupId = 0; groupId < volumeGroupCount; groupId++) {
-                    VolumeItem volumeItem = getVolumeItemForUsages(
-                            mCarAudioManager.getUsagesForVolumeGroupId(groupId));
-                    mAvailableVolumeItems.add(volumeItem);
-                    // The first one is the default item.
-                    if (groupId == 0) {
-                        clearAllAndSetupDefaultCarVolumeLineItem(0);
+            new CarServiceProvider.CarServiceOnConnectedListener() {
+                @Override
+                public void onConnected(Car car) {
+                    CarAudioManager carAudioManager =
+                            (CarAudioManager) mCarServiceProvider.getCarManager(
+                                    Car.AUDIO_SERVICE);
+                    int audioZoneId = getAudioZoneIdForDisplay();
+                    int volumeGroupCount = carAudioManager.getVolumeGroupCount(audioZoneId);
+                    // Parsed in the background when SystemUI started.
+                    CarVolumeItemConfig.Table volumeItemTable = mVolumeItemConfig.getTable();
+                    List<VolumeItem> volumeItems = new ArrayList<>(volumeGroupCount);
+                    for (int groupId = 0; groupId < volumeGroupCount; groupId++) {
+                        VolumeItem volumeItem = getVolumeItemForUsages(volumeItemTable,
+                                carAudioManager.getUsagesForVolumeGroupId(audioZoneId,
+                                        groupId));
+                        volumeItem.mProgress = carAudioManager.getGroupVolume(audioZoneId,
+                                groupId);
+                        volumeItem.mMax = carAudioManager.getGroupMaxVolume(audioZoneId,
+                                groupId);
+                        volumeItems.add(volumeItem);
                     }
+                    mHandler.post(() -> onVolumeItemsLoadedH(carAudioManager, audioZoneId,
+                            volumeItems));
                 }
-
-                // If list is already initiated, update its content.
-                if (mVolumeItemsAdapter != null) {
-                    mVolumeItemsAdapter.notifyDataSetChanged();
-                }
-                mCarAudioManager.registerCarVolumeCallback(mVolumeChangeCallback);
             };
 
     private final BroadcastReceiver mHomeButtonPressedBroadcastReceiver = new BroadcastReceiver() {
@@ -203,17 +188,86 @@ public class CarVolumeDialogImpl implements VolumeDialog {
                 R.integer.car_volume_dialog_display_expanded_hovering_timeout);
     }
 
+    /**
+     * Sets the {@link CarVolumeItemConfig} of the icons of the volume groups. Must be called
+     * before {@link #setCarServiceProvider(CarServiceProvider)}.
+     */
+    public void setVolumeItemConfig(CarVolumeItemConfig volumeItemConfig) {
+        mVolumeItemConfig = volumeItemConfig;
+    }
+
+    /**
+     * Sets the {@link CarVolumeStateCache} which delivers the volume changes. Must be called
+     * before {@link #setCarServiceProvider(CarServiceProvider)}.
+     */
+    public void setVolumeStateCache(CarVolumeStateCache volumeStateCache) {
+        mVolumeStateCache = volumeStateCache;
+    }
+
     /** Sets a {@link CarServiceProvider} which connects to the audio service. */
     public void setCarServiceProvider(CarServiceProvider carServiceProvider) {
-        carServiceProvider.addListener(mCarServiceOnConnectedListener);
+        mCarServiceProvider = carServiceProvider;
+        carServiceProvider.addListener(mCarServiceOnConnectedListener,
+                CarServiceProvider.PRIORITY_BACKGROUND);
     }
 
-    private static int getSeekbarValue(CarAudioManager carAudioManager, int volumeGroupId) {
-        return carAudioManager.getGroupVolume(volumeGroupId);
+    /**
+     * Replaces the volume items of the previous connection, if any, with the ones loaded from the
+     * car audio service.
+     */
+    private void onVolumeItemsLoadedH(CarAudioManager carAudioManager, int audioZoneId,
+            List<VolumeItem> volumeItems) {
+        mExpanded = false;
+        mCarAudioManager = carAudioManager;
+        mAudioZoneId = audioZoneId;
+        if (mExpandIconDrawable == null) {
+            mExpandIconDrawable = mContext.getDrawable(R.drawable.car_ic_keyboard_arrow_down);
+            mExpandIconDrawable.mutate().setTint(
+                    mContext.getColor(R.color.car_volume_dialog_tint));
+        }
+        // The volume groups may have changed if the car service restarted.
+        mAvailableVolumeItems.clear();
+        // Creates the volume slider item of each volume group once; they are reused each time
+        // the dialog is shown.
+        for (int groupId = 0; groupId < volumeItems.size(); groupId++) {
+            VolumeItem volumeItem = volumeItems.get(groupId);
+            mAvailableVolumeItems.add(volumeItem);
+            createCarVolumeItem(volumeItem, groupId);
+        }
+        if (mCurrentlyDisplayingGroupId >= volumeItems.size()) {
+            // The first one is the default item.
+            mCurrentlyDisplayingGroupId = 0;
+            mPreviouslyDisplayingGroupId = 0;
+        }
+
+        updateCarVolumeLineItemsH();
+        mVolumeStateCache.setListener(mAudioZoneId, volumeItems.size(), mVolumeStateListener);
+        mVolumeStateCache.connect();
     }
 
-    private static int getMaxSeekbarValue(CarAudioManager carAudioManager, int volumeGroupId) {
-        return carAudioManager.getGroupMaxVolume(volumeGroupId);
+    /**
+     * Returns the audio zone of the occupant zone the display of the dialog belongs to, or the
+     * primary audio zone if there is none.
+     */
+    private int getAudioZoneIdForDisplay() {
+        CarOccupantZoneManager occupantZoneManager =
+                (CarOccupantZoneManager) mCarServiceProvider.getCarManager(
+                        Car.CAR_OCCUPANT_ZONE_SERVICE);
+        if (occupantZoneManager == null) {
+            return CarAudioManager.PRIMARY_AUDIO_ZONE;
+        }
+        int displayId = mContext.getDisplayId();
+        for (OccupantZoneInfo occupantZone : occupantZoneManager.getAllOccupantZones()) {
+            for (Display display : occupantZoneManager.getAllDisplaysForOccupant(occupantZone)) {
+                if (display.getDisplayId() != displayId) {
+                    continue;
+                }
+                int audioZoneId = occupantZoneManager.getAudioZoneIdForOccupant(occupantZone);
+                return audioZoneId == CarAudioManager.INVALID_AUDIO_ZONE
+                        ? CarAudioManager.PRIMARY_AUDIO_ZONE : audioZoneId;
+            }
+        }
+        return CarAudioManager.PRIMARY_AUDIO_ZONE;
     }
 
     /**
@@ -253,7 +307,6 @@ public class CarVolumeDialogImpl implements VolumeDialog {
     }
 
     private void initDialog() {
-        loadAudioUsageItems();
         mCarVolumeLineItems.clear();
         mDialog = new CustomDialog(mContext);
 
@@ -320,30 +373,68 @@ public class CarVolumeDialogImpl implements VolumeDialog {
 
         rescheduleTimeoutH();
 
-        // Refresh the data set before showing.
-        mVolumeItemsAdapter.notifyDataSetChanged();
-
+        // The items are kept up to date while the dialog is hidden, so only the displayed group
+        // may need to change.
         if (mShowing) {
             if (mPreviouslyDisplayingGroupId == mCurrentlyDisplayingGroupId || mExpanded) {
                 return;
             }
 
-            clearAllAndSetupDefaultCarVolumeLineItem(mCurrentlyDisplayingGroupId);
+            updateCarVolumeLineItemsH();
             return;
         }
 
         mShowing = true;
-        clearAllAndSetupDefaultCarVolumeLineItem(mCurrentlyDisplayingGroupId);
+        updateCarVolumeLineItemsH();
         mDialog.show();
         Events.writeEvent(Events.EVENT_SHOW_DIALOG, reason, mKeyguard.isKeyguardLocked());
     }
 
-    private void clearAllAndSetupDefaultCarVolumeLineItem(int groupId) {
+    /**
+     * Updates the items of the RecyclerView to the currently displaying group, with the expand
+     * icon, followed by the other groups if expanded. Only the items which were added, removed or
+     * moved are bound again.
+     */
+    private void updateCarVolumeLineItemsH() {
+        mPreviousCarVolumeLineItems.clear();
+        mPreviousCarVolumeLineItems.addAll(mCarVolumeLineItems);
         mCarVolumeLineItems.clear();
-        VolumeItem volumeItem = mAvailableVolumeItems.get(groupId);
-        volumeItem.mDefaultItem = true;
-        addCarVolumeListItem(volumeItem, /* volumeGroupId = */ groupId,
-                R.drawable.car_ic_keyboard_arrow_down, new ExpandIconListener());
+        for (int groupId = 0; groupId < mAvailableVolumeItems.size(); groupId++) {
+            VolumeItem volumeItem = mAvailableVolumeItems.get(groupId);
+            CarVolumeItem carVolumeItem = volumeItem.mCarVolumeItem;
+            volumeItem.mDefaultItem = groupId == mCurrentlyDisplayingGroupId;
+            if (volumeItem.mDefaultItem) {
+                carVolumeItem.setSupplementalIcon(mExpandIconDrawable,
+                        /* showSupplementalIconDivider= */ true);
+                carVolumeItem.setSupplementalIconListener(mExpandIconListener);
+                mCarVolumeLineItems.add(0, carVolumeItem);
+            } else {
+                carVolumeItem.setSupplementalIcon(/* drawable= */ null,
+                        /* showSupplementalIconDivider= */ false);
+                carVolumeItem.setSupplementalIconListener(null);
+                if (mExpanded) {
+                    mCarVolumeLineItems.add(carVolumeItem);
+                }
+            }
+        }
+        if (mVolumeItemsAdapter != null) {
+            DiffUtil.calculateDiff(new LineItemsDiffCallback(mPreviousCarVolumeLineItems,
+                    mCarVolumeLineItems), /* detectMoves= */ false)
+                    .dispatchUpdatesTo(mVolumeItemsAdapter);
+        }
+        mPreviousCarVolumeLineItems.clear();
+    }
+
+    /** Rebinds the progress of the given group, if it is in the RecyclerView. */
+    private void updateProgressH(int groupId) {
+        if (groupId >= mAvailableVolumeItems.size() || mVolumeItemsAdapter == null) {
+            return;
+        }
+        int position = mCarVolumeLineItems.indexOf(
+                mAvailableVolumeItems.get(groupId).mCarVolumeItem);
+        if (position >= 0) {
+            mVolumeItemsAdapter.notifyItemChanged(position, CarVolumeItemAdapter.PAYLOAD_PROGRESS);
+        }
     }
 
     protected void rescheduleTimeoutH() {
@@ -401,105 +492,36 @@ public class CarVolumeDialogImpl implements VolumeDialog {
         Events.writeEvent(Events.EVENT_DISMISS_DIALOG, reason);
     }
 
-    private void loadAudioUsageItems() {
-        try (XmlResourceParser parser = mContext.getResources().getXml(R.xml.car_volume_items)) {
-            AttributeSet attrs = Xml.asAttributeSet(parser);
-            int type;
-            // Traverse to the first start tag
-            while ((type = parser.next()) != XmlResourceParser.END_DOCUMENT
-                    && type != XmlResourceParser.START_TAG) {
-                // Do Nothing (moving parser to start element)
-            }
-
-            if (!XML_TAG_VOLUME_ITEMS.equals(parser.getName())) {
-                throw new RuntimeException("Meta-data does not start with carVolumeItems tag");
-            }
-            int outerDepth = parser.getDepth();
-            int rank = 0;
-            while ((type = parser.next()) != XmlResourceParser.END_DOCUMENT
-                    && (type != XmlResourceParser.END_TAG || parser.getDepth() > outerDepth)) {
-                if (type == XmlResourceParser.END_TAG) {
-                    continue;
-                }
-                if (XML_TAG_VOLUME_ITEM.equals(parser.getName())) {
-                    TypedArray item = mContext.getResources().obtainAttributes(
-                            attrs, R.styleable.carVolumeItems_item);
-                    int usage = item.getInt(R.styleable.carVolumeItems_item_usage,
-                            /* defValue= */ -1);
-                    if (usage >= 0) {
-                        VolumeItem volumeItem = new VolumeItem();
-                        volumeItem.mRank = rank;
-                        volumeItem.mIcon = item.getResourceId(
-                                R.styleable.carVolumeItems_item_icon, /* defValue= */ 0);
-                        mVolumeItems.put(usage, volumeItem);
-                        rank++;
-                    }
-                    item.recycle();
-                }
-            }
-        } catch (XmlPullParserException | IOException e) {
-            Log.e(TAG, "Error parsing volume groups configuration", e);
-        }
-    }
-
-    private VolumeItem getVolumeItemForUsages(int[] usages) {
-        int rank = Integer.MAX_VALUE;
-        VolumeItem result = null;
-        for (int usage : usages) {
-            VolumeItem volumeItem = mVolumeItems.get(usage);
-            if (volumeItem.mRank < rank) {
-                rank = volumeItem.mRank;
-                result = volumeItem;
-            }
-        }
+    private VolumeItem getVolumeItemForUsages(CarVolumeItemConfig.Table volumeItemTable,
+            int[] usages) {
+        int usage = volumeItemTable.getTopRankedUsage(usages);
+        VolumeItem result = new VolumeItem();
+        result.mRank = volumeItemTable.getRank(usage);
+        result.mIcon = volumeItemTable.getIcon(usage);
         return result;
     }
 
-    private CarVolumeItem createCarVolumeListItem(VolumeItem volumeItem, int volumeGroupId,
-            Drawable supplementalIcon, int seekbarProgressValue,
-            @Nullable View.OnClickListener supplementalIconOnClickListener) {
+    private CarVolumeItem createCarVolumeItem(VolumeItem volumeItem, int volumeGroupId) {
         CarVolumeItem carVolumeItem = new CarVolumeItem();
-        carVolumeItem.setMax(getMaxSeekbarValue(mCarAudioManager, volumeGroupId));
-        carVolumeItem.setProgress(seekbarProgressValue);
+        carVolumeItem.setMax(volumeItem.mMax);
+        carVolumeItem.setProgress(volumeItem.mProgress);
         carVolumeItem.setOnSeekBarChangeListener(
-                new CarVolumeDialogImpl.VolumeSeekBarChangeListener(volumeGroupId,
-                        mCarAudioManager));
+                new CarVolumeDialogImpl.VolumeSeekBarChangeListener(volumeGroupId));
         carVolumeItem.setGroupId(volumeGroupId);
 
-        int color = mContext.getColor(R.color.car_volume_dialog_tint);
         Drawable primaryIcon = mContext.getDrawable(volumeItem.mIcon);
-        primaryIcon.mutate().setTint(color);
+        primaryIcon.mutate().setTint(mContext.getColor(R.color.car_volume_dialog_tint));
         carVolumeItem.setPrimaryIcon(primaryIcon);
-        if (supplementalIcon != null) {
-            supplementalIcon.mutate().setTint(color);
-            carVolumeItem.setSupplementalIcon(supplementalIcon,
-                    /* showSupplementalIconDivider= */ true);
-            carVolumeItem.setSupplementalIconListener(supplementalIconOnClickListener);
-        } else {
-            carVolumeItem.setSupplementalIcon(/* drawable= */ null,
-                    /* showSupplementalIconDivider= */ false);
-        }
 
         volumeItem.mCarVolumeItem = carVolumeItem;
-        volumeItem.mProgress = seekbarProgressValue;
-
-        return carVolumeItem;
-    }
 
-    private CarVolumeItem addCarVolumeListItem(VolumeItem volumeItem, int volumeGroupId,
-            int supplementalIconId,
-            @Nullable View.OnClickListener supplementalIconOnClickListener) {
-        int seekbarProgressValue = getSeekbarValue(mCarAudioManager, volumeGroupId);
-        Drawable supplementalIcon = supplementalIconId == 0 ? null : mContext.getDrawable(
-                supplementalIconId);
-        CarVolumeItem carVolumeItem = createCarVolumeListItem(volumeItem, volumeGroupId,
-                supplementalIcon, seekbarProgressValue, supplementalIconOnClickListener);
-        mCarVolumeLineItems.add(carVolumeItem);
         return carVolumeItem;
     }
 
     private void cleanupAudioManager() {
-        mCarAudioManager.unregisterCarVolumeCallback(mVolumeChangeCallback);
+        if (mVolumeStateCache != null) {
+            mVolumeStateCache.removeListener(mVolumeStateListener);
+        }
         mCarVolumeLineItems.clear();
         mCarAudioManager = null;
     }
@@ -514,6 +536,7 @@ public class CarVolumeDialogImpl implements VolumeDialog {
         private int mIcon;
         private CarVolumeItem mCarVolumeItem;
         private int mProgress;
+        private int mMax;
     }
 
     private final class H extends Handler {
@@ -586,20 +609,13 @@ public class CarVolumeDialogImpl implements VolumeDialog {
 
     private void toggleDialogExpansion(boolean isClicked) {
         mExpanded = !mExpanded;
+        updateCarVolumeLineItemsH();
         Animator inAnimator;
         if (mExpanded) {
-            for (int groupId = 0; groupId < mAvailableVolumeItems.size(); ++groupId) {
-                if (groupId != mCurrentlyDisplayingGroupId) {
-                    VolumeItem volumeItem = mAvailableVolumeItems.get(groupId);
-                    addCarVolumeListItem(volumeItem, groupId, /* supplementalIconId= */ 0,
-                            /* supplementalIconOnClickListener= */ null);
-                }
-            }
             inAnimator = AnimatorInflater.loadAnimator(
                     mContext, R.anim.car_arrow_fade_in_rotate_up);
 
         } else {
-            clearAllAndSetupDefaultCarVolumeLineItem(mCurrentlyDisplayingGroupId);
             inAnimator = AnimatorInflater.loadAnimator(
                     mContext, R.anim.car_arrow_fade_in_rotate_down);
         }
@@ -616,17 +632,48 @@ public class CarVolumeDialogImpl implements VolumeDialog {
         }
         animators.setTarget(mExpandIcon);
         animators.start();
-        mVolumeItemsAdapter.notifyDataSetChanged();
+    }
+
+    /**
+     * Compares the items of the RecyclerView before and after an update. Items are updated in
+     * place; only the first item, which shows the expand icon, differs from the others.
+     */
+    private static final class LineItemsDiffCallback extends DiffUtil.Callback {
+        private final List<CarVolumeItem> mOldItems;
+        private final List<CarVolumeItem> mNewItems;
+
+        LineItemsDiffCallback(List<CarVolumeItem> oldItems, List<CarVolumeItem> newItems) {
+            mOldItems = oldItems;
+            mNewItems = newItems;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldItems.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewItems.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldItems.get(oldItemPosition) == mNewItems.get(newItemPosition);
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return (oldItemPosition == 0) == (newItemPosition == 0);
+        }
     }
 
     private final class VolumeSeekBarChangeListener implements OnSeekBarChangeListener {
 
         private final int mVolumeGroupId;
-        private final CarAudioManager mCarAudioManager;
 
-        private VolumeSeekBarChangeListener(int volumeGroupId, CarAudioManager carAudioManager) {
+        private VolumeSeekBarChangeListener(int volumeGroupId) {
             mVolumeGroupId = volumeGroupId;
-            mCarAudioManager = carAudioManager;
         }
 
         @Override
@@ -644,7 +691,9 @@ public class CarVolumeDialogImpl implements VolumeDialog {
             mAvailableVolumeItems.get(mVolumeGroupId).mProgress = progress;
             mAvailableVolumeItems.get(
                     mVolumeGroupId).mCarVolumeItem.setProgress(progress);
-            mCarAudioManager.setGroupVolume(mVolumeGroupId, progress, 0);
+            // Written on the background executor, so that dragging does not block on the car
+            // audio service.
+            mVolumeStateCache.setGroupVolume(mAudioZoneId, mVolumeGroupId, progress);
         }
 
         @Override
@@ -131,5 +131,13 @@ public class CarVolumeItem {
             mSupplementalIcon.setClickable(
                     carVolumeItem.mSupplementalIconOnClickListener != null);
         }
+
+        /**
+         * Binds only the progress of {@link CarVolumeItem}, when nothing else changed since it was
+         * last bound.
+         */
+        void bindProgress(CarVolumeItem carVolumeItem) {
+            mSeekBar.setProgress(carVolumeItem.mProgress);
+        }
     }
 }
@@ -27,16 +27,24 @@ import com.android.systemui.R;
 
 import java.util.List;
 
-/** The {@link RecyclerView.Adapter} to show the volume items in the sysUI volume dialog. */
+/**
+ * The {@link RecyclerView.Adapter} to show the volume items in the sysUI volume dialog. Items are
+ * identified by their volume group id, so that an item keeps its view when items are added or
+ * removed around it.
+ */
 public class CarVolumeItemAdapter extends
         RecyclerView.Adapter<CarVolumeItem.CarVolumeItemViewHolder> {
 
+    /** Payload of a change where only the progress of the row changed. */
+    static final Object PAYLOAD_PROGRESS = new Object();
+
     private final Context mContext;
     private final List<CarVolumeItem> mItems;
 
     public CarVolumeItemAdapter(Context context, List<CarVolumeItem> items) {
         mContext = context;
         mItems = items;
+        setHasStableIds(true);
     }
 
     @Override
@@ -52,8 +60,32 @@ public class CarVolumeItemAdapter extends
         mItems.get(position).bind(holder);
     }
 
+    @Override
+    public void onBindViewHolder(CarVolumeItem.CarVolumeItemViewHolder holder, int position,
+            List<Object> payloads) {
+        if (!payloads.isEmpty() && allProgressPayloads(payloads)) {
+            holder.bindProgress(mItems.get(position));
+            return;
+        }
+        onBindViewHolder(holder, position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mItems.get(position).getGroupId();
+    }
+
     @Override
     public int getItemCount() {
         return mItems.size();
     }
+
+    private static boolean allProgressPayloads(List<Object> payloads) {
+        for (int i = 0; i < payloads.size(); i++) {
+            if (payloads.get(i) != PAYLOAD_PROGRESS) {
+                return false;
+            }
+        }
+        return true;
+    }
 }
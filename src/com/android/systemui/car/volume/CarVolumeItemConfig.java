@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.car.volume;
+
+import android.annotation.DrawableRes;
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.content.res.XmlResourceParser;
+import android.util.AttributeSet;
+import android.util.Log;
+import android.util.SparseIntArray;
+import android.util.Xml;
+
+import com.android.systemui.R;
+import com.android.systemui.dagger.SysUISingleton;
+import com.android.systemui.dagger.qualifiers.Main;
+import com.android.systemui.dagger.qualifiers.UiBackground;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+import javax.inject.Inject;
+
+/**
+ * The volume items of the car volume dialog: the icon and the rank of each audio usage, as
+ * configured in {@code R.xml.car_volume_items}.
+ *
+ * The configuration is parsed once, on the background executor when SystemUI starts, into an
+ * immutable {@link Table} shared by all the volume dialogs.
+ */
+@SysUISingleton
+public class CarVolumeItemConfig {
+    private static final String TAG = "CarVolumeItemConfig";
+
+    private static final String XML_TAG_VOLUME_ITEMS = "carVolumeItems";
+    private static final String XML_TAG_VOLUME_ITEM = "item";
+
+    private final Resources mResources;
+    private final Executor mBackgroundExecutor;
+    private final Object mLock = new Object();
+    private volatile Table mTable;
+
+    /**
+     * The icon and the rank of each configured audio usage, in arrays indexed by usage. System
+     * usages, which start at {@link #SYSTEM_USAGE_OFFSET}, follow the other usages.
+     */
+    public static final class Table {
+        /** Rank of the usages which are not configured. */
+        public static final int NO_RANK = Integer.MAX_VALUE;
+
+        // Aligned with AudioAttributes.SYSTEM_USAGE_OFFSET.
+        private static final int SYSTEM_USAGE_OFFSET = 1000;
+
+        private final int mSystemUsageIndex;
+        private final int[] mRanks;
+        private final int[] mIcons;
+
+        private Table(SparseIntArray ranks, SparseIntArray icons) {
+            int maxUsage = -1;
+            int maxSystemUsage = SYSTEM_USAGE_OFFSET - 1;
+            for (int i = 0; i < ranks.size(); i++) {
+                int usage = ranks.keyAt(i);
+                if (usage < SYSTEM_USAGE_OFFSET) {
+                    maxUsage = Math.max(maxUsage, usage);
+                } else {
+                    maxSystemUsage = Math.max(maxSystemUsage, usage);
+                }
+            }
+            mSystemUsageIndex = maxUsage + 1;
+            int size = mSystemUsageIndex + maxSystemUsage - SYSTEM_USAGE_OFFSET + 1;
+            mRanks = new int[size];
+            mIcons = new int[size];
+            Arrays.fill(mRanks, NO_RANK);
+            for (int i = 0; i < ranks.size(); i++) {
+                int index = indexOf(ranks.keyAt(i));
+                mRanks[index] = ranks.valueAt(i);
+                mIcons[index] = icons.valueAt(i);
+            }
+        }
+
+        /** Returns the rank of the given usage, or {@link #NO_RANK} if it is not configured. */
+        public int getRank(int usage) {
+            int index = indexOf(usage);
+            return index < 0 ? NO_RANK : mRanks[index];
+        }
+
+        /** Returns the icon of the given usage, or {@code 0} if it is not configured. */
+        @DrawableRes
+        public int getIcon(int usage) {
+            int index = indexOf(usage);
+            return index < 0 ? 0 : mIcons[index];
+        }
+
+        /**
+         * Returns the usage of the given usages with the best rank, e.g. the one representing a
+         * volume group, or {@code -1} if none of them is configured.
+         */
+        public int getTopRankedUsage(int[] usages) {
+            int result = -1;
+            int rank = NO_RANK;
+            for (int usage : usages) {
+                int usageRank = getRank(usage);
+                if (usageRank < rank) {
+                    rank = usageRank;
+                    result = usage;
+                }
+            }
+            return result;
+        }
+
+        private int indexOf(int usage) {
+            int index;
+            if (usage < 0) {
+                return -1;
+            } else if (usage < SYSTEM_USAGE_OFFSET) {
+                index = usage < mSystemUsageIndex ? usage : -1;
+            } else {
+                index = mSystemUsageIndex + usage - SYSTEM_USAGE_OFFSET;
+            }
+            return index < mRanks.length ? index : -1;
+        }
+    }
+
+    @Inject
+    public CarVolumeItemConfig(@Main Resources resources,
+            @UiBackground Executor backgroundExecutor) {
+        mResources = resources;
+        mBackgroundExecutor = backgroundExecutor;
+    }
+
+    /** Parses the configuration on the background executor, if it is not parsed yet. */
+    public void preload() {
+        if (mTable == null) {
+            mBackgroundExecutor.execute(this::getTable);
+        }
+    }
+
+    /** Returns the configuration, which is parsed on the calling thread if not parsed yet. */
+    public Table getTable() {
+        Table table = mTable;
+        if (table != null) {
+            return table;
+        }
+        synchronized (mLock) {
+            if (mTable == null) {
+                mTable = parse();
+            }
+            return mTable;
+        }
+    }
+
+    private Table parse() {
+        SparseIntArray ranks = new SparseIntArray();
+        SparseIntArray icons = new SparseIntArray();
+        try (XmlResourceParser parser = mResources.getXml(R.xml.car_volume_items)) {
+            AttributeSet attrs = Xml.asAttributeSet(parser);
+            int type;
+            // Traverse to the first start tag
+            while ((type = parser.next()) != XmlResourceParser.END_DOCUMENT
+                    && type != XmlResourceParser.START_TAG) {
+                // Do Nothing (moving parser to start element)
+            }
+
+            if (!XML_TAG_VOLUME_ITEMS.equals(parser.getName())) {
+                throw new RuntimeException("Meta-data does not start with carVolumeItems tag");
+            }
+            int outerDepth = parser.getDepth();
+            int rank = 0;
+            while ((type = parser.next()) != XmlResourceParser.END_DOCUMENT
+                    && (type != XmlResourceParser.END_TAG || parser.getDepth() > outerDepth)) {
+                if (type == XmlResourceParser.END_TAG) {
+                    continue;
+                }
+                if (XML_TAG_VOLUME_ITEM.equals(parser.getName())) {
+                    TypedArray item = mResources.obtainAttributes(
+                            attrs, R.styleable.carVolumeItems_item);
+                    int usage = item.getInt(R.styleable.carVolumeItems_item_usage,
+                            /* defValue= */ -1);
+                    if (usage >= 0) {
+                        ranks.put(usage, rank);
+                        icons.put(usage, item.getResourceId(
+                                R.styleable.carVolumeItems_item_icon, /* defValue= */ 0));
+                        rank++;
+                    }
+                    item.recycle();
+                }
+            }
+        } catch (XmlPullParserException | IOException e) {
+            Log.e(TAG, "Error parsing volume groups configuration", e);
+        }
+        return new Table(ranks, icons);
+    }
+}
@@ -0,0 +1,487 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.car.volume;
+
+import android.car.Car;
+import android.car.media.CarAudioManager;
+import android.util.Log;
+import android.util.SparseArray;
+import android.view.Choreographer;
+
+import androidx.annotation.VisibleForTesting;
+
+import com.android.systemui.car.CarServiceCallbackRegistry;
+import com.android.systemui.car.CarServiceProvider;
+import com.android.systemui.dagger.SysUISingleton;
+import com.android.systemui.dagger.qualifiers.Background;
+import com.android.systemui.dagger.qualifiers.Main;
+
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+import javax.inject.Inject;
+
+/**
+ * Caches the volume of each (audio zone, volume group) pair and delivers its changes to the
+ * volume UI of the zone.
+ *
+ * The volume callbacks of the car audio service only tell which group changed, so the volume of
+ * a changed group has to be read back from the service. Changes are coalesced per frame: on each
+ * frame with pending changes, the volume of each changed group is read once on the background
+ * executor, and the groups whose volume changed, or whose changes asked for the volume UI, are
+ * delivered to the listener of their zone on the main thread. Changes of zones without a listener
+ * are dropped without being read.
+ *
+ * Volumes set by the UI are cached right away and written to the service on the background
+ * executor. Reads of a group with a write in flight are ignored, so that the UI does not jump
+ * back to an older volume while the user is dragging a seek bar.
+ */
+@SysUISingleton
+public class CarVolumeStateCache {
+    private static final String TAG = "CarVolumeStateCache";
+    private static final int UNKNOWN_VOLUME = -1;
+
+    /** Receives the volume changes of the volume groups of an audio zone. */
+    public interface Listener {
+        /**
+         * Called on the main thread, at most once per frame for each volume group, with the
+         * latest volume of the group. {@code flags} combines the flags of the changes received
+         * since the last call, e.g. {@link android.media.AudioManager#FLAG_SHOW_UI}.
+         */
+        void onGroupVolumeChanged(int groupId, int volume, int flags);
+    }
+
+    /** The cached volume of a volume group and its changes on their way to the listener. */
+    private static final class GroupState {
+        int mVolume = UNKNOWN_VOLUME;
+        // Changed since the last read. Guarded by mLock.
+        boolean mChanged;
+        int mChangedFlags;
+        // Being read. Only accessed on the background executor.
+        boolean mReading;
+        int mReadingFlags;
+        // Read but not yet delivered. Guarded by mLock.
+        boolean mUpdated;
+        int mUpdatedFlags;
+        // Being delivered. Only accessed on the main thread.
+        boolean mDelivering;
+        int mDeliveringVolume;
+        int mDeliveringFlags;
+        // Set by the UI but not yet written. Guarded by mLock.
+        boolean mWritePending;
+        boolean mWriteInFlight;
+    }
+
+    /** The volume groups of an audio zone and the listener showing them. */
+    private static final class ZoneState {
+        final int mZoneId;
+        final Listener mListener;
+        final GroupState[] mGroups;
+
+        ZoneState(int zoneId, int groupCount, Listener listener) {
+            mZoneId = zoneId;
+            mListener = listener;
+            mGroups = new GroupState[groupCount];
+            for (int i = 0; i < groupCount; i++) {
+                mGroups[i] = new GroupState();
+            }
+        }
+    }
+
+    private final CarServiceProvider mCarServiceProvider;
+    private final CarServiceCallbackRegistry mCallbackRegistry;
+    private final Executor mBackgroundExecutor;
+    private final Executor mMainExecutor;
+    private final Consumer<Choreographer.FrameCallback> mFrameScheduler;
+    private final Object mLock = new Object();
+    // Guarded by mLock.
+    private final SparseArray<ZoneState> mZones = new SparseArray<>();
+
+    private final Runnable mScheduleFrame = this::scheduleFrame;
+    private final Choreographer.FrameCallback mFrameCallback = frameTimeNanos -> onFrame();
+    private final Runnable mReadVolumes = this::readVolumes;
+    private final Runnable mDeliverVolumes = this::deliverVolumes;
+    private final Runnable mWriteVolumes = this::writeVolumes;
+
+    // Guarded by mLock.
+    private boolean mFrameScheduled;
+    private boolean mDeliveryScheduled;
+    private boolean mWriteScheduled;
+    private int mEventCount;
+    private int mDroppedEventCount;
+    private int mReadCount;
+    private int mDeliveryCount;
+    private int mWriteCount;
+
+    private volatile CarAudioManager mCarAudioManager;
+    private boolean mConnecting;
+
+    private final CarAudioManager.CarVolumeCallback mVolumeCallback =
+            new CarAudioManager.CarVolumeCallback() {
+                @Override
+                public void onGroupVolumeChanged(int zoneId, int groupId, int flags) {
+                    onGroupVolumeEvent(zoneId, groupId, flags);
+                }
+
+                @Override
+                public void onMasterMuteChanged(int zoneId, int flags) {
+                    // ignored
+                }
+            };
+
+    private final CarServiceProvider.CarServiceOnConnectedListener mCarServiceLifecycleListener =
+            new CarServiceProvider.CarServiceOnConnectedListener() {
+                @Override
+                public void onConnected(Car car) {
+                    mCarAudioManager = (CarAudioManager) mCarServiceProvider.getCarManager(
+                            Car.AUDIO_SERVICE);
+                    mCallbackRegistry.registerVolumeCallback(mVolumeCallback);
+                    mCallbackRegistry.onConnected();
+                }
+
+                @Override
+                public void onDisconnected() {
+                    mCarAudioManager = null;
+                    mCallbackRegistry.onDisconnected();
+                }
+            };
+
+    @Inject
+    public CarVolumeStateCache(CarServiceProvider carServiceProvider,
+            @Background Executor backgroundExecutor,
+            @Main Executor mainExecutor) {
+        this(carServiceProvider, backgroundExecutor, mainExecutor,
+                callback -> Choreographer.getInstance().postFrameCallback(callback));
+    }
+
+    /**
+     * @param frameScheduler posts the given callback to run on the next frame; called on the
+     *                       main thread.
+     */
+    @VisibleForTesting
+    CarVolumeStateCache(CarServiceProvider carServiceProvider, Executor backgroundExecutor,
+            Executor mainExecutor, Consumer<Choreographer.FrameCallback> frameScheduler) {
+        mCarServiceProvider = carServiceProvider;
+        mCallbackRegistry = new CarServiceCallbackRegistry(carServiceProvider);
+        mBackgroundExecutor = backgroundExecutor;
+        mMainExecutor = mainExecutor;
+        mFrameScheduler = frameScheduler;
+    }
+
+    /**
+     * Connects to the car service, if not already connected, and listens to the volume changes
+     * of all the audio zones. Must be called on the main thread.
+     */
+    public void connect() {
+        if (!mConnecting) {
+            mConnecting = true;
+            mCarServiceProvider.addListener(mCarServiceLifecycleListener);
+        }
+    }
+
+    /**
+     * Sets the listener of the given audio zone, which has the given number of volume groups,
+     * replacing any previous listener of the zone. The cached volumes of the zone are reset.
+     */
+    public void setListener(int zoneId, int groupCount, Listener listener) {
+        synchronized (mLock) {
+            mZones.put(zoneId, new ZoneState(zoneId, groupCount, listener));
+        }
+    }
+
+    /** Removes the given listener from the zones it listens to. */
+    public void removeListener(Listener listener) {
+        synchronized (mLock) {
+            for (int i = mZones.size() - 1; i >= 0; i--) {
+                if (mZones.valueAt(i).mListener == listener) {
+                    mZones.removeAt(i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the volume of the given group, e.g. as the user drags its seek bar. The volume is
+     * cached right away and written to the car service on the background executor; only the
+     * latest volume set before the write is written.
+     */
+    public void setGroupVolume(int zoneId, int groupId, int volume) {
+        synchronized (mLock) {
+            GroupState group = getGroupLocked(zoneId, groupId);
+            if (group == null) {
+                return;
+            }
+            group.mVolume = volume;
+            group.mWritePending = true;
+            if (!mWriteScheduled) {
+                mWriteScheduled = true;
+                mBackgroundExecutor.execute(mWriteVolumes);
+            }
+        }
+    }
+
+    /** Returns the cached volume of the given group, or {@code -1} if unknown. */
+    public int getGroupVolume(int zoneId, int groupId) {
+        synchronized (mLock) {
+            GroupState group = getGroupLocked(zoneId, groupId);
+            return group == null ? UNKNOWN_VOLUME : group.mVolume;
+        }
+    }
+
+    /** Returns the number of volume changes received from the car service. */
+    public int getEventCount() {
+        synchronized (mLock) {
+            return mEventCount;
+        }
+    }
+
+    /** Returns the number of volume changes dropped because their zone has no listener. */
+    public int getDroppedEventCount() {
+        synchronized (mLock) {
+            return mDroppedEventCount;
+        }
+    }
+
+    /** Returns the number of volumes read from the car service. */
+    public int getReadCount() {
+        synchronized (mLock) {
+            return mReadCount;
+        }
+    }
+
+    /** Returns the number of changes delivered to listeners. */
+    public int getDeliveryCount() {
+        synchronized (mLock) {
+            return mDeliveryCount;
+        }
+    }
+
+    /** Returns the number of volumes written to the car service. */
+    public int getWriteCount() {
+        synchronized (mLock) {
+            return mWriteCount;
+        }
+    }
+
+    @VisibleForTesting
+    CarAudioManager.CarVolumeCallback getVolumeCallback() {
+        return mVolumeCallback;
+    }
+
+    private void onGroupVolumeEvent(int zoneId, int groupId, int flags) {
+        synchronized (mLock) {
+            mEventCount++;
+            GroupState group = getGroupLocked(zoneId, groupId);
+            if (group == null) {
+                mDroppedEventCount++;
+                return;
+            }
+            group.mChanged = true;
+            group.mChangedFlags |= flags;
+            if (!mFrameScheduled) {
+                mFrameScheduled = true;
+                mMainExecutor.execute(mScheduleFrame);
+            }
+        }
+    }
+
+    private void scheduleFrame() {
+        mFrameScheduler.accept(mFrameCallback);
+    }
+
+    private void onFrame() {
+        mBackgroundExecutor.execute(mReadVolumes);
+    }
+
+    private void readVolumes() {
+        // Takes the changes received so far; later changes schedule another frame.
+        synchronized (mLock) {
+            mFrameScheduled = false;
+            for (int i = 0; i < mZones.size(); i++) {
+                GroupState[] groups = mZones.valueAt(i).mGroups;
+                for (GroupState group : groups) {
+                    if (group.mChanged) {
+                        group.mChanged = false;
+                        group.mReading = true;
+                        group.mReadingFlags = group.mChangedFlags;
+                        group.mChangedFlags = 0;
+                    }
+                }
+            }
+        }
+        CarAudioManager carAudioManager = mCarAudioManager;
+        boolean updated = false;
+        // Zones are not added or removed here, but may be replaced by the main thread.
+        for (int i = 0; i < zoneCount(); i++) {
+            ZoneState zone = zoneAt(i);
+            if (zone == null) {
+                continue;
+            }
+            for (int groupId = 0; groupId < zone.mGroups.length; groupId++) {
+                GroupState group = zone.mGroups[groupId];
+                if (!group.mReading) {
+                    continue;
+                }
+                group.mReading = false;
+                int volume = UNKNOWN_VOLUME;
+                if (carAudioManager != null) {
+                    try {
+                        volume = carAudioManager.getGroupVolume(zone.mZoneId, groupId);
+                    } catch (Exception e) {
+                        Log.e(TAG, "Failed to read volume of group " + groupId, e);
+                    }
+                }
+                updated |= onVolumeRead(group, volume);
+            }
+        }
+        if (updated) {
+            synchronized (mLock) {
+                if (!mDeliveryScheduled) {
+                    mDeliveryScheduled = true;
+                    mMainExecutor.execute(mDeliverVolumes);
+                }
+            }
+        }
+    }
+
+    /** Returns whether the group has a change to deliver. */
+    private boolean onVolumeRead(GroupState group, int volume) {
+        synchronized (mLock) {
+            mReadCount++;
+            boolean volumeChanged = volume != UNKNOWN_VOLUME && volume != group.mVolume
+                    && !group.mWritePending && !group.mWriteInFlight;
+            if (volumeChanged) {
+                group.mVolume = volume;
+            }
+            if (volumeChanged || group.mReadingFlags != 0) {
+                group.mUpdated = true;
+                group.mUpdatedFlags |= group.mReadingFlags;
+            }
+            group.mReadingFlags = 0;
+            return group.mUpdated;
+        }
+    }
+
+    private void deliverVolumes() {
+        int zoneCount;
+        synchronized (mLock) {
+            mDeliveryScheduled = false;
+            zoneCount = mZones.size();
+            for (int i = 0; i < zoneCount; i++) {
+                for (GroupState group : mZones.valueAt(i).mGroups) {
+                    if (group.mUpdated) {
+                        group.mUpdated = false;
+                        group.mDelivering = true;
+                        group.mDeliveringVolume = group.mVolume;
+                        group.mDeliveringFlags = group.mUpdatedFlags;
+                        group.mUpdatedFlags = 0;
+                    }
+                }
+            }
+        }
+        // Listeners are called outside of the lock, as they may set volumes.
+        for (int i = 0; i < zoneCount; i++) {
+            ZoneState zone = zoneAt(i);
+            if (zone == null) {
+                continue;
+            }
+            for (int groupId = 0; groupId < zone.mGroups.length; groupId++) {
+                GroupState group = zone.mGroups[groupId];
+                if (!group.mDelivering) {
+                    continue;
+                }
+                group.mDelivering = false;
+                synchronized (mLock) {
+                    mDeliveryCount++;
+                }
+                try {
+                    zone.mListener.onGroupVolumeChanged(groupId, group.mDeliveringVolume,
+                            group.mDeliveringFlags);
+                } catch (Exception e) {
+                    Log.e(TAG, "Failed delivering volume of group " + groupId, e);
+                }
+            }
+        }
+    }
+
+    private void writeVolumes() {
+        synchronized (mLock) {
+            mWriteScheduled = false;
+        }
+        CarAudioManager carAudioManager = mCarAudioManager;
+        for (int i = 0; i < zoneCount(); i++) {
+            ZoneState zone = zoneAt(i);
+            if (zone == null) {
+                continue;
+            }
+            for (int groupId = 0; groupId < zone.mGroups.length; groupId++) {
+                GroupState group = zone.mGroups[groupId];
+                int volume;
+                synchronized (mLock) {
+                    if (!group.mWritePending) {
+                        continue;
+                    }
+                    group.mWritePending = false;
+                    group.mWriteInFlight = true;
+                    volume = group.mVolume;
+                    mWriteCount++;
+                }
+                try {
+                    if (carAudioManager != null) {
+                        carAudioManager.setGroupVolume(zone.mZoneId, groupId, volume,
+                                /* flags= */ 0);
+                    }
+                } catch (Exception e) {
+                    Log.e(TAG, "Failed to write volume of group " + groupId, e);
+                } finally {
+                    synchronized (mLock) {
+                        group.mWriteInFlight = false;
+                    }
+                }
+            }
+        }
+    }
+
+    private int zoneCount() {
+        synchronized (mLock) {
+            return mZones.size();
+        }
+    }
+
+    private ZoneState zoneAt(int index) {
+        synchronized (mLock) {
+            return index < mZones.size() ? mZones.valueAt(index) : null;
+        }
+    }
+
+    private GroupState getGroupLocked(int zoneId, int groupId) {
+        ZoneState zone = mZones.get(zoneId);
+        if (zone == null || groupId < 0 || groupId >= zone.mGroups.length) {
+            return null;
+        }
+        return zone.mGroups[groupId];
+    }
+
+    @Override
+    public String toString() {
+        synchronized (mLock) {
+            return TAG + "{zones=" + mZones.size() + ", events=" + mEventCount
+                    + ", dropped=" + mDroppedEventCount + ", reads=" + mReadCount
+                    + ", deliveries=" + mDeliveryCount + ", writes=" + mWriteCount + "}";
+        }
+    }
+}
@@ -47,6 +47,7 @@ public class VolumeUI extends SystemUI {
     private final Handler mMainHandler;
     private final CarServiceProvider mCarServiceProvider;
     private final Lazy<VolumeDialogComponent> mVolumeDialogComponentLazy;
+    private final CarVolumeItemConfig mVolumeItemConfig;
 
     private final CarAudioManager.CarVolumeCallback mVolumeChangeCallback =
             new CarAudioManager.CarVolumeCallback() {
@@ -66,13 +67,18 @@ public class VolumeUI extends SystemUI {
                             mVolumeDialogComponent = mVolumeDialogComponentLazy.get();
                             mVolumeDialogComponent.register();
                         });
-                        mCarAudioManager.unregisterCarVolumeCallback(mVolumeChangeCallback);
+                        // The manager is cleared when the car service disconnects, which may happen
+                        // while this callback runs on the binder thread.
+                        CarAudioManager carAudioManager = mCarAudioManager;
+                        if (carAudioManager != null) {
+                            carAudioManager.unregisterCarVolumeCallback(mVolumeChangeCallback);
+                        }
                     }
                 }
             };
 
     private boolean mEnabled;
-    private CarAudioManager mCarAudioManager;
+    private volatile CarAudioManager mCarAudioManager;
     private VolumeDialogComponent mVolumeDialogComponent;
 
     @Inject
@@ -81,13 +87,15 @@ public class VolumeUI extends SystemUI {
             @Main Resources resources,
             @Main Handler mainHandler,
             CarServiceProvider carServiceProvider,
-            Lazy<VolumeDialogComponent> volumeDialogComponentLazy
+            Lazy<VolumeDialogComponent> volumeDialogComponentLazy,
+            CarVolumeItemConfig volumeItemConfig
     ) {
         super(context);
         mResources = resources;
         mMainHandler = mainHandler;
         mCarServiceProvider = carServiceProvider;
         mVolumeDialogComponentLazy = volumeDialogComponentLazy;
+        mVolumeItemConfig = volumeItemConfig;
     }
 
     @Override
@@ -96,16 +104,28 @@ public class VolumeUI extends SystemUI {
         mEnabled = enableVolumeUi;
         if (!mEnabled) return;
 
-        mCarServiceProvider.addListener(car -> {
-            if (mCarAudioManager != null) {
-                return;
+        // Ready before the first volume key press creates the volume dialog.
+        mVolumeItemConfig.preload();
+        mCarServiceProvider.addListener(new CarServiceProvider.CarServiceOnConnectedListener() {
+            @Override
+            public void onConnected(Car car) {
+                if (mCarAudioManager != null || mVolumeDialogComponent != null) {
+                    return;
+                }
+
+                CarAudioManager carAudioManager =
+                        (CarAudioManager) mCarServiceProvider.getCarManager(Car.AUDIO_SERVICE);
+                mCarAudioManager = carAudioManager;
+                Log.d(TAG, "Registering mVolumeChangeCallback.");
+                // This volume call back is unregistered once the volume dialog is created.
+                carAudioManager.registerCarVolumeCallback(mVolumeChangeCallback);
             }
 
-            mCarAudioManager = (CarAudioManager) car.getCarManager(Car.AUDIO_SERVICE);
-            Log.d(TAG, "Registering mVolumeChangeCallback.");
-            // This volume call back is never unregistered because CarStatusBar is
-            // never destroyed.
-            mCarAudioManager.registerCarVolumeCallback(mVolumeChangeCallback);
+            @Override
+            public void onDisconnected() {
+                // The callback died with the car service; it is registered again on reconnection.
+                mCarAudioManager = null;
+            }
         });
     }
 
@@ -24,12 +24,14 @@ import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.Rect;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.GestureDetector;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewTreeObserver;
 
 import androidx.annotation.CallSuper;
+import androidx.annotation.VisibleForTesting;
 
 import com.android.systemui.R;
 import com.android.systemui.car.CarDeviceProvisionedController;
@@ -100,6 +102,15 @@ public abstract class OverlayPanelViewController extends OverlayViewController {
     private boolean mIsAnimating;
     private boolean mIsTracking;
 
+    // Clip bounds are reused across frames so that dragging the panel does not allocate.
+    private final Rect mClipBounds = new Rect();
+    // Touch events can arrive several times per frame; only the latest drag position is applied,
+    // once per frame.
+    private final Choreographer.FrameCallback mDragFrameCallback =
+            frameTimeNanos -> applyPendingDragPosition();
+    private boolean mDragFramePending;
+    private int mPendingDragPosition;
+
     public OverlayPanelViewController(
             Context context,
             @Main Resources resources,
@@ -289,6 +300,9 @@ public abstract class OverlayPanelViewController extends OverlayViewController {
      * panel this method also makes the view invisible after animation ends.
      */
     protected void animatePanel(float velocity, boolean isClosing) {
+        // The animation starts from the current clip bounds, so they must reflect the last drag
+        // position.
+        applyPendingDragPosition();
         float to = getEndPosition(isClosing);
 
         Rect rect = getLayout().getClipBounds();
@@ -344,16 +358,43 @@ public abstract class OverlayPanelViewController extends OverlayViewController {
         }
         mIsAnimating = true;
         mIsTracking = true;
+        boolean useHardwareLayer = shouldUseHardwareLayerAnimation();
+        // A panel that is partially dragged shows clipped content, so switching to a translation
+        // would make it jump; such animations keep animating the clip bounds.
+        boolean translatePanel = useHardwareLayer && (from == 0 || from == getLayout().getHeight());
+        int previousLayerType = getLayout().getLayerType();
+        if (useHardwareLayer) {
+            if (translatePanel) {
+                // Draw the content in its expanded state once; only the panel moves afterwards.
+                getLayout().setClipBounds(null);
+                onScroll(getEndPosition(/* isClosing= */ false));
+                setPanelTranslation(from);
+            }
+            // The clip bounds and translation are render node properties, so changing either does
+            // not redraw the layer.
+            getLayout().setLayerType(View.LAYER_TYPE_HARDWARE, /* paint= */ null);
+        }
         ValueAnimator animator = ValueAnimator.ofFloat(from, to);
         animator.addUpdateListener(
                 animation -> {
                     float animatedValue = (Float) animation.getAnimatedValue();
-                    setViewClipBounds((int) animatedValue);
+                    if (translatePanel) {
+                        setPanelTranslation(animatedValue);
+                    } else {
+                        setViewClipBounds((int) animatedValue);
+                    }
                 });
         animator.addListener(new AnimatorListenerAdapter() {
             @Override
             public void onAnimationEnd(Animator animation) {
                 super.onAnimationEnd(animation);
+                if (useHardwareLayer) {
+                    getLayout().setLayerType(previousLayerType, /* paint= */ null);
+                }
+                if (translatePanel) {
+                    getLayout().setTranslationY(0);
+                    setViewClipBounds((int) to);
+                }
                 mIsAnimating = false;
                 mIsTracking = false;
                 mOpeningVelocity = DEFAULT_FLING_VELOCITY;
@@ -373,6 +414,22 @@ public abstract class OverlayPanelViewController extends OverlayViewController {
         animator.start();
     }
 
+    /** Translates the panel so that its ending edge is at the given position. */
+    private void setPanelTranslation(float position) {
+        getLayout().setTranslationY(
+                mAnimateDirection > 0 ? position - getLayout().getHeight() : position);
+    }
+
+    /**
+     * Returns {@code true} if expand and collapse animations should render the panel into a
+     * hardware layer and, when it is fully collapsed or expanded as the animation starts, slide it
+     * instead of clipping it. This avoids redrawing the panel's content on every frame at the cost
+     * of the content not being revealed progressively.
+     */
+    protected boolean shouldUseHardwareLayerAnimation() {
+        return false;
+    }
+
     /**
      * Called in {@link Animator.AnimatorListener#onAnimationEnd(Animator)} when the panel is
      * closing.
@@ -464,7 +521,6 @@ public abstract class OverlayPanelViewController extends OverlayViewController {
     protected void setViewClipBounds(int y) {
         // Bound the pointer position to be within the overlay panel.
         y = Math.max(0, Math.min(y, getLayout().getHeight()));
-        Rect clipBounds = new Rect();
         int top, bottom;
         if (mAnimateDirection > 0) {
             top = 0;
@@ -473,11 +529,43 @@ public abstract class OverlayPanelViewController extends OverlayViewController {
             top = y;
             bottom = getLayout().getHeight();
         }
-        clipBounds.set(0, top, getLayout().getWidth(), bottom);
-        getLayout().setClipBounds(clipBounds);
+        mClipBounds.set(0, top, getLayout().getWidth(), bottom);
+        // The view copies the bounds, so the same instance can be passed every frame.
+        getLayout().setClipBounds(mClipBounds);
         onScroll(y);
     }
 
+    /**
+     * Sets the boundaries of the overlay panel that can be seen based on the pointer position of a
+     * drag. The bounds are applied on the next frame; if several positions are requested before
+     * then, only the latest one is applied.
+     */
+    protected final void setViewClipBoundsOnNextFrame(int y) {
+        mPendingDragPosition = y;
+        if (mDragFramePending) {
+            return;
+        }
+        mDragFramePending = true;
+        postFrameCallback(mDragFrameCallback);
+    }
+
+    /** Applies the drag position requested since the last frame, if any. */
+    @VisibleForTesting
+    void applyPendingDragPosition() {
+        if (!mDragFramePending) {
+            return;
+        }
+        mDragFramePending = false;
+        if (isInflated()) {
+            setViewClipBounds(mPendingDragPosition);
+        }
+    }
+
+    @VisibleForTesting
+    void postFrameCallback(Choreographer.FrameCallback callback) {
+        Choreographer.getInstance().postFrameCallback(callback);
+    }
+
     /**
      * Called while scrolling, this passes the position of the clip boundary that is currently
      * changing.
@@ -552,7 +640,7 @@ public abstract class OverlayPanelViewController extends OverlayViewController {
             setPanelVisible(true);
 
             // clips the view for the panel when the user scrolls to open.
-            setViewClipBounds((int) event2.getRawY());
+            setViewClipBoundsOnNextFrame((int) event2.getRawY());
 
             // Initially the scroll starts with height being zero. This checks protects from divide
             // by zero error.
@@ -613,10 +701,10 @@ public abstract class OverlayPanelViewController extends OverlayViewController {
                 // panel to close fully or else it would stuck in between.
                 if (Math.abs(getLayout().getHeight() - y)
                         > SWIPE_DOWN_MIN_DISTANCE && isInClosingDirection) {
-                    setViewClipBounds((int) y);
+                    setViewClipBoundsOnNextFrame((int) y);
                     mIsTracking = true;
                 } else if (!isInClosingDirection) {
-                    setViewClipBounds((int) y);
+                    setViewClipBoundsOnNextFrame((int) y);
                 }
             }
             // if we return true the items in RV won't be scrollable.
@@ -678,7 +766,7 @@ public abstract class OverlayPanelViewController extends OverlayViewController {
         public boolean onScroll(MotionEvent event1, MotionEvent event2, float distanceX,
                 float distanceY) {
             calculatePercentageFromEndingEdge(event2.getRawY());
-            setViewClipBounds((int) event2.getRawY());
+            setViewClipBoundsOnNextFrame((int) event2.getRawY());
             return true;
         }
     }
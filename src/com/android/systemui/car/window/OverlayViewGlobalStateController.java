@@ -30,13 +30,9 @@ import androidx.annotation.VisibleForTesting;
 
 import com.android.systemui.dagger.SysUISingleton;
 
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
-import java.util.Objects;
+import java.util.List;
 import java.util.Set;
-import java.util.SortedMap;
-import java.util.TreeMap;
 
 import javax.inject.Inject;
 
@@ -48,23 +44,24 @@ import javax.inject.Inject;
  * <li>Enables {@link OverlayViewController)(s) to reveal/conceal themselves while respecting the
  * global state of SystemUIOverlayWindow.
  * </ul>
+ *
+ * <p>Several views can be shown or hidden as one transaction using {@link #beginTransaction()} and
+ * {@link #commitTransaction()}. Within a transaction the window state (focus, insets, system bar
+ * visibility and rotary focus) is only computed and pushed once, on commit.
  */
 @SysUISingleton
 public class OverlayViewGlobalStateController {
     private static final boolean DEBUG = false;
     private static final String TAG = OverlayViewGlobalStateController.class.getSimpleName();
-    private static final int UNKNOWN_Z_ORDER = -1;
     private final SystemUIOverlayWindowController mSystemUIOverlayWindowController;
     private final WindowInsetsController mWindowInsetsController;
     @VisibleForTesting
-    Map<OverlayViewController, Integer> mZOrderMap;
-    @VisibleForTesting
-    SortedMap<Integer, OverlayViewController> mZOrderVisibleSortedMap;
+    final OverlayViewZOrderIndex mZOrderIndex;
     @VisibleForTesting
     Set<OverlayViewController> mViewsHiddenForOcclusion;
-    @VisibleForTesting
-    OverlayViewController mHighestZOrder;
     private boolean mIsOccluded;
+    private int mTransactionDepth;
+    private boolean mWindowStateDirty;
 
     @Inject
     public OverlayViewGlobalStateController(
@@ -73,8 +70,8 @@ public class OverlayViewGlobalStateController {
         mSystemUIOverlayWindowController.attach();
         mWindowInsetsController =
                 mSystemUIOverlayWindowController.getBaseLayout().getWindowInsetsController();
-        mZOrderMap = new HashMap<>();
-        mZOrderVisibleSortedMap = new TreeMap<>();
+        mZOrderIndex = new OverlayViewZOrderIndex(
+                mSystemUIOverlayWindowController.getBaseLayout());
         mViewsHiddenForOcclusion = new HashSet<>();
     }
 
@@ -108,7 +105,7 @@ public class OverlayViewGlobalStateController {
             mViewsHiddenForOcclusion.add(viewController);
             return;
         }
-        if (mZOrderVisibleSortedMap.isEmpty()) {
+        if (mZOrderIndex.isEmpty()) {
             setWindowVisible(true);
         }
 
@@ -120,40 +117,13 @@ public class OverlayViewGlobalStateController {
             show.run();
         }
 
-        updateInternalsWhenShowingView(viewController);
-        refreshUseStableInsets();
-        refreshInsetsToFit();
-        refreshWindowFocus();
-        refreshSystemBarVisibility();
-        refreshStatusBarVisibility();
-        refreshRotaryFocusIfNeeded();
+        mZOrderIndex.show(viewController);
+        refreshWindowState();
 
         Log.d(TAG, "Content shown: " + viewController.getClass().getName());
         debugLog();
     }
 
-    private void updateInternalsWhenShowingView(OverlayViewController viewController) {
-        int zOrder;
-        if (mZOrderMap.containsKey(viewController)) {
-            zOrder = mZOrderMap.get(viewController);
-        } else {
-            zOrder = mSystemUIOverlayWindowController.getBaseLayout().indexOfChild(
-                    viewController.getLayout());
-            mZOrderMap.put(viewController, zOrder);
-        }
-
-        mZOrderVisibleSortedMap.put(zOrder, viewController);
-
-        refreshHighestZOrderWhenShowingView(viewController);
-    }
-
-    private void refreshHighestZOrderWhenShowingView(OverlayViewController viewController) {
-        if (mZOrderMap.getOrDefault(mHighestZOrder, UNKNOWN_Z_ORDER) < mZOrderMap.get(
-                viewController)) {
-            mHighestZOrder = viewController;
-        }
-    }
-
     /**
      * Hide content in Overlay Window using {@link OverlayPanelViewController}.
      *
@@ -179,12 +149,12 @@ public class OverlayViewGlobalStateController {
                     + viewController.getClass().getName());
             return;
         }
-        if (!mZOrderMap.containsKey(viewController)) {
+        if (!mZOrderIndex.contains(viewController)) {
             Log.d(TAG, "Content cannot be hidden since it has never been shown: "
                     + viewController.getClass().getName());
             return;
         }
-        if (!mZOrderVisibleSortedMap.containsKey(mZOrderMap.get(viewController))) {
+        if (!mZOrderIndex.isVisible(viewController)) {
             Log.d(TAG, "Content cannot be hidden since it isn't currently shown: "
                     + viewController.getClass().getName());
             return;
@@ -194,43 +164,82 @@ public class OverlayViewGlobalStateController {
             hide.run();
         }
 
-        mZOrderVisibleSortedMap.remove(mZOrderMap.get(viewController));
-        refreshHighestZOrderWhenHidingView(viewController);
-        refreshUseStableInsets();
-        refreshInsetsToFit();
-        refreshWindowFocus();
-        refreshSystemBarVisibility();
-        refreshStatusBarVisibility();
-        refreshRotaryFocusIfNeeded();
-
-        if (mZOrderVisibleSortedMap.isEmpty()) {
-            setWindowVisible(false);
-        }
+        mZOrderIndex.hide(viewController);
+        refreshWindowState();
 
         Log.d(TAG, "Content hidden: " + viewController.getClass().getName());
         debugLog();
     }
 
-    private void refreshHighestZOrderWhenHidingView(OverlayViewController viewController) {
-        if (mZOrderVisibleSortedMap.isEmpty()) {
-            mHighestZOrder = null;
+    /**
+     * Starts a transaction. Until the matching {@link #commitTransaction()}, showing or hiding
+     * views only updates the z-order state; the resulting window state is applied once on commit.
+     * Transactions may be nested, in which case the outermost commit applies the window state.
+     * Callers should commit in a {@code finally} block so that a failure does not leave the
+     * transaction open.
+     */
+    public void beginTransaction() {
+        if (mTransactionDepth++ == 0) {
+            mSystemUIOverlayWindowController.beginBatchUpdate();
+        }
+    }
+
+    /**
+     * Commits a transaction started with {@link #beginTransaction()}, applying the window state
+     * for the views visible at this point if any view was shown or hidden during the transaction.
+     */
+    public void commitTransaction() {
+        if (mTransactionDepth == 0) {
+            throw new IllegalStateException("commitTransaction called without beginTransaction");
+        }
+        if (--mTransactionDepth > 0) {
             return;
         }
-        if (!mHighestZOrder.equals(viewController)) {
+        try {
+            if (mWindowStateDirty) {
+                mWindowStateDirty = false;
+                applyWindowState();
+            }
+        } finally {
+            mSystemUIOverlayWindowController.endBatchUpdate();
+        }
+    }
+
+    private void refreshWindowState() {
+        if (mTransactionDepth > 0) {
+            mWindowStateDirty = true;
             return;
         }
+        mSystemUIOverlayWindowController.beginBatchUpdate();
+        try {
+            applyWindowState();
+        } finally {
+            mSystemUIOverlayWindowController.endBatchUpdate();
+        }
+    }
 
-        mHighestZOrder = mZOrderVisibleSortedMap.get(mZOrderVisibleSortedMap.lastKey());
+    private void applyWindowState() {
+        refreshUseStableInsets();
+        refreshInsetsToFit();
+        refreshWindowFocus();
+        refreshSystemBarVisibility();
+        refreshStatusBarVisibility();
+        refreshRotaryFocusIfNeeded();
+
+        if (mZOrderIndex.isEmpty()) {
+            setWindowVisible(false);
+        }
     }
 
     private void refreshSystemBarVisibility() {
-        if (mZOrderVisibleSortedMap.isEmpty()) {
+        OverlayViewController highestZOrder = mZOrderIndex.getHighestVisible();
+        if (highestZOrder == null) {
             mWindowInsetsController.show(navigationBars());
             return;
         }
 
         // Do not hide navigation bar insets if the window is not focusable.
-        if (mHighestZOrder.shouldFocusWindow() && !mHighestZOrder.shouldShowNavigationBarInsets()) {
+        if (highestZOrder.shouldFocusWindow() && !highestZOrder.shouldShowNavigationBarInsets()) {
             mWindowInsetsController.hide(navigationBars());
         } else {
             mWindowInsetsController.show(navigationBars());
@@ -238,13 +247,14 @@ public class OverlayViewGlobalStateController {
     }
 
     private void refreshStatusBarVisibility() {
-        if (mZOrderVisibleSortedMap.isEmpty()) {
+        OverlayViewController highestZOrder = mZOrderIndex.getHighestVisible();
+        if (highestZOrder == null) {
             mWindowInsetsController.show(statusBars());
             return;
         }
 
         // Do not hide status bar insets if the window is not focusable.
-        if (mHighestZOrder.shouldFocusWindow() && !mHighestZOrder.shouldShowStatusBarInsets()) {
+        if (highestZOrder.shouldFocusWindow() && !highestZOrder.shouldShowStatusBarInsets()) {
             mWindowInsetsController.hide(statusBars());
         } else {
             mWindowInsetsController.show(statusBars());
@@ -252,12 +262,14 @@ public class OverlayViewGlobalStateController {
     }
 
     private void refreshWindowFocus() {
-        setWindowFocusable(mHighestZOrder == null ? false : mHighestZOrder.shouldFocusWindow());
+        OverlayViewController highestZOrder = mZOrderIndex.getHighestVisible();
+        setWindowFocusable(highestZOrder == null ? false : highestZOrder.shouldFocusWindow());
     }
 
     private void refreshUseStableInsets() {
+        OverlayViewController highestZOrder = mZOrderIndex.getHighestVisible();
         mSystemUIOverlayWindowController.setUsingStableInsets(
-                mHighestZOrder == null ? false : mHighestZOrder.shouldUseStableInsets());
+                highestZOrder == null ? false : highestZOrder.shouldUseStableInsets());
     }
 
     /**
@@ -268,28 +280,31 @@ public class OverlayViewGlobalStateController {
      * return an {@link InsetsSide}, then that takes precedence over {@link InsetsType}.
      */
     private void refreshInsetsToFit() {
-        if (mZOrderVisibleSortedMap.isEmpty()) {
+        OverlayViewController highestZOrder = mZOrderIndex.getHighestVisible();
+        if (highestZOrder == null) {
             setFitInsetsTypes(statusBars());
         } else {
-            if (mHighestZOrder.getInsetSidesToFit() != OverlayViewController.INVALID_INSET_SIDE) {
+            if (highestZOrder.getInsetSidesToFit() != OverlayViewController.INVALID_INSET_SIDE) {
                 // First fit all system bar insets as setFitInsetsSide defines which sides of system
                 // bar insets to actually honor.
                 setFitInsetsTypes(WindowInsets.Type.systemBars());
-                setFitInsetsSides(mHighestZOrder.getInsetSidesToFit());
+                setFitInsetsSides(highestZOrder.getInsetSidesToFit());
             } else {
-                setFitInsetsTypes(mHighestZOrder.getInsetTypesToFit());
+                setFitInsetsTypes(highestZOrder.getInsetTypesToFit());
             }
         }
     }
 
     private void refreshRotaryFocusIfNeeded() {
-        for (OverlayViewController controller : mZOrderVisibleSortedMap.values()) {
-            boolean isTop = Objects.equals(controller, mHighestZOrder);
-            controller.setAllowRotaryFocus(isTop);
+        OverlayViewController highestZOrder = mZOrderIndex.getHighestVisible();
+        for (int slot = mZOrderIndex.nextVisibleSlot(0); slot >= 0;
+                slot = mZOrderIndex.nextVisibleSlot(slot + 1)) {
+            OverlayViewController controller = mZOrderIndex.getController(slot);
+            controller.setAllowRotaryFocus(controller == highestZOrder);
         }
 
-        if (!mZOrderVisibleSortedMap.isEmpty()) {
-            mHighestZOrder.refreshRotaryFocusIfNeeded();
+        if (highestZOrder != null) {
+            highestZOrder.refreshRotaryFocusIfNeeded();
         }
     }
 
@@ -334,6 +349,7 @@ public class OverlayViewGlobalStateController {
     public void inflateView(OverlayViewController viewController) {
         if (!viewController.isInflated()) {
             viewController.inflate(mSystemUIOverlayWindowController.getBaseLayout());
+            mZOrderIndex.onBaseLayoutChanged();
         }
     }
 
@@ -341,7 +357,8 @@ public class OverlayViewGlobalStateController {
      * Return {@code true} if OverlayWindow is in a state where HUNs should be displayed above it.
      */
     public boolean shouldShowHUN() {
-        return mZOrderVisibleSortedMap.isEmpty() || mHighestZOrder.shouldShowHUN();
+        OverlayViewController highestZOrder = mZOrderIndex.getHighestVisible();
+        return highestZOrder == null || highestZOrder.shouldShowHUN();
     }
 
     /**
@@ -350,22 +367,27 @@ public class OverlayViewGlobalStateController {
      * be hidden.
      */
     public void setOccluded(boolean occluded) {
-        if (occluded) {
-            // Hide views before setting mIsOccluded to true so the regular hideView logic is used,
-            // not the one used during occlusion.
-            hideViewsForOcclusion();
-            mIsOccluded = true;
-        } else {
-            mIsOccluded = false;
-            // show views after setting mIsOccluded to false so the regular showView logic is used,
-            // not the one used during occlusion.
-            showViewsHiddenForOcclusion();
+        beginTransaction();
+        try {
+            if (occluded) {
+                // Hide views before setting mIsOccluded to true so the regular hideView logic is
+                // used, not the one used during occlusion.
+                hideViewsForOcclusion();
+                mIsOccluded = true;
+            } else {
+                mIsOccluded = false;
+                // show views after setting mIsOccluded to false so the regular showView logic is
+                // used, not the one used during occlusion.
+                showViewsHiddenForOcclusion();
+            }
+        } finally {
+            commitTransaction();
         }
     }
 
     private void hideViewsForOcclusion() {
-        HashSet<OverlayViewController> viewsCurrentlyShowing = new HashSet<>(
-                mZOrderVisibleSortedMap.values());
+        List<OverlayViewController> viewsCurrentlyShowing =
+                mZOrderIndex.getVisibleControllers();
         viewsCurrentlyShowing.forEach(overlayController -> {
             if (!overlayController.shouldShowWhenOccluded()) {
                 hideView(overlayController, overlayController::hideInternal);
@@ -386,12 +408,10 @@ public class OverlayViewGlobalStateController {
             return;
         }
 
-        Log.d(TAG, "mHighestZOrder: " + mHighestZOrder);
-        Log.d(TAG, "mZOrderVisibleSortedMap.size(): " + mZOrderVisibleSortedMap.size());
-        Log.d(TAG, "mZOrderVisibleSortedMap: " + mZOrderVisibleSortedMap);
-        Log.d(TAG, "mZOrderMap.size(): " + mZOrderMap.size());
-        Log.d(TAG, "mZOrderMap: " + mZOrderMap);
+        Log.d(TAG, "highestZOrder: " + mZOrderIndex.getHighestVisible());
+        Log.d(TAG, "mZOrderIndex: " + mZOrderIndex);
         Log.d(TAG, "mIsOccluded: " + mIsOccluded);
+        Log.d(TAG, "mTransactionDepth: " + mTransactionDepth);
         Log.d(TAG, "mViewsHiddenForOcclusion: " + mViewsHiddenForOcclusion);
         Log.d(TAG, "mViewsHiddenForOcclusion.size(): " + mViewsHiddenForOcclusion.size());
     }
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.car.window;
+
+import android.annotation.Nullable;
+import android.view.ViewGroup;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Tracks the z-order and visibility of the {@link OverlayViewController}s shown in the
+ * SystemUIOverlayWindow.
+ *
+ * Every controller that has been shown at least once owns a dense int slot. Slots are kept sorted
+ * by the z-order of the controller's layout, i.e. its index in the base layout, and visibility is
+ * tracked as a bitset of slots, so the highest visible controller is the highest set bit. The
+ * z-orders are recomputed lazily after {@link #onBaseLayoutChanged()}, which must be called
+ * whenever children are added to or removed from the base layout, e.g. when a view stub is
+ * inflated. Once a controller has a slot, showing or hiding it does not allocate.
+ */
+class OverlayViewZOrderIndex {
+    static final int UNKNOWN_Z_ORDER = -1;
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final ViewGroup mBaseLayout;
+    private final BitSet mVisibleSlots = new BitSet(INITIAL_CAPACITY);
+    private OverlayViewController[] mControllers = new OverlayViewController[INITIAL_CAPACITY];
+    private int[] mZOrders = new int[INITIAL_CAPACITY];
+    private int mSize;
+    private int mHighestVisibleSlot = -1;
+    private boolean mZOrdersStale;
+
+    OverlayViewZOrderIndex(ViewGroup baseLayout) {
+        mBaseLayout = baseLayout;
+    }
+
+    /**
+     * Marks the z-orders as stale after children were added to or removed from the base layout.
+     */
+    void onBaseLayoutChanged() {
+        mZOrdersStale = true;
+    }
+
+    /** Returns {@code true} if the given controller has been shown at least once. */
+    boolean contains(OverlayViewController controller) {
+        return slotOf(controller) >= 0;
+    }
+
+    /** Returns {@code true} if the given controller is currently visible. */
+    boolean isVisible(OverlayViewController controller) {
+        int slot = slotOf(controller);
+        return slot >= 0 && mVisibleSlots.get(slot);
+    }
+
+    /** Returns {@code true} if no controller is currently visible. */
+    boolean isEmpty() {
+        return mVisibleSlots.isEmpty();
+    }
+
+    /** Returns the visible controller with the highest z-order, or {@code null} if none. */
+    @Nullable
+    OverlayViewController getHighestVisible() {
+        refreshZOrdersIfStale();
+        return mHighestVisibleSlot < 0 ? null : mControllers[mHighestVisibleSlot];
+    }
+
+    /** Returns the z-order of the given controller, or {@link #UNKNOWN_Z_ORDER} if unknown. */
+    int getZOrder(OverlayViewController controller) {
+        refreshZOrdersIfStale();
+        int slot = slotOf(controller);
+        return slot < 0 ? UNKNOWN_Z_ORDER : mZOrders[slot];
+    }
+
+    /**
+     * Marks the given controller as visible, assigning it a slot if it has never been shown. The
+     * controller's layout must be attached to the base layout by then.
+     */
+    void show(OverlayViewController controller) {
+        refreshZOrdersIfStale();
+        int slot = slotOf(controller);
+        if (slot < 0) {
+            slot = insert(controller);
+        }
+        mVisibleSlots.set(slot);
+        if (slot > mHighestVisibleSlot) {
+            mHighestVisibleSlot = slot;
+        }
+    }
+
+    /** Marks the given controller as hidden. */
+    void hide(OverlayViewController controller) {
+        int slot = slotOf(controller);
+        if (slot < 0) {
+            return;
+        }
+        mVisibleSlots.clear(slot);
+        if (slot == mHighestVisibleSlot) {
+            mHighestVisibleSlot = mVisibleSlots.previousSetBit(slot);
+        }
+    }
+
+    /**
+     * Returns the first visible slot at or after {@code fromSlot}, or {@code -1} if there is none.
+     * Visible slots are iterated in increasing z-order.
+     */
+    int nextVisibleSlot(int fromSlot) {
+        refreshZOrdersIfStale();
+        return mVisibleSlots.nextSetBit(fromSlot);
+    }
+
+    /** Returns the controller owning the given slot. */
+    OverlayViewController getController(int slot) {
+        return mControllers[slot];
+    }
+
+    /** Returns the visible controllers in increasing z-order. */
+    List<OverlayViewController> getVisibleControllers() {
+        List<OverlayViewController> controllers = new ArrayList<>(mVisibleSlots.cardinality());
+        for (int slot = nextVisibleSlot(0); slot >= 0; slot = nextVisibleSlot(slot + 1)) {
+            controllers.add(mControllers[slot]);
+        }
+        return controllers;
+    }
+
+    /** Returns the z-orders of the visible controllers in increasing order. */
+    int[] getVisibleZOrders() {
+        int[] zOrders = new int[mVisibleSlots.cardinality()];
+        int i = 0;
+        for (int slot = nextVisibleSlot(0); slot >= 0; slot = nextVisibleSlot(slot + 1)) {
+            zOrders[i++] = mZOrders[slot];
+        }
+        return zOrders;
+    }
+
+    /** Forgets every controller. */
+    @VisibleForTesting
+    void clear() {
+        Arrays.fill(mControllers, 0, mSize, null);
+        mVisibleSlots.clear();
+        mSize = 0;
+        mHighestVisibleSlot = -1;
+    }
+
+    private int slotOf(OverlayViewController controller) {
+        for (int slot = 0; slot < mSize; slot++) {
+            if (mControllers[slot] == controller) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private int insert(OverlayViewController controller) {
+        if (mSize == mControllers.length) {
+            mControllers = Arrays.copyOf(mControllers, mSize * 2);
+            mZOrders = Arrays.copyOf(mZOrders, mSize * 2);
+        }
+        mControllers[mSize] = controller;
+        mZOrders[mSize] = mBaseLayout.indexOfChild(controller.getLayout());
+        mSize++;
+        return sortSlots(controller);
+    }
+
+    private void refreshZOrdersIfStale() {
+        if (!mZOrdersStale) {
+            return;
+        }
+        mZOrdersStale = false;
+        for (int slot = 0; slot < mSize; slot++) {
+            mZOrders[slot] = mBaseLayout.indexOfChild(mControllers[slot].getLayout());
+        }
+        sortSlots(/* tracked= */ null);
+    }
+
+    /**
+     * Insertion sorts the slots by z-order, moving visibility bits along with their controllers.
+     * Returns the new slot of {@code tracked}, or {@code -1} if it is {@code null}.
+     */
+    private int sortSlots(@Nullable OverlayViewController tracked) {
+        for (int i = 1; i < mSize; i++) {
+            OverlayViewController controller = mControllers[i];
+            int zOrder = mZOrders[i];
+            boolean visible = mVisibleSlots.get(i);
+            int j = i - 1;
+            while (j >= 0 && mZOrders[j] > zOrder) {
+                mControllers[j + 1] = mControllers[j];
+                mZOrders[j + 1] = mZOrders[j];
+                mVisibleSlots.set(j + 1, mVisibleSlots.get(j));
+                j--;
+            }
+            mControllers[j + 1] = controller;
+            mZOrders[j + 1] = zOrder;
+            mVisibleSlots.set(j + 1, visible);
+        }
+        mHighestVisibleSlot = mVisibleSlots.length() - 1;
+        return tracked == null ? -1 : slotOf(tracked);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("OverlayViewZOrderIndex{");
+        for (int slot = 0; slot < mSize; slot++) {
+            if (slot > 0) {
+                sb.append(", ");
+            }
+            sb.append(mZOrders[slot]).append('=').append(mControllers[slot])
+                    .append(mVisibleSlots.get(slot) ? " (visible)" : "");
+        }
+        return sb.append('}').toString();
+    }
+}
@@ -54,6 +54,7 @@ public class SystemUIOverlayWindowController implements
     private boolean mVisible = false;
     private boolean mFocusable = false;
     private boolean mUsingStableInsets = false;
+    private int mBatchUpdateDepth = 0;
 
     @Inject
     public SystemUIOverlayWindowController(
@@ -172,7 +173,31 @@ public class SystemUIOverlayWindowController implements
         mUsingStableInsets = useStableInsets;
     }
 
+    /**
+     * Defers pushing layout param changes to the window manager until the matching call to
+     * {@link #endBatchUpdate()}, so that several setters result in a single layout update.
+     * Batches may be nested.
+     */
+    public void beginBatchUpdate() {
+        mBatchUpdateDepth++;
+    }
+
+    /**
+     * Ends a batch started by {@link #beginBatchUpdate()}. When the outermost batch ends, the
+     * layout params changed since it began are pushed in a single update.
+     */
+    public void endBatchUpdate() {
+        if (mBatchUpdateDepth == 0) {
+            throw new IllegalStateException("endBatchUpdate called without beginBatchUpdate");
+        }
+        mBatchUpdateDepth--;
+        updateWindow();
+    }
+
     private void updateWindow() {
+        if (mBatchUpdateDepth > 0) {
+            return;
+        }
         if (mLp != null && mLp.copyFrom(mLpChanged) != 0) {
             if (isAttached()) {
                 mLp.insetsFlags.behavior = BEHAVIOR_SHOW_TRANSIENT_BARS_BY_SWIPE;
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.car;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyFloat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.car.Car;
+import android.car.hardware.property.CarPropertyManager;
+import android.car.media.CarAudioManager;
+import android.testing.AndroidTestingRunner;
+import android.testing.TestableLooper;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.systemui.SysuiTestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+@CarSystemUiTest
+@RunWith(AndroidTestingRunner.class)
+@TestableLooper.RunWithLooper
+@SmallTest
+public class CarServiceCallbackRegistryTest extends SysuiTestCase {
+    private static final int PROPERTY_ID = 1;
+    private static final int OTHER_PROPERTY_ID = 2;
+    private static final int RESTART_COUNT = 100;
+
+    private CarServiceProvider mCarServiceProvider;
+    private CarServiceCallbackRegistry mCallbackRegistry;
+    private CarPropertyManager mCarPropertyManager;
+    private CarAudioManager mCarAudioManager;
+    private int mConnectedCount;
+    private int mDisconnectedCount;
+
+    @Mock
+    private Car mCar;
+    @Mock
+    private CarPropertyManager.CarPropertyEventCallback mPropertyCallback;
+    @Mock
+    private CarAudioManager.CarVolumeCallback mVolumeCallback;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        // A fake car service handing out new managers after each restart.
+        when(mCar.isConnected()).thenReturn(true);
+        when(mCar.getCarManager(Car.PROPERTY_SERVICE)).thenAnswer(i -> mCarPropertyManager);
+        when(mCar.getCarManager(Car.AUDIO_SERVICE)).thenAnswer(i -> mCarAudioManager);
+        createManagers();
+
+        mCarServiceProvider = new CarServiceProvider(mContext, mCar);
+        mCallbackRegistry = new CarServiceCallbackRegistry(mCarServiceProvider);
+        mCarServiceProvider.addListener(new CarServiceProvider.CarServiceOnConnectedListener() {
+            @Override
+            public void onConnected(Car car) {
+                mConnectedCount++;
+                mCallbackRegistry.onConnected();
+            }
+
+            @Override
+            public void onDisconnected() {
+                mDisconnectedCount++;
+                mCallbackRegistry.onDisconnected();
+            }
+        });
+    }
+
+    @Test
+    public void register_connected_registeredRightAway() {
+        mCallbackRegistry.registerPropertyCallback(mPropertyCallback, PROPERTY_ID,
+                CarPropertyManager.SENSOR_RATE_ONCHANGE);
+        mCallbackRegistry.registerVolumeCallback(mVolumeCallback);
+
+        verify(mCarPropertyManager).registerCallback(mPropertyCallback, PROPERTY_ID,
+                CarPropertyManager.SENSOR_RATE_ONCHANGE);
+        verify(mCarAudioManager).registerCarVolumeCallback(mVolumeCallback);
+        assertThat(mCallbackRegistry.getActiveRegistrationCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void register_twice_registeredOnce() {
+        mCallbackRegistry.registerPropertyCallback(mPropertyCallback, PROPERTY_ID,
+                CarPropertyManager.SENSOR_RATE_ONCHANGE);
+        mCallbackRegistry.registerPropertyCallback(mPropertyCallback, PROPERTY_ID,
+                CarPropertyManager.SENSOR_RATE_ONCHANGE);
+        mCallbackRegistry.registerVolumeCallback(mVolumeCallback);
+        mCallbackRegistry.registerVolumeCallback(mVolumeCallback);
+        mCallbackRegistry.onConnected();
+
+        verify(mCarPropertyManager, times(1)).registerCallback(any(), anyInt(), anyFloat());
+        verify(mCarAudioManager, times(1)).registerCarVolumeCallback(any());
+        assertThat(mCallbackRegistry.getRegistrationCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void register_disconnected_registeredOnReconnect() {
+        disconnect();
+
+        mCallbackRegistry.registerVolumeCallback(mVolumeCallback);
+        verify(mCarAudioManager, never()).registerCarVolumeCallback(any());
+
+        createManagers();
+        connect();
+
+        verify(mCarAudioManager).registerCarVolumeCallback(mVolumeCallback);
+    }
+
+    @Test
+    public void unregisterVolumeCallback_notRegisteredOnReconnect() {
+        mCallbackRegistry.registerVolumeCallback(mVolumeCallback);
+
+        mCallbackRegistry.unregisterVolumeCallback(mVolumeCallback);
+        restart();
+
+        verify(mCarAudioManager, never()).registerCarVolumeCallback(any());
+        assertThat(mCallbackRegistry.getRegistrationCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void carServiceRestarts_callbacksRegisteredOncePerConnectionWithoutLeaking() {
+        mCallbackRegistry.registerPropertyCallback(mPropertyCallback, PROPERTY_ID,
+                CarPropertyManager.SENSOR_RATE_ONCHANGE);
+        mCallbackRegistry.registerPropertyCallback(mPropertyCallback, OTHER_PROPERTY_ID,
+                CarPropertyManager.SENSOR_RATE_ONCHANGE);
+        mCallbackRegistry.registerVolumeCallback(mVolumeCallback);
+
+        for (int i = 0; i < RESTART_COUNT; i++) {
+            CarPropertyManager oldCarPropertyManager = mCarPropertyManager;
+            CarAudioManager oldCarAudioManager = mCarAudioManager;
+            restart();
+            // Components registering again on each connection must not add duplicates.
+            mCallbackRegistry.registerPropertyCallback(mPropertyCallback, PROPERTY_ID,
+                    CarPropertyManager.SENSOR_RATE_ONCHANGE);
+            mCallbackRegistry.registerVolumeCallback(mVolumeCallback);
+
+            verify(mCarPropertyManager).registerCallback(mPropertyCallback, PROPERTY_ID,
+                    CarPropertyManager.SENSOR_RATE_ONCHANGE);
+            verify(mCarPropertyManager).registerCallback(mPropertyCallback, OTHER_PROPERTY_ID,
+                    CarPropertyManager.SENSOR_RATE_ONCHANGE);
+            verify(mCarPropertyManager, times(2)).registerCallback(any(), anyInt(), anyFloat());
+            verify(mCarAudioManager, times(1)).registerCarVolumeCallback(any());
+            // Nothing is registered again with the managers of the dead car service.
+            verify(oldCarPropertyManager, times(2)).registerCallback(any(), anyInt(),
+                    anyFloat());
+            verify(oldCarAudioManager, times(1)).registerCarVolumeCallback(any());
+            assertThat(mCallbackRegistry.getRegistrationCount()).isEqualTo(3);
+            assertThat(mCallbackRegistry.getActiveRegistrationCount()).isEqualTo(3);
+        }
+
+        assertThat(mConnectedCount).isEqualTo(RESTART_COUNT + 1);
+        assertThat(mDisconnectedCount).isEqualTo(RESTART_COUNT);
+        assertThat(mCarServiceProvider.getCarManager(Car.PROPERTY_SERVICE))
+                .isSameInstanceAs(mCarPropertyManager);
+    }
+
+    @Test
+    public void carServiceDisconnected_activeRegistrationsDropped() {
+        mCallbackRegistry.registerVolumeCallback(mVolumeCallback);
+
+        disconnect();
+
+        assertThat(mCallbackRegistry.getActiveRegistrationCount()).isEqualTo(0);
+        assertThat(mCallbackRegistry.getRegistrationCount()).isEqualTo(1);
+        verify(mCarAudioManager, never()).unregisterCarVolumeCallback(eq(mVolumeCallback));
+    }
+
+    private void restart() {
+        disconnect();
+        createManagers();
+        connect();
+    }
+
+    private void disconnect() {
+        when(mCar.isConnected()).thenReturn(false);
+        mCarServiceProvider.onCarServiceLifecycleChanged(mCar, /* ready= */ false);
+    }
+
+    private void connect() {
+        when(mCar.isConnected()).thenReturn(true);
+        mCarServiceProvider.onCarServiceLifecycleChanged(mCar, /* ready= */ true);
+    }
+
+    private void createManagers() {
+        mCarPropertyManager = mock(CarPropertyManager.class);
+        mCarAudioManager = mock(CarAudioManager.class);
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.car;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.car.Car;
+import android.car.media.CarAudioManager;
+import android.testing.AndroidTestingRunner;
+import android.testing.TestableLooper;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.systemui.SysuiTestCase;
+import com.android.systemui.util.concurrency.FakeExecutor;
+import com.android.systemui.util.time.FakeSystemClock;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+@CarSystemUiTest
+@RunWith(AndroidTestingRunner.class)
+@TestableLooper.RunWithLooper
+@SmallTest
+public class CarServiceProviderTest extends SysuiTestCase {
+
+    private CarServiceProvider mCarServiceProvider;
+    private FakeExecutor mBackgroundExecutor;
+
+    @Mock
+    private Car mCar;
+    @Mock
+    private CarAudioManager mCarAudioManager;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        when(mCar.isConnected()).thenReturn(true);
+        when(mCar.getCarManager(Car.AUDIO_SERVICE)).thenReturn(mCarAudioManager);
+
+        mBackgroundExecutor = new FakeExecutor(new FakeSystemClock());
+        mCarServiceProvider = new CarServiceProvider(mContext, mCar, mBackgroundExecutor);
+    }
+
+    @Test
+    public void getCarManager_calledTwice_managerCreatedOnce() {
+        Object first = mCarServiceProvider.getCarManager(Car.AUDIO_SERVICE);
+        Object second = mCarServiceProvider.getCarManager(Car.AUDIO_SERVICE);
+
+        assertThat(first).isSameInstanceAs(mCarAudioManager);
+        assertThat(second).isSameInstanceAs(mCarAudioManager);
+        verify(mCar, times(1)).getCarManager(Car.AUDIO_SERVICE);
+    }
+
+    @Test
+    public void getCarManager_unavailable_notCached() {
+        mCarServiceProvider.getCarManager(Car.CAR_USER_SERVICE);
+        mCarServiceProvider.getCarManager(Car.CAR_USER_SERVICE);
+
+        verify(mCar, times(2)).getCarManager(Car.CAR_USER_SERVICE);
+    }
+
+    @Test
+    public void addListener_connected_notifiedRightAway() {
+        CarServiceProvider.CarServiceOnConnectedListener listener =
+                mock(CarServiceProvider.CarServiceOnConnectedListener.class);
+
+        mCarServiceProvider.addListener(listener);
+
+        verify(listener).onConnected(mCar);
+    }
+
+    @Test
+    public void addListener_backgroundPriority_notifiedOnBackgroundExecutor() {
+        CarServiceProvider.CarServiceOnConnectedListener listener =
+                mock(CarServiceProvider.CarServiceOnConnectedListener.class);
+
+        mCarServiceProvider.addListener(listener, CarServiceProvider.PRIORITY_BACKGROUND);
+        verify(listener, never()).onConnected(mCar);
+
+        mBackgroundExecutor.runAllReady();
+
+        verify(listener).onConnected(mCar);
+    }
+
+    @Test
+    public void onConnected_listenersNotifiedInPriorityOrder() {
+        when(mCar.isConnected()).thenReturn(false);
+        List<String> notified = new ArrayList<>();
+        mCarServiceProvider.addListener(car -> notified.add("default1"));
+        mCarServiceProvider.addListener(car -> notified.add("background"),
+                CarServiceProvider.PRIORITY_BACKGROUND);
+        mCarServiceProvider.addListener(car -> notified.add("critical"),
+                CarServiceProvider.PRIORITY_UI_CRITICAL);
+        mCarServiceProvider.addListener(car -> notified.add("default2"));
+
+        mCarServiceProvider.onCarServiceLifecycleChanged(mCar, /* ready= */ true);
+
+        assertThat(notified).containsExactly("critical", "default1", "default2").inOrder();
+
+        mBackgroundExecutor.runAllReady();
+
+        assertThat(notified).containsExactly("critical", "default1", "default2", "background")
+                .inOrder();
+    }
+
+    @Test
+    public void onConnected_listenerAddedByAnotherListener_notifiedOnce() {
+        when(mCar.isConnected()).thenReturn(false);
+        CarServiceProvider.CarServiceOnConnectedListener addedListener =
+                mock(CarServiceProvider.CarServiceOnConnectedListener.class);
+        mCarServiceProvider.addListener(car -> mCarServiceProvider.addListener(addedListener));
+        when(mCar.isConnected()).thenReturn(true);
+
+        mCarServiceProvider.onCarServiceLifecycleChanged(mCar, /* ready= */ true);
+
+        verify(addedListener, times(1)).onConnected(mCar);
+    }
+
+    @Test
+    public void onConnected_listenerThrows_laterListenersNotified() {
+        when(mCar.isConnected()).thenReturn(false);
+        CarServiceProvider.CarServiceOnConnectedListener listener =
+                mock(CarServiceProvider.CarServiceOnConnectedListener.class);
+        mCarServiceProvider.addListener(car -> {
+            throw new IllegalStateException("Test failure");
+        });
+        mCarServiceProvider.addListener(listener);
+
+        mCarServiceProvider.onCarServiceLifecycleChanged(mCar, /* ready= */ true);
+
+        verify(listener).onConnected(mCar);
+    }
+
+    @Test
+    public void onCarServiceLifecycleChanged_notReady_listenersNotNotified() {
+        when(mCar.isConnected()).thenReturn(false);
+        CarServiceProvider.CarServiceOnConnectedListener listener =
+                mock(CarServiceProvider.CarServiceOnConnectedListener.class);
+        mCarServiceProvider.addListener(listener);
+
+        mCarServiceProvider.onCarServiceLifecycleChanged(mCar, /* ready= */ false);
+
+        verify(listener, never()).onConnected(mCar);
+    }
+
+    @Test
+    public void onCarServiceLifecycleChanged_disconnected_listenersNotifiedAndManagersDropped() {
+        CarServiceProvider.CarServiceOnConnectedListener listener =
+                mock(CarServiceProvider.CarServiceOnConnectedListener.class);
+        mCarServiceProvider.addListener(listener);
+        mCarServiceProvider.getCarManager(Car.AUDIO_SERVICE);
+
+        mCarServiceProvider.onCarServiceLifecycleChanged(mCar, /* ready= */ false);
+        mCarServiceProvider.onCarServiceLifecycleChanged(mCar, /* ready= */ true);
+        mCarServiceProvider.getCarManager(Car.AUDIO_SERVICE);
+
+        verify(listener).onDisconnected();
+        verify(listener, times(2)).onConnected(mCar);
+        verify(mCar, times(2)).getCarManager(Car.AUDIO_SERVICE);
+    }
+
+    @Test
+    public void onCarServiceLifecycleChanged_neverConnected_disconnectionNotNotified() {
+        when(mCar.isConnected()).thenReturn(false);
+        CarServiceProvider.CarServiceOnConnectedListener listener =
+                mock(CarServiceProvider.CarServiceOnConnectedListener.class);
+        mCarServiceProvider.addListener(listener);
+
+        mCarServiceProvider.onCarServiceLifecycleChanged(mCar, /* ready= */ false);
+
+        verify(listener, never()).onDisconnected();
+    }
+
+    @Test
+    public void dump_includesListenerLatency() {
+        mCarServiceProvider.addListener(car -> { }, CarServiceProvider.PRIORITY_UI_CRITICAL);
+        mCarServiceProvider.getCarManager(Car.AUDIO_SERVICE);
+
+        StringWriter writer = new StringWriter();
+        mCarServiceProvider.dump(/* fd= */ null, new PrintWriter(writer),
+                /* args= */ new String[0]);
+
+        String dump = writer.toString();
+        assertThat(dump).contains("CarServiceProviderTest priority=0 latency=");
+        assertThat(dump).contains(Car.AUDIO_SERVICE);
+    }
+}
@@ -43,16 +43,15 @@ import com.android.systemui.SysuiTestCase;
 import com.android.systemui.car.CarServiceProvider;
 import com.android.systemui.car.CarSystemUiTest;
 import com.android.systemui.statusbar.policy.ConfigurationController;
+import com.android.systemui.util.concurrency.FakeExecutor;
+import com.android.systemui.util.time.FakeSystemClock;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
-import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
-import java.util.concurrent.Executor;
-
 @CarSystemUiTest
 @RunWith(AndroidTestingRunner.class)
 @TestableLooper.RunWithLooper
@@ -63,14 +62,14 @@ public class AdjustableTemperatureViewTest extends SysuiTestCase {
     private final String mFormat = getContext().getString(R.string.hvac_temperature_format);
     private AdjustableTemperatureView mAdjustableTemperatureView;
     private HvacController mHvacController;
+    private FakeExecutor mBackgroundExecutor;
+    private FakeExecutor mMainExecutor;
 
     @Mock
     private Car mCar;
     @Mock
     private CarPropertyManager mCarPropertyManager;
     @Mock
-    private Executor mExecutor;
-    @Mock
     private ConfigurationController mConfigurationController;
 
     @Before
@@ -80,8 +79,14 @@ public class AdjustableTemperatureViewTest extends SysuiTestCase {
         when(mCar.getCarManager(Car.PROPERTY_SERVICE)).thenReturn(mCarPropertyManager);
 
         CarServiceProvider carServiceProvider = new CarServiceProvider(mContext, mCar);
-        mHvacController = new HvacController(carServiceProvider, mExecutor,
-                mConfigurationController);
+        FakeSystemClock clock = new FakeSystemClock();
+        mBackgroundExecutor = new FakeExecutor(clock);
+        mMainExecutor = new FakeExecutor(clock);
+        VehiclePropertyBinder propertyBinder = new VehiclePropertyBinder(carServiceProvider,
+                mBackgroundExecutor, mMainExecutor, clock);
+        mHvacController = new HvacController(propertyBinder, mBackgroundExecutor,
+                mMainExecutor, mConfigurationController,
+                new TemperatureColorStore(mContext.getResources(), mConfigurationController));
         mHvacController.connectToCarService();
         mAdjustableTemperatureView = new AdjustableTemperatureView(getContext(), /* attrs= */ null);
         mAdjustableTemperatureView.onFinishInflate();
@@ -96,6 +101,7 @@ public class AdjustableTemperatureViewTest extends SysuiTestCase {
                 TEMP_CELSIUS);
 
         mHvacController.addTemperatureViewToController(mAdjustableTemperatureView);
+        runInitialStateLoad();
 
         TextView tempText = mAdjustableTemperatureView.findViewById(R.id.hvac_temperature_text);
         assertEquals(tempText.getText(), String.format(mFormat, TEMP_CELSIUS));
@@ -109,6 +115,7 @@ public class AdjustableTemperatureViewTest extends SysuiTestCase {
                 Float.NaN);
 
         mHvacController.addTemperatureViewToController(mAdjustableTemperatureView);
+        runInitialStateLoad();
 
         TextView tempText = mAdjustableTemperatureView.findViewById(R.id.hvac_temperature_text);
         assertEquals(tempText.getText(),
@@ -123,6 +130,7 @@ public class AdjustableTemperatureViewTest extends SysuiTestCase {
                 getContext().getResources().getFloat(R.dimen.hvac_min_value_celsius));
 
         mHvacController.addTemperatureViewToController(mAdjustableTemperatureView);
+        runInitialStateLoad();
 
         TextView tempText = mAdjustableTemperatureView.findViewById(R.id.hvac_temperature_text);
         assertEquals(tempText.getText(),
@@ -137,6 +145,7 @@ public class AdjustableTemperatureViewTest extends SysuiTestCase {
                 getContext().getResources().getFloat(R.dimen.hvac_max_value_celsius));
 
         mHvacController.addTemperatureViewToController(mAdjustableTemperatureView);
+        runInitialStateLoad();
 
         TextView tempText = mAdjustableTemperatureView.findViewById(R.id.hvac_temperature_text);
         assertEquals(tempText.getText(),
@@ -155,6 +164,7 @@ public class AdjustableTemperatureViewTest extends SysuiTestCase {
                 VEHICLE_AREA_TYPE_GLOBAL)).thenReturn(VehicleUnit.FAHRENHEIT);
 
         mHvacController.addTemperatureViewToController(mAdjustableTemperatureView);
+        runInitialStateLoad();
 
         TextView tempText = mAdjustableTemperatureView.findViewById(R.id.hvac_temperature_text);
         assertEquals(tempText.getText(), String.format(mFormat, convertToFahrenheit(TEMP_CELSIUS)));
@@ -167,12 +177,13 @@ public class AdjustableTemperatureViewTest extends SysuiTestCase {
         when(mCarPropertyManager.getFloatProperty(eq(HVAC_TEMPERATURE_SET), anyInt())).thenReturn(
                 TEMP_CELSIUS);
         mHvacController.addTemperatureViewToController(mAdjustableTemperatureView);
+        runInitialStateLoad();
 
         mAdjustableTemperatureView.findViewById(R.id.hvac_increase_button).callOnClick();
+        mMainExecutor.advanceClockToNext();
+        mMainExecutor.runAllReady();
+        mBackgroundExecutor.runAllReady();
 
-        ArgumentCaptor<Runnable> setTempRunnableCaptor = ArgumentCaptor.forClass(Runnable.class);
-        verify(mExecutor).execute(setTempRunnableCaptor.capture());
-        setTempRunnableCaptor.getValue().run();
         verify(mCarPropertyManager).setFloatProperty(eq(HVAC_TEMPERATURE_SET), anyInt(),
                 eq(TEMP_CELSIUS + 1));
     }
@@ -184,12 +195,13 @@ public class AdjustableTemperatureViewTest extends SysuiTestCase {
         when(mCarPropertyManager.getFloatProperty(eq(HVAC_TEMPERATURE_SET), anyInt())).thenReturn(
                 TEMP_CELSIUS);
         mHvacController.addTemperatureViewToController(mAdjustableTemperatureView);
+        runInitialStateLoad();
 
         mAdjustableTemperatureView.findViewById(R.id.hvac_decrease_button).callOnClick();
+        mMainExecutor.advanceClockToNext();
+        mMainExecutor.runAllReady();
+        mBackgroundExecutor.runAllReady();
 
-        ArgumentCaptor<Runnable> setTempRunnableCaptor = ArgumentCaptor.forClass(Runnable.class);
-        verify(mExecutor).execute(setTempRunnableCaptor.capture());
-        setTempRunnableCaptor.getValue().run();
         verify(mCarPropertyManager).setFloatProperty(eq(HVAC_TEMPERATURE_SET), anyInt(),
                 eq(TEMP_CELSIUS - 1));
     }
@@ -205,12 +217,13 @@ public class AdjustableTemperatureViewTest extends SysuiTestCase {
         when(mCarPropertyManager.getIntProperty(HVAC_TEMPERATURE_DISPLAY_UNITS,
                 VEHICLE_AREA_TYPE_GLOBAL)).thenReturn(VehicleUnit.FAHRENHEIT);
         mHvacController.addTemperatureViewToController(mAdjustableTemperatureView);
+        runInitialStateLoad();
 
         mAdjustableTemperatureView.findViewById(R.id.hvac_increase_button).callOnClick();
+        mMainExecutor.advanceClockToNext();
+        mMainExecutor.runAllReady();
+        mBackgroundExecutor.runAllReady();
 
-        ArgumentCaptor<Runnable> setTempRunnableCaptor = ArgumentCaptor.forClass(Runnable.class);
-        verify(mExecutor).execute(setTempRunnableCaptor.capture());
-        setTempRunnableCaptor.getValue().run();
         verify(mCarPropertyManager).setFloatProperty(eq(HVAC_TEMPERATURE_SET), anyInt(),
                 eq(convertToCelsius(convertToFahrenheit(TEMP_CELSIUS) + 1)));
     }
@@ -226,13 +239,20 @@ public class AdjustableTemperatureViewTest extends SysuiTestCase {
         when(mCarPropertyManager.getIntProperty(HVAC_TEMPERATURE_DISPLAY_UNITS,
                 VEHICLE_AREA_TYPE_GLOBAL)).thenReturn(VehicleUnit.FAHRENHEIT);
         mHvacController.addTemperatureViewToController(mAdjustableTemperatureView);
+        runInitialStateLoad();
 
         mAdjustableTemperatureView.findViewById(R.id.hvac_decrease_button).callOnClick();
+        mMainExecutor.advanceClockToNext();
+        mMainExecutor.runAllReady();
+        mBackgroundExecutor.runAllReady();
 
-        ArgumentCaptor<Runnable> setTempRunnableCaptor = ArgumentCaptor.forClass(Runnable.class);
-        verify(mExecutor).execute(setTempRunnableCaptor.capture());
-        setTempRunnableCaptor.getValue().run();
         verify(mCarPropertyManager).setFloatProperty(eq(HVAC_TEMPERATURE_SET), anyInt(),
                 eq(convertToCelsius(convertToFahrenheit(TEMP_CELSIUS) - 1)));
     }
+
+    private void runInitialStateLoad() {
+        while (mMainExecutor.runAllReady() + mBackgroundExecutor.runAllReady() > 0) {
+            // The load hops from the main thread to the background thread and back.
+        }
+    }
 }
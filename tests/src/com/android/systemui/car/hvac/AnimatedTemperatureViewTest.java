@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.car.hvac;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.os.Debug;
+import android.testing.AndroidTestingRunner;
+import android.testing.TestableLooper;
+import android.view.Choreographer;
+import android.view.View;
+import android.view.animation.AlphaAnimation;
+import android.view.animation.Animation;
+import android.view.animation.AnimationUtils;
+import android.view.animation.Transformation;
+import android.widget.ImageView;
+import android.widget.TextSwitcher;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.systemui.SysuiTestCase;
+import com.android.systemui.car.CarSystemUiTest;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@CarSystemUiTest
+@RunWith(AndroidTestingRunner.class)
+@TestableLooper.RunWithLooper
+@SmallTest
+public class AnimatedTemperatureViewTest extends SysuiTestCase {
+    private static final int BURST_SIZE = 50;
+
+    private TestAnimatedTemperatureView mView;
+    private TemperatureAnimationScheduler mScheduler;
+    private Choreographer.FrameCallback mFrameCallback;
+    private int mFrameCallbacksPosted;
+
+    @Before
+    public void setUp() {
+        mScheduler = new TemperatureAnimationScheduler(callback -> {
+            mFrameCallback = callback;
+            mFrameCallbacksPosted++;
+        });
+        mView = new TestAnimatedTemperatureView();
+        mView.setAnimationScheduler(mScheduler);
+    }
+
+    @Test
+    public void setTemp_notAnimating_appliedImmediately() {
+        mView.setTemp(20);
+
+        assertThat(mView.mAppliedTemps).containsExactly(20f);
+        assertThat(mFrameCallbacksPosted).isEqualTo(0);
+    }
+
+    @Test
+    public void setTemp_animating_waitsForAnimationToEnd() {
+        mView.mAnimating = true;
+
+        mView.setTemp(20);
+        runFrame();
+
+        assertThat(mView.mAppliedTemps).isEmpty();
+        assertThat(mScheduler.isWaiting(mView)).isTrue();
+
+        mView.mAnimating = false;
+        runFrame();
+
+        assertThat(mView.mAppliedTemps).containsExactly(20f);
+        assertThat(mScheduler.isWaiting(mView)).isFalse();
+    }
+
+    @Test
+    public void setTemp_burstWhileAnimating_onlyLatestApplied() {
+        mView.mAnimating = true;
+
+        mView.setTemp(20);
+        mView.setTemp(21);
+        mView.setTemp(22);
+        mView.mAnimating = false;
+        runFrame();
+
+        assertThat(mView.mAppliedTemps).containsExactly(22f);
+        assertThat(mScheduler.getSkippedCount()).isEqualTo(2);
+        assertThat(mFrameCallbacksPosted).isEqualTo(1);
+    }
+
+    @Test
+    public void setTemp_multipleViewsAnimating_oneFramePerCheck() {
+        TestAnimatedTemperatureView otherView = new TestAnimatedTemperatureView();
+        otherView.setAnimationScheduler(mScheduler);
+        mView.mAnimating = true;
+        otherView.mAnimating = true;
+
+        mView.setTemp(20);
+        otherView.setTemp(25);
+        otherView.mAnimating = false;
+        runFrame();
+
+        assertThat(mView.mAppliedTemps).isEmpty();
+        assertThat(otherView.mAppliedTemps).containsExactly(25f);
+        assertThat(mFrameCallbacksPosted).isEqualTo(2);
+    }
+
+    @Test
+    public void cancel_waitingView_stopsWaiting() {
+        mView.mAnimating = true;
+        mView.setTemp(20);
+
+        assertThat(mScheduler.cancel(mView)).isTrue();
+        mView.mAnimating = false;
+        runFrame();
+
+        assertThat(mView.mAppliedTemps).isEmpty();
+        assertThat(mScheduler.cancel(mView)).isFalse();
+    }
+
+    @Test
+    public void textAnimator_animationStartedWhileNotShown_notAnimating() {
+        AnimatedTemperatureView parent = new AnimatedTemperatureView(mContext, /* attrs= */ null);
+        TextSwitcher textSwitcher = new TextSwitcher(mContext);
+        Animation inAnimation = new AlphaAnimation(/* fromAlpha= */ 0f, /* toAlpha= */ 1f);
+        inAnimation.setDuration(/* durationMillis= */ 1000);
+        textSwitcher.setInAnimation(inAnimation);
+        TemperatureTextAnimator animator = new TemperatureTextAnimator(parent, textSwitcher,
+                /* tempFormat= */ "%.0f", /* pivotOffset= */ 0, /* minText= */ "min",
+                /* maxText= */ "max");
+        inAnimation.start();
+        inAnimation.getTransformation(AnimationUtils.currentAnimationTimeMillis(),
+                new Transformation());
+
+        assertThat(inAnimation.hasStarted()).isTrue();
+        assertThat(inAnimation.hasEnded()).isFalse();
+        assertThat(animator.isAnimating()).isFalse();
+    }
+
+    @Test
+    public void animateOpen_fromGone_playsEnterSequenceThenHides() {
+        ImageView background = new ImageView(mContext);
+        TemperatureBackgroundAnimator animator = createBackgroundAnimator(background);
+
+        animator.animateOpen();
+
+        assertThat(animator.isOpen()).isTrue();
+        assertThat(background.getVisibility()).isEqualTo(View.VISIBLE);
+        // Enter, hold overshoot, rest, hold rest and the delayed exit fade.
+        assertThat(animator.getTimelineDuration()).isEqualTo(300 + 50 + 300 + 1000 + 350);
+
+        animator.setCurrentPlayTime(animator.getTimelineDuration());
+
+        assertThat(animator.isOpen()).isFalse();
+        assertThat(background.getVisibility()).isEqualTo(View.GONE);
+    }
+
+    @Test
+    public void animateOpen_whileOpen_restartsWithBump() {
+        TemperatureBackgroundAnimator animator = createBackgroundAnimator(
+                new ImageView(mContext));
+        animator.animateOpen();
+        animator.setCurrentPlayTime(500);
+
+        animator.animateOpen();
+
+        // Bump, hold bump, rest, hold rest and the delayed exit fade.
+        assertThat(animator.getTimelineDuration()).isEqualTo(50 + 100 + 300 + 1000 + 350);
+        assertThat(animator.isOpen()).isTrue();
+    }
+
+    @Test
+    public void burstWhileAnimating_doesNotAllocateAfterWarmUp() {
+        TemperatureBackgroundAnimator animator = createBackgroundAnimator(
+                new ImageView(mContext));
+        animator.animateOpen();
+        mView.mAnimating = true;
+        runBurst(animator);
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        runBurst(animator);
+        int allocations = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+
+        assertThat(allocations).isEqualTo(0);
+        assertThat(mView.mAppliedTemps).isEmpty();
+    }
+
+    // Delivers a burst of temperatures to the animating view while the background timeline plays.
+    private void runBurst(TemperatureBackgroundAnimator animator) {
+        long duration = animator.getTimelineDuration();
+        for (int i = 0; i < BURST_SIZE; i++) {
+            mView.setTemp(20 + i / 10f);
+            animator.setCurrentPlayTime(duration * i / BURST_SIZE);
+            runFrame();
+        }
+    }
+
+    private TemperatureBackgroundAnimator createBackgroundAnimator(ImageView background) {
+        AnimatedTemperatureView parent = new AnimatedTemperatureView(mContext, /* attrs= */ null);
+        TemperatureBackgroundAnimator animator =
+                new TemperatureBackgroundAnimator(parent, background) {
+                    @Override
+                    boolean isViewAttached() {
+                        return true;
+                    }
+                };
+        parent.layout(/* l= */ 0, /* t= */ 0, /* r= */ 200, /* b= */ 100);
+        return animator;
+    }
+
+    private void runFrame() {
+        if (mFrameCallback != null) {
+            Choreographer.FrameCallback callback = mFrameCallback;
+            mFrameCallback = null;
+            callback.doFrame(/* frameTimeNanos= */ 0);
+        }
+    }
+
+    private class TestAnimatedTemperatureView extends AnimatedTemperatureView {
+        private final List<Float> mAppliedTemps = new ArrayList<>();
+        private boolean mAnimating;
+        private float mLastTemp;
+
+        TestAnimatedTemperatureView() {
+            super(mContext, /* attrs= */ null);
+        }
+
+        @Override
+        public void setTemp(float temp) {
+            mLastTemp = temp;
+            super.setTemp(temp);
+        }
+
+        @Override
+        boolean isAnimating() {
+            return mAnimating;
+        }
+
+        @Override
+        void applyPendingTemp() {
+            super.applyPendingTemp();
+            mAppliedTemps.add(mLastTemp);
+        }
+    }
+}
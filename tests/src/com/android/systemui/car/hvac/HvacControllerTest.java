@@ -20,20 +20,27 @@ import static android.car.VehicleAreaType.VEHICLE_AREA_TYPE_GLOBAL;
 import static android.car.VehiclePropertyIds.HVAC_TEMPERATURE_DISPLAY_UNITS;
 import static android.car.VehiclePropertyIds.HVAC_TEMPERATURE_SET;
 
+import static com.google.common.truth.Truth.assertThat;
+
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyFloat;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import android.car.Car;
 import android.car.VehicleUnit;
+import android.car.hardware.CarPropertyValue;
 import android.car.hardware.property.CarPropertyManager;
 import android.testing.AndroidTestingRunner;
 import android.testing.TestableLooper;
+import android.view.Choreographer;
 
 import androidx.test.filters.SmallTest;
 
@@ -47,9 +54,13 @@ import com.android.systemui.util.time.FakeSystemClock;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.util.Arrays;
+import java.util.List;
+
 @CarSystemUiTest
 @RunWith(AndroidTestingRunner.class)
 @TestableLooper.RunWithLooper
@@ -60,6 +71,11 @@ public class HvacControllerTest extends SysuiTestCase {
     private static final float TEMP = 72.0f;
 
     private HvacController mHvacController;
+    private FakeExecutor mBackgroundExecutor;
+    private FakeExecutor mMainExecutor;
+    private FakeSystemClock mClock;
+    private Choreographer.FrameCallback mFrameCallback;
+    private int mFrameCallbacksPosted;
 
     @Mock
     private Car mCar;
@@ -75,8 +91,20 @@ public class HvacControllerTest extends SysuiTestCase {
         when(mCar.getCarManager(Car.PROPERTY_SERVICE)).thenReturn(mCarPropertyManager);
 
         CarServiceProvider carServiceProvider = new CarServiceProvider(mContext, mCar);
-        mHvacController = new HvacController(carServiceProvider,
-                new FakeExecutor(new FakeSystemClock()), mConfigurationController);
+        mClock = new FakeSystemClock();
+        mBackgroundExecutor = new FakeExecutor(mClock);
+        mMainExecutor = new FakeExecutor(mClock);
+        VehiclePropertyBinder propertyBinder = new VehiclePropertyBinder(carServiceProvider,
+                mBackgroundExecutor, mMainExecutor, mClock);
+        mHvacController = new HvacController(propertyBinder, mBackgroundExecutor,
+                mMainExecutor, mConfigurationController,
+                new TemperatureColorStore(mContext.getResources(), mConfigurationController)) {
+            @Override
+            void postFrameCallback(Choreographer.FrameCallback callback) {
+                mFrameCallbacksPosted++;
+                mFrameCallback = callback;
+            }
+        };
         mHvacController.connectToCarService();
     }
 
@@ -91,6 +119,7 @@ public class HvacControllerTest extends SysuiTestCase {
     public void addTemperatureViewToController_usingTemperatureView_registersView() {
         TemperatureTextView v = setupMockTemperatureTextView(AREA_ID, TEMP);
         mHvacController.addTemperatureViewToController(v);
+        runInitialStateLoad();
 
         verify(v).setTemp(TEMP);
     }
@@ -99,10 +128,12 @@ public class HvacControllerTest extends SysuiTestCase {
     public void addTemperatureViewToController_usingSameTemperatureView_registersFirstView() {
         TemperatureTextView v = setupMockTemperatureTextView(AREA_ID, TEMP);
         mHvacController.addTemperatureViewToController(v);
+        runInitialStateLoad();
         verify(v).setTemp(TEMP);
         resetTemperatureView(v, AREA_ID);
 
         mHvacController.addTemperatureViewToController(v);
+        runInitialStateLoad();
         verify(v, never()).setTemp(TEMP);
     }
 
@@ -110,12 +141,14 @@ public class HvacControllerTest extends SysuiTestCase {
     public void addTemperatureViewToController_usingDifferentTemperatureView_registersBothViews() {
         TemperatureTextView v1 = setupMockTemperatureTextView(AREA_ID, TEMP);
         mHvacController.addTemperatureViewToController(v1);
+        runInitialStateLoad();
         verify(v1).setTemp(TEMP);
 
         TemperatureTextView v2 = setupMockTemperatureTextView(
                 AREA_ID + 1,
                 TEMP + 1);
         mHvacController.addTemperatureViewToController(v2);
+        runInitialStateLoad();
         verify(v2).setTemp(TEMP + 1);
     }
 
@@ -128,11 +161,315 @@ public class HvacControllerTest extends SysuiTestCase {
         TemperatureTextView v = setupMockTemperatureTextView(AREA_ID, TEMP);
 
         mHvacController.addTemperatureViewToController(v);
+        runInitialStateLoad();
 
         verify(v).setDisplayInFahrenheit(true);
         verify(v).setTemp(TEMP);
     }
 
+    @Test
+    public void addTemperatureViewToController_loadsInitialStateOffCallingThread() {
+        TemperatureTextView v = setupMockTemperatureTextView(AREA_ID, TEMP);
+
+        mHvacController.addTemperatureViewToController(v);
+
+        verify(mCarPropertyManager, never()).isPropertyAvailable(anyInt(), anyInt());
+        verify(mCarPropertyManager, never()).getFloatProperty(anyInt(), anyInt());
+        verify(v, never()).setTemp(anyFloat());
+
+        runInitialStateLoad();
+
+        verify(v).setTemp(TEMP);
+    }
+
+    @Test
+    public void addTemperatureViewsToController_sameArea_readsEachPropertyOnce() {
+        when(mCarPropertyManager.isPropertyAvailable(HVAC_TEMPERATURE_DISPLAY_UNITS,
+                VEHICLE_AREA_TYPE_GLOBAL)).thenReturn(true);
+        when(mCarPropertyManager.getIntProperty(HVAC_TEMPERATURE_DISPLAY_UNITS,
+                VEHICLE_AREA_TYPE_GLOBAL)).thenReturn(VehicleUnit.FAHRENHEIT);
+        TemperatureTextView v1 = setupMockTemperatureTextView(AREA_ID, TEMP);
+        TemperatureTextView v2 = setupMockTemperatureTextView(AREA_ID, TEMP);
+        TemperatureTextView v3 = setupMockTemperatureTextView(AREA_ID + 1, TEMP + 1);
+
+        mHvacController.addTemperatureViewsToController(Arrays.asList(v1, v2, v3));
+        runInitialStateLoad();
+
+        verify(mCarPropertyManager, times(1)).getIntProperty(HVAC_TEMPERATURE_DISPLAY_UNITS,
+                VEHICLE_AREA_TYPE_GLOBAL);
+        verify(mCarPropertyManager, times(1)).getFloatProperty(HVAC_TEMPERATURE_SET, AREA_ID);
+        verify(mCarPropertyManager, times(1)).getFloatProperty(HVAC_TEMPERATURE_SET,
+                AREA_ID + 1);
+        verify(v1).setDisplayInFahrenheit(true);
+        verify(v1).setTemp(TEMP);
+        verify(v2).setTemp(TEMP);
+        verify(v3).setTemp(TEMP + 1);
+    }
+
+    @Test
+    public void addTemperatureViewToController_afterRebuild_availabilityAndUnitsCached() {
+        when(mCarPropertyManager.isPropertyAvailable(HVAC_TEMPERATURE_DISPLAY_UNITS,
+                VEHICLE_AREA_TYPE_GLOBAL)).thenReturn(true);
+        when(mCarPropertyManager.getIntProperty(HVAC_TEMPERATURE_DISPLAY_UNITS,
+                VEHICLE_AREA_TYPE_GLOBAL)).thenReturn(VehicleUnit.CELSIUS);
+        mHvacController.addTemperatureViewToController(setupMockTemperatureTextView(AREA_ID, TEMP));
+        runInitialStateLoad();
+
+        mHvacController.removeAllComponents();
+        TemperatureTextView v = setupMockTemperatureTextView(AREA_ID, TEMP + 1);
+        mHvacController.addTemperatureViewToController(v);
+        runInitialStateLoad();
+
+        verify(v).setTemp(TEMP + 1);
+        verify(mCarPropertyManager, times(1)).isPropertyAvailable(HVAC_TEMPERATURE_SET, AREA_ID);
+        verify(mCarPropertyManager, times(1)).isPropertyAvailable(HVAC_TEMPERATURE_DISPLAY_UNITS,
+                VEHICLE_AREA_TYPE_GLOBAL);
+        verify(mCarPropertyManager, times(1)).getIntProperty(HVAC_TEMPERATURE_DISPLAY_UNITS,
+                VEHICLE_AREA_TYPE_GLOBAL);
+        verify(mCarPropertyManager, times(2)).getFloatProperty(HVAC_TEMPERATURE_SET, AREA_ID);
+    }
+
+    @Test
+    public void removeAllComponents_whileLoading_removedViewNotUpdated() {
+        TemperatureTextView v = setupMockTemperatureTextView(AREA_ID, TEMP);
+        mHvacController.addTemperatureViewToController(v);
+        mMainExecutor.runAllReady();
+        mBackgroundExecutor.runAllReady();
+
+        mHvacController.removeAllComponents();
+        runInitialStateLoad();
+
+        verify(v, never()).setTemp(anyFloat());
+    }
+
+    @Test
+    public void onTemperatureChangeEvents_sameFrame_viewUpdatedOnceWithLatestValue() {
+        TemperatureTextView v = setupMockTemperatureTextView(AREA_ID, TEMP);
+        mHvacController.addTemperatureViewToController(v);
+        runInitialStateLoad();
+        resetTemperatureView(v, AREA_ID);
+
+        for (int i = 1; i <= 10; i++) {
+            sendTemperatureChangeEvent(AREA_ID, TEMP + i);
+        }
+        verify(v, never()).setTemp(anyFloat());
+
+        runFrame();
+
+        verify(v).setTemp(TEMP + 10);
+        verify(v, times(1)).setTemp(anyFloat());
+        assertThat(mFrameCallbacksPosted).isEqualTo(1);
+    }
+
+    @Test
+    public void onTemperatureChangeEvent_nextFrame_postsAnotherFrame() {
+        TemperatureTextView v = setupMockTemperatureTextView(AREA_ID, TEMP);
+        mHvacController.addTemperatureViewToController(v);
+        runInitialStateLoad();
+        sendTemperatureChangeEvent(AREA_ID, TEMP + 1);
+        runFrame();
+
+        sendTemperatureChangeEvent(AREA_ID, TEMP + 2);
+        runFrame();
+
+        verify(v).setTemp(TEMP + 2);
+        assertThat(mFrameCallbacksPosted).isEqualTo(2);
+    }
+
+    @Test
+    public void onTemperatureChangeEvent_displayedValue_viewNotUpdated() {
+        TemperatureTextView v = setupMockTemperatureTextView(AREA_ID, TEMP);
+        mHvacController.addTemperatureViewToController(v);
+        runInitialStateLoad();
+        resetTemperatureView(v, AREA_ID);
+
+        sendTemperatureChangeEvent(AREA_ID, TEMP + 1);
+        sendTemperatureChangeEvent(AREA_ID, TEMP);
+        runFrame();
+
+        verify(v, never()).setTemp(anyFloat());
+    }
+
+    @Test
+    public void onTemperatureChangeEvents_differentAreas_eachAreaUpdated() {
+        TemperatureTextView v1 = setupMockTemperatureTextView(AREA_ID, TEMP);
+        TemperatureTextView v2 = setupMockTemperatureTextView(AREA_ID + 1, TEMP);
+        mHvacController.addTemperatureViewToController(v1);
+        mHvacController.addTemperatureViewToController(v2);
+        runInitialStateLoad();
+
+        sendTemperatureChangeEvent(AREA_ID, TEMP + 1);
+        sendTemperatureChangeEvent(AREA_ID + 1, TEMP + 2);
+        runFrame();
+
+        verify(v1).setTemp(TEMP + 1);
+        verify(v2).setTemp(TEMP + 2);
+        verify(v1, never()).setTemp(TEMP + 2);
+    }
+
+    @Test
+    public void onTemperatureChangeEvent_unregisteredArea_noFramePosted() {
+        TemperatureTextView v = setupMockTemperatureTextView(AREA_ID, TEMP);
+        mHvacController.addTemperatureViewToController(v);
+        runInitialStateLoad();
+
+        sendTemperatureChangeEvent(AREA_ID + 1, TEMP + 1);
+
+        assertThat(mFrameCallbacksPosted).isEqualTo(0);
+    }
+
+    @Test
+    public void onTemperatureChangeEvents_countsEventsAndUiUpdates() {
+        TemperatureTextView v = setupMockTemperatureTextView(AREA_ID, TEMP);
+        mHvacController.addTemperatureViewToController(v);
+        runInitialStateLoad();
+
+        for (int i = 1; i <= 5; i++) {
+            sendTemperatureChangeEvent(AREA_ID, TEMP + i);
+        }
+        runFrame();
+        sendTemperatureChangeEvent(AREA_ID, TEMP + 5);
+        runFrame();
+
+        assertThat(mHvacController.getTemperatureEventCount()).isEqualTo(6);
+        assertThat(mHvacController.getTemperatureUiUpdateCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void setTemperature_showsTargetBeforeWrite() {
+        TemperatureTextView v = setupMockTemperatureTextView(AREA_ID, TEMP);
+        mHvacController.addTemperatureViewToController(v);
+        runInitialStateLoad();
+
+        mHvacController.setTemperature(TEMP + 1, AREA_ID);
+
+        verify(v).setTemp(TEMP + 1);
+        verify(mCarPropertyManager, never()).setFloatProperty(anyInt(), anyInt(), anyFloat());
+    }
+
+    @Test
+    public void setTemperature_afterDebounce_writesToCarPropertyManager() {
+        TemperatureTextView v = setupMockTemperatureTextView(AREA_ID, TEMP);
+        mHvacController.addTemperatureViewToController(v);
+        runInitialStateLoad();
+
+        mHvacController.setTemperature(TEMP + 1, AREA_ID);
+        mMainExecutor.advanceClockToNext();
+        mMainExecutor.runAllReady();
+        mBackgroundExecutor.runAllReady();
+
+        verify(mCarPropertyManager).setFloatProperty(HVAC_TEMPERATURE_SET, AREA_ID, TEMP + 1);
+    }
+
+    @Test
+    public void setTemperature_differentZones_writesEachZone() {
+        mHvacController.setTemperature(TEMP + 1, AREA_ID);
+        mHvacController.setTemperature(TEMP + 2, AREA_ID + 1);
+        flushTemperatureWrites();
+
+        verify(mCarPropertyManager).setFloatProperty(HVAC_TEMPERATURE_SET, AREA_ID, TEMP + 1);
+        verify(mCarPropertyManager).setFloatProperty(HVAC_TEMPERATURE_SET, AREA_ID + 1, TEMP + 2);
+    }
+
+    @Test
+    public void setTemperature_staleEventBeforeConfirmation_targetKept() {
+        TemperatureTextView v = setupMockTemperatureTextView(AREA_ID, TEMP);
+        mHvacController.addTemperatureViewToController(v);
+        runInitialStateLoad();
+        mHvacController.setTemperature(TEMP + 1, AREA_ID);
+        flushTemperatureWrites();
+        resetTemperatureView(v, AREA_ID);
+
+        sendTemperatureChangeEvent(AREA_ID, TEMP);
+        runFrame();
+
+        verify(v, never()).setTemp(anyFloat());
+    }
+
+    @Test
+    public void setTemperature_notConfirmedInTime_showsCarServiceValue() {
+        TemperatureTextView v = setupMockTemperatureTextView(AREA_ID, TEMP);
+        mHvacController.addTemperatureViewToController(v);
+        runInitialStateLoad();
+        mHvacController.setTemperature(TEMP + 1, AREA_ID);
+        flushTemperatureWrites();
+        sendTemperatureChangeEvent(AREA_ID, TEMP + 0.5f);
+        resetTemperatureView(v, AREA_ID);
+
+        mMainExecutor.advanceClockToLast();
+        mMainExecutor.runAllReady();
+        runFrame();
+
+        verify(v).setTemp(TEMP + 0.5f);
+    }
+
+    @Test
+    public void setTemperature_twentyRapidTaps_oneWriteAndNoFlicker() {
+        TemperatureTextView v = setupMockTemperatureTextView(AREA_ID, TEMP);
+        mHvacController.addTemperatureViewToController(v);
+        runInitialStateLoad();
+        resetTemperatureView(v, AREA_ID);
+        // The car service echoes every write back as a change event.
+        CarPropertyManager.CarPropertyEventCallback callback = getTemperatureSetCallback();
+        doAnswer(invocation -> {
+            callback.onChangeEvent(new CarPropertyValue<>(HVAC_TEMPERATURE_SET,
+                    (int) invocation.getArgument(1), (float) invocation.getArgument(2)));
+            return null;
+        }).when(mCarPropertyManager).setFloatProperty(eq(HVAC_TEMPERATURE_SET), anyInt(),
+                anyFloat());
+
+        float target = TEMP;
+        for (int i = 0; i < 20; i++) {
+            target += 0.5f;
+            mHvacController.setTemperature(target, AREA_ID);
+            mClock.advanceTime(HvacController.WRITE_DEBOUNCE_MS / 3);
+            mMainExecutor.runAllReady();
+            // The car service still reports the previous setpoint while the taps come in.
+            if (i == 10) {
+                sendTemperatureChangeEvent(AREA_ID, TEMP);
+                runFrame();
+            }
+        }
+        flushTemperatureWrites();
+        runFrame();
+
+        verify(mCarPropertyManager, times(1)).setFloatProperty(HVAC_TEMPERATURE_SET, AREA_ID,
+                target);
+        assertThat(mHvacController.getTemperatureWriteCount()).isEqualTo(1);
+        ArgumentCaptor<Float> displayed = ArgumentCaptor.forClass(Float.class);
+        verify(v, times(20)).setTemp(displayed.capture());
+        List<Float> displayedTemps = displayed.getAllValues();
+        assertThat(displayedTemps).isInStrictOrder();
+        assertThat(displayedTemps.get(displayedTemps.size() - 1)).isEqualTo(target);
+    }
+
+    private void flushTemperatureWrites() {
+        mMainExecutor.advanceClockToNext();
+        mMainExecutor.runAllReady();
+        mBackgroundExecutor.runAllReady();
+    }
+
+    private void sendTemperatureChangeEvent(int areaId, float value) {
+        getTemperatureSetCallback().onChangeEvent(
+                new CarPropertyValue<>(HVAC_TEMPERATURE_SET, areaId, value));
+    }
+
+    private CarPropertyManager.CarPropertyEventCallback getTemperatureSetCallback() {
+        ArgumentCaptor<CarPropertyManager.CarPropertyEventCallback> captor =
+                ArgumentCaptor.forClass(CarPropertyManager.CarPropertyEventCallback.class);
+        verify(mCarPropertyManager).registerCallback(captor.capture(), eq(HVAC_TEMPERATURE_SET),
+                anyFloat());
+        return captor.getValue();
+    }
+
+    private void runFrame() {
+        Choreographer.FrameCallback callback = mFrameCallback;
+        mFrameCallback = null;
+        if (callback != null) {
+            callback.doFrame(/* frameTimeNanos= */ 0);
+        }
+    }
+
     private TemperatureTextView setupMockTemperatureTextView(int areaId, float value) {
         TemperatureTextView v = mock(TemperatureTextView.class);
         resetTemperatureView(v, areaId);
@@ -146,4 +483,10 @@ public class HvacControllerTest extends SysuiTestCase {
         reset(view);
         when(view.getAreaId()).thenReturn(areaId);
     }
+
+    private void runInitialStateLoad() {
+        while (mMainExecutor.runAllReady() + mBackgroundExecutor.runAllReady() > 0) {
+            // The load hops from the main thread to the background thread and back.
+        }
+    }
 }
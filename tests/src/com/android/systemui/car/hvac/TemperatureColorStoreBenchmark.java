@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.car.hvac;
+
+import android.os.SystemClock;
+import android.testing.AndroidTestingRunner;
+import android.testing.TestableLooper;
+import android.util.Log;
+
+import androidx.test.filters.LargeTest;
+
+import com.android.systemui.SysuiTestCase;
+import com.android.systemui.statusbar.policy.ConfigurationController;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+/**
+ * Compares the cost of the {@link TemperatureColorStore} lookup table with the HSV interpolation
+ * it replaces. Results are logged; this class is not annotated with
+ * {@link com.android.systemui.car.CarSystemUiTest} so it stays out of presubmit.
+ */
+@RunWith(AndroidTestingRunner.class)
+@TestableLooper.RunWithLooper
+@LargeTest
+public class TemperatureColorStoreBenchmark extends SysuiTestCase {
+    private static final String TAG = "TemperatureColorStoreBenchmark";
+    private static final int BENCHMARK_ITERATIONS = 100;
+
+    @Mock
+    private ConfigurationController mConfigurationController;
+
+    private TemperatureColorStore mColorStore;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(/* testClass= */ this);
+        mColorStore = new TemperatureColorStore(mContext.getResources(),
+                mConfigurationController);
+    }
+
+    @Test
+    public void benchmark_tableLookupVersusInterpolation() {
+        // Warm up both paths before measuring.
+        runTableLookups();
+        runInterpolations();
+
+        long tableNanos = runTableLookups();
+        long interpolationNanos = runInterpolations();
+
+        Log.i(TAG, "table lookup " + tableNanos / BENCHMARK_ITERATIONS
+                + "ns/sweep, interpolation " + interpolationNanos / BENCHMARK_ITERATIONS
+                + "ns/sweep");
+    }
+
+    // Each sweep covers the Celsius and Fahrenheit ranges in 0.1 degree steps.
+    private long runTableLookups() {
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            for (int tenths = 150; tenths <= 850; tenths++) {
+                mColorStore.getColorForTemperature(tenths / 10f);
+            }
+        }
+        return SystemClock.elapsedRealtimeNanos() - start;
+    }
+
+    private long runInterpolations() {
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            for (int tenths = 150; tenths <= 850; tenths++) {
+                mColorStore.computeColorForTemperature(tenths / 10f);
+            }
+        }
+        return SystemClock.elapsedRealtimeNanos() - start;
+    }
+}
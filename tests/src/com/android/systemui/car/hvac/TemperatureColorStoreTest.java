@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.car.hvac;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.verify;
+
+import android.content.res.Configuration;
+import android.graphics.Color;
+import android.os.Debug;
+import android.testing.AndroidTestingRunner;
+import android.testing.TestableLooper;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.systemui.R;
+import com.android.systemui.SysuiTestCase;
+import com.android.systemui.car.CarSystemUiTest;
+import com.android.systemui.statusbar.policy.ConfigurationController;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+@CarSystemUiTest
+@RunWith(AndroidTestingRunner.class)
+@TestableLooper.RunWithLooper
+@SmallTest
+public class TemperatureColorStoreTest extends SysuiTestCase {
+    private static final int COLOR_COLDEST = 0xFF406DFF;
+    private static final int COLOR_NEUTRAL = 0xFFF4F4F4;
+    private static final int COLOR_WARMEST = 0xFFFF0000;
+
+    @Mock
+    private ConfigurationController mConfigurationController;
+
+    private TemperatureColorStore mColorStore;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(/* testClass= */ this);
+        mColorStore = new TemperatureColorStore(mContext.getResources(),
+                mConfigurationController);
+    }
+
+    @Test
+    public void constructor_registersForConfigurationChanges() {
+        verify(mConfigurationController).addCallback(mColorStore);
+    }
+
+    @Test
+    public void onConfigChanged_reloadsGradientFromResources() {
+        assertThat(mColorStore.getColorForTemperature(22.6f)).isNotEqualTo(COLOR_NEUTRAL);
+        mContext.getOrCreateTestableResources().addOverride(
+                R.integer.config_hvacTemperatureColorStepsPerDegree, /* value= */ 1);
+
+        mColorStore.onConfigChanged(new Configuration());
+
+        // With a single step per degree, 22.6 is rounded to the 23 degree stop.
+        assertThat(mColorStore.getColorForTemperature(22.6f)).isEqualTo(COLOR_NEUTRAL);
+    }
+
+    @Test
+    public void getMinMaxColor_defaultGradient() {
+        assertThat(mColorStore.getMinColor()).isEqualTo(COLOR_COLDEST);
+        assertThat(mColorStore.getMaxColor()).isEqualTo(COLOR_WARMEST);
+    }
+
+    @Test
+    public void getColorForTemperature_atStops_returnsStopColor() {
+        assertThat(mColorStore.getColorForTemperature(19)).isEqualTo(COLOR_COLDEST);
+        assertThat(mColorStore.getColorForTemperature(23)).isEqualTo(COLOR_NEUTRAL);
+        assertThat(mColorStore.getColorForTemperature(27)).isEqualTo(COLOR_WARMEST);
+        assertThat(mColorStore.getColorForTemperature(74)).isEqualTo(COLOR_NEUTRAL);
+    }
+
+    @Test
+    public void getColorForTemperature_outOfRange_returnsBoundaryColor() {
+        assertThat(mColorStore.getColorForTemperature(-40)).isEqualTo(COLOR_COLDEST);
+        assertThat(mColorStore.getColorForTemperature(120)).isEqualTo(COLOR_WARMEST);
+    }
+
+    @Test
+    public void getColorForTemperature_nan_returnsUnsetColor() {
+        assertThat(mColorStore.getColorForTemperature(Float.NaN)).isEqualTo(Color.BLACK);
+    }
+
+    @Test
+    public void getColorForTemperature_atTableSteps_matchesInterpolatedColor() {
+        for (int tenths = 150; tenths <= 850; tenths++) {
+            float temperature = tenths / 10f;
+            assertColorsClose(mColorStore.getColorForTemperature(temperature),
+                    mColorStore.computeColorForTemperature(temperature));
+        }
+    }
+
+    @Test
+    public void getColorForTemperature_customGradient_usesGivenStops() {
+        TemperatureColorStore colorStore = new TemperatureColorStore(
+                new float[]{0, 10}, new int[]{Color.BLUE, Color.RED}, /* stepsPerDegree= */ 2);
+
+        assertThat(colorStore.getColorForTemperature(0)).isEqualTo(Color.BLUE);
+        assertThat(colorStore.getColorForTemperature(10)).isEqualTo(Color.RED);
+        assertThat(colorStore.getColorForTemperature(4.9f)).isEqualTo(
+                colorStore.computeColorForTemperature(5f));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_unsortedStops_throws() {
+        new TemperatureColorStore(new float[]{10, 0}, new int[]{Color.BLUE, Color.RED},
+                /* stepsPerDegree= */ 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_mismatchedColors_throws() {
+        new TemperatureColorStore(new float[]{0, 10}, new int[]{Color.BLUE},
+                /* stepsPerDegree= */ 10);
+    }
+
+    @Test
+    public void getColorForTemperature_doesNotAllocate() {
+        mColorStore.getColorForTemperature(22.5f);
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        for (int tenths = 150; tenths <= 850; tenths++) {
+            mColorStore.getColorForTemperature(tenths / 10f);
+        }
+        int allocations = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+
+        assertThat(allocations).isEqualTo(0);
+    }
+
+    // The table samples may differ from the given temperature by a rounding error.
+    private static void assertColorsClose(int actual, int expected) {
+        assertThat(Color.alpha(actual)).isEqualTo(Color.alpha(expected));
+        assertThat(Math.abs(Color.red(actual) - Color.red(expected))).isAtMost(1);
+        assertThat(Math.abs(Color.green(actual) - Color.green(expected))).isAtMost(1);
+        assertThat(Math.abs(Color.blue(actual) - Color.blue(expected))).isAtMost(1);
+    }
+}
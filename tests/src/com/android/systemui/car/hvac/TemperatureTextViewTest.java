@@ -58,6 +58,8 @@ public class TemperatureTextViewTest extends SysuiTestCase {
     private static final float TEMP = 72.0f;
     private final String mFormat = getContext().getString(R.string.hvac_temperature_format);
     private HvacController mHvacController;
+    private FakeExecutor mBackgroundExecutor;
+    private FakeExecutor mMainExecutor;
     private TemperatureTextView mTextView;
 
     @Mock
@@ -77,8 +79,14 @@ public class TemperatureTextViewTest extends SysuiTestCase {
         when(mCar.getCarManager(Car.PROPERTY_SERVICE)).thenReturn(mCarPropertyManager);
 
         CarServiceProvider carServiceProvider = new CarServiceProvider(mContext, mCar);
-        mHvacController = new HvacController(carServiceProvider,
-                new FakeExecutor(new FakeSystemClock()), mConfigurationController);
+        FakeSystemClock clock = new FakeSystemClock();
+        mBackgroundExecutor = new FakeExecutor(clock);
+        mMainExecutor = new FakeExecutor(clock);
+        VehiclePropertyBinder propertyBinder = new VehiclePropertyBinder(carServiceProvider,
+                mBackgroundExecutor, mMainExecutor, clock);
+        mHvacController = new HvacController(propertyBinder, mBackgroundExecutor,
+                mMainExecutor, mConfigurationController,
+                new TemperatureColorStore(mContext.getResources(), mConfigurationController));
         mHvacController.connectToCarService();
         mTextView = new TemperatureTextView(getContext(), /* attrs= */ null);
     }
@@ -91,6 +99,7 @@ public class TemperatureTextViewTest extends SysuiTestCase {
                 TEMP);
 
         mHvacController.addTemperatureViewToController(mTextView);
+        runInitialStateLoad();
 
         assertEquals(mTextView.getText(), String.format(mFormat, TEMP));
     }
@@ -107,7 +116,14 @@ public class TemperatureTextViewTest extends SysuiTestCase {
                 VEHICLE_AREA_TYPE_GLOBAL)).thenReturn(VehicleUnit.FAHRENHEIT);
 
         mHvacController.addTemperatureViewToController(mTextView);
+        runInitialStateLoad();
 
         assertEquals(mTextView.getText(), String.format(mFormat, convertToFahrenheit(TEMP)));
     }
+
+    private void runInitialStateLoad() {
+        while (mMainExecutor.runAllReady() + mBackgroundExecutor.runAllReady() > 0) {
+            // The load hops from the main thread to the background thread and back.
+        }
+    }
 }
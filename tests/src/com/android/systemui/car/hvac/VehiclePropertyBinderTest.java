@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.car.hvac;
+
+import static android.car.VehiclePropertyIds.HVAC_FAN_SPEED;
+import static android.car.VehiclePropertyIds.HVAC_SEAT_TEMPERATURE;
+import static android.car.VehiclePropertyIds.HVAC_TEMPERATURE_SET;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyFloat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.car.Car;
+import android.car.hardware.CarPropertyValue;
+import android.car.hardware.property.CarPropertyManager;
+import android.testing.AndroidTestingRunner;
+import android.testing.TestableLooper;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.systemui.SysuiTestCase;
+import com.android.systemui.car.CarServiceProvider;
+import com.android.systemui.car.CarSystemUiTest;
+import com.android.systemui.util.concurrency.FakeExecutor;
+import com.android.systemui.util.time.FakeSystemClock;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+@CarSystemUiTest
+@RunWith(AndroidTestingRunner.class)
+@TestableLooper.RunWithLooper
+@SmallTest
+public class VehiclePropertyBinderTest extends SysuiTestCase {
+
+    private static final int AREA_ID = 1;
+    private static final int OTHER_AREA_ID = 4;
+    private static final long MIN_UPDATE_INTERVAL_MS = 100;
+
+    private VehiclePropertyBinder mPropertyBinder;
+    private CarServiceProvider mCarServiceProvider;
+    private FakeExecutor mBackgroundExecutor;
+    private FakeExecutor mMainExecutor;
+    private FakeSystemClock mClock;
+
+    @Mock
+    private Car mCar;
+    @Mock
+    private CarPropertyManager mCarPropertyManager;
+    @Mock
+    private VehiclePropertyBinder.PropertyListener mListener;
+    @Mock
+    private VehiclePropertyBinder.PropertyListener mOtherListener;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        when(mCar.isConnected()).thenReturn(true);
+        when(mCar.getCarManager(Car.PROPERTY_SERVICE)).thenReturn(mCarPropertyManager);
+
+        mClock = new FakeSystemClock();
+        mBackgroundExecutor = new FakeExecutor(mClock);
+        mMainExecutor = new FakeExecutor(mClock);
+        mCarServiceProvider = new CarServiceProvider(mContext, mCar);
+        mPropertyBinder = new VehiclePropertyBinder(mCarServiceProvider, mBackgroundExecutor,
+                mMainExecutor, mClock);
+    }
+
+    @Test
+    public void bind_beforeConnect_subscribesOnConnect() {
+        mPropertyBinder.bind(HVAC_FAN_SPEED, AREA_ID, mListener);
+        verify(mCarPropertyManager, never()).registerCallback(any(), anyInt(), anyFloat());
+
+        mPropertyBinder.connect();
+
+        verify(mCarPropertyManager).registerCallback(any(), eq(HVAC_FAN_SPEED), anyFloat());
+    }
+
+    @Test
+    public void bind_samePropertyManyAreas_subscribesOnce() {
+        mPropertyBinder.connect();
+
+        mPropertyBinder.bind(HVAC_FAN_SPEED, AREA_ID, mListener);
+        mPropertyBinder.bind(HVAC_FAN_SPEED, OTHER_AREA_ID, mOtherListener);
+        mPropertyBinder.bind(HVAC_SEAT_TEMPERATURE, AREA_ID, mListener);
+
+        verify(mCarPropertyManager, times(1)).registerCallback(
+                eq(mPropertyBinder.getPropertyEventCallback()), eq(HVAC_FAN_SPEED), anyFloat());
+        verify(mCarPropertyManager, times(1)).registerCallback(
+                eq(mPropertyBinder.getPropertyEventCallback()), eq(HVAC_SEAT_TEMPERATURE),
+                anyFloat());
+    }
+
+    @Test
+    public void onChangeEvent_deliveredToListenersOfEventArea() {
+        mPropertyBinder.connect();
+        mPropertyBinder.bind(HVAC_FAN_SPEED, AREA_ID, mListener);
+        mPropertyBinder.bind(HVAC_FAN_SPEED, OTHER_AREA_ID, mOtherListener);
+        CarPropertyValue<Integer> value = new CarPropertyValue<>(HVAC_FAN_SPEED, AREA_ID, 3);
+
+        sendChangeEvent(value);
+
+        verify(mListener).onPropertyChanged(value);
+        verify(mOtherListener, never()).onPropertyChanged(any());
+    }
+
+    @Test
+    public void onChangeEvent_allAreasListener_receivesEveryArea() {
+        mPropertyBinder.connect();
+        mPropertyBinder.bind(HVAC_FAN_SPEED, VehiclePropertyBinder.ALL_AREAS, mListener);
+        CarPropertyValue<Integer> value1 = new CarPropertyValue<>(HVAC_FAN_SPEED, AREA_ID, 3);
+        CarPropertyValue<Integer> value2 =
+                new CarPropertyValue<>(HVAC_FAN_SPEED, OTHER_AREA_ID, 5);
+
+        sendChangeEvent(value1);
+        sendChangeEvent(value2);
+
+        verify(mListener).onPropertyChanged(value1);
+        verify(mListener).onPropertyChanged(value2);
+    }
+
+    @Test
+    public void unbind_listenerNoLongerNotified() {
+        mPropertyBinder.connect();
+        mPropertyBinder.bind(HVAC_FAN_SPEED, AREA_ID, mListener);
+
+        mPropertyBinder.unbind(mListener);
+        sendChangeEvent(new CarPropertyValue<>(HVAC_FAN_SPEED, AREA_ID, 3));
+
+        verify(mListener, never()).onPropertyChanged(any());
+    }
+
+    @Test
+    public void onChangeEvents_throttled_latestValuePerAreaDeliveredAfterInterval() {
+        mPropertyBinder.connect();
+        mPropertyBinder.setMinUpdateInterval(HVAC_FAN_SPEED, MIN_UPDATE_INTERVAL_MS);
+        mPropertyBinder.bind(HVAC_FAN_SPEED, VehiclePropertyBinder.ALL_AREAS, mListener);
+        CarPropertyValue<Integer> first = new CarPropertyValue<>(HVAC_FAN_SPEED, AREA_ID, 1);
+        CarPropertyValue<Integer> latest = new CarPropertyValue<>(HVAC_FAN_SPEED, AREA_ID, 5);
+        CarPropertyValue<Integer> otherArea =
+                new CarPropertyValue<>(HVAC_FAN_SPEED, OTHER_AREA_ID, 2);
+
+        sendChangeEvent(first);
+        for (int speed = 2; speed < 5; speed++) {
+            sendChangeEvent(new CarPropertyValue<>(HVAC_FAN_SPEED, AREA_ID, speed));
+        }
+        sendChangeEvent(latest);
+        sendChangeEvent(otherArea);
+
+        verify(mListener).onPropertyChanged(first);
+        verify(mListener, times(1)).onPropertyChanged(any());
+
+        mClock.advanceTime(MIN_UPDATE_INTERVAL_MS);
+        mMainExecutor.runAllReady();
+
+        verify(mListener).onPropertyChanged(latest);
+        verify(mListener).onPropertyChanged(otherArea);
+        verify(mListener, times(3)).onPropertyChanged(any());
+        assertThat(mPropertyBinder.getEventCount()).isEqualTo(6);
+        assertThat(mPropertyBinder.getDispatchCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void setProperty_sameMessage_writesSentInOneBatch() {
+        mPropertyBinder.connect();
+
+        mPropertyBinder.setFloatProperty(HVAC_TEMPERATURE_SET, AREA_ID, 20f);
+        mPropertyBinder.setIntProperty(HVAC_FAN_SPEED, AREA_ID, 3);
+        mPropertyBinder.setIntProperty(HVAC_SEAT_TEMPERATURE, OTHER_AREA_ID, 1);
+        verify(mCarPropertyManager, never()).setFloatProperty(anyInt(), anyInt(), anyFloat());
+
+        mBackgroundExecutor.runAllReady();
+
+        verify(mCarPropertyManager).setFloatProperty(HVAC_TEMPERATURE_SET, AREA_ID, 20f);
+        verify(mCarPropertyManager).setIntProperty(HVAC_FAN_SPEED, AREA_ID, 3);
+        verify(mCarPropertyManager).setIntProperty(HVAC_SEAT_TEMPERATURE, OTHER_AREA_ID, 1);
+        assertThat(mPropertyBinder.getWriteBatchCount()).isEqualTo(1);
+        assertThat(mPropertyBinder.getWriteCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void setProperty_samePairBeforeFlush_onlyLatestWritten() {
+        mPropertyBinder.connect();
+
+        mPropertyBinder.setIntProperty(HVAC_FAN_SPEED, AREA_ID, 3);
+        mPropertyBinder.setIntProperty(HVAC_FAN_SPEED, AREA_ID, 4);
+        mBackgroundExecutor.runAllReady();
+
+        verify(mCarPropertyManager, never()).setIntProperty(HVAC_FAN_SPEED, AREA_ID, 3);
+        verify(mCarPropertyManager).setIntProperty(HVAC_FAN_SPEED, AREA_ID, 4);
+        assertThat(mPropertyBinder.getWriteCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void addConnectionListener_alreadyConnected_notifiedRightAway() {
+        mPropertyBinder.connect();
+        VehiclePropertyBinder.ConnectionListener listener =
+                mock(VehiclePropertyBinder.ConnectionListener.class);
+
+        mPropertyBinder.addConnectionListener(listener);
+
+        verify(listener).onConnected(mCarPropertyManager);
+    }
+
+    @Test
+    public void carServiceRestarted_propertiesSubscribedAgainWithNewManager() {
+        mPropertyBinder.connect();
+        mPropertyBinder.bind(HVAC_FAN_SPEED, AREA_ID, mListener);
+        VehiclePropertyBinder.ConnectionListener listener =
+                mock(VehiclePropertyBinder.ConnectionListener.class);
+        mPropertyBinder.addConnectionListener(listener);
+        CarPropertyManager newCarPropertyManager = mock(CarPropertyManager.class);
+
+        mCarServiceProvider.onCarServiceLifecycleChanged(mCar, /* ready= */ false);
+        when(mCar.getCarManager(Car.PROPERTY_SERVICE)).thenReturn(newCarPropertyManager);
+        mCarServiceProvider.onCarServiceLifecycleChanged(mCar, /* ready= */ true);
+
+        verify(mCarPropertyManager, times(1)).registerCallback(any(), anyInt(), anyFloat());
+        verify(newCarPropertyManager).registerCallback(
+                eq(mPropertyBinder.getPropertyEventCallback()), eq(HVAC_FAN_SPEED), anyFloat());
+        verify(listener).onConnected(newCarPropertyManager);
+        assertThat(mPropertyBinder.getCallbackRegistry().getRegistrationCount()).isEqualTo(1);
+    }
+
+    private void sendChangeEvent(CarPropertyValue<?> value) {
+        mPropertyBinder.getPropertyEventCallback().onChangeEvent(value);
+    }
+}
@@ -19,7 +19,10 @@ package com.android.systemui.car.notification;
 import static com.google.common.truth.Truth.assertThat;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -48,7 +51,10 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 
 @CarSystemUiTest
 @RunWith(AndroidTestingRunner.class)
@@ -74,25 +80,33 @@ public class NotificationVisibilityLoggerTest extends SysuiTestCase {
     private NotificationDataManager mNotificationDataManager;
 
     private NotificationVisibilityLogger mNotificationVisibilityLogger;
+    private FakeSystemClock mClock;
     private FakeExecutor mUiBgExecutor;
+    private FakeExecutor mMainExecutor;
     private AlertEntry mMessageNotification;
+    private AlertEntry mMessageNotification2;
 
     @Before
     public void setUp() {
         MockitoAnnotations.initMocks(/* testClass= */this);
 
-        mUiBgExecutor = new FakeExecutor(new FakeSystemClock());
+        mClock = new FakeSystemClock();
+        mUiBgExecutor = new FakeExecutor(mClock);
+        mMainExecutor = new FakeExecutor(mClock);
         Notification.Builder mNotificationBuilder1 = new Notification.Builder(mContext, CHANNEL_ID)
                 .setContentTitle(CONTENT_TITLE);
         mMessageNotification = new AlertEntry(new StatusBarNotification(PKG, OP_PKG,
                 ID, TAG, UID, INITIAL_PID, mNotificationBuilder1.build(), USER_HANDLE,
                 OVERRIDE_GROUP_KEY, POST_TIME));
+        mMessageNotification2 = new AlertEntry(new StatusBarNotification(PKG, OP_PKG,
+                ID + 1, TAG, UID, INITIAL_PID, mNotificationBuilder1.build(), USER_HANDLE,
+                OVERRIDE_GROUP_KEY, POST_TIME));
 
         when(mNotificationDataManager.getVisibleNotifications()).thenReturn(
                 Collections.singletonList(mMessageNotification));
 
         mNotificationVisibilityLogger = new NotificationVisibilityLogger(
-                mUiBgExecutor, mBarService, mNotificationDataManager);
+                mUiBgExecutor, mMainExecutor, mClock, mBarService, mNotificationDataManager);
     }
 
     @Test
@@ -138,4 +152,136 @@ public class NotificationVisibilityLoggerTest extends SysuiTestCase {
         assertThat(previouslyVisibleCaptor.getValue().length).isEqualTo(1);
         assertThat(newlyVisibleCaptor.getValue().length).isEqualTo(0);
     }
+
+    @Test
+    public void log_noChangeSinceLastReport_doesNotNotifyStatusBarService()
+            throws RemoteException {
+        mNotificationVisibilityLogger.log(/* isVisible= */ true);
+        mUiBgExecutor.runAllReady();
+        mClock.advanceTime(NotificationVisibilityLogger.MIN_REPORT_INTERVAL_MS);
+
+        mNotificationVisibilityLogger.log(/* isVisible= */ true);
+        mUiBgExecutor.runAllReady();
+
+        verify(mBarService, times(1)).onNotificationVisibilityChanged(
+                any(NotificationVisibility[].class), any(NotificationVisibility[].class));
+        assertThat(mNotificationVisibilityLogger.getReportCount()).isEqualTo(2);
+        assertThat(mNotificationVisibilityLogger.getBinderCallsSaved()).isEqualTo(1);
+    }
+
+    @Test
+    public void log_notificationAdded_notifiesOnlyOfAddedNotification() throws RemoteException {
+        mNotificationVisibilityLogger.log(/* isVisible= */ true);
+        mUiBgExecutor.runAllReady();
+        reset(mBarService);
+        when(mNotificationDataManager.getVisibleNotifications()).thenReturn(
+                Arrays.asList(mMessageNotification, mMessageNotification2));
+        mClock.advanceTime(NotificationVisibilityLogger.MIN_REPORT_INTERVAL_MS);
+        List<String> newlyVisibleKeys = new ArrayList<>();
+        List<String> noLongerVisibleKeys = new ArrayList<>();
+        // The visibility objects are recycled after the call, so read them while it happens.
+        doAnswer(invocation -> {
+            for (NotificationVisibility visibility :
+                    (NotificationVisibility[]) invocation.getArgument(0)) {
+                newlyVisibleKeys.add(visibility.key);
+            }
+            for (NotificationVisibility visibility :
+                    (NotificationVisibility[]) invocation.getArgument(1)) {
+                noLongerVisibleKeys.add(visibility.key);
+            }
+            return null;
+        }).when(mBarService).onNotificationVisibilityChanged(any(), any());
+
+        mNotificationVisibilityLogger.log(/* isVisible= */ true);
+        mUiBgExecutor.runAllReady();
+
+        assertThat(newlyVisibleKeys).containsExactly(mMessageNotification2.getKey());
+        assertThat(noLongerVisibleKeys).isEmpty();
+    }
+
+    @Test
+    public void log_notificationVisible_visibilityObjectsRecycledAfterCall()
+            throws RemoteException {
+        ArgumentCaptor<NotificationVisibility[]> newlyVisibleCaptor =
+                ArgumentCaptor.forClass(NotificationVisibility[].class);
+
+        mNotificationVisibilityLogger.log(/* isVisible= */ true);
+        mUiBgExecutor.runAllReady();
+
+        verify(mBarService).onNotificationVisibilityChanged(
+                newlyVisibleCaptor.capture(), any(NotificationVisibility[].class));
+        assertThat(newlyVisibleCaptor.getValue().length).isEqualTo(1);
+        assertThat(newlyVisibleCaptor.getValue()[0].key).isNull();
+    }
+
+    @Test
+    public void log_burstWithinInterval_reportsOnceAfterInterval() throws RemoteException {
+        mNotificationVisibilityLogger.log(/* isVisible= */ true);
+        mUiBgExecutor.runAllReady();
+        when(mNotificationDataManager.getVisibleNotifications()).thenReturn(
+                Arrays.asList(mMessageNotification, mMessageNotification2));
+
+        for (int i = 0; i < 10; i++) {
+            mClock.advanceTime(10);
+            mNotificationVisibilityLogger.log(/* isVisible= */ true);
+        }
+        mUiBgExecutor.runAllReady();
+
+        assertThat(mNotificationVisibilityLogger.getReportCount()).isEqualTo(1);
+
+        mClock.advanceTime(NotificationVisibilityLogger.MIN_REPORT_INTERVAL_MS);
+        mMainExecutor.runAllReady();
+        mUiBgExecutor.runAllReady();
+
+        verify(mBarService, times(2)).onNotificationVisibilityChanged(
+                any(NotificationVisibility[].class), any(NotificationVisibility[].class));
+        assertThat(mNotificationVisibilityLogger.getReportCount()).isEqualTo(2);
+        assertThat(mNotificationVisibilityLogger.getLogRequestCount()).isEqualTo(11);
+        assertThat(mNotificationVisibilityLogger.getBinderCallsSaved()).isEqualTo(9);
+    }
+
+    @Test
+    public void log_isVisibleIsFalseWithinInterval_reportsImmediately() throws RemoteException {
+        mNotificationVisibilityLogger.log(/* isVisible= */ true);
+        mUiBgExecutor.runAllReady();
+        mNotificationVisibilityLogger.log(/* isVisible= */ true);
+        reset(mBarService);
+
+        mNotificationVisibilityLogger.log(/* isVisible= */ false);
+        mUiBgExecutor.runAllReady();
+
+        verify(mBarService).onNotificationVisibilityChanged(
+                any(NotificationVisibility[].class), any(NotificationVisibility[].class));
+        // The pending report was superseded by the immediate one.
+        mClock.advanceTime(NotificationVisibilityLogger.MIN_REPORT_INTERVAL_MS);
+        mMainExecutor.runAllReady();
+        assertThat(mUiBgExecutor.numPending()).isEqualTo(0);
+    }
+
+    @Test
+    public void stop_thenLog_reportsAllVisibleNotificationsAgain() throws RemoteException {
+        mNotificationVisibilityLogger.log(/* isVisible= */ true);
+        mUiBgExecutor.runAllReady();
+        reset(mBarService);
+        mNotificationVisibilityLogger.stop();
+        mClock.advanceTime(NotificationVisibilityLogger.MIN_REPORT_INTERVAL_MS);
+        ArgumentCaptor<NotificationVisibility[]> newlyVisibleCaptor =
+                ArgumentCaptor.forClass(NotificationVisibility[].class);
+
+        mNotificationVisibilityLogger.log(/* isVisible= */ true);
+        mUiBgExecutor.runAllReady();
+
+        verify(mBarService).onNotificationVisibilityChanged(
+                newlyVisibleCaptor.capture(), any(NotificationVisibility[].class));
+        assertThat(newlyVisibleCaptor.getValue().length).isEqualTo(1);
+    }
+
+    @Test
+    public void log_isVisibleIsFalse_nothingVisibleBefore_doesNotNotify() throws RemoteException {
+        mNotificationVisibilityLogger.log(/* isVisible= */ false);
+        mUiBgExecutor.runAllReady();
+
+        verify(mBarService, never()).onNotificationVisibilityChanged(
+                any(NotificationVisibility[].class), any(NotificationVisibility[].class));
+    }
 }
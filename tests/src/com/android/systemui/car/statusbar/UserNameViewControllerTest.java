@@ -18,6 +18,7 @@ package com.android.systemui.car.statusbar;
 
 import static org.junit.Assert.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
@@ -60,6 +61,7 @@ public class UserNameViewControllerTest extends SysuiTestCase {
     private final UserInfo mUserInfo2 = new UserInfo(/* id= */ 1, "Another User", /* flags= */ 0);
     private TextView mTextView;
     private UserNameViewController mUserNameViewController;
+    private CarServiceProvider mCarServiceProvider;
 
     @Mock
     private Car mCar;
@@ -80,8 +82,8 @@ public class UserNameViewControllerTest extends SysuiTestCase {
         when(mCar.isConnected()).thenReturn(true);
         when(mCar.getCarManager(Car.CAR_USER_SERVICE)).thenReturn(mCarUserManager);
 
-        CarServiceProvider carServiceProvider = new CarServiceProvider(mContext, mCar);
-        mUserNameViewController = new UserNameViewController(getContext(), carServiceProvider,
+        mCarServiceProvider = new CarServiceProvider(mContext, mCar);
+        mUserNameViewController = new UserNameViewController(getContext(), mCarServiceProvider,
                 mUserManager, mBroadcastDispatcher, mCarDeviceProvisionedController);
 
         mTextView = new TextView(getContext());
@@ -108,6 +110,17 @@ public class UserNameViewControllerTest extends SysuiTestCase {
         verifyZeroInteractions(mUserManager);
     }
 
+    @Test
+    public void refreshUser_currentUserChanged_updatesUserNameView() {
+        when(mCarDeviceProvisionedController.getCurrentUser()).thenReturn(mUserInfo1.id);
+        mUserNameViewController.addUserNameView(mTextView);
+
+        when(mCarDeviceProvisionedController.getCurrentUser()).thenReturn(mUserInfo2.id);
+        mUserNameViewController.refreshUser();
+
+        assertEquals(mTextView.getText(), mUserInfo2.name);
+    }
+
     @Test
     public void removeAll_withNoRegisteredListener_doesNotUnregister() {
         mUserNameViewController.removeAll();
@@ -133,6 +146,19 @@ public class UserNameViewControllerTest extends SysuiTestCase {
         assertEquals(mTextView.getText(), mUserInfo2.name);
     }
 
+    @Test
+    public void carServiceRestarted_userLifecycleListenerAddedToNewManager() {
+        when(mCarDeviceProvisionedController.getCurrentUser()).thenReturn(mUserInfo1.id);
+        mUserNameViewController.addUserNameView(mTextView);
+        CarUserManager newCarUserManager = mock(CarUserManager.class);
+
+        mCarServiceProvider.onCarServiceLifecycleChanged(mCar, /* ready= */ false);
+        when(mCar.getCarManager(Car.CAR_USER_SERVICE)).thenReturn(newCarUserManager);
+        mCarServiceProvider.onCarServiceLifecycleChanged(mCar, /* ready= */ true);
+
+        verify(newCarUserManager).addListener(any(), any());
+    }
+
     @Test
     public void userInfoChangedBroadcast_withoutInitializingUserNameView_doesNothing() {
         getContext().sendBroadcast(new Intent(Intent.ACTION_USER_INFO_CHANGED));
@@ -30,6 +30,8 @@ import androidx.test.filters.SmallTest;
 import com.android.systemui.SysuiTestCase;
 import com.android.systemui.car.CarSystemUiTest;
 import com.android.systemui.tests.R;
+import com.android.systemui.util.concurrency.FakeExecutor;
+import com.android.systemui.util.time.FakeSystemClock;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -56,6 +58,8 @@ public class ButtonSelectionStateControllerTest extends SysuiTestCase {
     private LinearLayout mTestView;
     private ButtonSelectionStateController mButtonSelectionStateController;
     private ComponentName mComponentName;
+    private FakeExecutor mBackgroundExecutor;
+    private FakeExecutor mMainExecutor;
 
     @Before
     public void setUp() {
@@ -63,7 +67,10 @@ public class ButtonSelectionStateControllerTest extends SysuiTestCase {
 
         mTestView = (LinearLayout) LayoutInflater.from(mContext).inflate(
                 R.layout.car_button_selection_state_controller_test, /* root= */ null);
-        mButtonSelectionStateController = new ButtonSelectionStateController(mContext);
+        mBackgroundExecutor = new FakeExecutor(new FakeSystemClock());
+        mMainExecutor = new FakeExecutor(new FakeSystemClock());
+        mButtonSelectionStateController = new ButtonSelectionStateController(mContext,
+                new PackageCategoryIndex(mContext, mBackgroundExecutor, mMainExecutor));
         mButtonSelectionStateController.addAllButtonsWithSelectionState(mTestView);
     }
 
@@ -84,11 +91,23 @@ public class ButtonSelectionStateControllerTest extends SysuiTestCase {
         mComponentName = new ComponentName(TEST_CATEGORY, TEST_CATEGORY_CLASS);
         List<RootTaskInfo> testStack = createTestStack(mComponentName);
         testButton.setSelected(false);
+        buildPackageCategoryIndex();
         mButtonSelectionStateController.taskChanged(testStack, /* validDisplay= */ -1);
 
         assertbuttonSelected(testButton);
     }
 
+    @Test
+    public void onTaskChanged_categoryIndexNotBuilt_doesNotSelectButtonByCategory() {
+        CarSystemBarButton testButton = mTestView.findViewById(R.id.detectable_by_category);
+        mComponentName = new ComponentName(TEST_CATEGORY, TEST_CATEGORY_CLASS);
+        List<RootTaskInfo> testStack = createTestStack(mComponentName);
+        testButton.setSelected(false);
+        mButtonSelectionStateController.taskChanged(testStack, /* validDisplay= */ -1);
+
+        assertButtonUnselected(testButton);
+    }
+
     @Test
     public void onTaskChanged_buttonDetectableByPackage_selectsAssociatedButton() {
         CarSystemBarButton testButton = mTestView.findViewById(R.id.detectable_by_package);
@@ -115,6 +134,13 @@ public class ButtonSelectionStateControllerTest extends SysuiTestCase {
         assertButtonUnselected(oldButton);
     }
 
+    private void buildPackageCategoryIndex() {
+        // Schedule the build, query the package manager, then publish the index.
+        mMainExecutor.runAllReady();
+        mBackgroundExecutor.runAllReady();
+        mMainExecutor.runAllReady();
+    }
+
     // Comparing alpha is a valid way to verify button selection state because all test buttons use
     // highlightWhenSelected = true.
     private void assertbuttonSelected(CarSystemBarButton button) {
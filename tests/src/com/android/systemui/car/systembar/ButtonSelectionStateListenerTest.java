@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.car.systembar;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.app.ActivityManager.RunningTaskInfo;
+import android.app.ActivityTaskManager.RootTaskInfo;
+import android.content.ComponentName;
+import android.testing.AndroidTestingRunner;
+import android.testing.TestableLooper;
+import android.view.Choreographer;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.systemui.SysuiTestCase;
+import com.android.systemui.car.CarSystemUiTest;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@CarSystemUiTest
+@RunWith(AndroidTestingRunner.class)
+@TestableLooper.RunWithLooper
+@SmallTest
+public class ButtonSelectionStateListenerTest extends SysuiTestCase {
+
+    private static final ComponentName TEST_COMPONENT_1 = new ComponentName("pkg1", "cls1");
+    private static final ComponentName TEST_COMPONENT_2 = new ComponentName("pkg2", "cls2");
+
+    @Mock
+    private ButtonSelectionStateController mButtonSelectionStateController;
+    @Mock
+    private PackageCategoryIndex mPackageCategoryIndex;
+
+    private ButtonSelectionStateListener mButtonSelectionStateListener;
+    private List<RootTaskInfo> mRootTaskInfos;
+    private int mFrameCallbacksPosted;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+
+        mRootTaskInfos = new ArrayList<>();
+        mRootTaskInfos.add(createRootTaskInfo(/* taskId= */ 1, TEST_COMPONENT_1));
+        mRootTaskInfos.add(createRootTaskInfo(/* taskId= */ 2, TEST_COMPONENT_2));
+        mButtonSelectionStateListener = new ButtonSelectionStateListener(
+                mButtonSelectionStateController, mPackageCategoryIndex) {
+            @Override
+            List<RootTaskInfo> fetchRootTaskInfos() {
+                return new ArrayList<>(mRootTaskInfos);
+            }
+
+            @Override
+            void postFrameCallback(Choreographer.FrameCallback callback) {
+                mFrameCallbacksPosted++;
+            }
+        };
+    }
+
+    @Test
+    public void onTaskStackChanged_burst_fetchesOnceAndUpdatesOnce() {
+        for (int i = 0; i < 10; i++) {
+            mButtonSelectionStateListener.onTaskStackChanged();
+        }
+        mButtonSelectionStateListener.flushPendingUpdate();
+
+        assertThat(mFrameCallbacksPosted).isEqualTo(1);
+        assertThat(mButtonSelectionStateListener.getSnapshotFetchCount()).isEqualTo(1);
+        verify(mButtonSelectionStateController, times(1)).taskChanged(anyList());
+    }
+
+    @Test
+    public void onTaskMovedToFront_knownTask_appliesDeltaWithoutFetching() {
+        mButtonSelectionStateListener.onTaskStackChanged();
+        mButtonSelectionStateListener.flushPendingUpdate();
+
+        RunningTaskInfo taskInfo = new RunningTaskInfo();
+        taskInfo.taskId = 2;
+        taskInfo.topActivity = TEST_COMPONENT_2;
+        mButtonSelectionStateListener.onTaskMovedToFront(taskInfo);
+        mButtonSelectionStateListener.flushPendingUpdate();
+
+        assertThat(mButtonSelectionStateListener.getSnapshotFetchCount()).isEqualTo(1);
+        assertThat(mButtonSelectionStateListener.getDeltaCount()).isEqualTo(1);
+        ArgumentCaptor<List<RootTaskInfo>> captor = ArgumentCaptor.forClass(List.class);
+        verify(mButtonSelectionStateController, times(2)).taskChanged(captor.capture());
+        assertThat(captor.getValue().get(0).taskId).isEqualTo(2);
+    }
+
+    @Test
+    public void onTaskMovedToFront_unknownTask_fetchesSnapshot() {
+        mButtonSelectionStateListener.onTaskStackChanged();
+        mButtonSelectionStateListener.flushPendingUpdate();
+
+        RunningTaskInfo taskInfo = new RunningTaskInfo();
+        taskInfo.taskId = 3;
+        taskInfo.topActivity = TEST_COMPONENT_2;
+        mButtonSelectionStateListener.onTaskMovedToFront(taskInfo);
+        mButtonSelectionStateListener.flushPendingUpdate();
+
+        assertThat(mButtonSelectionStateListener.getSnapshotFetchCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void onTaskRemoved_knownRootTask_appliesDeltaWithoutFetching() {
+        mButtonSelectionStateListener.onTaskStackChanged();
+        mButtonSelectionStateListener.flushPendingUpdate();
+
+        mButtonSelectionStateListener.onTaskRemoved(/* taskId= */ 1);
+        mButtonSelectionStateListener.flushPendingUpdate();
+
+        assertThat(mButtonSelectionStateListener.getSnapshotFetchCount()).isEqualTo(1);
+        ArgumentCaptor<List<RootTaskInfo>> captor = ArgumentCaptor.forClass(List.class);
+        verify(mButtonSelectionStateController, times(2)).taskChanged(captor.capture());
+        assertThat(captor.getValue()).hasSize(1);
+        assertThat(captor.getValue().get(0).taskId).isEqualTo(2);
+    }
+
+    @Test
+    public void onTaskDisplayChanged_knownRootTask_updatesDisplayWithoutFetching() {
+        mButtonSelectionStateListener.onTaskStackChanged();
+        mButtonSelectionStateListener.flushPendingUpdate();
+
+        mButtonSelectionStateListener.onTaskDisplayChanged(/* taskId= */ 1, /* newDisplayId= */ 2);
+        mButtonSelectionStateListener.flushPendingUpdate();
+
+        assertThat(mButtonSelectionStateListener.getSnapshotFetchCount()).isEqualTo(1);
+        ArgumentCaptor<List<RootTaskInfo>> captor = ArgumentCaptor.forClass(List.class);
+        verify(mButtonSelectionStateController, times(2)).taskChanged(captor.capture());
+        assertThat(captor.getValue().get(0).displayId).isEqualTo(2);
+    }
+
+    @Test
+    public void onPackageCategoryIndexChanged_reappliesSnapshotWithoutFetching() {
+        ArgumentCaptor<PackageCategoryIndex.OnIndexChangedListener> listenerCaptor =
+                ArgumentCaptor.forClass(PackageCategoryIndex.OnIndexChangedListener.class);
+        verify(mPackageCategoryIndex).addListener(listenerCaptor.capture());
+        mButtonSelectionStateListener.onTaskStackChanged();
+        mButtonSelectionStateListener.flushPendingUpdate();
+
+        listenerCaptor.getValue().onIndexChanged();
+        mButtonSelectionStateListener.flushPendingUpdate();
+
+        assertThat(mButtonSelectionStateListener.getSnapshotFetchCount()).isEqualTo(1);
+        verify(mButtonSelectionStateController, times(2)).taskChanged(anyList());
+    }
+
+    @Test
+    public void flushPendingUpdate_noPendingCallbacks_doesNotUpdate() {
+        mButtonSelectionStateListener.flushPendingUpdate();
+
+        verify(mButtonSelectionStateController, never()).taskChanged(anyList());
+    }
+
+    private RootTaskInfo createRootTaskInfo(int taskId, ComponentName topActivity) {
+        RootTaskInfo rootTaskInfo = new RootTaskInfo();
+        rootTaskInfo.taskId = taskId;
+        rootTaskInfo.childTaskIds = new int[]{taskId};
+        rootTaskInfo.displayId = 0;
+        rootTaskInfo.topActivity = topActivity;
+        return rootTaskInfo;
+    }
+}
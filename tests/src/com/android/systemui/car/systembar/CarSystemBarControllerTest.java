@@ -18,7 +18,9 @@ package com.android.systemui.car.systembar;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 import android.testing.AndroidTestingRunner;
@@ -37,6 +39,8 @@ import com.android.systemui.car.statusbar.UserNameViewController;
 import com.android.systemui.plugins.DarkIconDispatcher;
 import com.android.systemui.statusbar.FeatureFlags;
 import com.android.systemui.statusbar.phone.StatusBarIconController;
+import com.android.systemui.util.concurrency.FakeExecutor;
+import com.android.systemui.util.time.FakeSystemClock;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -57,6 +61,8 @@ public class CarSystemBarControllerTest extends SysuiTestCase {
     private CarSystemBarController mCarSystemBar;
     private CarSystemBarViewFactory mCarSystemBarViewFactory;
     private TestableResources mTestableResources;
+    private FakeExecutor mBackgroundExecutor;
+    private FakeExecutor mMainExecutor;
 
     @Mock
     private ButtonSelectionStateController mButtonSelectionStateController;
@@ -76,8 +82,10 @@ public class CarSystemBarControllerTest extends SysuiTestCase {
     @Before
     public void setUp() throws Exception {
         MockitoAnnotations.initMocks(this);
+        mBackgroundExecutor = new FakeExecutor(new FakeSystemClock());
+        mMainExecutor = new FakeExecutor(new FakeSystemClock());
         mCarSystemBarViewFactory = new CarSystemBarViewFactory(
-                mContext, mFeatureFlags, mIconController);
+                mContext, mFeatureFlags, mIconController, mBackgroundExecutor, mMainExecutor);
         mTestableResources = mContext.getOrCreateTestableResources();
 
         // Needed to inflate top navigation bar.
@@ -139,6 +147,25 @@ public class CarSystemBarControllerTest extends SysuiTestCase {
         verify(mPrivacyChipViewController).removeAll();
     }
 
+    @Test
+    public void testRefreshAll_refreshesRoleHolderIcons() {
+        mCarSystemBar = createSystemBarController();
+
+        mCarSystemBar.refreshAll();
+
+        verify(mButtonRoleHolderController).updateAllIcons();
+    }
+
+    @Test
+    public void testRefreshAll_refreshesUserNameAndPrivacyChip() {
+        mCarSystemBar = createSystemBarController();
+
+        mCarSystemBar.refreshAll();
+
+        verify(mUserNameViewController).refreshUser();
+        verify(mPrivacyChipViewController).refreshUser();
+    }
+
     @Test
     public void testGetTopWindow_topDisabled_returnsNull() {
         mTestableResources.addOverride(R.bool.config_enableTopSystemBar, false);
@@ -415,6 +442,66 @@ public class CarSystemBarControllerTest extends SysuiTestCase {
         assertThat(controller).isNotNull();
     }
 
+    @Test
+    public void testGetBottomBar_calledTwice_registersViewsOnce() {
+        mTestableResources.addOverride(R.bool.config_enableBottomSystemBar, true);
+        mCarSystemBar = createSystemBarController();
+
+        mCarSystemBar.getBottomBar(/* isSetUp= */ true);
+        mCarSystemBar.getBottomBar(/* isSetUp= */ true);
+
+        verify(mHvacController, times(1)).addTemperatureViewsToController(any());
+    }
+
+    @Test
+    public void testGetBottomBar_afterRemoveAll_registersViewsAgain() {
+        mTestableResources.addOverride(R.bool.config_enableBottomSystemBar, true);
+        mCarSystemBar = createSystemBarController();
+
+        mCarSystemBar.getBottomBar(/* isSetUp= */ true);
+        mCarSystemBar.removeAll();
+        mCarSystemBar.getBottomBar(/* isSetUp= */ true);
+
+        verify(mHvacController, times(2)).addTemperatureViewsToController(any());
+    }
+
+    @Test
+    public void testPrewarmBars_bottomEnabled_inflatesInBackground() {
+        mTestableResources.addOverride(R.bool.config_enableBottomSystemBar, true);
+        mCarSystemBar = createSystemBarController();
+
+        mCarSystemBar.prewarmBars(/* isSetUp= */ true);
+
+        assertThat(mBackgroundExecutor.numPending()).isEqualTo(1);
+        mBackgroundExecutor.runAllReady();
+        mMainExecutor.runAllReady();
+        assertThat(mCarSystemBar.getBottomBar(/* isSetUp= */ true)).isNotNull();
+    }
+
+    @Test
+    public void testPrewarmBars_barAlreadyCached_doesNotInflateAgain() {
+        mTestableResources.addOverride(R.bool.config_enableBottomSystemBar, true);
+        mCarSystemBar = createSystemBarController();
+        mCarSystemBar.getBottomBar(/* isSetUp= */ true);
+
+        mCarSystemBar.prewarmBars(/* isSetUp= */ true);
+
+        assertThat(mBackgroundExecutor.numPending()).isEqualTo(0);
+    }
+
+    @Test
+    public void testPrewarmBars_barRequestedBeforeInflationDone_keepsMainThreadBar() {
+        mTestableResources.addOverride(R.bool.config_enableBottomSystemBar, true);
+        mCarSystemBar = createSystemBarController();
+
+        mCarSystemBar.prewarmBars(/* isSetUp= */ true);
+        CarSystemBarView bottomBar = mCarSystemBar.getBottomBar(/* isSetUp= */ true);
+        mBackgroundExecutor.runAllReady();
+        mMainExecutor.runAllReady();
+
+        assertThat(mCarSystemBar.getBottomBar(/* isSetUp= */ true)).isSameInstanceAs(bottomBar);
+    }
+
     @Test
     public void testShowAllNavigationButtons_bottomEnabled_bottomNavigationButtonsVisible() {
         mTestableResources.addOverride(R.bool.config_enableBottomSystemBar, true);
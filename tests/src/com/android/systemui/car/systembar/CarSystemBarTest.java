@@ -25,6 +25,7 @@ import static android.view.WindowInsetsController.BEHAVIOR_DEFAULT;
 import static com.google.common.truth.Truth.assertThat;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -109,14 +110,12 @@ public class CarSystemBarTest extends SysuiTestCase {
 
     private RegisterStatusBarResult mBarResult;
     private AppearanceRegion[] mAppearanceRegions;
-    private FakeExecutor mUiBgExecutor;
 
     @Before
     public void setUp() {
         MockitoAnnotations.initMocks(this);
         mTestableResources = mContext.getOrCreateTestableResources();
         mExecutor = new FakeExecutor(new FakeSystemClock());
-        mUiBgExecutor = new FakeExecutor(new FakeSystemClock());
         when(mStatusBarIconController.getTransitionsController()).thenReturn(
                 mLightBarTransitionsController);
         mAppearanceRegions = new AppearanceRegion[]{
@@ -144,12 +143,24 @@ public class CarSystemBarTest extends SysuiTestCase {
         mCarSystemBar = new CarSystemBar(mContext, mCarSystemBarController, mLightBarController,
                 mStatusBarIconController, mWindowManager, mDeviceProvisionedController,
                 new CommandQueue(mContext), mAutoHideController, mButtonSelectionStateListener,
-                mExecutor, mUiBgExecutor, mBarService, () -> mKeyguardStateController,
+                mExecutor, mBarService, () -> mKeyguardStateController,
                 () -> mIconPolicy, mSignalPolicy,
                 new SystemBarConfigs(mTestableResources.getResources()));
         mCarSystemBar.setSignalPolicy(mSignalPolicy);
     }
 
+    @Test
+    public void start_connectsToHvacOnMainExecutor() {
+        mTestableResources.addOverride(R.bool.config_enableTopSystemBar, true);
+        mCarSystemBar.start();
+
+        verify(mCarSystemBarController, never()).connectToHvac();
+
+        waitForDelayableExecutor();
+
+        verify(mCarSystemBarController).connectToHvac();
+    }
+
     @Test
     public void restartNavbars_refreshesTaskChanged() {
         mTestableResources.addOverride(R.bool.config_enableTopSystemBar, true);
@@ -169,6 +180,48 @@ public class CarSystemBarTest extends SysuiTestCase {
         verify(mButtonSelectionStateListener).onTaskStackChanged();
     }
 
+    @Test
+    public void restartNavBars_sameBarVariant_keepsBarsAndRefreshesState() {
+        mTestableResources.addOverride(R.bool.config_enableTopSystemBar, true);
+        mTestableResources.addOverride(R.bool.config_enableBottomSystemBar, true);
+        ArgumentCaptor<CarDeviceProvisionedController.DeviceProvisionedListener>
+                deviceProvisionedCallbackCaptor = ArgumentCaptor.forClass(
+                CarDeviceProvisionedController.DeviceProvisionedListener.class);
+        when(mDeviceProvisionedController.isCurrentUserSetup()).thenReturn(false);
+        when(mDeviceProvisionedController.isCurrentUserSetupInProgress()).thenReturn(false);
+        mCarSystemBar.start();
+        // Setup going in progress restarts the navbars but keeps the unprovisioned variant.
+        when(mDeviceProvisionedController.isCurrentUserSetupInProgress()).thenReturn(true);
+        verify(mDeviceProvisionedController).addCallback(deviceProvisionedCallbackCaptor.capture());
+
+        deviceProvisionedCallbackCaptor.getValue().onUserSetupInProgressChanged();
+        waitForDelayableExecutor();
+
+        verify(mCarSystemBarController, never()).removeAll();
+        verify(mCarSystemBarController).refreshAll();
+    }
+
+    @Test
+    public void restartNavBars_differentBarVariant_rebuildsBars() {
+        mTestableResources.addOverride(R.bool.config_enableTopSystemBar, true);
+        mTestableResources.addOverride(R.bool.config_enableBottomSystemBar, true);
+        ArgumentCaptor<CarDeviceProvisionedController.DeviceProvisionedListener>
+                deviceProvisionedCallbackCaptor = ArgumentCaptor.forClass(
+                CarDeviceProvisionedController.DeviceProvisionedListener.class);
+        when(mDeviceProvisionedController.isCurrentUserSetup()).thenReturn(true);
+        mCarSystemBar.start();
+        // switching the currentUserSetup value to force restart the navbars.
+        when(mDeviceProvisionedController.isCurrentUserSetup()).thenReturn(false);
+        verify(mDeviceProvisionedController).addCallback(deviceProvisionedCallbackCaptor.capture());
+
+        deviceProvisionedCallbackCaptor.getValue().onUserSwitched();
+        waitForDelayableExecutor();
+
+        verify(mCarSystemBarController).removeAll();
+        verify(mCarSystemBarController).getTopBar(false);
+        verify(mCarSystemBarController, never()).refreshAll();
+    }
+
     @Test
     public void restartNavBars_newUserNotSetupWithKeyguardShowing_showsKeyguardButtons() {
         mTestableResources.addOverride(R.bool.config_enableTopSystemBar, true);
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.car.systembar;
+
+import android.os.SystemClock;
+import android.testing.AndroidTestingRunner;
+import android.testing.TestableLooper;
+import android.util.Log;
+import android.view.View;
+
+import androidx.test.filters.LargeTest;
+
+import com.android.systemui.R;
+import com.android.systemui.SysuiTestCase;
+import com.android.systemui.plugins.DarkIconDispatcher;
+import com.android.systemui.statusbar.phone.StatusBarIconController;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the cost of building a {@link CarSystemBarViewRegistry} with the per-controller walks
+ * that {@link CarSystemBarController} used to do for each bar. Results are logged; this class is
+ * not annotated with {@link com.android.systemui.car.CarSystemUiTest} so it stays out of
+ * presubmit.
+ */
+@RunWith(AndroidTestingRunner.class)
+@TestableLooper.RunWithLooper
+@LargeTest
+public class CarSystemBarViewRegistryBenchmark extends SysuiTestCase {
+    private static final String TAG = "CarSystemBarViewRegistryBenchmark";
+    private static final int BENCHMARK_ITERATIONS = 200;
+
+    @Before
+    public void setUp() {
+        // Needed to inflate top navigation bar.
+        mDependency.injectMockDependency(DarkIconDispatcher.class);
+        mDependency.injectMockDependency(StatusBarIconController.class);
+    }
+
+    @Test
+    public void benchmark_stockLayouts() {
+        List<View> bars = new ArrayList<>();
+        for (int layout : CarSystemBarViewRegistryTest.STOCK_BAR_LAYOUTS) {
+            bars.add(CarSystemBarViewRegistryTest.inflate(mContext, layout));
+        }
+
+        logBenchmark("stock layouts", bars);
+    }
+
+    @Test
+    public void benchmark_fourBarsWithFortyButtons() {
+        logBenchmark("4 bars, 40 buttons",
+                CarSystemBarViewRegistryTest.createBarsWithButtons(mContext));
+    }
+
+    private void logBenchmark(String name, List<View> bars) {
+        // Warm up both paths before measuring.
+        runSinglePass(bars);
+        runPerControllerPasses(bars);
+
+        long singlePassNanos = runSinglePass(bars);
+        long perControllerNanos = runPerControllerPasses(bars);
+
+        Log.i(TAG, name + ": single pass " + singlePassNanos / BENCHMARK_ITERATIONS
+                + "ns/rebuild, per-controller passes " + perControllerNanos / BENCHMARK_ITERATIONS
+                + "ns/rebuild");
+    }
+
+    private long runSinglePass(List<View> bars) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            for (View bar : bars) {
+                CarSystemBarViewRegistry.build(bar);
+            }
+        }
+        return SystemClock.elapsedRealtimeNanos() - start;
+    }
+
+    // The five walks that CarSystemBarController#setupBar used to trigger for each bar.
+    private long runPerControllerPasses(List<View> bars) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            for (View bar : bars) {
+                CarSystemBarViewRegistryTest.collectButtons(bar);
+                CarSystemBarViewRegistryTest.collectButtons(bar);
+                CarSystemBarViewRegistryTest.collectTemperatureViews(bar);
+                bar.findViewById(R.id.user_name_text);
+                bar.findViewById(R.id.privacy_chip);
+            }
+        }
+        return SystemClock.elapsedRealtimeNanos() - start;
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.car.systembar;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import android.testing.AndroidTestingRunner;
+import android.testing.TestableLooper;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.LinearLayout;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.systemui.R;
+import com.android.systemui.SysuiTestCase;
+import com.android.systemui.car.CarSystemUiTest;
+import com.android.systemui.car.hvac.TemperatureView;
+import com.android.systemui.plugins.DarkIconDispatcher;
+import com.android.systemui.statusbar.phone.StatusBarIconController;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@CarSystemUiTest
+@RunWith(AndroidTestingRunner.class)
+@TestableLooper.RunWithLooper
+@SmallTest
+public class CarSystemBarViewRegistryTest extends SysuiTestCase {
+    static final int BUTTONS_PER_BAR = 10;
+
+    static final int[] STOCK_BAR_LAYOUTS = {
+            R.layout.car_top_system_bar,
+            R.layout.car_bottom_system_bar,
+            R.layout.car_left_system_bar,
+            R.layout.car_right_system_bar
+    };
+
+    @Before
+    public void setUp() {
+        // Needed to inflate top navigation bar.
+        mDependency.injectMockDependency(DarkIconDispatcher.class);
+        mDependency.injectMockDependency(StatusBarIconController.class);
+    }
+
+    @Test
+    public void build_collectsSameViewsAsPerControllerTraversals() {
+        for (int layout : STOCK_BAR_LAYOUTS) {
+            View bar = inflate(layout);
+
+            CarSystemBarViewRegistry registry = CarSystemBarViewRegistry.build(bar);
+
+            assertThat(registry.getButtons()).containsExactlyElementsIn(collectButtons(bar));
+            assertThat(registry.getTemperatureViews()).containsExactlyElementsIn(
+                    collectTemperatureViews(bar));
+            assertThat(registry.getUserNameView()).isSameInstanceAs(
+                    bar.findViewById(R.id.user_name_text));
+            assertThat(registry.getPrivacyChipView()).isSameInstanceAs(
+                    bar.findViewById(R.id.privacy_chip));
+        }
+    }
+
+    @Test
+    public void build_fourBarsWithTenButtonsEach_collectsAllButtons() {
+        List<View> bars = createBarsWithButtons();
+
+        int buttonCount = 0;
+        for (View bar : bars) {
+            buttonCount += CarSystemBarViewRegistry.build(bar).getButtons().size();
+        }
+
+        assertThat(buttonCount).isEqualTo(bars.size() * BUTTONS_PER_BAR);
+    }
+
+    @Test
+    public void build_walksEachViewGroupOnce() {
+        CountingLinearLayout bar = new CountingLinearLayout(mContext);
+        CountingLinearLayout group = new CountingLinearLayout(mContext);
+        group.addView(new View(mContext));
+        group.addView(new View(mContext));
+        bar.addView(group);
+        bar.addView(new View(mContext));
+        bar.mChildLookups = 0;
+        group.mChildLookups = 0;
+
+        CarSystemBarViewRegistry.build(bar);
+
+        assertThat(bar.mChildLookups).isEqualTo(bar.getChildCount());
+        assertThat(group.mChildLookups).isEqualTo(group.getChildCount());
+    }
+
+    @Test
+    public void getViewRegistry_calledTwice_returnsSameRegistry() {
+        CarSystemBarView bar = (CarSystemBarView) inflate(R.layout.car_bottom_system_bar);
+
+        assertThat(bar.getViewRegistry()).isSameInstanceAs(bar.getViewRegistry());
+    }
+
+    private List<View> createBarsWithButtons() {
+        return createBarsWithButtons(mContext);
+    }
+
+    private View inflate(int layout) {
+        return inflate(mContext, layout);
+    }
+
+    static List<View> createBarsWithButtons(Context context) {
+        List<View> bars = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            LinearLayout bar = new LinearLayout(context);
+            while (CarSystemBarViewRegistry.build(bar).getButtons().size() < BUTTONS_PER_BAR) {
+                ViewGroup buttons = (ViewGroup) inflate(context,
+                        R.layout.car_button_selection_state_controller_test);
+                while (buttons.getChildCount() > 0
+                        && CarSystemBarViewRegistry.build(bar).getButtons().size()
+                        < BUTTONS_PER_BAR) {
+                    View button = buttons.getChildAt(0);
+                    buttons.removeViewAt(0);
+                    bar.addView(button);
+                }
+            }
+            bars.add(bar);
+        }
+        return bars;
+    }
+
+    static View inflate(Context context, int layout) {
+        return LayoutInflater.from(context).inflate(layout, /* root= */ null);
+    }
+
+    static List<CarSystemBarButton> collectButtons(View v) {
+        List<CarSystemBarButton> buttons = new ArrayList<>();
+        collectButtons(v, buttons);
+        return buttons;
+    }
+
+    private static void collectButtons(View v, List<CarSystemBarButton> buttons) {
+        if (v instanceof CarSystemBarButton) {
+            buttons.add((CarSystemBarButton) v);
+        } else if (v instanceof ViewGroup) {
+            ViewGroup viewGroup = (ViewGroup) v;
+            for (int i = 0; i < viewGroup.getChildCount(); i++) {
+                collectButtons(viewGroup.getChildAt(i), buttons);
+            }
+        }
+    }
+
+    static List<TemperatureView> collectTemperatureViews(View v) {
+        List<TemperatureView> views = new ArrayList<>();
+        collectTemperatureViews(v, views);
+        return views;
+    }
+
+    private static void collectTemperatureViews(View v, List<TemperatureView> views) {
+        if (v instanceof TemperatureView) {
+            views.add((TemperatureView) v);
+        } else if (v instanceof ViewGroup) {
+            ViewGroup viewGroup = (ViewGroup) v;
+            for (int i = 0; i < viewGroup.getChildCount(); i++) {
+                collectTemperatureViews(viewGroup.getChildAt(i), views);
+            }
+        }
+    }
+
+    private static class CountingLinearLayout extends LinearLayout {
+        private int mChildLookups;
+
+        CountingLinearLayout(Context context) {
+            super(context);
+        }
+
+        @Override
+        public View getChildAt(int index) {
+            mChildLookups++;
+            return super.getChildAt(index);
+        }
+    }
+}
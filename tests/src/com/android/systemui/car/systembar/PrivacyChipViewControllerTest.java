@@ -22,6 +22,7 @@ import static com.google.common.truth.Truth.assertThat;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.spy;
@@ -71,6 +72,7 @@ import java.util.concurrent.Executor;
 public class PrivacyChipViewControllerTest extends SysuiTestCase {
 
     private PrivacyChipViewController mPrivacyChipViewController;
+    private CarServiceProvider mCarServiceProvider;
     private FrameLayout mFrameLayout;
     private MicPrivacyChip mMicPrivacyChip;
 
@@ -120,10 +122,10 @@ public class PrivacyChipViewControllerTest extends SysuiTestCase {
         when(mCar.isConnected()).thenReturn(true);
         when(mCar.getCarManager(Car.CAR_USER_SERVICE)).thenReturn(mCarUserManager);
 
-        CarServiceProvider carServiceProvider = new CarServiceProvider(mContext, mCar);
+        mCarServiceProvider = new CarServiceProvider(mContext, mCar);
 
         mPrivacyChipViewController =
-                new PrivacyChipViewController(mContext, mPrivacyItemController, carServiceProvider,
+                new PrivacyChipViewController(mContext, mPrivacyItemController, mCarServiceProvider,
                         mBroadcastDispatcher, mSensorPrivacyManager,
                         mCarDeviceProvisionedController, mMicPrivacyChipDialogController);
         mMicPrivacyChip.setId(R.id.privacy_chip);
@@ -305,4 +307,16 @@ public class PrivacyChipViewControllerTest extends SysuiTestCase {
 
         verify(mMicPrivacyChip).setMicrophoneEnabled(eq(true));
     }
+
+    @Test
+    public void carServiceRestarted_userLifecycleListenerAddedToNewManager() {
+        mPrivacyChipViewController.addPrivacyChipView(mFrameLayout);
+        CarUserManager newCarUserManager = mock(CarUserManager.class);
+
+        mCarServiceProvider.onCarServiceLifecycleChanged(mCar, /* ready= */ false);
+        when(mCar.getCarManager(Car.CAR_USER_SERVICE)).thenReturn(newCarUserManager);
+        mCarServiceProvider.onCarServiceLifecycleChanged(mCar, /* ready= */ true);
+
+        verify(newCarUserManager).addListener(any(), any());
+    }
 }
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.car.userswitcher;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.BroadcastReceiver;
+import android.content.Intent;
+import android.content.pm.UserInfo;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.UserManager;
+import android.testing.AndroidTestingRunner;
+import android.testing.TestableLooper;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.systemui.SysuiTestCase;
+import com.android.systemui.broadcast.BroadcastDispatcher;
+import com.android.systemui.car.CarSystemUiTest;
+import com.android.systemui.util.concurrency.FakeExecutor;
+import com.android.systemui.util.time.FakeSystemClock;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@CarSystemUiTest
+@RunWith(AndroidTestingRunner.class)
+@TestableLooper.RunWithLooper
+@SmallTest
+public class UserAvatarCacheTest extends SysuiTestCase {
+    private static final int TEST_USER_ID = 10;
+    private static final int ICON_SIZE = 64;
+    private static final int AVATAR_SIZE = 32;
+    private static final int OTHER_AVATAR_SIZE = 48;
+
+    private UserAvatarCache mUserAvatarCache;
+    private FakeExecutor mBackgroundExecutor;
+    private FakeExecutor mMainExecutor;
+    private final List<Drawable> mAvatars = new ArrayList<>();
+
+    @Mock
+    private UserManager mUserManager;
+    @Mock
+    private BroadcastDispatcher mBroadcastDispatcher;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        when(mUserManager.getUserInfo(TEST_USER_ID)).thenReturn(
+                new UserInfo(TEST_USER_ID, "user", /* flags= */ 0));
+        when(mUserManager.getUserIcon(TEST_USER_ID)).thenReturn(
+                Bitmap.createBitmap(ICON_SIZE, ICON_SIZE, Bitmap.Config.ARGB_8888));
+
+        FakeSystemClock clock = new FakeSystemClock();
+        mBackgroundExecutor = new FakeExecutor(clock);
+        mMainExecutor = new FakeExecutor(clock);
+        mUserAvatarCache = new UserAvatarCache(mContext.getResources(), mUserManager,
+                mBroadcastDispatcher, mBackgroundExecutor, mMainExecutor);
+    }
+
+    @Test
+    public void loadAvatar_decodedOnBackgroundAndDeliveredOnMain() {
+        loadAvatar(AVATAR_SIZE);
+        assertThat(mAvatars).isEmpty();
+
+        mBackgroundExecutor.runAllReady();
+        assertThat(mAvatars).isEmpty();
+        mMainExecutor.runAllReady();
+
+        assertThat(mAvatars).hasSize(1);
+        Bitmap avatar = ((BitmapDrawable) mAvatars.get(0)).getBitmap();
+        assertThat(avatar.getWidth()).isEqualTo(AVATAR_SIZE);
+        assertThat(avatar.getHeight()).isEqualTo(AVATAR_SIZE);
+    }
+
+    @Test
+    public void loadAvatar_cached_deliveredRightAwayWithoutDecoding() {
+        loadAvatar(AVATAR_SIZE);
+        runAll();
+
+        loadAvatar(AVATAR_SIZE);
+
+        assertThat(mAvatars).hasSize(2);
+        assertThat(mUserAvatarCache.getDecodeCount()).isEqualTo(1);
+        verify(mUserManager, times(1)).getUserIcon(TEST_USER_ID);
+    }
+
+    @Test
+    public void loadAvatar_pending_decodedOnce() {
+        loadAvatar(AVATAR_SIZE);
+        loadAvatar(AVATAR_SIZE);
+        runAll();
+
+        assertThat(mAvatars).hasSize(2);
+        assertThat(mAvatars.get(0)).isNotSameInstanceAs(mAvatars.get(1));
+        assertThat(mUserAvatarCache.getDecodeCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void loadAvatar_otherSize_decodedAgain() {
+        loadAvatar(AVATAR_SIZE);
+        runAll();
+
+        loadAvatar(OTHER_AVATAR_SIZE);
+        runAll();
+
+        assertThat(mUserAvatarCache.getDecodeCount()).isEqualTo(2);
+        assertThat(((BitmapDrawable) mAvatars.get(1)).getBitmap().getWidth())
+                .isEqualTo(OTHER_AVATAR_SIZE);
+    }
+
+    @Test
+    public void userInfoChanged_avatarDecodedAgain() {
+        loadAvatar(AVATAR_SIZE);
+        runAll();
+
+        getUserInfoReceiver().onReceive(mContext, new Intent(Intent.ACTION_USER_INFO_CHANGED)
+                .putExtra(Intent.EXTRA_USER_HANDLE, TEST_USER_ID));
+        loadAvatar(AVATAR_SIZE);
+        runAll();
+
+        assertThat(mAvatars).hasSize(2);
+        assertThat(mUserAvatarCache.getDecodeCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void userInfoChanged_listenerNotifiedAfterInvalidation() {
+        loadAvatar(AVATAR_SIZE);
+        runAll();
+        List<Integer> invalidatedUserIds = new ArrayList<>();
+        mUserAvatarCache.addOnAvatarInvalidatedListener(userId -> {
+            invalidatedUserIds.add(userId);
+            // The avatar is decoded again when the listener reloads it.
+            loadAvatar(AVATAR_SIZE);
+        });
+
+        getUserInfoReceiver().onReceive(mContext, new Intent(Intent.ACTION_USER_INFO_CHANGED)
+                .putExtra(Intent.EXTRA_USER_HANDLE, TEST_USER_ID));
+        runAll();
+
+        assertThat(invalidatedUserIds).containsExactly(TEST_USER_ID);
+        assertThat(mUserAvatarCache.getDecodeCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void removedListener_notNotified() {
+        List<Integer> invalidatedUserIds = new ArrayList<>();
+        UserAvatarCache.OnAvatarInvalidatedListener listener = invalidatedUserIds::add;
+        mUserAvatarCache.addOnAvatarInvalidatedListener(listener);
+        mUserAvatarCache.removeOnAvatarInvalidatedListener(listener);
+
+        mUserAvatarCache.invalidate(TEST_USER_ID);
+
+        assertThat(invalidatedUserIds).isEmpty();
+    }
+
+    @Test
+    public void invalidatedWhileDecoding_newAvatarDelivered() {
+        loadAvatar(AVATAR_SIZE);
+        mBackgroundExecutor.runAllReady();
+
+        mUserAvatarCache.invalidate(TEST_USER_ID);
+        mMainExecutor.runAllReady();
+        assertThat(mAvatars).isEmpty();
+        runAll();
+
+        assertThat(mAvatars).hasSize(1);
+        assertThat(mUserAvatarCache.getDecodeCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void loadAvatar_userRemoved_notDelivered() {
+        when(mUserManager.getUserInfo(TEST_USER_ID)).thenReturn(null);
+
+        loadAvatar(AVATAR_SIZE);
+        runAll();
+
+        assertThat(mAvatars).isEmpty();
+    }
+
+    private void loadAvatar(int sizePx) {
+        mUserAvatarCache.loadAvatar(TEST_USER_ID, sizePx, (userId, avatar) -> {
+            assertThat(userId).isEqualTo(TEST_USER_ID);
+            mAvatars.add(avatar);
+        });
+    }
+
+    private BroadcastReceiver getUserInfoReceiver() {
+        ArgumentCaptor<BroadcastReceiver> captor = ArgumentCaptor.forClass(BroadcastReceiver.class);
+        verify(mBroadcastDispatcher).registerReceiver(captor.capture(), any(), any(), any());
+        return captor.getValue();
+    }
+
+    private void runAll() {
+        mBackgroundExecutor.runAllReady();
+        mMainExecutor.runAllReady();
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.car.userswitcher;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.UserInfo;
+import android.os.UserManager;
+import android.testing.AndroidTestingRunner;
+import android.testing.TestableLooper;
+import android.view.View;
+import android.widget.TextView;
+
+import androidx.recyclerview.widget.GridLayoutManager;
+import androidx.test.filters.SmallTest;
+
+import com.android.systemui.R;
+import com.android.systemui.SysuiTestCase;
+import com.android.systemui.car.CarSystemUiTest;
+import com.android.systemui.util.concurrency.FakeExecutor;
+import com.android.systemui.util.time.FakeSystemClock;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@CarSystemUiTest
+@RunWith(AndroidTestingRunner.class)
+@TestableLooper.RunWithLooper
+@SmallTest
+public class UserGridRecyclerViewTest extends SysuiTestCase {
+    private static final int FIRST_USER_ID = 10;
+    private static final int USER_COUNT = 16;
+    private static final int RENAMED_USER_ID = FIRST_USER_ID + 5;
+    private static final int NUM_COLUMNS = 4;
+    private static final int GRID_SIZE_PX = 10_000;
+
+    private UserGridRecyclerView mUserGridView;
+    private FakeExecutor mBackgroundExecutor;
+    private FakeExecutor mMainExecutor;
+    private final List<UserInfo> mUsers = new ArrayList<>();
+
+    @Mock
+    private UserManager mUserManager;
+    @Mock
+    private UserAvatarCache mUserAvatarCache;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        for (int i = 0; i < USER_COUNT; i++) {
+            mUsers.add(createUser(FIRST_USER_ID + i, "user" + i));
+        }
+        when(mUserManager.getAliveUsers()).thenAnswer(invocation -> new ArrayList<>(mUsers));
+        mContext.addMockSystemService(Context.USER_SERVICE, mUserManager);
+
+        FakeSystemClock clock = new FakeSystemClock();
+        mBackgroundExecutor = new FakeExecutor(clock);
+        mMainExecutor = new FakeExecutor(clock);
+        mUserGridView = new UserGridRecyclerView(mContext, /* attrs= */ null);
+        mUserGridView.setLayoutManager(new GridLayoutManager(mContext, NUM_COLUMNS));
+        mUserGridView.setItemAnimator(null);
+        mUserGridView.setUserAvatarCache(mUserAvatarCache);
+        mUserGridView.setExecutors(mBackgroundExecutor, mMainExecutor);
+        mUserGridView.buildAdapter();
+        mUserGridView.onAttachedToWindow();
+    }
+
+    @Test
+    public void buildAdapter_usersPopulatedRightAway() {
+        verify(mUserManager).getAliveUsers();
+        assertThat(mBackgroundExecutor.numPending()).isEqualTo(0);
+        // The users, then the start guest and add user buttons.
+        assertThat(mUserGridView.getAdapter().getItemCount()).isEqualTo(USER_COUNT + 2);
+        assertThat(mUserGridView.getAdapter().hasStableIds()).isTrue();
+        assertThat(mUserGridView.getAdapter().getItemId(0)).isEqualTo(FIRST_USER_ID);
+    }
+
+    @Test
+    public void userRenamed_onlyItsPodRebound() {
+        runUpdate();
+        verify(mUserAvatarCache, times(USER_COUNT + 1)).loadAvatar(anyInt(), anyInt(), any());
+        clearInvocations(mUserAvatarCache);
+
+        mUsers.set(RENAMED_USER_ID - FIRST_USER_ID, createUser(RENAMED_USER_ID, "renamed"));
+        getAvatarInvalidatedListener().onAvatarInvalidated(RENAMED_USER_ID);
+        runUpdate();
+
+        verify(mUserAvatarCache, never()).invalidate(anyInt());
+        verify(mUserAvatarCache, times(1)).loadAvatar(anyInt(), anyInt(), any());
+        verify(mUserAvatarCache).loadAvatar(eq(RENAMED_USER_ID), anyInt(), any());
+        View pod = mUserGridView.findViewHolderForItemId(RENAMED_USER_ID).itemView;
+        assertThat(((TextView) pod.findViewById(R.id.user_name)).getText().toString())
+                .isEqualTo("renamed");
+    }
+
+    @Test
+    public void reattachedToWindow_avatarInvalidatedListenerAddedAgain() {
+        UserAvatarCache.OnAvatarInvalidatedListener listener = getAvatarInvalidatedListener();
+        mUserGridView.onFinishInflate();
+
+        mUserGridView.onDetachedFromWindow();
+        verify(mUserAvatarCache).removeOnAvatarInvalidatedListener(listener);
+        mUserGridView.onAttachedToWindow();
+
+        verify(mUserAvatarCache, times(2)).addOnAvatarInvalidatedListener(listener);
+    }
+
+    @Test
+    public void userAddedBroadcast_usersQueriedInBackground() {
+        mUsers.add(createUser(FIRST_USER_ID + USER_COUNT, "added"));
+
+        mUserGridView.getUserUpdateReceiver().onReceive(mContext,
+                new Intent(Intent.ACTION_USER_ADDED));
+        verify(mUserManager, times(1)).getAliveUsers();
+        runUpdate();
+
+        verify(mUserManager, times(2)).getAliveUsers();
+        assertThat(mUserGridView.getAdapter().getItemCount()).isEqualTo(USER_COUNT + 3);
+    }
+
+    @Test
+    public void repeatedBroadcasts_coalesced() {
+        runUpdate();
+
+        for (int i = 0; i < 5; i++) {
+            mUserGridView.getUserUpdateReceiver().onReceive(mContext,
+                    new Intent(Intent.ACTION_USER_ADDED));
+        }
+        runUpdate();
+
+        // The initial query, the first broadcast's and a single one for the other broadcasts.
+        verify(mUserManager, times(3)).getAliveUsers();
+    }
+
+    private UserAvatarCache.OnAvatarInvalidatedListener getAvatarInvalidatedListener() {
+        ArgumentCaptor<UserAvatarCache.OnAvatarInvalidatedListener> captor =
+                ArgumentCaptor.forClass(UserAvatarCache.OnAvatarInvalidatedListener.class);
+        verify(mUserAvatarCache).addOnAvatarInvalidatedListener(captor.capture());
+        return captor.getValue();
+    }
+
+    private static UserInfo createUser(int userId, String name) {
+        return new UserInfo(userId, name, UserInfo.FLAG_FULL);
+    }
+
+    // Runs the pending updates, then lays the grid out so that the changed pods are rebound.
+    private void runUpdate() {
+        while (mBackgroundExecutor.numPending() > 0 || mMainExecutor.numPending() > 0) {
+            mBackgroundExecutor.runAllReady();
+            mMainExecutor.runAllReady();
+        }
+        mUserGridView.measure(
+                View.MeasureSpec.makeMeasureSpec(GRID_SIZE_PX, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(GRID_SIZE_PX, View.MeasureSpec.EXACTLY));
+        mUserGridView.layout(0, 0, GRID_SIZE_PX, GRID_SIZE_PX);
+    }
+}
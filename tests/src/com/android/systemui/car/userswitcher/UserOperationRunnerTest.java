@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.car.userswitcher;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.testing.AndroidTestingRunner;
+import android.testing.TestableLooper;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.systemui.SysuiTestCase;
+import com.android.systemui.car.CarSystemUiTest;
+import com.android.systemui.util.concurrency.FakeExecutor;
+import com.android.systemui.util.time.FakeSystemClock;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@CarSystemUiTest
+@RunWith(AndroidTestingRunner.class)
+@TestableLooper.RunWithLooper
+@SmallTest
+public class UserOperationRunnerTest extends SysuiTestCase {
+    private static final String OPERATION = "addUser";
+    private static final long TIMEOUT_MS = 10_000;
+    private static final long CREATE_LATENCY_MS = 3_000;
+    private static final long SWITCH_LATENCY_MS = 1_500;
+
+    private UserOperationRunner mUserOperationRunner;
+    private FakeSystemClock mClock;
+    private FakeExecutor mBackgroundExecutor;
+    private FakeExecutor mMainExecutor;
+    private final List<String> mEvents = new ArrayList<>();
+    private final List<String> mRunStages = new ArrayList<>();
+
+    private final UserOperationRunner.Listener mListener = new UserOperationRunner.Listener() {
+        @Override
+        public void onStageCompleted(String stageName, long latencyMs) {
+            mEvents.add(stageName + "=" + latencyMs);
+        }
+
+        @Override
+        public void onCompleted() {
+            mEvents.add("completed");
+        }
+
+        @Override
+        public void onFailed(String stageName, int reason) {
+            mEvents.add("failed " + stageName + " " + reason);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        mClock = new FakeSystemClock();
+        mBackgroundExecutor = new FakeExecutor(mClock);
+        mMainExecutor = new FakeExecutor(mClock);
+        mUserOperationRunner = new UserOperationRunner(mBackgroundExecutor, mMainExecutor,
+                mClock);
+    }
+
+    @Test
+    public void start_stagesRunInBackgroundAndNotifiedOnMain() {
+        mUserOperationRunner.start(OPERATION, Arrays.asList(
+                stage("create", CREATE_LATENCY_MS, true),
+                stage("switch", SWITCH_LATENCY_MS, true)), TIMEOUT_MS, mListener);
+        assertThat(mRunStages).isEmpty();
+
+        mBackgroundExecutor.runAllReady();
+        assertThat(mRunStages).containsExactly("create", "switch").inOrder();
+        assertThat(mEvents).isEmpty();
+        mMainExecutor.runAllReady();
+
+        assertThat(mEvents).containsExactly("create=" + CREATE_LATENCY_MS,
+                "switch=" + SWITCH_LATENCY_MS, "completed").inOrder();
+        assertThat(dump()).contains(OPERATION + " completed in "
+                + (CREATE_LATENCY_MS + SWITCH_LATENCY_MS) + "ms create=" + CREATE_LATENCY_MS
+                + "ms switch=" + SWITCH_LATENCY_MS + "ms");
+    }
+
+    @Test
+    public void stageFails_nextStagesNotRun() {
+        mUserOperationRunner.start(OPERATION, Arrays.asList(
+                stage("create", CREATE_LATENCY_MS, false),
+                stage("switch", SWITCH_LATENCY_MS, true)), TIMEOUT_MS, mListener);
+        runAll();
+
+        assertThat(mRunStages).containsExactly("create");
+        assertThat(mEvents).containsExactly(
+                "failed create " + UserOperationRunner.FAILURE_STAGE_FAILED);
+    }
+
+    @Test
+    public void stageThrows_operationFails() {
+        mUserOperationRunner.start(OPERATION, Arrays.asList(
+                new UserOperationRunner.Stage("create", () -> {
+                    throw new IllegalStateException();
+                }),
+                stage("switch", SWITCH_LATENCY_MS, true)), TIMEOUT_MS, mListener);
+        runAll();
+
+        assertThat(mRunStages).isEmpty();
+        assertThat(mEvents).containsExactly(
+                "failed create " + UserOperationRunner.FAILURE_STAGE_FAILED);
+    }
+
+    @Test
+    public void timeout_operationFailsAndLaterResultsDropped() {
+        mUserOperationRunner.start(OPERATION, Arrays.asList(
+                stage("create", TIMEOUT_MS + 1, true),
+                stage("switch", SWITCH_LATENCY_MS, true)), TIMEOUT_MS, mListener);
+
+        mBackgroundExecutor.runNextReady();
+        mMainExecutor.runAllReady();
+        runAll();
+
+        assertThat(mRunStages).containsExactly("create");
+        assertThat(mEvents).containsExactly(
+                "failed create " + UserOperationRunner.FAILURE_TIMED_OUT);
+        assertThat(dump()).contains(OPERATION + " timed out in create");
+    }
+
+    @Test
+    public void cancel_nothingNotifiedAndNextStagesNotRun() {
+        UserOperationRunner.Operation operation = mUserOperationRunner.start(OPERATION,
+                Arrays.asList(stage("create", CREATE_LATENCY_MS, true),
+                        stage("switch", SWITCH_LATENCY_MS, true)), TIMEOUT_MS, mListener);
+
+        operation.cancel();
+        runAll();
+        mMainExecutor.advanceClockToLast();
+        mMainExecutor.runAllReady();
+
+        assertThat(operation.isFinished()).isTrue();
+        assertThat(mRunStages).isEmpty();
+        assertThat(mEvents).isEmpty();
+    }
+
+    @Test
+    public void deferredStage_backgroundExecutorFreeUntilDone() {
+        List<UserOperationRunner.StageCallback> callbacks = new ArrayList<>();
+        mUserOperationRunner.start(OPERATION, Arrays.asList(
+                stage("create", CREATE_LATENCY_MS, true),
+                new UserOperationRunner.Stage("switch", callbacks::add)), TIMEOUT_MS,
+                mListener);
+        runAll();
+
+        assertThat(callbacks).hasSize(1);
+        assertThat(mBackgroundExecutor.numPending()).isEqualTo(0);
+        assertThat(mEvents).containsExactly("create=" + CREATE_LATENCY_MS);
+
+        mClock.advanceTime(SWITCH_LATENCY_MS);
+        callbacks.get(0).onStageDone(true);
+        // Only the first result counts.
+        callbacks.get(0).onStageDone(false);
+        runAll();
+
+        assertThat(mEvents).containsExactly("create=" + CREATE_LATENCY_MS,
+                "switch=" + SWITCH_LATENCY_MS, "completed").inOrder();
+    }
+
+    // A stage taking the given time, recorded in mRunStages when it runs.
+    private UserOperationRunner.Stage stage(String name, long latencyMs, boolean success) {
+        return new UserOperationRunner.Stage(name, () -> {
+            mRunStages.add(name);
+            mClock.advanceTime(latencyMs);
+            return success;
+        });
+    }
+
+    private String dump() {
+        StringWriter writer = new StringWriter();
+        mUserOperationRunner.dump(/* fd= */ null, new PrintWriter(writer), new String[0]);
+        return writer.toString();
+    }
+
+    private void runAll() {
+        mBackgroundExecutor.runAllReady();
+        mMainExecutor.runAllReady();
+    }
+}
@@ -16,14 +16,24 @@
 
 package com.android.systemui.car.userswitcher;
 
+import static android.car.settings.CarSettings.Global.ENABLE_USER_SWITCH_DEVELOPER_MESSAGE;
+
+import static com.google.common.truth.Truth.assertThat;
+
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
-import android.content.Context;
+import android.content.pm.UserInfo;
+import android.os.RemoteException;
 import android.os.UserManager;
+import android.provider.Settings;
 import android.test.suitebuilder.annotation.SmallTest;
 import android.testing.AndroidTestingRunner;
 import android.testing.TestableLooper;
@@ -31,20 +41,27 @@ import android.testing.TestableResources;
 import android.view.IWindowManager;
 import android.view.LayoutInflater;
 import android.view.ViewGroup;
+import android.widget.TextView;
 
 import com.android.systemui.R;
 import com.android.systemui.SysuiTestCase;
 import com.android.systemui.car.CarSystemUiTest;
 import com.android.systemui.car.window.OverlayViewGlobalStateController;
+import com.android.systemui.dump.DumpManager;
 import com.android.systemui.util.concurrency.FakeExecutor;
 import com.android.systemui.util.time.FakeSystemClock;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+
 @CarSystemUiTest
 @RunWith(AndroidTestingRunner.class)
 @TestableLooper.RunWithLooper
@@ -52,31 +69,54 @@ import org.mockito.MockitoAnnotations;
 public class UserSwitchTransitionViewControllerTest extends SysuiTestCase {
     private static final int TEST_USER_1 = 100;
     private static final int TEST_USER_2 = 110;
+    private static final int TEST_USER_3 = 120;
+    private static final int TEST_USER_4 = 130;
+    private static final long UNLOCK_LATENCY_MS = 2_000;
+    private static final long HIDE_LATENCY_MS = 2_500;
 
     private UserSwitchTransitionViewController mCarUserSwitchingDialogController;
     private TestableResources mTestableResources;
+    private FakeSystemClock mClock;
     private FakeExecutor mExecutor;
+    private FakeExecutor mBackgroundExecutor;
+    private FakeExecutor mWindowManagerExecutor;
+    private ViewGroup mOverlayWindow;
     @Mock
     private OverlayViewGlobalStateController mOverlayViewGlobalStateController;
     @Mock
     private IWindowManager mWindowManagerService;
+    @Mock
+    private UserAvatarCache mUserAvatarCache;
+    @Mock
+    private UserManager mUserManager;
+    @Mock
+    private DumpManager mDumpManager;
 
     @Before
     public void setUp() {
         MockitoAnnotations.initMocks(this);
         mTestableResources = mContext.getOrCreateTestableResources();
-        mExecutor = new FakeExecutor(new FakeSystemClock());
+        mClock = new FakeSystemClock();
+        mExecutor = new FakeExecutor(mClock);
+        mBackgroundExecutor = new FakeExecutor(mClock);
+        mWindowManagerExecutor = new FakeExecutor(mClock);
         mCarUserSwitchingDialogController = new UserSwitchTransitionViewController(
                 mContext,
                 mTestableResources.getResources(),
                 mExecutor,
-                (UserManager) mContext.getSystemService(Context.USER_SERVICE),
+                mBackgroundExecutor,
+                mWindowManagerExecutor,
+                mClock,
+                mUserManager,
+                mUserAvatarCache,
                 mWindowManagerService,
+                mDumpManager,
                 mOverlayViewGlobalStateController
         );
 
-        mCarUserSwitchingDialogController.inflate((ViewGroup) LayoutInflater.from(mContext).inflate(
-                R.layout.sysui_overlay_window, /* root= */ null));
+        mOverlayWindow = (ViewGroup) LayoutInflater.from(mContext).inflate(
+                R.layout.sysui_overlay_window, /* root= */ null);
+        mCarUserSwitchingDialogController.inflate(mOverlayWindow);
     }
 
     @Test
@@ -89,6 +129,113 @@ public class UserSwitchTransitionViewControllerTest extends SysuiTestCase {
                 any());
     }
 
+    @Test
+    public void onHandleShow_newUserSelected_avatarLoadedFromCache() {
+        mCarUserSwitchingDialogController.handleShow(/* currentUserId= */ TEST_USER_1);
+        mExecutor.advanceClockToLast();
+        mExecutor.runAllReady();
+
+        verify(mUserAvatarCache).loadAvatar(eq(TEST_USER_1), anyInt(), any());
+    }
+
+    @Test
+    public void onHandleShow_newUserSelected_shownBeforeWindowManagerNotified()
+            throws RemoteException {
+        mCarUserSwitchingDialogController.handleShow(/* currentUserId= */ TEST_USER_1);
+        mExecutor.runAllReady();
+
+        verify(mOverlayViewGlobalStateController).showView(eq(mCarUserSwitchingDialogController),
+                any());
+        verify(mWindowManagerService, never()).setSwitchingUser(anyBoolean());
+
+        mWindowManagerExecutor.runAllReady();
+
+        InOrder inOrder = inOrder(mWindowManagerService);
+        inOrder.verify(mWindowManagerService).setSwitchingUser(true);
+        inOrder.verify(mWindowManagerService).lockNow(null);
+    }
+
+    @Test
+    public void onHandleShow_backgroundExecutorBusy_windowManagerNotified()
+            throws RemoteException {
+        // E.g. the switch stage of the add user operation, queued on the shared background
+        // executor when the new user is selected.
+        mBackgroundExecutor.execute(() -> {});
+
+        mCarUserSwitchingDialogController.handleShow(/* currentUserId= */ TEST_USER_1);
+        mExecutor.runAllReady();
+        mWindowManagerExecutor.runAllReady();
+
+        assertThat(mBackgroundExecutor.numPending()).isEqualTo(1);
+        verify(mWindowManagerService).setSwitchingUser(true);
+        verify(mWindowManagerService).lockNow(null);
+    }
+
+    @Test
+    public void onHandleShow_developerMessageEnabledAfterPrepare_developerMessageShown() {
+        mCarUserSwitchingDialogController.prepare();
+        runAllExecutors();
+        mCarUserSwitchingDialogController.handleShow(/* currentUserId= */ TEST_USER_1);
+        runAllExecutors();
+        mCarUserSwitchingDialogController.handleHide();
+        runAllExecutors();
+        Settings.Global.putString(mContext.getContentResolver(),
+                ENABLE_USER_SWITCH_DEVELOPER_MESSAGE, "true");
+
+        mCarUserSwitchingDialogController.handleShow(/* currentUserId= */ TEST_USER_2);
+        runAllExecutors();
+
+        TextView msgView = mOverlayWindow.findViewById(R.id.user_loading);
+        assertThat(msgView.getText().toString()).isEqualTo(mContext.getString(
+                R.string.car_loading_profile_developer_message, TEST_USER_1, TEST_USER_2));
+    }
+
+    @Test
+    public void prepare_inflatesViewAndPreRendersMostRecentlyLoggedInUsers() {
+        when(mUserManager.getAliveUsers()).thenReturn(Arrays.asList(
+                createUser(TEST_USER_1, /* lastLoggedInTime= */ 4),
+                createUser(TEST_USER_2, /* lastLoggedInTime= */ 3),
+                createUser(TEST_USER_3, /* lastLoggedInTime= */ 1),
+                createUser(TEST_USER_4, /* lastLoggedInTime= */ 2)));
+
+        mCarUserSwitchingDialogController.prepare();
+        mExecutor.runAllReady();
+        mBackgroundExecutor.runAllReady();
+        mExecutor.runAllReady();
+
+        verify(mOverlayViewGlobalStateController).inflateView(mCarUserSwitchingDialogController);
+        verify(mUserAvatarCache).loadAvatar(eq(TEST_USER_1), anyInt(), any());
+        verify(mUserAvatarCache).loadAvatar(eq(TEST_USER_2), anyInt(), any());
+        verify(mUserAvatarCache).loadAvatar(eq(TEST_USER_4), anyInt(), any());
+        verify(mUserAvatarCache, never()).loadAvatar(eq(TEST_USER_3), anyInt(), any());
+    }
+
+    @Test
+    public void dump_switchTimeline() {
+        mCarUserSwitchingDialogController.handleShow(/* currentUserId= */ TEST_USER_1);
+        mExecutor.runAllReady();
+        mClock.advanceTime(UNLOCK_LATENCY_MS);
+        mCarUserSwitchingDialogController.handleUserUnlocked(TEST_USER_1);
+        mExecutor.runAllReady();
+        mClock.advanceTime(HIDE_LATENCY_MS - UNLOCK_LATENCY_MS);
+        mCarUserSwitchingDialogController.handleHide();
+        mExecutor.runAllReady();
+
+        assertThat(dump()).contains("user=" + TEST_USER_1 + " visible=- unlocked=+"
+                + UNLOCK_LATENCY_MS + "ms hidden=+" + HIDE_LATENCY_MS + "ms\n");
+    }
+
+    @Test
+    public void dump_hiddenByTimeout() {
+        mCarUserSwitchingDialogController.handleShow(/* currentUserId= */ TEST_USER_1);
+        mExecutor.advanceClockToLast();
+        mExecutor.runAllReady();
+
+        assertThat(dump()).contains("hidden=+"
+                + mCarUserSwitchingDialogController.getWindowShownTimeoutMs()
+                + "ms (by timeout)");
+    }
+
     @Test
     public void onHandleShow_alreadyShowing_ignoresRequest() {
         mCarUserSwitchingDialogController.handleShow(/* currentUserId= */ TEST_USER_1);
@@ -178,4 +325,25 @@ public class UserSwitchTransitionViewControllerTest extends SysuiTestCase {
                     eq(mCarUserSwitchingDialogController), any());
         }, mCarUserSwitchingDialogController.getWindowShownTimeoutMs() + 10);
     }
+
+    private static UserInfo createUser(int userId, long lastLoggedInTime) {
+        UserInfo user = new UserInfo(userId, "user" + userId, UserInfo.FLAG_FULL);
+        user.lastLoggedInTime = lastLoggedInTime;
+        return user;
+    }
+
+    // Runs the ready work of the main and background executors until neither has any left.
+    private void runAllExecutors() {
+        int ran;
+        do {
+            ran = mExecutor.runAllReady() + mBackgroundExecutor.runAllReady();
+        } while (ran > 0);
+    }
+
+    private String dump() {
+        StringWriter writer = new StringWriter();
+        mCarUserSwitchingDialogController.dump(/* fd= */ null, new PrintWriter(writer),
+                new String[0]);
+        return writer.toString();
+    }
 }
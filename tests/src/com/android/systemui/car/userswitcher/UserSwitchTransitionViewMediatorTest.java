@@ -94,4 +94,22 @@ public class UserSwitchTransitionViewMediatorTest extends SysuiTestCase {
 
         verify(mUserSwitchTransitionViewController).handleHide();
     }
+
+    @Test
+    public void onUserLifecycleEvent_userUnlocked_callsHandleUserUnlocked() {
+        when(mUserLifecycleEvent.getEventType()).thenReturn(
+                CarUserManager.USER_LIFECYCLE_EVENT_TYPE_UNLOCKED);
+        when(mUserLifecycleEvent.getUserId()).thenReturn(TEST_USER);
+
+        mUserSwitchTransitionViewMediator.handleUserLifecycleEvent(mUserLifecycleEvent);
+
+        verify(mUserSwitchTransitionViewController).handleUserUnlocked(TEST_USER);
+    }
+
+    @Test
+    public void setupOverlayContentViewControllers_preparesTransitionView() {
+        mUserSwitchTransitionViewMediator.setupOverlayContentViewControllers();
+
+        verify(mUserSwitchTransitionViewController).prepare();
+    }
 }
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.car.volume;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+import android.testing.AndroidTestingRunner;
+import android.testing.TestableLooper;
+import android.widget.FrameLayout;
+import android.widget.ImageView;
+import android.widget.SeekBar;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.systemui.R;
+import com.android.systemui.SysuiTestCase;
+import com.android.systemui.car.CarSystemUiTest;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+@CarSystemUiTest
+@RunWith(AndroidTestingRunner.class)
+@TestableLooper.RunWithLooper
+@SmallTest
+public class CarVolumeItemAdapterTest extends SysuiTestCase {
+    private static final int GROUP_ID = 3;
+    private static final int MAX = 40;
+
+    private CarVolumeItemAdapter mAdapter;
+    private CarVolumeItem mItem;
+    private CarVolumeItem.CarVolumeItemViewHolder mViewHolder;
+
+    @Before
+    public void setUp() {
+        mItem = new CarVolumeItem();
+        mItem.setGroupId(GROUP_ID);
+        mItem.setMax(MAX);
+        mItem.setProgress(10);
+        mItem.setPrimaryIcon(new ColorDrawable());
+        List<CarVolumeItem> items = new ArrayList<>();
+        items.add(mItem);
+        mAdapter = new CarVolumeItemAdapter(mContext, items);
+        mViewHolder = mAdapter.onCreateViewHolder(new FrameLayout(mContext), /* viewType= */ 0);
+    }
+
+    @Test
+    public void getItemId_isGroupId() {
+        assertThat(mAdapter.hasStableIds()).isTrue();
+        assertThat(mAdapter.getItemId(/* position= */ 0)).isEqualTo(GROUP_ID);
+    }
+
+    @Test
+    public void onBindViewHolder_progressPayload_onlyProgressBound() {
+        mAdapter.onBindViewHolder(mViewHolder, /* position= */ 0);
+        ImageView primaryIcon = mViewHolder.itemView.findViewById(R.id.primary_icon);
+        Drawable boundIcon = primaryIcon.getDrawable();
+
+        mItem.setProgress(20);
+        mItem.setPrimaryIcon(new ColorDrawable());
+        mAdapter.onBindViewHolder(mViewHolder, /* position= */ 0,
+                Collections.singletonList(CarVolumeItemAdapter.PAYLOAD_PROGRESS));
+
+        SeekBar seekBar = mViewHolder.itemView.findViewById(R.id.volume_seek_bar);
+        assertThat(seekBar.getProgress()).isEqualTo(20);
+        assertThat(primaryIcon.getDrawable()).isSameInstanceAs(boundIcon);
+    }
+
+    @Test
+    public void onBindViewHolder_otherPayload_fullyBound() {
+        mAdapter.onBindViewHolder(mViewHolder, /* position= */ 0);
+        Drawable newIcon = new ColorDrawable();
+
+        mItem.setPrimaryIcon(newIcon);
+        mAdapter.onBindViewHolder(mViewHolder, /* position= */ 0,
+                Collections.singletonList(new Object()));
+
+        ImageView primaryIcon = mViewHolder.itemView.findViewById(R.id.primary_icon);
+        assertThat(primaryIcon.getDrawable()).isSameInstanceAs(newIcon);
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.car.volume;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.media.AudioAttributes;
+import android.testing.AndroidTestingRunner;
+import android.testing.TestableLooper;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.systemui.R;
+import com.android.systemui.SysuiTestCase;
+import com.android.systemui.car.CarSystemUiTest;
+import com.android.systemui.util.concurrency.FakeExecutor;
+import com.android.systemui.util.time.FakeSystemClock;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@CarSystemUiTest
+@RunWith(AndroidTestingRunner.class)
+@TestableLooper.RunWithLooper
+@SmallTest
+public class CarVolumeItemConfigTest extends SysuiTestCase {
+    // Aligned with AudioAttributes.USAGE_EMERGENCY, a system usage.
+    private static final int USAGE_EMERGENCY = 1000;
+    // Hidden usage which is not configured.
+    private static final int USAGE_VIRTUAL_SOURCE = 15;
+
+    private CarVolumeItemConfig mVolumeItemConfig;
+    private FakeExecutor mBackgroundExecutor;
+
+    @Before
+    public void setUp() {
+        mBackgroundExecutor = new FakeExecutor(new FakeSystemClock());
+        mVolumeItemConfig = new CarVolumeItemConfig(mContext.getResources(),
+                mBackgroundExecutor);
+    }
+
+    @Test
+    public void getTable_ranksFollowConfigurationOrder() {
+        CarVolumeItemConfig.Table table = mVolumeItemConfig.getTable();
+
+        assertThat(table.getRank(AudioAttributes.USAGE_UNKNOWN)).isEqualTo(0);
+        assertThat(table.getRank(AudioAttributes.USAGE_MEDIA)).isEqualTo(1);
+        assertThat(table.getRank(AudioAttributes.USAGE_ASSISTANCE_NAVIGATION_GUIDANCE))
+                .isEqualTo(2);
+        assertThat(table.getIcon(AudioAttributes.USAGE_MEDIA)).isEqualTo(R.drawable.car_ic_music);
+    }
+
+    @Test
+    public void getTable_systemUsage_configured() {
+        CarVolumeItemConfig.Table table = mVolumeItemConfig.getTable();
+
+        assertThat(table.getIcon(USAGE_EMERGENCY)).isEqualTo(R.drawable.ic_volume_alarm);
+        assertThat(table.getRank(USAGE_EMERGENCY))
+                .isLessThan(CarVolumeItemConfig.Table.NO_RANK);
+    }
+
+    @Test
+    public void getTable_usageNotConfigured_noRank() {
+        CarVolumeItemConfig.Table table = mVolumeItemConfig.getTable();
+
+        assertThat(table.getRank(USAGE_VIRTUAL_SOURCE))
+                .isEqualTo(CarVolumeItemConfig.Table.NO_RANK);
+        assertThat(table.getIcon(USAGE_VIRTUAL_SOURCE)).isEqualTo(0);
+        assertThat(table.getRank(/* usage= */ 5000)).isEqualTo(CarVolumeItemConfig.Table.NO_RANK);
+        assertThat(table.getTopRankedUsage(new int[] {USAGE_VIRTUAL_SOURCE})).isEqualTo(-1);
+    }
+
+    @Test
+    public void getTopRankedUsage_returnsUsageWithBestRank() {
+        CarVolumeItemConfig.Table table = mVolumeItemConfig.getTable();
+
+        assertThat(table.getTopRankedUsage(new int[] {
+                AudioAttributes.USAGE_GAME, AudioAttributes.USAGE_MEDIA,
+                USAGE_VIRTUAL_SOURCE})).isEqualTo(AudioAttributes.USAGE_MEDIA);
+    }
+
+    @Test
+    public void preload_parsedOnBackgroundExecutorOnce() {
+        mVolumeItemConfig.preload();
+        assertThat(mBackgroundExecutor.numPending()).isEqualTo(1);
+
+        mBackgroundExecutor.runAllReady();
+        CarVolumeItemConfig.Table table = mVolumeItemConfig.getTable();
+        mVolumeItemConfig.preload();
+
+        assertThat(mBackgroundExecutor.numPending()).isEqualTo(0);
+        assertThat(mVolumeItemConfig.getTable()).isSameInstanceAs(table);
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.car.volume;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.car.Car;
+import android.car.media.CarAudioManager;
+import android.media.AudioManager;
+import android.testing.AndroidTestingRunner;
+import android.testing.TestableLooper;
+import android.view.Choreographer;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.systemui.SysuiTestCase;
+import com.android.systemui.car.CarServiceProvider;
+import com.android.systemui.car.CarSystemUiTest;
+import com.android.systemui.util.concurrency.FakeExecutor;
+import com.android.systemui.util.time.FakeSystemClock;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@CarSystemUiTest
+@RunWith(AndroidTestingRunner.class)
+@TestableLooper.RunWithLooper
+@SmallTest
+public class CarVolumeStateCacheTest extends SysuiTestCase {
+    private static final int ZONE_ID = 0;
+    private static final int OTHER_ZONE_ID = 1;
+    private static final int GROUP_ID = 1;
+    private static final int GROUP_COUNT = 3;
+    private static final int KNOB_EVENT_INTERVAL_MS = 5;
+    private static final int KNOB_EVENT_COUNT = 200;
+    private static final int FRAME_INTERVAL_MS = 16;
+
+    private CarVolumeStateCache mVolumeStateCache;
+    private FakeSystemClock mClock;
+    private FakeExecutor mBackgroundExecutor;
+    private FakeExecutor mMainExecutor;
+    private Choreographer.FrameCallback mFrameCallback;
+    private CarAudioManager.CarVolumeCallback mVolumeCallback;
+    private int mKnobVolume;
+    private final List<Integer> mVolumes = new ArrayList<>();
+    private final List<Integer> mFlags = new ArrayList<>();
+    private final List<Integer> mOtherZoneVolumes = new ArrayList<>();
+
+    @Mock
+    private Car mCar;
+    @Mock
+    private CarAudioManager mCarAudioManager;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        when(mCar.isConnected()).thenReturn(true);
+        when(mCar.getCarManager(Car.AUDIO_SERVICE)).thenReturn(mCarAudioManager);
+        when(mCarAudioManager.getGroupVolume(ZONE_ID, GROUP_ID)).thenAnswer(i -> mKnobVolume);
+
+        mClock = new FakeSystemClock();
+        mBackgroundExecutor = new FakeExecutor(mClock);
+        mMainExecutor = new FakeExecutor(mClock);
+        mVolumeStateCache = new CarVolumeStateCache(new CarServiceProvider(mContext, mCar),
+                mBackgroundExecutor, mMainExecutor, callback -> mFrameCallback = callback);
+        mVolumeStateCache.setListener(ZONE_ID, GROUP_COUNT, (groupId, volume, flags) -> {
+            mVolumes.add(volume);
+            mFlags.add(flags);
+        });
+        mVolumeStateCache.connect();
+        mVolumeCallback = mVolumeStateCache.getVolumeCallback();
+    }
+
+    @Test
+    public void connect_volumeCallbackRegistered() {
+        verify(mCarAudioManager).registerCarVolumeCallback(mVolumeCallback);
+    }
+
+    @Test
+    public void knobStream_volumeReadAndDeliveredAtMostOncePerFrame() {
+        int frameCount = 0;
+        long nextFrameMs = mClock.uptimeMillis() + FRAME_INTERVAL_MS;
+        // One second of a knob turned up one step every 25ms, reporting at 200 Hz.
+        for (int i = 0; i < KNOB_EVENT_COUNT; i++) {
+            mKnobVolume = i / 5;
+            mVolumeCallback.onGroupVolumeChanged(ZONE_ID, GROUP_ID, /* flags= */ 0);
+            mClock.advanceTime(KNOB_EVENT_INTERVAL_MS);
+            if (mClock.uptimeMillis() >= nextFrameMs) {
+                nextFrameMs += FRAME_INTERVAL_MS;
+                runFrame();
+                frameCount++;
+            }
+        }
+        runFrame();
+        frameCount++;
+
+        assertThat(mVolumeStateCache.getEventCount()).isEqualTo(KNOB_EVENT_COUNT);
+        assertThat(mVolumeStateCache.getReadCount()).isAtMost(frameCount);
+        verify(mCarAudioManager, times(mVolumeStateCache.getReadCount()))
+                .getGroupVolume(ZONE_ID, GROUP_ID);
+        assertThat(mVolumes.size()).isAtMost(frameCount);
+        assertThat(mVolumes.size()).isEqualTo(mVolumeStateCache.getDeliveryCount());
+        // Each delivery is a new, higher volume, ending with the latest one.
+        for (int i = 1; i < mVolumes.size(); i++) {
+            assertThat(mVolumes.get(i)).isGreaterThan(mVolumes.get(i - 1));
+        }
+        assertThat(mVolumes.get(mVolumes.size() - 1)).isEqualTo((KNOB_EVENT_COUNT - 1) / 5);
+        assertThat(mVolumeStateCache.getGroupVolume(ZONE_ID, GROUP_ID))
+                .isEqualTo((KNOB_EVENT_COUNT - 1) / 5);
+    }
+
+    @Test
+    public void volumeUnchanged_notDelivered() {
+        mKnobVolume = 4;
+        mVolumeCallback.onGroupVolumeChanged(ZONE_ID, GROUP_ID, /* flags= */ 0);
+        runFrame();
+
+        mVolumeCallback.onGroupVolumeChanged(ZONE_ID, GROUP_ID, /* flags= */ 0);
+        runFrame();
+
+        assertThat(mVolumes).containsExactly(4);
+    }
+
+    @Test
+    public void showUiFlag_deliveredEvenIfVolumeUnchanged() {
+        mKnobVolume = 4;
+        mVolumeCallback.onGroupVolumeChanged(ZONE_ID, GROUP_ID, /* flags= */ 0);
+        runFrame();
+
+        mVolumeCallback.onGroupVolumeChanged(ZONE_ID, GROUP_ID, AudioManager.FLAG_SHOW_UI);
+        runFrame();
+
+        assertThat(mVolumes).containsExactly(4, 4).inOrder();
+        assertThat(mFlags).containsExactly(0, AudioManager.FLAG_SHOW_UI).inOrder();
+    }
+
+    @Test
+    public void zoneWithoutListener_droppedWithoutRead() {
+        mVolumeCallback.onGroupVolumeChanged(OTHER_ZONE_ID, GROUP_ID, AudioManager.FLAG_SHOW_UI);
+        runFrame();
+
+        assertThat(mVolumeStateCache.getDroppedEventCount()).isEqualTo(1);
+        verify(mCarAudioManager, never()).getGroupVolume(anyInt(), anyInt());
+        assertThat(mVolumes).isEmpty();
+    }
+
+    @Test
+    public void twoZones_changesRoutedToListenerOfTheirZone() {
+        when(mCarAudioManager.getGroupVolume(OTHER_ZONE_ID, GROUP_ID)).thenReturn(9);
+        mVolumeStateCache.setListener(OTHER_ZONE_ID, GROUP_COUNT,
+                (groupId, volume, flags) -> mOtherZoneVolumes.add(volume));
+
+        mVolumeCallback.onGroupVolumeChanged(OTHER_ZONE_ID, GROUP_ID, /* flags= */ 0);
+        runFrame();
+
+        assertThat(mOtherZoneVolumes).containsExactly(9);
+        assertThat(mVolumes).isEmpty();
+    }
+
+    @Test
+    public void setGroupVolume_latestVolumeWrittenOnBackgroundAndEchoNotDelivered() {
+        mVolumeStateCache.setGroupVolume(ZONE_ID, GROUP_ID, 5);
+        mVolumeStateCache.setGroupVolume(ZONE_ID, GROUP_ID, 6);
+        verify(mCarAudioManager, never()).setGroupVolume(anyInt(), anyInt(), anyInt(), anyInt());
+
+        mBackgroundExecutor.runAllReady();
+        mKnobVolume = 6;
+        mVolumeCallback.onGroupVolumeChanged(ZONE_ID, GROUP_ID, /* flags= */ 0);
+        runFrame();
+
+        verify(mCarAudioManager, times(1)).setGroupVolume(ZONE_ID, GROUP_ID, 6, /* flags= */ 0);
+        assertThat(mVolumeStateCache.getWriteCount()).isEqualTo(1);
+        assertThat(mVolumes).isEmpty();
+    }
+
+    @Test
+    public void readWhileWritePending_olderVolumeIgnored() {
+        mKnobVolume = 5;
+        mVolumeCallback.onGroupVolumeChanged(ZONE_ID, GROUP_ID, /* flags= */ 0);
+        mMainExecutor.runAllReady();
+        mFrameCallback.doFrame(/* frameTimeNanos= */ 0);
+
+        // The user drags the seek bar before the volume is read.
+        mVolumeStateCache.setGroupVolume(ZONE_ID, GROUP_ID, 8);
+        mBackgroundExecutor.runAllReady();
+        mMainExecutor.runAllReady();
+
+        assertThat(mVolumes).isEmpty();
+        assertThat(mVolumeStateCache.getGroupVolume(ZONE_ID, GROUP_ID)).isEqualTo(8);
+    }
+
+    // Runs the frame posted since the last one, with the reads and deliveries it triggers.
+    private void runFrame() {
+        mMainExecutor.runAllReady();
+        if (mFrameCallback != null) {
+            Choreographer.FrameCallback callback = mFrameCallback;
+            mFrameCallback = null;
+            callback.doFrame(/* frameTimeNanos= */ 0);
+        }
+        mBackgroundExecutor.runAllReady();
+        mMainExecutor.runAllReady();
+    }
+}
@@ -28,8 +28,10 @@ import android.animation.Animator;
 import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.Rect;
+import android.os.Debug;
 import android.testing.AndroidTestingRunner;
 import android.testing.TestableLooper;
+import android.view.Choreographer;
 import android.view.LayoutInflater;
 import android.view.MotionEvent;
 import android.view.View;
@@ -395,6 +397,170 @@ public class OverlayPanelViewControllerTest extends SysuiTestCase {
         verify(mOverlayViewGlobalStateController).inflateView(mOverlayPanelViewController);
     }
 
+    @Test
+    public void setViewClipBoundsOnNextFrame_severalPerFrame_appliesLatestOnce() {
+        mOverlayPanelViewController.inflate(mBaseLayout);
+        mockPanelWithSize(/* size= */ 50);
+
+        mOverlayPanelViewController.setViewClipBoundsOnNextFrame(10);
+        mOverlayPanelViewController.setViewClipBoundsOnNextFrame(20);
+        mOverlayPanelViewController.setViewClipBoundsOnNextFrame(30);
+
+        assertThat(mOverlayPanelViewController.mFrameCallbacksPosted).isEqualTo(1);
+        assertThat(mOverlayPanelViewController.mOnScrollHeights).isEmpty();
+
+        mOverlayPanelViewController.runFrame();
+
+        assertThat(mOverlayPanelViewController.mOnScrollHeights).containsExactly(30);
+        assertThat(mOverlayPanelViewController.getLayout().getClipBounds()).isEqualTo(
+                new Rect(0, 0, 50, 30));
+    }
+
+    @Test
+    public void setViewClipBoundsOnNextFrame_nextFrame_postsNewCallback() {
+        mOverlayPanelViewController.inflate(mBaseLayout);
+        mockPanelWithSize(/* size= */ 50);
+
+        mOverlayPanelViewController.setViewClipBoundsOnNextFrame(10);
+        mOverlayPanelViewController.runFrame();
+        mOverlayPanelViewController.setViewClipBoundsOnNextFrame(20);
+        mOverlayPanelViewController.runFrame();
+
+        assertThat(mOverlayPanelViewController.mFrameCallbacksPosted).isEqualTo(2);
+        assertThat(mOverlayPanelViewController.mOnScrollHeights).containsExactly(10, 20).inOrder();
+    }
+
+    @Test
+    public void animatePanel_pendingDragPosition_animatesFromLatestPosition() {
+        mOverlayPanelViewController.inflate(mBaseLayout);
+        int size = 50;
+        mockPanelWithSize(size);
+        mOverlayPanelViewController.setOverlayDirection(
+                OverlayPanelViewController.OVERLAY_FROM_TOP_BAR);
+        mOverlayPanelViewController.setViewClipBoundsOnNextFrame(20);
+
+        mOverlayPanelViewController.animatePanel(/* velocity= */ 0, /* isClosing= */ false);
+
+        ArgumentCaptor<Float> startValueCaptor = ArgumentCaptor.forClass(Float.class);
+        verify(mFlingAnimationUtils).apply(
+                any(Animator.class), startValueCaptor.capture(), anyFloat(), anyFloat());
+        assertThat(startValueCaptor.getValue().intValue()).isEqualTo(20);
+        // The pending position was consumed; the frame callback does not apply it again.
+        mOverlayPanelViewController.runFrame();
+        assertThat(mOverlayPanelViewController.mOnScrollHeights).containsExactly(20);
+    }
+
+    @Test
+    public void animateExpandPanel_hardwareLayerAnimationDisabled_clipsWithoutLayer() {
+        mOverlayPanelViewController.inflate(mBaseLayout);
+        int size = 50;
+        mockPanelWithSize(size);
+        mOverlayPanelViewController.getLayout().setClipBounds(new Rect(0, 0, size, 0));
+        mOverlayPanelViewController.setShouldAnimateExpandPanel(true);
+        when(mCarDeviceProvisionedController.isCurrentUserFullySetup()).thenReturn(true);
+
+        mOverlayPanelViewController.animateExpandPanel();
+
+        assertThat(mOverlayPanelViewController.getLayout().getLayerType()).isEqualTo(
+                View.LAYER_TYPE_NONE);
+        assertThat(mOverlayPanelViewController.getLayout().getTranslationY()).isEqualTo(0);
+    }
+
+    @Test
+    public void animateExpandPanel_hardwareLayerAnimation_fromCollapsed_slidesInLayer() {
+        mOverlayPanelViewController.inflate(mBaseLayout);
+        int size = 50;
+        mockPanelWithSize(size);
+        mOverlayPanelViewController.getLayout().setClipBounds(new Rect(0, 0, size, 0));
+        mOverlayPanelViewController.setShouldAnimateExpandPanel(true);
+        mOverlayPanelViewController.mUseHardwareLayerAnimation = true;
+        when(mCarDeviceProvisionedController.isCurrentUserFullySetup()).thenReturn(true);
+        mOverlayPanelViewController.setOverlayDirection(
+                OverlayPanelViewController.OVERLAY_FROM_TOP_BAR);
+
+        mOverlayPanelViewController.animateExpandPanel();
+
+        View layout = mOverlayPanelViewController.getLayout();
+        assertThat(layout.getLayerType()).isEqualTo(View.LAYER_TYPE_HARDWARE);
+        assertThat(layout.getTranslationY()).isEqualTo(-size);
+        assertThat(layout.getClipBounds()).isNull();
+        // The content is laid out in its expanded state before sliding in.
+        assertThat(mOverlayPanelViewController.mOnScrollHeights).containsExactly(size);
+    }
+
+    @Test
+    public void animateExpandPanel_hardwareLayerAnimation_onEnd_restoresLayerAndClipBounds() {
+        mOverlayPanelViewController.inflate(mBaseLayout);
+        int size = 50;
+        mockPanelWithSize(size);
+        mOverlayPanelViewController.getLayout().setClipBounds(new Rect(0, 0, size, 0));
+        mOverlayPanelViewController.setShouldAnimateExpandPanel(true);
+        mOverlayPanelViewController.mUseHardwareLayerAnimation = true;
+        when(mCarDeviceProvisionedController.isCurrentUserFullySetup()).thenReturn(true);
+        mOverlayPanelViewController.setOverlayDirection(
+                OverlayPanelViewController.OVERLAY_FROM_TOP_BAR);
+        mOverlayPanelViewController.animateExpandPanel();
+        ArgumentCaptor<Animator> animatorCaptor = ArgumentCaptor.forClass(Animator.class);
+        verify(mFlingAnimationUtils).apply(
+                animatorCaptor.capture(), anyFloat(), anyFloat(), anyFloat());
+
+        animatorCaptor.getValue().end();
+
+        View layout = mOverlayPanelViewController.getLayout();
+        assertThat(layout.getLayerType()).isEqualTo(View.LAYER_TYPE_NONE);
+        assertThat(layout.getTranslationY()).isEqualTo(0);
+        assertThat(layout.getClipBounds()).isEqualTo(new Rect(0, 0, size, size));
+        assertThat(mOverlayPanelViewController.isPanelExpanded()).isTrue();
+    }
+
+    @Test
+    public void animatePanel_hardwareLayerAnimation_partiallyDragged_keepsClipping() {
+        mOverlayPanelViewController.inflate(mBaseLayout);
+        int size = 50;
+        mockPanelWithSize(size);
+        mOverlayPanelViewController.getLayout().setClipBounds(new Rect(0, 0, size, 20));
+        mOverlayPanelViewController.mUseHardwareLayerAnimation = true;
+        mOverlayPanelViewController.setOverlayDirection(
+                OverlayPanelViewController.OVERLAY_FROM_TOP_BAR);
+
+        mOverlayPanelViewController.animatePanel(/* velocity= */ 0, /* isClosing= */ false);
+
+        View layout = mOverlayPanelViewController.getLayout();
+        assertThat(layout.getLayerType()).isEqualTo(View.LAYER_TYPE_HARDWARE);
+        assertThat(layout.getTranslationY()).isEqualTo(0);
+        assertThat(layout.getClipBounds()).isEqualTo(new Rect(0, 0, size, 20));
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void drag_120HzTouchStream_doesNotAllocatePerFrame() {
+        mOverlayPanelViewController.inflate(mBaseLayout);
+        int size = 500;
+        mockPanelWithSize(size);
+        mOverlayPanelViewController.mRecordScrollHeights = false;
+        // Warm up so that one-time allocations (e.g. the view's own clip bounds) are excluded.
+        simulateTouchStream(/* frames= */ 10, size);
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        int frames = 60;
+        simulateTouchStream(frames, size);
+        int allocations = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+
+        assertThat(allocations).isEqualTo(0);
+        assertThat(mOverlayPanelViewController.mOnScrollCount).isEqualTo(10 + frames);
+    }
+
+    // Two touch samples per 60 Hz frame, i.e. a 120 Hz touch stream.
+    private void simulateTouchStream(int frames, int size) {
+        for (int frame = 0; frame < frames; frame++) {
+            mOverlayPanelViewController.setViewClipBoundsOnNextFrame(frame % size);
+            mOverlayPanelViewController.setViewClipBoundsOnNextFrame((frame + 1) % size);
+            mOverlayPanelViewController.runFrame();
+        }
+    }
+
     private void mockPanelWithSize(int size) {
         mOverlayPanelViewController.getLayout().setLeftTopRightBottom(0, 0, size, size);
     }
@@ -409,6 +575,12 @@ public class OverlayPanelViewControllerTest extends SysuiTestCase {
         boolean mOnExpandAnimationEndCalled;
         boolean mOnOpenScrollStartEnd;
         List<Integer> mOnScrollHeights;
+        boolean mRecordScrollHeights = true;
+        boolean mUseHardwareLayerAnimation;
+        int mOnScrollCount;
+        int mFrameCallbacksPosted;
+        private Choreographer.FrameCallback mFrameCallback;
+        private long mFrameTimeNanos;
         private boolean mShouldAnimateCollapsePanel;
         private boolean mShouldAnimateExpandPanel;
         private boolean mShouldAllowClosingScroll;
@@ -479,7 +651,30 @@ public class OverlayPanelViewControllerTest extends SysuiTestCase {
 
         @Override
         protected void onScroll(int height) {
-            mOnScrollHeights.add(height);
+            mOnScrollCount++;
+            if (mRecordScrollHeights) {
+                mOnScrollHeights.add(height);
+            }
+        }
+
+        @Override
+        protected boolean shouldUseHardwareLayerAnimation() {
+            return mUseHardwareLayerAnimation;
+        }
+
+        @Override
+        void postFrameCallback(Choreographer.FrameCallback callback) {
+            mFrameCallbacksPosted++;
+            mFrameCallback = callback;
+        }
+
+        void runFrame() {
+            Choreographer.FrameCallback callback = mFrameCallback;
+            mFrameCallback = null;
+            mFrameTimeNanos += 16_666_667L;
+            if (callback != null) {
+                callback.doFrame(mFrameTimeNanos);
+            }
         }
 
         @Override
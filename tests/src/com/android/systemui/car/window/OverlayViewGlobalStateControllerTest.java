@@ -21,9 +21,13 @@ import static android.view.WindowInsets.Type.statusBars;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mockingDetails;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -47,8 +51,11 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.Invocation;
 
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 @CarSystemUiTest
 @RunWith(AndroidTestingRunner.class)
@@ -221,7 +228,7 @@ public class OverlayViewGlobalStateControllerTest extends SysuiTestCase {
 
         mOverlayViewGlobalStateController.showView(mOverlayViewController1, mRunnable);
 
-        assertThat(mOverlayViewGlobalStateController.mHighestZOrder).isEqualTo(
+        assertThat(mOverlayViewGlobalStateController.mZOrderIndex.getHighestVisible()).isEqualTo(
                 mOverlayViewController1);
     }
 
@@ -231,8 +238,8 @@ public class OverlayViewGlobalStateControllerTest extends SysuiTestCase {
 
         mOverlayViewGlobalStateController.showView(mOverlayViewController1, mRunnable);
 
-        assertThat(mOverlayViewGlobalStateController.mZOrderVisibleSortedMap.containsKey(
-                OVERLAY_VIEW_CONTROLLER_1_Z_ORDER)).isTrue();
+        assertThat(mOverlayViewGlobalStateController.mZOrderIndex.getVisibleZOrders())
+                .asList().contains(OVERLAY_VIEW_CONTROLLER_1_Z_ORDER);
     }
 
     @Test
@@ -252,7 +259,7 @@ public class OverlayViewGlobalStateControllerTest extends SysuiTestCase {
 
         mOverlayViewGlobalStateController.showView(mOverlayViewController2, mRunnable);
 
-        assertThat(mOverlayViewGlobalStateController.mHighestZOrder).isEqualTo(
+        assertThat(mOverlayViewGlobalStateController.mZOrderIndex.getHighestVisible()).isEqualTo(
                 mOverlayViewController2);
     }
 
@@ -336,9 +343,9 @@ public class OverlayViewGlobalStateControllerTest extends SysuiTestCase {
 
         mOverlayViewGlobalStateController.showView(mOverlayViewController2, mRunnable);
 
-        assertThat(mOverlayViewGlobalStateController.mZOrderVisibleSortedMap.keySet().toArray())
-                .isEqualTo(Arrays.asList(OVERLAY_VIEW_CONTROLLER_1_Z_ORDER,
-                        OVERLAY_VIEW_CONTROLLER_2_Z_ORDER).toArray());
+        assertThat(mOverlayViewGlobalStateController.mZOrderIndex.getVisibleZOrders())
+                .isEqualTo(new int[]{OVERLAY_VIEW_CONTROLLER_1_Z_ORDER,
+                        OVERLAY_VIEW_CONTROLLER_2_Z_ORDER});
     }
 
     @Test
@@ -372,7 +379,7 @@ public class OverlayViewGlobalStateControllerTest extends SysuiTestCase {
 
         mOverlayViewGlobalStateController.showView(mOverlayViewController1, mRunnable);
 
-        assertThat(mOverlayViewGlobalStateController.mHighestZOrder).isEqualTo(
+        assertThat(mOverlayViewGlobalStateController.mZOrderIndex.getHighestVisible()).isEqualTo(
                 mOverlayViewController2);
     }
 
@@ -456,9 +463,9 @@ public class OverlayViewGlobalStateControllerTest extends SysuiTestCase {
 
         mOverlayViewGlobalStateController.showView(mOverlayViewController1, mRunnable);
 
-        assertThat(mOverlayViewGlobalStateController.mZOrderVisibleSortedMap.keySet().toArray())
-                .isEqualTo(Arrays.asList(OVERLAY_VIEW_CONTROLLER_1_Z_ORDER,
-                        OVERLAY_VIEW_CONTROLLER_2_Z_ORDER).toArray());
+        assertThat(mOverlayViewGlobalStateController.mZOrderIndex.getVisibleZOrders())
+                .isEqualTo(new int[]{OVERLAY_VIEW_CONTROLLER_1_Z_ORDER,
+                        OVERLAY_VIEW_CONTROLLER_2_Z_ORDER});
     }
 
     @Test
@@ -546,7 +553,7 @@ public class OverlayViewGlobalStateControllerTest extends SysuiTestCase {
     @Test
     public void hideView_nothingShown_hideRunnableNotCalled() {
         when(mOverlayViewController2.isInflated()).thenReturn(true);
-        mOverlayViewGlobalStateController.mZOrderMap.clear();
+        mOverlayViewGlobalStateController.mZOrderIndex.clear();
 
         mOverlayViewGlobalStateController.hideView(mOverlayViewController2, mRunnable);
 
@@ -581,7 +588,7 @@ public class OverlayViewGlobalStateControllerTest extends SysuiTestCase {
 
         mOverlayViewGlobalStateController.hideView(mOverlayViewController1, mRunnable);
 
-        assertThat(mOverlayViewGlobalStateController.mHighestZOrder).isNull();
+        assertThat(mOverlayViewGlobalStateController.mZOrderIndex.getHighestVisible()).isNull();
     }
 
     @Test
@@ -591,7 +598,7 @@ public class OverlayViewGlobalStateControllerTest extends SysuiTestCase {
 
         mOverlayViewGlobalStateController.hideView(mOverlayViewController1, mRunnable);
 
-        assertThat(mOverlayViewGlobalStateController.mZOrderVisibleSortedMap.isEmpty()).isTrue();
+        assertThat(mOverlayViewGlobalStateController.mZOrderIndex.isEmpty()).isTrue();
     }
 
     @Test
@@ -601,8 +608,8 @@ public class OverlayViewGlobalStateControllerTest extends SysuiTestCase {
 
         mOverlayViewGlobalStateController.hideView(mOverlayViewController1, mRunnable);
 
-        assertThat(mOverlayViewGlobalStateController.mZOrderVisibleSortedMap.containsKey(
-                OVERLAY_VIEW_CONTROLLER_1_Z_ORDER)).isFalse();
+        assertThat(mOverlayViewGlobalStateController.mZOrderIndex.getVisibleZOrders())
+                .asList().doesNotContain(OVERLAY_VIEW_CONTROLLER_1_Z_ORDER);
     }
 
     @Test
@@ -614,7 +621,7 @@ public class OverlayViewGlobalStateControllerTest extends SysuiTestCase {
 
         mOverlayViewGlobalStateController.hideView(mOverlayViewController2, mRunnable);
 
-        assertThat(mOverlayViewGlobalStateController.mHighestZOrder).isEqualTo(
+        assertThat(mOverlayViewGlobalStateController.mZOrderIndex.getHighestVisible()).isEqualTo(
                 mOverlayViewController1);
     }
 
@@ -629,7 +636,7 @@ public class OverlayViewGlobalStateControllerTest extends SysuiTestCase {
 
         mOverlayViewGlobalStateController.hideView(mOverlayPanelViewController, mRunnable);
 
-        assertThat(mOverlayViewGlobalStateController.mHighestZOrder).isEqualTo(
+        assertThat(mOverlayViewGlobalStateController.mZOrderIndex.getHighestVisible()).isEqualTo(
                 mOverlayViewController2);
     }
 
@@ -720,7 +727,7 @@ public class OverlayViewGlobalStateControllerTest extends SysuiTestCase {
 
         mOverlayViewGlobalStateController.hideView(mOverlayViewController1, mRunnable);
 
-        assertThat(mOverlayViewGlobalStateController.mHighestZOrder).isEqualTo(
+        assertThat(mOverlayViewGlobalStateController.mZOrderIndex.getHighestVisible()).isEqualTo(
                 mOverlayViewController2);
     }
 
@@ -864,7 +871,7 @@ public class OverlayViewGlobalStateControllerTest extends SysuiTestCase {
 
         mOverlayViewGlobalStateController.setOccluded(true);
 
-        assertThat(mOverlayViewGlobalStateController.mZOrderVisibleSortedMap.containsValue(
+        assertThat(mOverlayViewGlobalStateController.mZOrderIndex.isVisible(
                 mOverlayViewController1)).isFalse();
     }
 
@@ -876,7 +883,7 @@ public class OverlayViewGlobalStateControllerTest extends SysuiTestCase {
 
         mOverlayViewGlobalStateController.setOccluded(true);
 
-        assertThat(mOverlayViewGlobalStateController.mZOrderVisibleSortedMap.containsValue(
+        assertThat(mOverlayViewGlobalStateController.mZOrderIndex.isVisible(
                 mOverlayViewController1)).isTrue();
     }
 
@@ -890,7 +897,7 @@ public class OverlayViewGlobalStateControllerTest extends SysuiTestCase {
         mOverlayViewGlobalStateController.hideView(mOverlayViewController1, /* runnable= */ null);
         mOverlayViewGlobalStateController.setOccluded(false);
 
-        assertThat(mOverlayViewGlobalStateController.mZOrderVisibleSortedMap.containsValue(
+        assertThat(mOverlayViewGlobalStateController.mZOrderIndex.isVisible(
                 mOverlayViewController1)).isFalse();
     }
 
@@ -902,7 +909,7 @@ public class OverlayViewGlobalStateControllerTest extends SysuiTestCase {
         mOverlayViewGlobalStateController.setOccluded(true);
         setOverlayViewControllerAsShowing(mOverlayViewController1);
 
-        assertThat(mOverlayViewGlobalStateController.mZOrderVisibleSortedMap.containsValue(
+        assertThat(mOverlayViewGlobalStateController.mZOrderIndex.isVisible(
                 mOverlayViewController1)).isTrue();
     }
 
@@ -914,7 +921,7 @@ public class OverlayViewGlobalStateControllerTest extends SysuiTestCase {
         mOverlayViewGlobalStateController.setOccluded(true);
         setOverlayViewControllerAsShowing(mOverlayViewController1);
 
-        assertThat(mOverlayViewGlobalStateController.mZOrderVisibleSortedMap.containsValue(
+        assertThat(mOverlayViewGlobalStateController.mZOrderIndex.isVisible(
                 mOverlayViewController1)).isFalse();
     }
 
@@ -927,7 +934,7 @@ public class OverlayViewGlobalStateControllerTest extends SysuiTestCase {
 
         mOverlayViewGlobalStateController.setOccluded(false);
 
-        assertThat(mOverlayViewGlobalStateController.mZOrderVisibleSortedMap.containsValue(
+        assertThat(mOverlayViewGlobalStateController.mZOrderIndex.isVisible(
                 mOverlayViewController1)).isTrue();
     }
 
@@ -1008,6 +1015,193 @@ public class OverlayViewGlobalStateControllerTest extends SysuiTestCase {
         verify(mSystemUIOverlayWindowController, never()).setFitInsetsTypes(insetTypesToFit);
     }
 
+    @Test
+    public void transaction_showTwoViews_windowStateAppliedOnceOnCommit() {
+        setupOverlayViewController1();
+        setupOverlayViewController2();
+
+        mOverlayViewGlobalStateController.beginTransaction();
+        mOverlayViewGlobalStateController.showView(mOverlayViewController1, mRunnable);
+        mOverlayViewGlobalStateController.showView(mOverlayViewController2, mRunnable);
+
+        verify(mSystemUIOverlayWindowController, never()).setWindowFocusable(anyBoolean());
+        verify(mWindowInsetsController, never()).show(anyInt());
+
+        mOverlayViewGlobalStateController.commitTransaction();
+
+        verify(mSystemUIOverlayWindowController).setWindowFocusable(anyBoolean());
+        verify(mSystemUIOverlayWindowController).setFitInsetsTypes(anyInt());
+        verify(mWindowInsetsController).show(navigationBars());
+        verify(mWindowInsetsController).show(statusBars());
+        verify(mSystemUIOverlayWindowController).beginBatchUpdate();
+        verify(mSystemUIOverlayWindowController).endBatchUpdate();
+    }
+
+    @Test
+    public void transaction_nested_windowStateAppliedOnOutermostCommit() {
+        setupOverlayViewController1();
+
+        mOverlayViewGlobalStateController.beginTransaction();
+        mOverlayViewGlobalStateController.beginTransaction();
+        mOverlayViewGlobalStateController.showView(mOverlayViewController1, mRunnable);
+        mOverlayViewGlobalStateController.commitTransaction();
+
+        verify(mSystemUIOverlayWindowController, never()).setWindowFocusable(anyBoolean());
+
+        mOverlayViewGlobalStateController.commitTransaction();
+
+        verify(mSystemUIOverlayWindowController).setWindowFocusable(anyBoolean());
+    }
+
+    @Test
+    public void transaction_hideOnlyViewThenShowAnother_windowNotCollapsed() {
+        setupOverlayViewController1();
+        setOverlayViewControllerAsShowing(mOverlayViewController1);
+        setupOverlayViewController2();
+
+        mOverlayViewGlobalStateController.beginTransaction();
+        mOverlayViewGlobalStateController.hideView(mOverlayViewController1, mRunnable);
+        mOverlayViewGlobalStateController.showView(mOverlayViewController2, mRunnable);
+        mOverlayViewGlobalStateController.commitTransaction();
+
+        verify(mSystemUIOverlayWindowController, never()).setWindowVisible(false);
+        assertThat(mOverlayViewGlobalStateController.mZOrderIndex.getHighestVisible()).isEqualTo(
+                mOverlayViewController2);
+    }
+
+    @Test
+    public void transaction_noViewsChanged_windowStateNotApplied() {
+        mOverlayViewGlobalStateController.beginTransaction();
+        mOverlayViewGlobalStateController.commitTransaction();
+
+        verify(mSystemUIOverlayWindowController, never()).setWindowFocusable(anyBoolean());
+        verify(mSystemUIOverlayWindowController).endBatchUpdate();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void commitTransaction_withoutBegin_throws() {
+        mOverlayViewGlobalStateController.commitTransaction();
+    }
+
+    @Test
+    public void transaction_showAndHideViews_finalWindowStateMatchesEagerUpdates() {
+        setupViewControllersForStateComparison();
+
+        runShowHideSequence();
+        Map<String, String> eagerState = recordFinalWindowState();
+
+        createControllerWithFreshWindowMocks();
+        mOverlayViewGlobalStateController.beginTransaction();
+        runShowHideSequence();
+        mOverlayViewGlobalStateController.commitTransaction();
+        Map<String, String> batchedState = recordFinalWindowState();
+
+        assertThat(batchedState).isEqualTo(eagerState);
+    }
+
+    @Test
+    public void transaction_hideAllViews_finalWindowStateMatchesEagerUpdates() {
+        setupViewControllersForStateComparison();
+
+        runShowThenHideAllSequence();
+        Map<String, String> eagerState = recordFinalWindowState();
+
+        createControllerWithFreshWindowMocks();
+        mOverlayViewGlobalStateController.beginTransaction();
+        runShowThenHideAllSequence();
+        mOverlayViewGlobalStateController.commitTransaction();
+        Map<String, String> batchedState = recordFinalWindowState();
+
+        assertThat(batchedState).isEqualTo(eagerState);
+    }
+
+    @Test
+    public void setOccluded_multipleViewsHidden_windowStateAppliedOnce() {
+        setupOverlayViewController1();
+        setOverlayViewControllerAsShowing(mOverlayViewController1);
+        setupOverlayViewController2();
+        setOverlayViewControllerAsShowing(mOverlayViewController2);
+        reset(mWindowInsetsController);
+
+        mOverlayViewGlobalStateController.setOccluded(true);
+
+        verify(mSystemUIOverlayWindowController, times(1)).setWindowFocusable(anyBoolean());
+        verify(mWindowInsetsController, times(1)).show(navigationBars());
+        verify(mSystemUIOverlayWindowController).setWindowVisible(false);
+    }
+
+    @Test
+    public void setOccluded_hidingViewThrows_transactionCommitted() {
+        setupOverlayViewController1();
+        setOverlayViewControllerAsShowing(mOverlayViewController1);
+        when(mOverlayViewController1.shouldShowWhenOccluded()).thenThrow(
+                new IllegalStateException());
+
+        try {
+            mOverlayViewGlobalStateController.setOccluded(true);
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+
+        verify(mSystemUIOverlayWindowController).endBatchUpdate();
+    }
+
+    private void setupViewControllersForStateComparison() {
+        setupOverlayViewController1();
+        setupOverlayViewController2();
+        setupOverlayPanelViewController();
+        when(mOverlayViewController1.shouldFocusWindow()).thenReturn(true);
+        when(mOverlayViewController1.shouldShowStatusBarInsets()).thenReturn(true);
+        when(mOverlayViewController1.getInsetTypesToFit()).thenReturn(navigationBars());
+        when(mOverlayViewController2.shouldFocusWindow()).thenReturn(true);
+        when(mOverlayViewController2.shouldUseStableInsets()).thenReturn(true);
+        when(mOverlayViewController2.getInsetSidesToFit()).thenReturn(WindowInsets.Side.LEFT);
+        when(mOverlayPanelViewController.shouldShowNavigationBarInsets()).thenReturn(true);
+    }
+
+    private void runShowHideSequence() {
+        mOverlayViewGlobalStateController.showView(mOverlayViewController1, mRunnable);
+        mOverlayViewGlobalStateController.showView(mOverlayPanelViewController);
+        mOverlayViewGlobalStateController.showView(mOverlayViewController2, mRunnable);
+        mOverlayViewGlobalStateController.hideView(mOverlayPanelViewController);
+    }
+
+    private void runShowThenHideAllSequence() {
+        mOverlayViewGlobalStateController.showView(mOverlayViewController1, mRunnable);
+        mOverlayViewGlobalStateController.showView(mOverlayViewController2, mRunnable);
+        mOverlayViewGlobalStateController.hideView(mOverlayViewController2, mRunnable);
+        mOverlayViewGlobalStateController.hideView(mOverlayViewController1, mRunnable);
+    }
+
+    private void createControllerWithFreshWindowMocks() {
+        reset(mSystemUIOverlayWindowController, mWindowInsetsController);
+        when(mSystemUIOverlayWindowController.getBaseLayout()).thenReturn(mBaseLayout);
+        mOverlayViewGlobalStateController = new OverlayViewGlobalStateController(
+                mSystemUIOverlayWindowController);
+    }
+
+    /**
+     * Returns the last value passed to each window setter and the last requested visibility of
+     * each inset type, together with the resulting z-order state.
+     */
+    private Map<String, String> recordFinalWindowState() {
+        Map<String, String> state = new HashMap<>();
+        for (Invocation invocation :
+                mockingDetails(mSystemUIOverlayWindowController).getInvocations()) {
+            state.put(invocation.getMethod().getName(),
+                    Arrays.toString(invocation.getArguments()));
+        }
+        for (Invocation invocation : mockingDetails(mWindowInsetsController).getInvocations()) {
+            state.put("insets" + Arrays.toString(invocation.getArguments()),
+                    invocation.getMethod().getName());
+        }
+        state.put("highestZOrder",
+                String.valueOf(mOverlayViewGlobalStateController.mZOrderIndex.getHighestVisible()));
+        state.put("visibleViews", Arrays.toString(
+                mOverlayViewGlobalStateController.mZOrderIndex.getVisibleZOrders()));
+        return state;
+    }
+
     private void setupOverlayViewController1() {
         setupOverlayViewController(mOverlayViewController1, R.id.overlay_view_controller_stub_1,
                 R.id.overlay_view_controller_1);
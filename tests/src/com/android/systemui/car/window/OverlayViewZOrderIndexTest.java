@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.car.window;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.testing.AndroidTestingRunner;
+import android.testing.TestableLooper;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.systemui.SysuiTestCase;
+import com.android.systemui.car.CarSystemUiTest;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+@CarSystemUiTest
+@RunWith(AndroidTestingRunner.class)
+@TestableLooper.RunWithLooper
+@SmallTest
+public class OverlayViewZOrderIndexTest extends SysuiTestCase {
+
+    private FrameLayout mBaseLayout;
+    private View mLayout1;
+    private View mLayout2;
+    private View mLayout3;
+    private OverlayViewZOrderIndex mZOrderIndex;
+
+    @Mock
+    private OverlayViewController mController1;
+    @Mock
+    private OverlayViewController mController2;
+    @Mock
+    private OverlayViewController mController3;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(/* testClass= */ this);
+
+        mBaseLayout = new FrameLayout(mContext);
+        mLayout1 = new View(mContext);
+        mLayout2 = new View(mContext);
+        mLayout3 = new View(mContext);
+        mBaseLayout.addView(mLayout1);
+        mBaseLayout.addView(mLayout2);
+        mBaseLayout.addView(mLayout3);
+        when(mController1.getLayout()).thenReturn(mLayout1);
+        when(mController2.getLayout()).thenReturn(mLayout2);
+        when(mController3.getLayout()).thenReturn(mLayout3);
+
+        mZOrderIndex = new OverlayViewZOrderIndex(mBaseLayout);
+    }
+
+    @Test
+    public void show_outOfOrder_highestVisibleIsTopMostLayout() {
+        mZOrderIndex.show(mController3);
+        mZOrderIndex.show(mController1);
+        mZOrderIndex.show(mController2);
+
+        assertThat(mZOrderIndex.getHighestVisible()).isEqualTo(mController3);
+        assertThat(mZOrderIndex.getVisibleZOrders()).isEqualTo(new int[]{0, 1, 2});
+    }
+
+    @Test
+    public void hide_highestVisible_nextHighestBecomesHighest() {
+        mZOrderIndex.show(mController1);
+        mZOrderIndex.show(mController3);
+
+        mZOrderIndex.hide(mController3);
+
+        assertThat(mZOrderIndex.getHighestVisible()).isEqualTo(mController1);
+        assertThat(mZOrderIndex.isVisible(mController3)).isFalse();
+        assertThat(mZOrderIndex.contains(mController3)).isTrue();
+    }
+
+    @Test
+    public void hide_allVisible_isEmpty() {
+        mZOrderIndex.show(mController1);
+        mZOrderIndex.show(mController2);
+
+        mZOrderIndex.hide(mController2);
+        mZOrderIndex.hide(mController1);
+
+        assertThat(mZOrderIndex.isEmpty()).isTrue();
+        assertThat(mZOrderIndex.getHighestVisible()).isNull();
+    }
+
+    @Test
+    public void hide_neverShown_ignored() {
+        mZOrderIndex.show(mController1);
+
+        mZOrderIndex.hide(mController2);
+
+        assertThat(mZOrderIndex.contains(mController2)).isFalse();
+        assertThat(mZOrderIndex.getHighestVisible()).isEqualTo(mController1);
+    }
+
+    @Test
+    public void baseLayoutChildrenReordered_zOrdersRebuilt() {
+        mZOrderIndex.show(mController1);
+        mZOrderIndex.show(mController3);
+
+        // Move the bottom-most layout to the top.
+        mBaseLayout.removeView(mLayout1);
+        mBaseLayout.addView(mLayout1);
+        mZOrderIndex.onBaseLayoutChanged();
+
+        assertThat(mZOrderIndex.getHighestVisible()).isEqualTo(mController1);
+        assertThat(mZOrderIndex.getZOrder(mController3)).isEqualTo(1);
+        assertThat(mZOrderIndex.getZOrder(mController1)).isEqualTo(2);
+    }
+
+    @Test
+    public void baseLayoutChildInsertedBelow_zOrdersShifted() {
+        mZOrderIndex.show(mController2);
+
+        mBaseLayout.addView(new View(mContext), /* index= */ 0);
+        mZOrderIndex.onBaseLayoutChanged();
+
+        assertThat(mZOrderIndex.getZOrder(mController2)).isEqualTo(2);
+    }
+
+    @Test
+    public void showAfterReorder_hiddenControllersKeepVisibility() {
+        mZOrderIndex.show(mController2);
+        mZOrderIndex.show(mController3);
+        mZOrderIndex.hide(mController3);
+        mBaseLayout.removeView(mLayout2);
+        mBaseLayout.addView(mLayout2);
+        mZOrderIndex.onBaseLayoutChanged();
+
+        mZOrderIndex.show(mController1);
+
+        assertThat(mZOrderIndex.isVisible(mController2)).isTrue();
+        assertThat(mZOrderIndex.isVisible(mController3)).isFalse();
+        assertThat(mZOrderIndex.getHighestVisible()).isEqualTo(mController2);
+    }
+
+    @Test
+    public void constructor_existingHierarchyChangeListenerKept() {
+        ViewGroup baseLayout = new FrameLayout(mContext);
+        ViewGroup.OnHierarchyChangeListener listener =
+                mock(ViewGroup.OnHierarchyChangeListener.class);
+        baseLayout.setOnHierarchyChangeListener(listener);
+        new OverlayViewZOrderIndex(baseLayout);
+
+        View child = new View(mContext);
+        baseLayout.addView(child);
+
+        verify(listener).onChildViewAdded(baseLayout, child);
+    }
+
+    @Test
+    public void show_moreControllersThanInitialCapacity_allTracked() {
+        OverlayViewController[] controllers = new OverlayViewController[20];
+        for (int i = 0; i < controllers.length; i++) {
+            View layout = new View(mContext);
+            mBaseLayout.addView(layout);
+            controllers[i] = mock(OverlayViewController.class);
+            when(controllers[i].getLayout()).thenReturn(layout);
+        }
+        mZOrderIndex.onBaseLayoutChanged();
+
+        for (int i = controllers.length - 1; i >= 0; i--) {
+            mZOrderIndex.show(controllers[i]);
+        }
+
+        assertThat(mZOrderIndex.getHighestVisible()).isEqualTo(
+                controllers[controllers.length - 1]);
+        assertThat(mZOrderIndex.getVisibleZOrders()).hasLength(controllers.length);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.car.window;
+
+import static android.view.WindowInsets.Type.navigationBars;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.testing.AndroidTestingRunner;
+import android.testing.TestableLooper;
+import android.view.WindowInsets;
+import android.view.WindowManager;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.systemui.SysuiTestCase;
+import com.android.systemui.car.CarSystemUiTest;
+import com.android.systemui.statusbar.policy.ConfigurationController;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+@CarSystemUiTest
+@RunWith(AndroidTestingRunner.class)
+@TestableLooper.RunWithLooper
+@SmallTest
+public class SystemUIOverlayWindowControllerTest extends SysuiTestCase {
+
+    private SystemUIOverlayWindowController mSystemUIOverlayWindowController;
+
+    @Mock
+    private WindowManager mWindowManager;
+    @Mock
+    private ConfigurationController mConfigurationController;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(/* testClass= */ this);
+
+        mSystemUIOverlayWindowController = new SystemUIOverlayWindowController(mContext,
+                mWindowManager, mConfigurationController);
+        mSystemUIOverlayWindowController.attach();
+        reset(mWindowManager);
+    }
+
+    @Test
+    public void setters_noBatch_eachChangeUpdatesLayout() {
+        mSystemUIOverlayWindowController.setWindowFocusable(true);
+        mSystemUIOverlayWindowController.setFitInsetsTypes(navigationBars());
+        mSystemUIOverlayWindowController.setFitInsetsSides(WindowInsets.Side.LEFT);
+
+        verify(mWindowManager, times(3)).updateViewLayout(any(), any());
+    }
+
+    @Test
+    public void setters_inBatch_layoutUpdatedOnceOnEnd() {
+        mSystemUIOverlayWindowController.beginBatchUpdate();
+        mSystemUIOverlayWindowController.setWindowFocusable(true);
+        mSystemUIOverlayWindowController.setFitInsetsTypes(navigationBars());
+        mSystemUIOverlayWindowController.setFitInsetsSides(WindowInsets.Side.LEFT);
+
+        verify(mWindowManager, never()).updateViewLayout(any(), any());
+
+        mSystemUIOverlayWindowController.endBatchUpdate();
+
+        verify(mWindowManager, times(1)).updateViewLayout(any(), any());
+    }
+
+    @Test
+    public void setters_nestedBatch_layoutUpdatedOnOutermostEnd() {
+        mSystemUIOverlayWindowController.beginBatchUpdate();
+        mSystemUIOverlayWindowController.beginBatchUpdate();
+        mSystemUIOverlayWindowController.setWindowFocusable(true);
+        mSystemUIOverlayWindowController.endBatchUpdate();
+
+        verify(mWindowManager, never()).updateViewLayout(any(), any());
+
+        mSystemUIOverlayWindowController.endBatchUpdate();
+
+        verify(mWindowManager, times(1)).updateViewLayout(any(), any());
+    }
+
+    @Test
+    public void setters_inBatch_changesReverted_layoutNotUpdated() {
+        mSystemUIOverlayWindowController.beginBatchUpdate();
+        mSystemUIOverlayWindowController.setWindowFocusable(true);
+        mSystemUIOverlayWindowController.setWindowFocusable(false);
+        mSystemUIOverlayWindowController.endBatchUpdate();
+
+        verify(mWindowManager, never()).updateViewLayout(any(), any());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void endBatchUpdate_withoutBegin_throws() {
+        mSystemUIOverlayWindowController.endBatchUpdate();
+    }
+}